@@ -0,0 +1,108 @@
+package com.example.qr_indoornav;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import androidx.camera.core.ImageProxy;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.android.OpenCVLoader;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link FrameIngest} on a 640x480 frame (CameraX's default analysis size) with padded rows:
+ * the luma comes out upright and in reused buffers, rotated 90 degrees as in portrait or viewing
+ * the Y plane in place.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FrameIngestTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    private static final int ROW_STRIDE = 704; // Rows padded to a 64-byte multiple, as on many devices
+    private static final int ROTATION = 90;
+
+    @BeforeClass
+    public static void loadOpenCv() {
+        assertTrue(OpenCVLoader.initDebug());
+    }
+
+    @Test
+    public void lumaIsTheRotatedYPlane() {
+        byte[] luma = packedLuma();
+        Mat expected = new Mat(HEIGHT, WIDTH, CvType.CV_8UC1);
+        expected.put(0, 0, luma);
+        Core.rotate(expected, expected, Core.ROTATE_90_CLOCKWISE);
+
+        FrameIngest ingest = new FrameIngest();
+        ImageProxy.PlaneProxy yPlane = paddedYPlane(luma);
+        Mat gray = ingest.toGray(WIDTH, HEIGHT, yPlane, ROTATION);
+        long dataAddr = gray.dataAddr();
+        assertEquals(0, Core.norm(expected, gray, Core.NORM_INF), 0);
+        assertEquals("Luma buffer reallocated", dataAddr, ingest.toGray(WIDTH, HEIGHT, yPlane, ROTATION).dataAddr());
+
+        // Unrotated frames are the Y plane itself, padding skipped through the Mat step.
+        Mat upright = ingest.toGray(WIDTH, HEIGHT, yPlane, 0);
+        assertEquals(ROW_STRIDE, upright.step1());
+        Core.rotate(expected, expected, Core.ROTATE_90_COUNTERCLOCKWISE);
+        assertEquals(0, Core.norm(expected, upright, Core.NORM_INF), 0);
+
+        expected.release();
+        ingest.release();
+    }
+
+    /** A tightly packed test image: a diagonal gradient. */
+    private static byte[] packedLuma() {
+        byte[] luma = new byte[WIDTH * HEIGHT];
+        for (int row = 0; row < HEIGHT; row++) {
+            for (int col = 0; col < WIDTH; col++) {
+                luma[row * WIDTH + col] = (byte) ((row + col) & 0xff);
+            }
+        }
+        return luma;
+    }
+
+    /** The Y plane a camera delivers for {@code luma}, with padded rows. */
+    private static ImageProxy.PlaneProxy paddedYPlane(byte[] luma) {
+        ByteBuffer y = ByteBuffer.allocateDirect(ROW_STRIDE * (HEIGHT - 1) + WIDTH);
+        for (int row = 0; row < HEIGHT; row++) {
+            y.position(row * ROW_STRIDE);
+            y.put(luma, row * WIDTH, WIDTH);
+        }
+        y.clear();
+        return new Plane(y, ROW_STRIDE, 1);
+    }
+
+    private static final class Plane implements ImageProxy.PlaneProxy {
+        private final ByteBuffer buffer;
+        private final int rowStride, pixelStride;
+
+        Plane(ByteBuffer buffer, int rowStride, int pixelStride) {
+            this.buffer = buffer;
+            this.rowStride = rowStride;
+            this.pixelStride = pixelStride;
+        }
+
+        @Override
+        public int getRowStride() {
+            return rowStride;
+        }
+
+        @Override
+        public int getPixelStride() {
+            return pixelStride;
+        }
+
+        @Override
+        public ByteBuffer getBuffer() {
+            return buffer;
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package com.example.qr_indoornav;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.HardwareRenderer;
+import android.graphics.PixelFormat;
+import android.graphics.RecordingCanvas;
+import android.graphics.RenderNode;
+import android.hardware.HardwareBuffer;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.util.Log;
+import android.view.View;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.example.qr_indoornav.model.Graph;
+import com.example.qr_indoornav.model.MapData;
+import com.example.qr_indoornav.model.MapGenerator;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Measures MapView frame times on generated maps with thousands of junctions,
+ * both for the cached overview and for zoomed frames drawn through the spatial grids.
+ * Results are logged under the "MapViewFrameTime" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MapViewFrameTimeTest {
+
+    private static final String TAG = "MapViewFrameTime";
+    private static final int VIEW_SIZE_PX = 1080;
+    private static final int WARMUP_FRAMES = 10;
+    private static final int MEASURED_FRAMES = 120;
+
+    @Test
+    public void frameTimeOnLargeMaps() {
+        for (int junctions : new int[]{1000, 2500, 5000}) {
+            MapView mapView = createMapView(junctions, 1f);
+            long[] frameNanos = measureFrames(mapView, null);
+            logStats(junctions + " junctions, overview", frameNanos);
+
+            // Every frame above replayed the same recorded base map and label placement.
+            assertEquals(1, mapView.getBaseLayerRecordCount());
+            assertEquals(1, mapView.getLabelPlacementCount());
+        }
+    }
+
+    /**
+     * About 50k drawable elements (10k junctions, 20k edges, 25k rooms), panned across while
+     * zoomed in, so every frame goes through the spatial-grid culling path.
+     */
+    @Test
+    public void zoomedPanFrameTimeOn50kElements() {
+        MapView mapView = createMapView(10000, 0.5f);
+        long[] frameNanos = measureFrames(mapView, (view, frame) -> {
+            float t = frame / (float) MEASURED_FRAMES;
+            view.setViewport(12f, VIEW_SIZE_PX * t, VIEW_SIZE_PX * (1f - t));
+        });
+        logStats("10000 junctions, zoomed pan", frameNanos);
+        assertEquals(1, mapView.getBaseLayerRecordCount());
+        // Panning at a fixed zoom reuses the labels placed on the first frame.
+        assertEquals(1, mapView.getLabelPlacementCount());
+    }
+
+    /**
+     * Position updates at sensor rate (one per frame) while walking the first route leg, on the
+     * hardware path: each view is recorded into its own RenderNode, as the framework does for a
+     * hardware-accelerated window, and a HardwareRenderer draws the frame into an ImageReader.
+     * With the marker drawn by the map, every update re-records the map; with a
+     * {@link LiveMarkerView}, an update may only re-record the marker's node and must leave the
+     * map neither invalidated nor drawn.
+     */
+    @Test
+    public void liveMarkerUpdatesOnlyRedrawTheMarkerView() {
+        assumeTrue(Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q); // RenderNode and HardwareRenderer
+        MapView mapView = createMapView(5000, 1f);
+        LiveMarkerView markerView = createLiveMarkerView();
+        PathFinder.PathResult route = PathFinder.findPath(MapData.getGraph(),
+                MapData.getScannedLocationId(),
+                MapData.getAllLocations().get(MapData.getAllLocations().size() - 1).id);
+        PathFinder.PathLeg leg = route.legs.get(0);
+
+        try (HardwareFrames frames = new HardwareFrames()) {
+            // Marker drawn by the map: the map's display list is re-recorded on every update.
+            long[] inMapNanos = new long[MEASURED_FRAMES];
+            for (int i = 0; i < MEASURED_FRAMES; i++) {
+                double meters = leg.distance * (i + 1) / (double) MEASURED_FRAMES;
+                long start = System.nanoTime();
+                mapView.setLivePosition(leg.fromId, leg.toId, meters, leg.distance);
+                frames.record(frames.mapNode, mapView);
+                frames.render();
+                inMapNanos[i] = System.nanoTime() - start;
+            }
+
+            mapView.setLiveMarkerView(markerView);
+            frames.record(frames.mapNode, mapView);
+            frames.record(frames.markerNode, markerView);
+            frames.render();
+            int mapDraws = mapView.getDrawCount();
+            long[] markerViewNanos = new long[MEASURED_FRAMES];
+            for (int i = 0; i < MEASURED_FRAMES; i++) {
+                double meters = leg.distance * (MEASURED_FRAMES - i) / (double) MEASURED_FRAMES;
+                long start = System.nanoTime();
+                mapView.setLivePosition(leg.fromId, leg.toId, meters, leg.distance);
+                assertFalse("A marker update invalidated the map", mapView.isDirty());
+                assertTrue(markerView.isDirty());
+                frames.record(frames.markerNode, markerView);
+                frames.render();
+                markerViewNanos[i] = System.nanoTime() - start;
+            }
+            assertEquals(mapDraws, mapView.getDrawCount());
+
+            logStats("5000 junctions, live marker drawn by the map (hardware)", inMapNanos);
+            logStats("5000 junctions, live marker in its own view (hardware)", markerViewNanos);
+        }
+    }
+
+    /**
+     * A HardwareRenderer drawing the map's and the marker's RenderNodes, stacked, into an
+     * offscreen ImageReader. Each {@link #render} waits until the frame has been presented.
+     */
+    private static final class HardwareFrames implements AutoCloseable {
+        final RenderNode mapNode = new RenderNode("map");
+        final RenderNode markerNode = new RenderNode("marker");
+        private final ImageReader reader = ImageReader.newInstance(VIEW_SIZE_PX, VIEW_SIZE_PX,
+                PixelFormat.RGBA_8888, 2, HardwareBuffer.USAGE_GPU_COLOR_OUTPUT | HardwareBuffer.USAGE_GPU_SAMPLED_IMAGE);
+        private final HardwareRenderer renderer = new HardwareRenderer();
+
+        HardwareFrames() {
+            RenderNode root = new RenderNode("root");
+            for (RenderNode node : new RenderNode[]{root, mapNode, markerNode}) {
+                node.setPosition(0, 0, VIEW_SIZE_PX, VIEW_SIZE_PX);
+            }
+            RecordingCanvas canvas = root.beginRecording();
+            canvas.drawRenderNode(mapNode);
+            canvas.drawRenderNode(markerNode);
+            root.endRecording();
+            renderer.setSurface(reader.getSurface());
+            renderer.setContentRoot(root);
+        }
+
+        /** Re-records {@code view}'s display list into {@code node}. */
+        void record(RenderNode node, View view) {
+            RecordingCanvas canvas = node.beginRecording(view.getWidth(), view.getHeight());
+            view.draw(canvas);
+            node.endRecording();
+        }
+
+        void render() {
+            renderer.createRenderRequest().setWaitForPresent(true).syncAndDraw();
+            Image image = reader.acquireLatestImage();
+            if (image != null) image.close();
+        }
+
+        @Override
+        public void close() {
+            renderer.destroy();
+            reader.close();
+        }
+    }
+
+    interface FrameStep {
+        void beforeFrame(MapView view, int frame);
+    }
+
+    static long[] measureFrames(MapView mapView, FrameStep step) {
+        Bitmap bitmap = Bitmap.createBitmap(VIEW_SIZE_PX, VIEW_SIZE_PX, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        for (int i = 0; i < WARMUP_FRAMES; i++) {
+            if (step != null) step.beforeFrame(mapView, i);
+            mapView.draw(canvas);
+        }
+        long[] frameNanos = new long[MEASURED_FRAMES];
+        for (int i = 0; i < MEASURED_FRAMES; i++) {
+            if (step != null) step.beforeFrame(mapView, i);
+            long start = System.nanoTime();
+            mapView.draw(canvas);
+            frameNanos[i] = System.nanoTime() - start;
+        }
+        bitmap.recycle();
+        return frameNanos;
+    }
+
+    static MapView createMapView(int junctions, float roomsPerTenMeters) {
+        MapGenerator.Options options = new MapGenerator.Options();
+        options.topology = MapGenerator.Topology.GRID;
+        options.junctions = junctions;
+        options.roomsPerTenMeters = roomsPerTenMeters;
+        options.seed = 7L;
+        MapData.loadMapFromQRString(MapGenerator.generate(options));
+        Graph graph = MapData.getGraph();
+
+        String origin = MapData.getScannedLocationId();
+        String destination = MapData.getAllLocations().get(MapData.getAllLocations().size() - 1).id;
+        PathFinder.PathResult result = PathFinder.findPath(graph, origin, destination);
+        List<String> pathNodeIds = new ArrayList<>();
+        if (result.isFound()) {
+            pathNodeIds.add(result.legs.get(0).fromId);
+            for (PathFinder.PathLeg leg : result.legs) {
+                pathNodeIds.add(leg.toId);
+            }
+        }
+
+        // Solve the layout up front so setData() finds it cached instead of waiting for the worker.
+        MapLayout.getOrCompute(graph);
+        MapView mapView = onMainThread(context -> new MapView(context, null));
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(
+                () -> mapView.setData(graph, pathNodeIds, destination));
+        return mapView;
+    }
+
+    /** A marker view laid out over the same area as the views from {@link #createMapView}. */
+    static LiveMarkerView createLiveMarkerView() {
+        return onMainThread(context -> new LiveMarkerView(context, null));
+    }
+
+    interface ViewFactory<V extends View> {
+        V create(Context context);
+    }
+
+    /**
+     * Creates a view on the main thread, as inflation would (MapView's gesture detectors need
+     * its Looper), and lays it out at the test size. Frames are then drawn on the test thread.
+     */
+    static <V extends View> V onMainThread(ViewFactory<V> factory) {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        List<V> created = new ArrayList<>(1);
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> {
+            V view = factory.create(context);
+            view.measure(View.MeasureSpec.makeMeasureSpec(VIEW_SIZE_PX, View.MeasureSpec.EXACTLY),
+                    View.MeasureSpec.makeMeasureSpec(VIEW_SIZE_PX, View.MeasureSpec.EXACTLY));
+            view.layout(0, 0, VIEW_SIZE_PX, VIEW_SIZE_PX);
+            created.add(view);
+        });
+        return created.get(0);
+    }
+
+    static void logStats(String label, long[] frameNanos) {
+        long[] sorted = frameNanos.clone();
+        Arrays.sort(sorted);
+        long total = 0;
+        for (long n : sorted) total += n;
+        Log.i(TAG, String.format(Locale.US, "%s: mean %.2f ms, p50 %.2f ms, p95 %.2f ms",
+                label,
+                total / (double) sorted.length / 1e6,
+                sorted[sorted.length / 2] / 1e6,
+                sorted[(int) (sorted.length * 0.95)] / 1e6));
+    }
+}
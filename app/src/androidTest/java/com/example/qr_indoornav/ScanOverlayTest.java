@@ -0,0 +1,148 @@
+package com.example.qr_indoornav;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.util.Log;
+import android.view.View;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.android.OpenCVLoader;
+import org.opencv.android.Utils;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Per-frame display cost of the scanner's guidance: drawing the {@link ScanOverlayView} from a
+ * frame's geometry against the previous round trip, which converted the whole analysis frame to
+ * RGBA and copied it into a Bitmap for an ImageView. Portrait 480x640 analysis frames on a
+ * 1080x1920 view. Results are logged under the "ScanOverlay" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ScanOverlayTest {
+
+    private static final String TAG = "ScanOverlay";
+    private static final int FRAME_WIDTH = 480;
+    private static final int FRAME_HEIGHT = 640;
+    private static final int VIEW_WIDTH = 1080;
+    private static final int VIEW_HEIGHT = 1920;
+    private static final int WARMUP_FRAMES = 10;
+    private static final int MEASURED_FRAMES = 200;
+
+    @BeforeClass
+    public static void loadOpenCv() {
+        assertTrue(OpenCVLoader.initDebug());
+    }
+
+    @Test
+    public void frameCoordinatesMapLikeThePreview() {
+        ScanOverlayView view = createView();
+        Bitmap bitmap = Bitmap.createBitmap(VIEW_WIDTH, VIEW_HEIGHT, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+
+        // FILL_CENTER: the 480x640 frame is scaled by 3 to fill the height, and its sides are
+        // cropped by 180 px each.
+        ScanResult result = threePatternResult(FRAME_WIDTH / 2f, FRAME_HEIGHT / 2f);
+        view.show(result);
+        view.draw(canvas);
+        assertEquals(Color.MAGENTA, bitmap.getPixel(540, 960));
+
+        bitmap.eraseColor(Color.TRANSPARENT);
+        view.show(threePatternResult(100, 100));
+        view.draw(canvas);
+        assertEquals(Color.MAGENTA, bitmap.getPixel(100 * 3 - 180, 100 * 3));
+        bitmap.recycle();
+    }
+
+    @Test
+    public void vectorOverlayAgainstBitmapRoundTrip() {
+        Mat gray = new Mat(FRAME_HEIGHT, FRAME_WIDTH, CvType.CV_8UC1, new Scalar(128));
+        Mat rgba = new Mat();
+        Bitmap frameBitmap = Bitmap.createBitmap(FRAME_WIDTH, FRAME_HEIGHT, Bitmap.Config.ARGB_8888);
+        long[] roundTripNanos = new long[MEASURED_FRAMES];
+        for (int i = 0; i < WARMUP_FRAMES + MEASURED_FRAMES; i++) {
+            long start = System.nanoTime();
+            // The guidance drawing itself (cv::putText and friends) came on top of this.
+            Imgproc.cvtColor(gray, rgba, Imgproc.COLOR_GRAY2RGBA);
+            Utils.matToBitmap(rgba, frameBitmap);
+            if (i >= WARMUP_FRAMES) roundTripNanos[i - WARMUP_FRAMES] = System.nanoTime() - start;
+        }
+        gray.release();
+        rgba.release();
+        frameBitmap.recycle();
+
+        ScanOverlayView view = createView();
+        Bitmap viewBitmap = Bitmap.createBitmap(VIEW_WIDTH, VIEW_HEIGHT, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(viewBitmap);
+        ScanResult result = threePatternResult(FRAME_WIDTH / 2f, FRAME_HEIGHT / 2f);
+        long[] overlayNanos = new long[MEASURED_FRAMES];
+        for (int i = 0; i < WARMUP_FRAMES + MEASURED_FRAMES; i++) {
+            result.qrCenterX = FRAME_WIDTH / 2f + i % 20; // A little movement, as from frame to frame
+            long start = System.nanoTime();
+            view.show(result);
+            view.draw(canvas);
+            if (i >= WARMUP_FRAMES) overlayNanos[i - WARMUP_FRAMES] = System.nanoTime() - start;
+        }
+        viewBitmap.recycle();
+
+        logStats("RGBA conversion + matToBitmap", roundTripNanos);
+        logStats("vector overlay, software canvas", overlayNanos);
+    }
+
+    private static ScanOverlayView createView() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        ScanOverlayView view = new ScanOverlayView(context, null);
+        view.measure(View.MeasureSpec.makeMeasureSpec(VIEW_WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(VIEW_HEIGHT, View.MeasureSpec.EXACTLY));
+        view.layout(0, 0, VIEW_WIDTH, VIEW_HEIGHT);
+        return view;
+    }
+
+    /** Three 30 px finder patterns in an upright square around (centerX, centerY). */
+    private static ScanResult threePatternResult(float centerX, float centerY) {
+        ScanResult result = new ScanResult();
+        result.frameWidth = FRAME_WIDTH;
+        result.frameHeight = FRAME_HEIGHT;
+        result.position = ScanResult.POSITION_OK;
+        result.angle = ScanResult.ANGLE_OK;
+        result.qrCenterX = centerX;
+        result.qrCenterY = centerY;
+        float[][] centers = {{centerX - 40, centerY - 40}, {centerX + 40, centerY - 40}, {centerX - 40, centerY + 40}};
+        result.patternCount = centers.length;
+        for (int i = 0; i < centers.length; i++) {
+            float x = centers[i][0], y = centers[i][1];
+            result.patternCenters[2 * i] = x;
+            result.patternCenters[2 * i + 1] = y;
+            float[] corners = {x - 15, y - 15, x + 15, y - 15, x + 15, y + 15, x - 15, y + 15};
+            System.arraycopy(corners, 0, result.patternCorners, 8 * i, 8);
+            System.arraycopy(centers[i], 0, result.angleLines, 2 * i, 2);
+        }
+        return result;
+    }
+
+    private static void logStats(String label, long[] frameNanos) {
+        long[] sorted = frameNanos.clone();
+        Arrays.sort(sorted);
+        long total = 0;
+        for (long n : sorted) total += n;
+        Log.i(TAG, String.format(Locale.US, "%s: mean %.3f ms, p50 %.3f ms, p95 %.3f ms",
+                label,
+                total / (double) sorted.length / 1e6,
+                sorted[sorted.length / 2] / 1e6,
+                sorted[(int) (sorted.length * 0.95)] / 1e6));
+    }
+}
@@ -0,0 +1,225 @@
+package com.example.qr_indoornav;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.android.OpenCVLoader;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.objdetect.QRCodeEncoder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Frames per second and end-to-end latency of the {@link ScannerPipeline} against the previous
+ * single-thread design (the same pipeline with {@code pipelined = false}: detection and decoding
+ * one after the other on one thread), on synthetic portrait frames of a drifting QR code fed at
+ * a fixed camera rate.
+ *
+ * fps counts the frames whose guidance reached the listener; latency runs from submission to
+ * that guidance (the present hand-off). Time to first decode runs from the submission of the
+ * first frame showing the code. A decode runs from its frame's guidance to its result; guidance
+ * delivered in between shows detection going on while the decoder is busy. Results are logged
+ * under the "ScannerPipeline" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ScannerPipelineTest {
+
+    private static final String TAG = "ScannerPipeline";
+    private static final int WIDTH = 480;
+    private static final int HEIGHT = 640;
+    private static final int FRAMES = 240;
+    private static final int LEAD_IN = 30;     // Frames before the code comes into view
+    private static final int MODULE_PX = 5;
+    private static final String PAYLOAD = "A1|benchmark";
+
+    private static List<Mat> sequence;
+
+    @BeforeClass
+    public static void createFrames() {
+        assertTrue(OpenCVLoader.initDebug());
+        sequence = syntheticFrames();
+    }
+
+    @Test
+    public void pipelineAgainstSingleThreadAtCameraRate() throws Exception {
+        for (int fps : new int[]{30, 60}) {
+            RunStats serial = run(false, fps);
+            RunStats pipelined = run(true, fps);
+            log(String.format(Locale.US, "single thread, %d fps camera", fps), serial);
+            log(String.format(Locale.US, "pipelined, %d fps camera", fps), pipelined);
+            assertEquals(PAYLOAD, serial.decodedPayload);
+            assertEquals(PAYLOAD, pipelined.decodedPayload);
+
+            // One thread cannot guide while it decodes; the pipeline must, whenever a decode
+            // outlasts a couple of camera frames, and so never drops more frames before detection.
+            assertEquals(0, serial.guidanceDuringDecode);
+            if (pipelined.longestDecodeNanos > 2 * pipelined.cameraIntervalNanos) {
+                assertTrue("No guidance while decoding", pipelined.guidanceDuringDecode > 0);
+            }
+            assertTrue(pipelined.droppedFrames + " frames dropped before detection, single thread "
+                    + serial.droppedFrames, pipelined.droppedFrames <= serial.droppedFrames);
+        }
+    }
+
+    private static final class RunStats {
+        int guidanceFrames;
+        double seconds;
+        final long[] latencyNanos = new long[FRAMES];
+        final long[] submittedNanos = new long[FRAMES];  // Of each frame whose guidance arrived
+        final long[] guidedNanos = new long[FRAMES];     // When its guidance arrived
+        long cameraIntervalNanos;
+        int guidanceDuringDecode;                        // Guidance delivered while a decode ran
+        long longestDecodeNanos;
+        long firstCodeSubmitted;
+        long firstDecodeNanos = -1;
+        int decodes;
+        String decodedPayload;
+        long droppedFrames, droppedDecodes;
+    }
+
+    private static RunStats run(boolean pipelined, int cameraFps) throws InterruptedException {
+        RunStats stats = new RunStats();
+        ScannerPipeline pipeline = new ScannerPipeline(new ScannerPipeline.Listener() {
+            @Override
+            public void onGuidance(ScanResult result, long submittedNanos) {
+                long now = System.nanoTime();
+                synchronized (stats) {
+                    int i = stats.guidanceFrames++;
+                    stats.latencyNanos[i] = now - submittedNanos;
+                    stats.submittedNanos[i] = submittedNanos;
+                    stats.guidedNanos[i] = now;
+                }
+            }
+
+            @Override
+            public void onDecoded(ScanResult result, long submittedNanos) {
+                long now = System.nanoTime();
+                synchronized (stats) {
+                    // The decode started when its frame's guidance was delivered; all guidance since
+                    // then arrived while it ran.
+                    for (int i = stats.guidanceFrames - 1; i >= 0; i--) {
+                        if (stats.submittedNanos[i] != submittedNanos) continue;
+                        stats.guidanceDuringDecode += stats.guidanceFrames - 1 - i;
+                        stats.longestDecodeNanos = Math.max(stats.longestDecodeNanos, now - stats.guidedNanos[i]);
+                        break;
+                    }
+                    if (stats.decodes++ == 0) {
+                        stats.firstDecodeNanos = now - stats.firstCodeSubmitted;
+                        stats.decodedPayload = result.payloadText();
+                    }
+                }
+            }
+        }, pipelined);
+
+        // The camera: frames at a fixed rate, whether or not the scanner keeps up.
+        long interval = 1_000_000_000L / cameraFps;
+        stats.cameraIntervalNanos = interval;
+        long start = System.nanoTime();
+        for (int i = 0; i < FRAMES; i++) {
+            long due = start + i * interval;
+            long wait = due - System.nanoTime();
+            if (wait > 0) Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+            if (i == LEAD_IN) {
+                synchronized (stats) {
+                    stats.firstCodeSubmitted = System.nanoTime();
+                }
+            }
+            pipeline.submit(sequence.get(i));
+        }
+        Thread.sleep(500); // Let the last frames drain
+        stats.seconds = (System.nanoTime() - start) / 1e9 - 0.5;
+        stats.droppedFrames = pipeline.getDroppedFrames();
+        stats.droppedDecodes = pipeline.getDroppedDecodes();
+        pipeline.close();
+        return stats;
+    }
+
+    /**
+     * Portrait frames of a cluttered background; after LEAD_IN frames a QR code slides in and
+     * wanders slowly around the centre (as benchmark/native/FrameSequence.h, without rotation).
+     */
+    private static List<Mat> syntheticFrames() {
+        Mat code = new Mat();
+        QRCodeEncoder.create().encode(PAYLOAD, code);
+        Core.copyMakeBorder(code, code, 4, 4, 4, 4, Core.BORDER_CONSTANT, new Scalar(255)); // Quiet zone
+        Mat scaled = new Mat();
+        Imgproc.resize(code, scaled, new Size(), MODULE_PX, MODULE_PX, Imgproc.INTER_NEAREST);
+
+        Random random = new Random(7);
+        Mat background = new Mat(HEIGHT, WIDTH, CvType.CV_8UC1, new Scalar(140));
+        for (int i = 0; i < 40; i++) { // Clutter: door frames, posters, signs
+            Point corner = new Point(random.nextInt(WIDTH), random.nextInt(HEIGHT));
+            Point opposite = new Point(corner.x + 10 + random.nextInt(110), corner.y + 10 + random.nextInt(110));
+            Imgproc.rectangle(background, corner, opposite, new Scalar(20 + random.nextInt(215)), random.nextInt(5) - 1);
+        }
+
+        List<Mat> frames = new ArrayList<>(FRAMES);
+        Mat noise = new Mat(HEIGHT, WIDTH, CvType.CV_16SC1);
+        for (int i = 0; i < FRAMES; i++) {
+            Mat frame = background.clone();
+            int t = i - LEAD_IN;
+            if (t >= 0) {
+                double enter = Math.max(0, 1 - t / 20.0); // Slides in over 20 frames
+                int x = (int) (WIDTH / 2.0 + 40 * Math.sin(t * 0.07) + enter * WIDTH - scaled.cols() / 2.0);
+                int y = (int) (HEIGHT / 2.0 + 30 * Math.cos(t * 0.05) - scaled.rows() / 2.0);
+                Rect target = new Rect(x, y, scaled.cols(), scaled.rows());
+                Rect visible = intersect(target, new Rect(0, 0, WIDTH, HEIGHT));
+                if (visible.width > 0 && visible.height > 0) {
+                    Rect source = new Rect(visible.x - x, visible.y - y, visible.width, visible.height);
+                    scaled.submat(source).copyTo(frame.submat(visible));
+                }
+            }
+            Core.randn(noise, 0, 6);
+            Core.add(frame, noise, frame, new Mat(), CvType.CV_8U);
+            frames.add(frame);
+        }
+        code.release();
+        scaled.release();
+        background.release();
+        noise.release();
+        return frames;
+    }
+
+    private static Rect intersect(Rect a, Rect b) {
+        int x = Math.max(a.x, b.x), y = Math.max(a.y, b.y);
+        int right = Math.min(a.x + a.width, b.x + b.width), bottom = Math.min(a.y + a.height, b.y + b.height);
+        return new Rect(x, y, Math.max(0, right - x), Math.max(0, bottom - y));
+    }
+
+    private static void log(String label, RunStats stats) {
+        long[] sorted = Arrays.copyOf(stats.latencyNanos, stats.guidanceFrames);
+        Arrays.sort(sorted);
+        long total = 0;
+        for (long n : sorted) total += n;
+        int count = Math.max(1, sorted.length);
+        Log.i(TAG, String.format(Locale.US,
+                "%s: %.1f fps, latency mean %.2f ms, p50 %.2f ms, p95 %.2f ms, first decode after %.1f ms, "
+                        + "%d decodes (longest %.1f ms, %d guidance frames during decodes), dropped %d frames / %d decodes",
+                label,
+                stats.guidanceFrames / stats.seconds,
+                total / (double) count / 1e6,
+                sorted.length > 0 ? sorted[sorted.length / 2] / 1e6 : 0,
+                sorted.length > 0 ? sorted[(int) (sorted.length * 0.95)] / 1e6 : 0,
+                stats.firstDecodeNanos / 1e6,
+                stats.decodes, stats.longestDecodeNanos / 1e6, stats.guidanceDuringDecode,
+                stats.droppedFrames, stats.droppedDecodes));
+    }
+}
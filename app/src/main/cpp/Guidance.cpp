@@ -4,7 +4,6 @@
 #include "QRDecoder.h" // NEW: Include our new decoder module
 #include <vector>
 #include <cmath>
-#include <functional>
 
 // --- Configuration Constants for easy tuning ---
 // Preprocessing
@@ -35,60 +34,63 @@ const float CENTER_DEAD_ZONE_RATIO = 0.25;
 const double ANGLE_RATIO_TOLERANCE = 0.30; // More tolerant for distorted small codes
 const double DEDUPE_DISTANCE_THRESH = 15.0; // Pixel distance to consider patterns duplicates
 
-struct FinderPattern {
-    cv::Point2f center;
-    double area;
-    std::vector<cv::Point> actual_contour; // Stores the contour points directly
+// Region tracking between frames
+const int FULL_SEARCH_INTERVAL = 15;         // Search the whole frame at least every this many frames
+const double MIN_TRACK_CONFIDENCE = 0.75;    // Fraction of pattern corners that must track well
+const float MAX_TRACK_ERROR = 30.0f;         // Largest optical flow patch error of a good track
+const double ROI_PADDING_RATIO = 0.5;        // Region grows by this fraction of the code's size per side
+const int ROI_MIN_PADDING = 32;              // ... and by at least this many pixels
+const cv::Size LK_WINDOW(21, 21);
+const int LK_LEVELS = 3;
+
+ScannerContext::ScannerContext()
+        : clahe(cv::createCLAHE(CLAHE_CLIP_LIMIT, cv::Size(8, 8))) {
+    candidates.reserve(64);
+    patterns.reserve(64);
+    taken.reserve(64);
+    decoder.corners.reserve(4);
+    trackPoints.reserve(64);
+    trackedPoints.reserve(64);
+    trackStatus.reserve(64);
+    trackError.reserve(64);
+}
 
-    FinderPattern(cv::Point2f c, double a, const std::vector<cv::Point>& contour_data)
-            : center(c), area(a), actual_contour(contour_data) {
-    }
-};
-
-// Preprocessing for the original, standard-sized image
-cv::Mat preprocessImage(const cv::Mat& frame) {
-    cv::Mat gray, claheImg, thresh;
-    cv::cvtColor(frame, gray, cv::COLOR_BGR2GRAY);
-    cv::Ptr<cv::CLAHE> clahe = cv::createCLAHE(CLAHE_CLIP_LIMIT, cv::Size(8, 8));
-    clahe->apply(gray, claheImg);
-    cv::adaptiveThreshold(claheImg, thresh, 255,
-                          cv::ADAPTIVE_THRESH_GAUSSIAN_C,
-                          cv::THRESH_BINARY_INV, ADAPTIVE_THRESH_BLOCK_SIZE, ADAPTIVE_THRESH_C);
-    return thresh;
+// Milliseconds since 'start', a cv::getTickCount() value.
+static float millisSince(int64 start) {
+    return (float) ((cv::getTickCount() - start) * 1000.0 / cv::getTickFrequency());
 }
 
-// Special preprocessing for the upscaled (pyramid) image
-cv::Mat preprocessPyramid(const cv::Mat& frame) {
-    cv::Mat gray, claheImg, thresh;
-    cv::cvtColor(frame, gray, cv::COLOR_BGR2GRAY);
-    cv::Ptr<cv::CLAHE> clahe = cv::createCLAHE(CLAHE_CLIP_LIMIT, cv::Size(8, 8));
-    clahe->apply(gray, claheImg);
-    // Use a larger block size because features are larger in the upscaled image
-    cv::adaptiveThreshold(claheImg, thresh, 255,
-                          cv::ADAPTIVE_THRESH_GAUSSIAN_C,
-                          cv::THRESH_BINARY_INV, ADAPTIVE_THRESH_BLOCK_SIZE * 2 + 1, ADAPTIVE_THRESH_C);
-    return thresh;
+// The top left 'size' of 'buffer', growing the buffer only if it is too small.
+static cv::Mat view(cv::Mat& buffer, cv::Size size, int type) {
+    if (buffer.type() != type || buffer.cols < size.width || buffer.rows < size.height) {
+        buffer.create(std::max(size.height, buffer.rows), std::max(size.width, buffer.cols), type);
+    }
+    return buffer(cv::Rect(cv::Point(0, 0), size));
 }
 
-// You might want a specific preprocess for downscaled if block size needs adjustment
-// For simplicity, let's reuse preprocessImage for now, but be aware of block size implications.
-cv::Mat preprocessDownscale(const cv::Mat& frame) {
-    cv::Mat gray, claheImg, thresh;
-    cv::cvtColor(frame, gray, cv::COLOR_BGR2GRAY);
-    cv::Ptr<cv::CLAHE> clahe = cv::createCLAHE(CLAHE_CLIP_LIMIT, cv::Size(8, 8));
-    clahe->apply(gray, claheImg);
-    // Potentially a smaller block size than original if features become very small after downscaling
-    // Or, if features are still large enough, ADAPTIVE_THRESH_BLOCK_SIZE might be fine.
-    cv::adaptiveThreshold(claheImg, thresh, 255,
-                          cv::ADAPTIVE_THRESH_GAUSSIAN_C,
-                          cv::THRESH_BINARY_INV, ADAPTIVE_THRESH_BLOCK_SIZE, ADAPTIVE_THRESH_C);
+// CLAHE and an inverted adaptive threshold on a luma frame, into the pass's thresh image. All
+// preprocessing takes the luma (grayscale) frame directly: no color conversion is needed anywhere
+// in detection. The threshold is cv::adaptiveThreshold (Gaussian, THRESH_BINARY_INV) written out,
+// so that its local mean goes into a reused buffer instead of a new one every call: a pixel is set
+// where it is at least ADAPTIVE_THRESH_C darker than its neighbourhood.
+// Returns a view of pass.thresh the size of 'gray'.
+cv::Mat preprocess(ScannerContext& ctx, ScanPass& pass, const cv::Mat& gray, int blockSize) {
+    cv::Mat claheImg = view(pass.clahe, gray.size(), CV_8UC1);
+    cv::Mat mean = view(pass.mean, gray.size(), CV_8UC1);
+    cv::Mat diff = view(pass.diff, gray.size(), CV_8UC1);
+    cv::Mat thresh = view(pass.thresh, gray.size(), CV_8UC1);
+    ctx.clahe->apply(gray, claheImg);
+    cv::GaussianBlur(claheImg, mean, cv::Size(blockSize, blockSize), 0, 0,
+                     cv::BORDER_REPLICATE | cv::BORDER_ISOLATED);
+    cv::subtract(mean, claheImg, diff); // Saturates: brighter pixels give 0
+    cv::threshold(diff, thresh, ADAPTIVE_THRESH_C - 1, 255, cv::THRESH_BINARY);
     return thresh;
 }
 
-
-// Updated to take min_area as a parameter and store actual contour
-std::vector<FinderPattern> findFinderPatterns(const std::vector<std::vector<cv::Point>>& contours, const std::vector<cv::Vec4i>& hierarchy, double min_area) {
-    std::vector<FinderPattern> patterns;
+// Updated to take min_area as a parameter; appends what it finds to 'patterns', in the
+// coordinates of the frame the searched region starts at 'offset' in
+void findFinderPatterns(const std::vector<std::vector<cv::Point>>& contours, const std::vector<cv::Vec4i>& hierarchy,
+                        double min_area, double scale_factor, cv::Point2f offset, std::vector<FinderPattern>& patterns) {
     for (int i = 0; i < contours.size(); ++i) {
         int child_idx = hierarchy[i][2];
         if (child_idx == -1) continue;
@@ -110,51 +112,112 @@ std::vector<FinderPattern> findFinderPatterns(const std::vector<std::vector<cv::
 
         cv::Moments M = cv::moments(contours[i]);
         if (M.m00 == 0) continue;
-        patterns.emplace_back(cv::Point2f(M.m10 / M.m00, M.m01 / M.m00), outerArea, contours[i]);
+
+        // If the input frame was scaled, scale the pattern back to frame coordinates
+        FinderPattern pattern;
+        pattern.center = cv::Point2f(M.m10 / M.m00, M.m01 / M.m00) / scale_factor + offset;
+        pattern.area = outerArea / (scale_factor * scale_factor); // Area scales by the square of the factor
+        box.points(pattern.corners);
+        for (auto& corner : pattern.corners) corner = corner / scale_factor + offset;
+        patterns.push_back(pattern);
     }
-    return patterns;
 }
 
-// New function to encapsulate the multi-scale processing logic
-std::vector<FinderPattern> processFrameForFinderPatterns(
-        const cv::Mat& frame,
-        std::function<cv::Mat(const cv::Mat&)> preprocess_func, // Function pointer for preprocessing
+// New function to encapsulate the multi-scale processing logic. Runs one pass over 'region' (the
+// whole frame or a part of it starting at 'offset') at scale_factor, in the pass's own buffers,
+// and appends the patterns found to ctx.candidates.
+void processFrameForFinderPatterns(
+        ScannerContext& ctx,
+        ScanPass& pass,
+        const cv::Mat& region,
+        cv::Point offset,
+        int block_size,
         double min_area,
         double scale_factor = 1.0 // Default to 1.0 for original scale
 ) {
-    cv::Mat current_frame = frame;
+    cv::Mat current_frame = region;
     if (scale_factor != 1.0) {
-        cv::resize(frame, current_frame, cv::Size(), scale_factor, scale_factor, cv::INTER_LINEAR);
+        cv::Size scaled_size(cvRound(region.cols * scale_factor), cvRound(region.rows * scale_factor));
+        current_frame = view(pass.scaled, scaled_size, CV_8UC1);
+        cv::resize(region, current_frame, scaled_size, 0, 0, cv::INTER_LINEAR);
     }
 
-    cv::Mat processed_img = preprocess_func(current_frame);
-    std::vector<std::vector<cv::Point>> contours;
-    std::vector<cv::Vec4i> hierarchy;
-    cv::findContours(processed_img, contours, hierarchy, cv::RETR_TREE, cv::CHAIN_APPROX_SIMPLE);
+    cv::Mat thresh = preprocess(ctx, pass, current_frame, block_size);
+    // findContours fills the vectors in place, so they keep their capacity from the last frame.
+    cv::findContours(thresh, pass.contours, pass.hierarchy, cv::RETR_TREE, cv::CHAIN_APPROX_SIMPLE);
 
-    std::vector<FinderPattern> patterns = findFinderPatterns(contours, hierarchy, min_area);
+    findFinderPatterns(pass.contours, pass.hierarchy, min_area, scale_factor, offset, ctx.candidates);
+}
 
-    // If we scaled the input frame, we need to scale the detected pattern coordinates back
-    if (scale_factor != 1.0) {
-        for (auto& p : patterns) {
-            p.center /= scale_factor;
-            p.area /= (scale_factor * scale_factor); // Area scales by the square of the factor
-            for (auto& point : p.actual_contour) {
-                point.x = static_cast<int>(point.x / scale_factor);
-                point.y = static_cast<int>(point.y / scale_factor);
-            }
-        }
+// Both scales over one region of the frame: the original, then upscaled if that found fewer
+// than two patterns. The upscaled pass uses a larger block size because features are larger there.
+void searchRegion(ScannerContext& ctx, const cv::Mat& frame, const cv::Rect& region) {
+    cv::Mat area = frame(region);
+    processFrameForFinderPatterns(ctx, ctx.original, area, region.tl(),
+                                  ADAPTIVE_THRESH_BLOCK_SIZE, MIN_FINDER_AREA_ORIGINAL);
+    if (ctx.candidates.size() < 2) {
+        processFrameForFinderPatterns(ctx, ctx.pyramid, area, region.tl(),
+                                      ADAPTIVE_THRESH_BLOCK_SIZE * 2 + 1, MIN_FINDER_AREA_PYRAMID, PYRAMID_SCALE_FACTOR);
+    }
+}
+
+// Follows the last frame's pattern corners into 'frame' with pyramidal Lucas-Kanade optical flow.
+// On success, 'region' is their bounding box, padded by half the code's size (at least
+// ROI_MIN_PADDING) and clipped to the frame. Fails when too few corners track well.
+bool trackRegion(ScannerContext& ctx, const cv::Mat& frame, cv::Rect& region) {
+    // The pyramid copies the frame (no reuse of the input): it must outlive the camera buffer.
+    cv::buildOpticalFlowPyramid(frame, ctx.currentPyramid, LK_WINDOW, LK_LEVELS, true,
+                                cv::BORDER_REFLECT_101, cv::BORDER_CONSTANT, false);
+    ctx.currentPyramidBuilt = true;
+    cv::calcOpticalFlowPyrLK(ctx.previousPyramid, ctx.currentPyramid, ctx.trackPoints, ctx.trackedPoints,
+                             ctx.trackStatus, ctx.trackError, LK_WINDOW, LK_LEVELS);
+
+    int good = 0;
+    float minX = frame.cols, minY = frame.rows, maxX = 0, maxY = 0;
+    for (size_t i = 0; i < ctx.trackedPoints.size(); ++i) {
+        if (!ctx.trackStatus[i] || ctx.trackError[i] > MAX_TRACK_ERROR) continue;
+        const cv::Point2f& p = ctx.trackedPoints[i];
+        minX = std::min(minX, p.x);
+        minY = std::min(minY, p.y);
+        maxX = std::max(maxX, p.x);
+        maxY = std::max(maxY, p.y);
+        good++;
     }
-    return patterns;
+    if (good == 0 || good < MIN_TRACK_CONFIDENCE * ctx.trackPoints.size()) return false;
+
+    float size = std::max(maxX - minX, maxY - minY);
+    float padding = std::max<float>(ROI_MIN_PADDING, size * ROI_PADDING_RATIO);
+    cv::Rect padded(cv::Point(cvFloor(minX - padding), cvFloor(minY - padding)),
+                    cv::Point(cvCeil(maxX + padding), cvCeil(maxY + padding)));
+    region = padded & cv::Rect(0, 0, frame.cols, frame.rows);
+    return region.area() > 0;
 }
 
+// After each frame: keep the corners of the patterns found, and this frame's pyramid, so the
+// next frame can track them. Stops tracking when nothing was found.
+void updateTracking(ScannerContext& ctx, const cv::Mat& frame, const std::vector<FinderPattern>& patterns) {
+    ctx.tracking = !patterns.empty();
+    if (!ctx.tracking) return;
+    ctx.trackPoints.clear();
+    for (const auto& p : patterns) {
+        ctx.trackPoints.insert(ctx.trackPoints.end(), p.corners, p.corners + 4);
+    }
+    if (!ctx.currentPyramidBuilt) {
+        cv::buildOpticalFlowPyramid(frame, ctx.currentPyramid, LK_WINDOW, LK_LEVELS, true,
+                                    cv::BORDER_REFLECT_101, cv::BORDER_CONSTANT, false);
+    }
+    std::swap(ctx.previousPyramid, ctx.currentPyramid);
+}
 
-void provideUserGuidance(cv::Mat& displayFrame, const std::vector<FinderPattern>& patterns) {
-    const cv::Point2f frameCenter(displayFrame.cols / 2.0f, displayFrame.rows / 2.0f);
-    cv::Point textOrg(10, 30);
+
+// Works out what to tell the user about the patterns found in a frame of 'frameSize': where to
+// move the camera and how to turn it. Only the state is computed here; the app draws it.
+void computeGuidance(const cv::Size& frameSize, const std::vector<FinderPattern>& patterns, ScanGuidance& guidance) {
+    const cv::Point2f frameCenter(frameSize.width / 2.0f, frameSize.height / 2.0f);
+    guidance.angle = ANGLE_NONE;
 
     if (patterns.empty()) {
-        cv::putText(displayFrame, "No QR Code Found", textOrg, cv::FONT_HERSHEY_SIMPLEX, 0.8, cv::Scalar(0, 0, 255), 2);
+        guidance.position = POSITION_NO_CODE;
         return;
     }
 
@@ -162,46 +225,38 @@ void provideUserGuidance(cv::Mat& displayFrame, const std::vector<FinderPattern>
     for (const auto& p : patterns) totalArea += p.area;
     double averageArea = totalArea / patterns.size();
 
-    for (const auto& fp : patterns) {
-        std::vector<std::vector<cv::Point>> temp_contour_list = { fp.actual_contour };
-        cv::drawContours(displayFrame, temp_contour_list, 0, cv::Scalar(255, 0, 0), 2);
-    }
-
     if (averageArea < MIN_AREA_FOR_GUIDANCE) {
-        cv::putText(displayFrame, "Move Closer", textOrg, cv::FONT_HERSHEY_SIMPLEX, 1.0, cv::Scalar(0, 165, 255), 2);
+        guidance.position = POSITION_MOVE_CLOSER;
         return;
     }
 
     cv::Point2f qrCenter(0, 0);
     for (const auto& p : patterns) qrCenter += p.center;
     qrCenter /= (float)patterns.size();
-    cv::circle(displayFrame, qrCenter, 7, cv::Scalar(255, 0, 255), -1);
+    guidance.qrCenter = qrCenter;
 
     cv::Point2f delta = frameCenter - qrCenter;
-    float deadZoneX = displayFrame.cols * CENTER_DEAD_ZONE_RATIO;
-    float deadZoneY = displayFrame.rows * CENTER_DEAD_ZONE_RATIO;
-    std::string pos_text = "Position: OK";
+    float deadZoneX = frameSize.width * CENTER_DEAD_ZONE_RATIO;
+    float deadZoneY = frameSize.height * CENTER_DEAD_ZONE_RATIO;
+    guidance.position = POSITION_OK;
 
     // Prioritize vertical movement (UP/DOWN)
     if (delta.y > deadZoneY) {
-        pos_text = "Move Camera UP";
+        guidance.position = POSITION_MOVE_UP;
     }
     else if (delta.y < -deadZoneY) {
-        pos_text = "Move Camera DOWN";
+        guidance.position = POSITION_MOVE_DOWN;
     }
         // If vertical position is within the dead zone, then check horizontal movement (LEFT/RIGHT)
     else if (delta.x > deadZoneX) {
-        pos_text = "Move Camera LEFT";
+        guidance.position = POSITION_MOVE_LEFT;
     }
     else if (delta.x < -deadZoneX) {
-        pos_text = "Move Camera RIGHT";
+        guidance.position = POSITION_MOVE_RIGHT;
     }
 
-    cv::putText(displayFrame, pos_text, textOrg, cv::FONT_HERSHEY_SIMPLEX, 0.8, cv::Scalar(0, 255, 0), 2);
-    textOrg.y += 30;
-
     if (patterns.size() < 3) {
-        cv::putText(displayFrame, "Angle: Need 3 corners", textOrg, cv::FONT_HERSHEY_SIMPLEX, 0.8, cv::Scalar(0, 165, 255), 2);
+        guidance.angle = ANGLE_NEED_CORNERS;
         return;
     }
 
@@ -222,13 +277,13 @@ void provideUserGuidance(cv::Mat& displayFrame, const std::vector<FinderPattern>
                     float horz_dist = cv::norm(tr->center - tl->center);
                     float vert_dist = cv::norm(bl->center - tl->center);
                     double ratio = horz_dist / vert_dist;
-                    std::string angle_text = "Angle: OK";
-                    if (ratio > 1.0 + ANGLE_RATIO_TOLERANCE) angle_text = "Rotate Camera RIGHT";
-                    else if (ratio < 1.0 - ANGLE_RATIO_TOLERANCE) angle_text = "Rotate Camera LEFT";
+                    guidance.angle = ANGLE_OK;
+                    if (ratio > 1.0 + ANGLE_RATIO_TOLERANCE) guidance.angle = ANGLE_ROTATE_RIGHT;
+                    else if (ratio < 1.0 - ANGLE_RATIO_TOLERANCE) guidance.angle = ANGLE_ROTATE_LEFT;
 
-                    cv::putText(displayFrame, angle_text, textOrg, cv::FONT_HERSHEY_SIMPLEX, 0.8, cv::Scalar(0, 255, 0), 2);
-                    cv::line(displayFrame, tl->center, tr->center, cv::Scalar(255, 255, 0), 3);
-                    cv::line(displayFrame, tl->center, bl->center, cv::Scalar(255, 255, 0), 3);
+                    guidance.topLeft = tl->center;
+                    guidance.topRight = tr->center;
+                    guidance.bottomLeft = bl->center;
                     return;
                 }
             }
@@ -237,25 +292,50 @@ void provideUserGuidance(cv::Mat& displayFrame, const std::vector<FinderPattern>
 }
 
 
-// --- NEW: This is the main entry point that replaces your old main() function ---
-std::string processFrameForGuidance(cv::Mat& frame) {
-    if (frame.empty()) return "";
-
-    // 1. Process at original scale
-    std::vector<FinderPattern> all_patterns = processFrameForFinderPatterns(
-            frame, preprocessImage, MIN_FINDER_AREA_ORIGINAL);
-
-    // 2. If needed, try upscaling
-    if (all_patterns.size() < 2) {
-        std::vector<FinderPattern> patterns_pyramid_scaled = processFrameForFinderPatterns(
-                frame, preprocessPyramid, MIN_FINDER_AREA_PYRAMID, PYRAMID_SCALE_FACTOR);
-        all_patterns.insert(all_patterns.end(), patterns_pyramid_scaled.begin(), patterns_pyramid_scaled.end());
+bool detectForGuidance(ScannerContext& ctx, const cv::Mat& frame, cv::Rect& decodeRegion) {
+    const int64 frameStart = cv::getTickCount();
+    ctx.guidance = ScanGuidance();
+    ctx.patterns.clear();
+    std::fill(ctx.stageMillis, ctx.stageMillis + STAGE_COUNT, 0.0f);
+    if (frame.empty()) return false;
+    CV_Assert(frame.type() == CV_8UC1);
+
+    // 1. While tracking, search only the region the last frame's patterns moved to; the whole
+    // frame is searched every FULL_SEARCH_INTERVAL frames, when tracking fails, and when
+    // nothing turns up in the region.
+    std::vector<FinderPattern>& all_patterns = ctx.candidates;
+    all_patterns.clear();
+    ctx.currentPyramidBuilt = false;
+    const cv::Rect whole(0, 0, frame.cols, frame.rows);
+    cv::Rect region = whole;
+    int64 stageStart = cv::getTickCount();
+    bool tracked = ctx.trackingEnabled && ctx.tracking && ctx.framesSinceFullSearch < FULL_SEARCH_INTERVAL
+            && !ctx.previousPyramid.empty() && ctx.previousPyramid[0].size() == frame.size()
+            && trackRegion(ctx, frame, region);
+    ctx.stageMillis[STAGE_TRACK] = millisSince(stageStart);
+    stageStart = cv::getTickCount();
+    if (tracked) {
+        searchRegion(ctx, frame, region);
+        tracked = !all_patterns.empty();
+    }
+    if (tracked) {
+        ctx.framesSinceFullSearch++;
+    } else {
+        // 2. Process at original scale, and upscaled if needed, over the whole frame
+        region = whole;
+        all_patterns.clear();
+        searchRegion(ctx, frame, region);
+        ctx.framesSinceFullSearch = 0;
+        ctx.fullSearches++;
     }
+    ctx.stageMillis[STAGE_SEARCH] = millisSince(stageStart);
 
     // 3. Deduplication
-    std::vector<FinderPattern> final_patterns;
+    std::vector<FinderPattern>& final_patterns = ctx.patterns;
+    final_patterns.clear();
     if (!all_patterns.empty()) {
-        std::vector<bool> taken(all_patterns.size(), false);
+        std::vector<char>& taken = ctx.taken;
+        taken.assign(all_patterns.size(), false);
         for (size_t i = 0; i < all_patterns.size(); ++i) {
             if (taken[i]) continue;
             for (size_t j = i + 1; j < all_patterns.size(); ++j) {
@@ -268,26 +348,49 @@ std::string processFrameForGuidance(cv::Mat& frame) {
         }
     }
 
-    // 4. Provide guidance (draws directly onto the 'frame' Mat)
-    provideUserGuidance(frame, final_patterns);
+    stageStart = cv::getTickCount();
+    if (ctx.trackingEnabled) updateTracking(ctx, frame, final_patterns);
+    ctx.stageMillis[STAGE_TRACK] += millisSince(stageStart);
 
-    std::string decoded_text = "";
+    // 4. Provide guidance, as state for the app to draw over its camera preview
+    stageStart = cv::getTickCount();
+    computeGuidance(frame.size(), final_patterns, ctx.guidance);
+    ctx.stageMillis[STAGE_GUIDANCE] = millisSince(stageStart);
+
+    // 5. Worth decoding? Only if the QR code's apparent size is within our target range. The
+    // luma frame carries none of the guidance drawings, so they cannot get in the decoder's way.
+    // While tracking, the code is inside the searched region and the decoder only needs to look there.
+    bool decodable = false;
     if (!final_patterns.empty()) {
         double totalArea = 0;
         for (const auto& p : final_patterns) totalArea += p.area;
+        decodable = totalArea >= MIN_DECODING_AREA && totalArea <= MAX_DECODING_AREA;
+    }
+    decodeRegion = region;
 
-        // Check if the QR code's apparent size is within our target range
-        if (totalArea >= MIN_DECODING_AREA && totalArea <= MAX_DECODING_AREA) {
-            // We are close enough, attempt to decode.
-            decoded_text = decodeQRCode(frame);
+    ctx.stageMillis[STAGE_TOTAL] = millisSince(frameStart);
+    return decodable;
+}
 
-            if (!decoded_text.empty()) {
-                // If successful, draw a confirmation on the screen
-                cv::Point textOrg(frame.cols / 2 - 100, frame.rows / 2);
-                cv::putText(frame, "DECODED!", textOrg, cv::FONT_HERSHEY_TRIPLEX, 1.5, cv::Scalar(0, 255, 0), 3);
-            }
-        }
+std::string decodeForGuidance(DecoderContext& decoder, const cv::Mat& frame, const cv::Rect& region) {
+    const int64 start = cv::getTickCount();
+    std::string decoded = decodeQRCode(decoder.detector, frame(region), decoder.corners);
+    decoder.decodeMillis = millisSince(start);
+    return decoded;
+}
+
+// --- NEW: This is the main entry point that replaces your old main() function ---
+std::string processFrameForGuidance(ScannerContext& ctx, const cv::Mat& frame) {
+    const int64 frameStart = cv::getTickCount();
+    cv::Rect region;
+    std::string decoded_text = "";
+    if (detectForGuidance(ctx, frame, region)) {
+        // We are close enough, attempt to decode, on this thread and with the context's own detector
+        decoded_text = decodeForGuidance(ctx.decoder, frame, region);
+        ctx.stageMillis[STAGE_DECODE] = ctx.decoder.decodeMillis;
+        ctx.guidance.decode = decoded_text.empty() ? DECODE_FAILED : DECODE_DECODED;
     }
 
+    ctx.stageMillis[STAGE_TOTAL] = millisSince(frameStart);
     return decoded_text;
 }
\ No newline at end of file
@@ -3,8 +3,20 @@
 
 #include <opencv2/opencv.hpp>
 #include <string> // Add string include
+#include "ScannerContext.h"
 
-// The function now returns the decoded string, if any.
-std::string processFrameForGuidance(cv::Mat& frame);
+// Finds and decodes a QR code in a grayscale (luma, CV_8UC1) frame and returns the decoded
+// string, if any. All working buffers come from ctx and are reused from frame to frame. Nothing
+// is drawn: the frame's finder patterns are left in ctx.patterns and its guidance state in
+// ctx.guidance, for the app to draw over its camera preview.
+std::string processFrameForGuidance(ScannerContext& ctx, const cv::Mat& frame);
 
-#endif //QR_INDOORNAV_GUIDANCE_H
\ No newline at end of file
+// The two halves of processFrameForGuidance, for running them on different threads.
+// detectForGuidance does everything but the decoding: finder patterns and guidance go into ctx
+// as above, and it returns whether the code is worth decoding, and where ('decodeRegion').
+bool detectForGuidance(ScannerContext& ctx, const cv::Mat& frame, cv::Rect& decodeRegion);
+
+// Decodes the code in 'region' of 'frame' with the decoder's own detector; empty if it fails.
+std::string decodeForGuidance(DecoderContext& decoder, const cv::Mat& frame, const cv::Rect& region);
+
+#endif //QR_INDOORNAV_GUIDANCE_H
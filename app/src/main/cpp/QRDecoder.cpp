@@ -1,6 +1,6 @@
 #include "QRDecoder.h"
 
-std::string decodeQRCode(const cv::Mat& frame) {
+std::string decodeQRCode(cv::QRCodeDetector& detector, const cv::Mat& frame, std::vector<cv::Point>& points) {
     cv::Mat gray;
     if (frame.channels() == 3) {
         cv::cvtColor(frame, gray, cv::COLOR_BGR2GRAY);
@@ -8,15 +8,12 @@ std::string decodeQRCode(const cv::Mat& frame) {
         gray = frame;
     }
 
-    cv::QRCodeDetector qrDecoder;
-    std::vector<cv::Point> points;
-
     // Detect QR code position
-    bool found = qrDecoder.detect(gray, points);
+    bool found = detector.detect(gray, points);
     if (!found) return "";
 
     // Decode using detected points
-    std::string decodedText = qrDecoder.decode(gray, points);
+    std::string decodedText = detector.decode(gray, points);
 
     return decodedText;
 }
@@ -3,12 +3,15 @@
 
 #include <opencv2/opencv.hpp>
 #include <string>
+#include <vector>
 
 /**
  * Attempts to detect and decode a QR code from the given frame.
+ * @param detector The detector to use; kept by the caller so it is not rebuilt for every frame.
  * @param frame The input image, expected to be grayscale for best performance.
+ * @param points Receives the code's corners; reused by the caller between frames.
  * @return The decoded string if successful, otherwise an empty string.
  */
-std::string decodeQRCode(const cv::Mat& frame);
+std::string decodeQRCode(cv::QRCodeDetector& detector, const cv::Mat& frame, std::vector<cv::Point>& points);
 
-#endif //QR_INDOORNAV_QRDECODER_H
\ No newline at end of file
+#endif //QR_INDOORNAV_QRDECODER_H
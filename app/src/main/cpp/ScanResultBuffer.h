@@ -0,0 +1,48 @@
+#ifndef QR_INDOORNAV_SCANRESULTBUFFER_H
+#define QR_INDOORNAV_SCANRESULTBUFFER_H
+
+#include <cstddef>
+#include <cstdint>
+#include "ScannerContext.h"
+
+/**
+ * What processFrame reports about a frame, laid out as the direct ByteBuffer ScanResult.java
+ * owns and reads in native byte order. The native side fills it in place every frame, so the
+ * result crosses JNI without creating a single Java object.
+ *
+ * The offsets are part of the contract with ScanResult.java: change both together.
+ */
+const int MAX_REPORTED_PATTERNS = 16;  // Further patterns are not reported
+const int PATTERN_FLOATS = 10;         // Center x, y, then 4 corners x, y
+const int MAX_PAYLOAD_BYTES = 4096;    // More than the largest QR code holds (2953 bytes)
+
+// Bits of ScanResultBuffer::flags
+const int32_t FLAG_TRACKED = 1;            // The patterns were found in the tracked region
+const int32_t FLAG_PAYLOAD_TRUNCATED = 2;  // The payload was longer than MAX_PAYLOAD_BYTES
+
+struct ScanResultBuffer {
+    int32_t status;         // DecodeStatus
+    int32_t position;       // PositionGuidance
+    int32_t angle;          // AngleGuidance
+    int32_t flags;
+    int32_t frameWidth;
+    int32_t frameHeight;
+    int32_t patternCount;
+    int32_t payloadLength;  // Bytes of payload in use, 0 unless decoded
+    float qrCenter[2];
+    float angleLines[6];    // Top left, top right, bottom left centers
+    float stageMillis[STAGE_COUNT];
+    float patterns[MAX_REPORTED_PATTERNS][PATTERN_FLOATS];
+    uint8_t payload[MAX_PAYLOAD_BYTES]; // The decoded bytes as they are, not necessarily text
+    int32_t decodeRegion[4];            // x, y, width, height to decode in, with DECODE_PENDING
+};
+
+static_assert(offsetof(ScanResultBuffer, qrCenter) == 32, "ScanResult.java QR_CENTER");
+static_assert(offsetof(ScanResultBuffer, angleLines) == 40, "ScanResult.java ANGLE_LINES");
+static_assert(offsetof(ScanResultBuffer, stageMillis) == 64, "ScanResult.java STAGE_MILLIS");
+static_assert(offsetof(ScanResultBuffer, patterns) == 84, "ScanResult.java PATTERNS");
+static_assert(offsetof(ScanResultBuffer, payload) == 724, "ScanResult.java PAYLOAD");
+static_assert(offsetof(ScanResultBuffer, decodeRegion) == 4820, "ScanResult.java DECODE_REGION");
+static_assert(sizeof(ScanResultBuffer) == 4836, "ScanResult.java BYTES");
+
+#endif //QR_INDOORNAV_SCANRESULTBUFFER_H
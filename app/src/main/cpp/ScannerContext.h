@@ -0,0 +1,121 @@
+#ifndef QR_INDOORNAV_SCANNERCONTEXT_H
+#define QR_INDOORNAV_SCANNERCONTEXT_H
+
+#include <opencv2/opencv.hpp>
+#include <vector>
+
+// One finder pattern (the nested squares in three corners of a QR code).
+struct FinderPattern {
+    cv::Point2f center;
+    double area;
+    cv::Point2f corners[4]; // Outline as its minimum-area box: fixed size, so copying never allocates
+};
+
+// What the scanner tells the user about the last frame, as codes shared with ScanResult.java.
+enum PositionGuidance {
+    POSITION_NO_CODE = 0,
+    POSITION_MOVE_CLOSER = 1,
+    POSITION_OK = 2,
+    POSITION_MOVE_UP = 3,
+    POSITION_MOVE_DOWN = 4,
+    POSITION_MOVE_LEFT = 5,
+    POSITION_MOVE_RIGHT = 6,
+};
+
+enum AngleGuidance {
+    ANGLE_NONE = 0,          // Not judged: no code, too small, or no right angle among the patterns
+    ANGLE_NEED_CORNERS = 1,
+    ANGLE_OK = 2,
+    ANGLE_ROTATE_RIGHT = 3,
+    ANGLE_ROTATE_LEFT = 4,
+};
+
+enum DecodeStatus {
+    DECODE_NOT_ATTEMPTED = 0, // No code, or not at a decodable size
+    DECODE_FAILED = 1,
+    DECODE_DECODED = 2,
+    DECODE_PENDING = 3,       // Handed to a separate decoder (see ScannerPipeline.java)
+};
+
+// Parts of processFrameForGuidance that are timed, for ScannerContext::stageMillis.
+enum ScanStage {
+    STAGE_TRACK = 0,    // Optical flow, both following the last frame's patterns and keeping this one's
+    STAGE_SEARCH = 1,   // Finder pattern search, region and full frame
+    STAGE_GUIDANCE = 2,
+    STAGE_DECODE = 3,
+    STAGE_TOTAL = 4,    // The whole call, deduplication included
+    STAGE_COUNT = 5,
+};
+
+// Guidance state of one frame, in frame coordinates. The finder patterns themselves are
+// ScannerContext::patterns. Drawing is left to the app (ScanOverlayView).
+struct ScanGuidance {
+    int position = POSITION_NO_CODE;
+    int angle = ANGLE_NONE;
+    int decode = DECODE_NOT_ATTEMPTED;
+    cv::Point2f qrCenter;                      // Valid from POSITION_OK on
+    cv::Point2f topLeft, topRight, bottomLeft; // Centers the angle was judged from, from ANGLE_OK on
+};
+
+// QR decoding state. The scanner context has its own for decoding in line; a pipelined scanner
+// gives its decode thread a separate one, so decoding never shares state with detection.
+struct DecoderContext {
+    cv::QRCodeDetector detector;
+    std::vector<cv::Point> corners;    // Of the last code found, reused
+    float decodeMillis = 0;            // Time the last decode took
+};
+
+// Working images and contour storage of one detection pass (one scale), reused every frame.
+// When only a region of the frame is searched, the images are used through views of their top
+// left corner, so a smaller region than last time does not reallocate them.
+struct ScanPass {
+    cv::Mat scaled;  // Input resized to the pass's scale (unused at scale 1)
+    cv::Mat clahe;
+    cv::Mat mean;    // Local Gaussian mean for the adaptive threshold
+    cv::Mat diff;
+    cv::Mat thresh;
+    std::vector<std::vector<cv::Point>> contours;
+    std::vector<cv::Vec4i> hierarchy;
+};
+
+/**
+ * Everything the scanner needs from frame to frame, created once per scanning session and
+ * handed to Java as an opaque handle (see native-lib.cpp).
+ *
+ * Every buffer here keeps its capacity between frames: images are only reallocated when the
+ * frame size changes, and vectors are cleared rather than freed. The CLAHE instance keeps its
+ * own tile histograms and the QR detector its internal state, which the per-frame versions
+ * rebuilt every time. Not thread-safe: one analyzer thread drives a context.
+ *
+ * It also carries the tracking state between frames: once finder patterns are found, their
+ * corners are followed into the next frame with pyramidal Lucas-Kanade optical flow, and only
+ * a padded region around them is searched (see processFrameForGuidance).
+ */
+struct ScannerContext {
+    cv::Ptr<cv::CLAHE> clahe;
+    ScanPass original;
+    ScanPass pyramid;                      // Upscaled pass, for small codes
+    std::vector<FinderPattern> candidates; // All passes, before deduplication
+    std::vector<FinderPattern> patterns;
+    std::vector<char> taken;               // Deduplication marks, per candidate
+    DecoderContext decoder;                // For decoding on the scanning thread
+    ScanGuidance guidance;                 // Of the last frame
+    float stageMillis[STAGE_COUNT] = {};   // Time each stage took in the last frame
+
+    // Region tracking between frames
+    bool trackingEnabled = true;             // False: search the whole frame every time
+    bool tracking = false;                   // trackPoints hold the last frame's pattern corners
+    int framesSinceFullSearch = 0;
+    std::vector<cv::Mat> previousPyramid;    // Optical flow pyramid of the last frame
+    std::vector<cv::Mat> currentPyramid;
+    bool currentPyramidBuilt = false;        // currentPyramid is of this frame
+    std::vector<cv::Point2f> trackPoints;    // Pattern corners in the last frame
+    std::vector<cv::Point2f> trackedPoints;  // ... and where they moved in this one
+    std::vector<unsigned char> trackStatus;
+    std::vector<float> trackError;
+    int fullSearches = 0;                    // Whole-frame searches so far, for benchmarks
+
+    ScannerContext();
+};
+
+#endif //QR_INDOORNAV_SCANNERCONTEXT_H
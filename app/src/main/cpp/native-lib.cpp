@@ -1,21 +1,150 @@
 #include <jni.h>
 #include <opencv2/opencv.hpp>
 #include "Guidance.h"
+#include "ScannerContext.h"
+#include "ScanResultBuffer.h"
+#include <algorithm>
+#include <cstring>
+
+// The result buffer behind a direct ByteBuffer from Java, or null (with an exception pending)
+// if it is not one of ScanResult.BYTES.
+static ScanResultBuffer* resultBuffer(JNIEnv* env, jobject buffer) {
+    auto* out = (ScanResultBuffer*) env->GetDirectBufferAddress(buffer);
+    if (out == nullptr || env->GetDirectBufferCapacity(buffer) < (jlong) sizeof(ScanResultBuffer)) {
+        jclass iae = env->FindClass("java/lang/IllegalArgumentException");
+        env->ThrowNew(iae, "result must be a direct buffer of ScanResult.BYTES");
+        return nullptr;
+    }
+    return out;
+}
+
+// The payload goes back as raw bytes: NewStringUTF expects modified UTF-8, which a binary
+// payload is not.
+static void writePayload(ScanResultBuffer* out, const std::string& decoded) {
+    int length = std::min<int>(decoded.size(), MAX_PAYLOAD_BYTES);
+    if (length < (int) decoded.size()) out->flags |= FLAG_PAYLOAD_TRUNCATED;
+    out->payloadLength = length;
+    std::memcpy(out->payload, decoded.data(), length);
+}
+
+// Fills the result in place from the context's last frame; only the patterns in use are written.
+static void writeResult(ScanResultBuffer* out, const ScannerContext& ctx, const cv::Mat& gray) {
+    const ScanGuidance& guidance = ctx.guidance;
+    out->status = guidance.decode;
+    out->position = guidance.position;
+    out->angle = guidance.angle;
+    out->flags = ctx.trackingEnabled && ctx.framesSinceFullSearch > 0 ? FLAG_TRACKED : 0;
+    out->frameWidth = gray.cols;
+    out->frameHeight = gray.rows;
+    out->qrCenter[0] = guidance.qrCenter.x;
+    out->qrCenter[1] = guidance.qrCenter.y;
+    const cv::Point2f lines[] = { guidance.topLeft, guidance.topRight, guidance.bottomLeft };
+    for (int i = 0; i < 3; ++i) {
+        out->angleLines[2 * i] = lines[i].x;
+        out->angleLines[2 * i + 1] = lines[i].y;
+    }
+    std::copy(ctx.stageMillis, ctx.stageMillis + STAGE_COUNT, out->stageMillis);
+
+    int count = std::min<int>(ctx.patterns.size(), MAX_REPORTED_PATTERNS);
+    out->patternCount = count;
+    for (int i = 0; i < count; ++i) {
+        const FinderPattern& pattern = ctx.patterns[i];
+        float* p = out->patterns[i];
+        p[0] = pattern.center.x;
+        p[1] = pattern.center.y;
+        for (int c = 0; c < 4; ++c) {
+            p[2 + 2 * c] = pattern.corners[c].x;
+            p[3 + 2 * c] = pattern.corners[c].y;
+        }
+    }
+    out->payloadLength = 0;
+}
+
+extern "C"
+JNIEXPORT jlong JNICALL
+Java_com_example_qr_1indoornav_ScannerPipeline_createScanner(JNIEnv *env, jclass clazz) {
+    // Owned by the Java side through this handle until destroyScanner
+    return (jlong) new ScannerContext();
+}
 
 extern "C"
-JNIEXPORT jstring JNICALL
-Java_com_example_qr_1indoornav_QRScannerActivity_processFrame(JNIEnv *env, jobject thiz, jlong mat_addr) {
-    // Cast the 'long' address from Java back to a cv::Mat pointer
-    cv::Mat& frame = *(cv::Mat*)mat_addr;
-
-    // Call the processing function, which draws on the BGR frame and returns a decoded string
-    std::string result = processFrameForGuidance(frame);
-
-    // --- THE FIX: ADD THIS LINE BACK ---
-    // Before returning to Java, convert the BGR frame (with drawings) to RGBA.
-    // This ensures Utils.matToBitmap in Java interprets the color channels correctly.
-    cv::cvtColor(frame, frame, cv::COLOR_BGR2RGBA);
-
-    // Convert the C++ std::string to a Java String (jstring) and return it
-    return env->NewStringUTF(result.c_str());
-}
\ No newline at end of file
+JNIEXPORT void JNICALL
+Java_com_example_qr_1indoornav_ScannerPipeline_destroyScanner(JNIEnv *env, jclass clazz, jlong handle) {
+    delete (ScannerContext*) handle;
+}
+
+extern "C"
+JNIEXPORT jlong JNICALL
+Java_com_example_qr_1indoornav_ScannerPipeline_createDecoder(JNIEnv *env, jclass clazz) {
+    return (jlong) new DecoderContext();
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_example_qr_1indoornav_ScannerPipeline_destroyDecoder(JNIEnv *env, jclass clazz, jlong handle) {
+    delete (DecoderContext*) handle;
+}
+
+extern "C"
+JNIEXPORT jint JNICALL
+Java_com_example_qr_1indoornav_ScannerPipeline_processFrame(JNIEnv *env, jclass clazz, jlong handle, jlong gray_addr, jobject result_buffer) {
+    // Cast the 'long' handle and address from Java back to pointers
+    ScannerContext& ctx = *(ScannerContext*)handle;
+    const cv::Mat& gray = *(cv::Mat*)gray_addr;
+    ScanResultBuffer* out = resultBuffer(env, result_buffer);
+    if (out == nullptr) return DECODE_NOT_ATTEMPTED;
+
+    // Call the processing function, which works on the luma frame and returns the decoded bytes.
+    // It draws nothing: the geometry and guidance state go back to Java, which draws them over
+    // the camera preview.
+    std::string decoded = processFrameForGuidance(ctx, gray);
+
+    writeResult(out, ctx, gray);
+    writePayload(out, decoded);
+    return out->status;
+}
+
+extern "C"
+JNIEXPORT jint JNICALL
+Java_com_example_qr_1indoornav_ScannerPipeline_detectFrame(JNIEnv *env, jclass clazz, jlong handle, jlong gray_addr,
+                                                           jlong decode_frame_addr, jobject result_buffer) {
+    ScannerContext& ctx = *(ScannerContext*)handle;
+    const cv::Mat& gray = *(cv::Mat*)gray_addr;
+    ScanResultBuffer* out = resultBuffer(env, result_buffer);
+    if (out == nullptr) return DECODE_NOT_ATTEMPTED;
+
+    cv::Rect region;
+    if (detectForGuidance(ctx, gray, region)) {
+        // The decoder gets its own copy, so this frame's buffer can take the next frame. The
+        // copy keeps its buffer as long as the frame size does not change.
+        gray.copyTo(*(cv::Mat*)decode_frame_addr);
+        ctx.guidance.decode = DECODE_PENDING;
+    }
+
+    writeResult(out, ctx, gray);
+    out->decodeRegion[0] = region.x;
+    out->decodeRegion[1] = region.y;
+    out->decodeRegion[2] = region.width;
+    out->decodeRegion[3] = region.height;
+    return out->status;
+}
+
+extern "C"
+JNIEXPORT jint JNICALL
+Java_com_example_qr_1indoornav_ScannerPipeline_decodeFrame(JNIEnv *env, jclass clazz, jlong handle, jlong gray_addr,
+                                                           jint x, jint y, jint width, jint height, jobject result_buffer) {
+    DecoderContext& decoder = *(DecoderContext*)handle;
+    const cv::Mat& gray = *(cv::Mat*)gray_addr;
+    ScanResultBuffer* out = resultBuffer(env, result_buffer);
+    if (out == nullptr) return DECODE_NOT_ATTEMPTED;
+
+    // Only the decode's own fields are written: status, flags, payload and decode time.
+    cv::Rect region = cv::Rect(x, y, width, height) & cv::Rect(0, 0, gray.cols, gray.rows);
+    std::string decoded = region.area() > 0 ? decodeForGuidance(decoder, gray, region) : "";
+    out->status = decoded.empty() ? DECODE_FAILED : DECODE_DECODED;
+    out->flags = 0;
+    out->stageMillis[STAGE_DECODE] = decoder.decodeMillis;
+    out->stageMillis[STAGE_TOTAL] = decoder.decodeMillis;
+    writePayload(out, decoded);
+    return out->status;
+}
@@ -1,18 +1,22 @@
 package com.example.qr_indoornav;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
+import android.Manifest;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
-import android.hardware.SensorManager;
+import android.content.ServiceConnection;
+import android.content.pm.PackageManager;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.IBinder;
 import android.widget.ImageView;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -29,11 +33,12 @@ import java.util.Locale;
 import java.util.Objects;
 import java.util.stream.Collectors;
 
-public class CompassActivity extends AppCompatActivity implements SensorEventListener {
+public class CompassActivity extends AppCompatActivity implements SensorHub.FrameListener {
 
     // --- Request codes ---
     private static final int PROGRESS_REQUEST_CODE = 1001;
     private static final int QR_SCANNER_REQUEST_CODE = 1002;
+    private static final int ACTIVITY_RECOGNITION_REQUEST_CODE = 1003;
 
     // --- UI Components ---
     private ImageView arrowImageView;
@@ -41,12 +46,29 @@ public class CompassActivity extends AppCompatActivity implements SensorEventLis
     private MaterialCardView compassBackgroundCard;
     private TimelineView timelineView;
 
-    // --- Sensor variables ---
-    private SensorManager sensorManager;
-    private StepDetector stepDetector;
-    private final float[] accelerometerReading = new float[3];
-    private final float[] magnetometerReading = new float[3];
-    private final float[] rotationMatrix = new float[9];
+    // --- Navigation service: owns the sensors, steps and current leg for the whole trip ---
+    private NavigationService navigation; // Null until bound
+    private boolean resumed = false;
+    private boolean dialogShowing = false;
+    // Sampling mode for the screen this one hands over to when it pauses: WALKING for the
+    // progress screen, SCANNING for the QR scanner, IDLE when the app goes to the background.
+    private SensorHub.Mode nextScreenMode = SensorHub.Mode.IDLE;
+    private final ServiceConnection navigationConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            navigation = ((NavigationService.LocalBinder) service).getService();
+            loadCurrentLegData();
+            if (resumed && currentState != AlignmentState.FINISHED) {
+                navigation.subscribe(CompassActivity.this);
+            }
+            updateSensorMode();
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            navigation = null;
+        }
+    };
 
     // --- State Machine ---
     private enum AlignmentState { ALIGNING, WAITING_TO_NAVIGATE, FINISHED }
@@ -55,8 +77,7 @@ public class CompassActivity extends AppCompatActivity implements SensorEventLis
     // --- NAVIGATION STATE (Refactored) ---
     private List<PathFinder.PathLeg> pathLegs; // The single source of truth for the path
     private List<Location> timelineLocations; // Location objects for the UI timeline
-    private int currentLegIndex = 0; // Index of the leg to execute from the pathLegs list
-    private int stepsTakenInLeg = 0; // Steps accumulated for the current leg
+    private ArrayList<String> pathNodeIds; // Route node ids, for the live map during walking legs
 
     private final Handler navigationHandler = new Handler();
     private Runnable navigationRunnable;
@@ -77,11 +98,13 @@ public class CompassActivity extends AppCompatActivity implements SensorEventLis
         }
 
         initializeUI();
-        setupSensors();
+        requestStepSensorPermission();
         setupTimeline();
         setupNavigationRunnable();
 
-        loadCurrentLegData();
+        // The current leg is loaded once the service is bound.
+        NavigationService.start(this, new ArrayList<>(pathLegs));
+        bindService(new Intent(this, NavigationService.class), navigationConnection, Context.BIND_AUTO_CREATE);
     }
 
     private void initializeUI() {
@@ -96,49 +119,64 @@ public class CompassActivity extends AppCompatActivity implements SensorEventLis
         // Other UI setup as before...
     }
 
-    private void setupSensors() {
-        sensorManager = (SensorManager) getSystemService(Context.SENSOR_SERVICE);
-        stepDetector = new StepDetector(null);
+    private void requestStepSensorPermission() {
+        // Ask now, before the first leg is walked, so ProgressActivity can use the hardware step
+        // sensors. If the user declines, steps are detected from the accelerometer instead.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q
+                && ContextCompat.checkSelfPermission(this, Manifest.permission.ACTIVITY_RECOGNITION)
+                        != PackageManager.PERMISSION_GRANTED) {
+            ActivityCompat.requestPermissions(
+                    this, new String[]{Manifest.permission.ACTIVITY_RECOGNITION}, ACTIVITY_RECOGNITION_REQUEST_CODE);
+        }
     }
 
     /**
      * Constructs the list of Location objects for the UI timeline from the path legs.
      */
     private void setupTimeline() {
-        ArrayList<String> pathIds = new ArrayList<>();
-        pathIds.add(pathLegs.get(0).fromId); // Add the starting point
+        pathNodeIds = new ArrayList<>();
+        pathNodeIds.add(pathLegs.get(0).fromId); // Add the starting point
         for (PathFinder.PathLeg leg : pathLegs) {
-            pathIds.add(leg.toId); // Add each destination point
+            pathNodeIds.add(leg.toId); // Add each destination point
         }
 
-        this.timelineLocations = pathIds.stream()
+        this.timelineLocations = pathNodeIds.stream()
                 .map(MapData::getLocationById)
                 .filter(Objects::nonNull)
                 .collect(Collectors.toList());
     }
 
+    @Override
+    public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
+        super.onRequestPermissionsResult(requestCode, permissions, grantResults);
+        if (requestCode == ACTIVITY_RECOGNITION_REQUEST_CODE && grantResults.length > 0
+                && grantResults[0] == PackageManager.PERMISSION_GRANTED && navigation != null) {
+            navigation.restartSensors(); // Switch to the hardware step sensors
+        }
+    }
+
     /**
-     * Loads data for the current leg directly from the pre-calculated pathLegs list.
+     * Loads data for the current leg, as tracked by the {@link NavigationService}.
      * NO internal calculations are performed.
      */
     private void loadCurrentLegData() {
         // Check if the journey is complete
-        if (currentLegIndex >= pathLegs.size()) {
+        if (navigation.getCurrentLegIndex() >= pathLegs.size()) {
             // This state is now only a fallback, the main "finished" logic is in verifyScanAndUpdateJourney
             currentState = AlignmentState.FINISHED;
             instructionTextView.setText(R.string.destination_reached);
             targetTextView.setText(R.string.target_complete);
             arrowImageView.setRotation(0);
             compassBackgroundCard.setCardBackgroundColor(ContextCompat.getColor(this, R.color.compass_bg_target_reached));
-            sensorManager.unregisterListener(this);
+            NavigationService.stop(this);
             updateTimeline();
             return;
         }
 
         // Get the current leg's pre-calculated data
-        PathFinder.PathLeg currentLeg = pathLegs.get(currentLegIndex);
+        PathFinder.PathLeg currentLeg = navigation.getCurrentLeg();
 
-        // Update UI for the current leg
+        // Update UI for the current leg (the service already points the sensors at it)
         updateTargetText(currentLeg.direction);
         updateTimeline();
         currentState = AlignmentState.ALIGNING;
@@ -149,10 +187,10 @@ public class CompassActivity extends AppCompatActivity implements SensorEventLis
     protected void onActivityResult(int requestCode, int resultCode, @Nullable Intent data) {
         super.onActivityResult(requestCode, resultCode, data);
 
+        if (navigation == null) return; // Not bound yet; the service was lost with the process
         if (requestCode == PROGRESS_REQUEST_CODE) {
-            if (data != null) {
-                stepsTakenInLeg = data.getIntExtra("EXTRA_STEPS_TAKEN", stepsTakenInLeg);
-            }
+            // The leg's steps stay in the service's StepDetector, so a resumed leg continues from them.
+            updateSensorMode(); // Not resumed yet: IDLE until onResume
             if (resultCode == RESULT_OK) {
                 launchQrScanner();
             } else {
@@ -178,17 +216,18 @@ public class CompassActivity extends AppCompatActivity implements SensorEventLis
             return;
         }
 
-        String expectedNextNodeId = pathLegs.get(currentLegIndex).toId;
+        String expectedNextNodeId = navigation.getCurrentLeg().toId;
         String finalDestinationId = pathLegs.get(pathLegs.size() - 1).toId;
 
         if (scannedData.id.equals(expectedNextNodeId)) {
             // SUCCESS: Scanned QR matches the expected stop.
             Toast.makeText(this, "Correct Location: " + scannedData.id, Toast.LENGTH_SHORT).show();
-            currentLegIndex++; // Advance to the next leg
+            navigation.advanceLeg(); // Advance to the next leg, starting its step count at zero
 
             if (scannedData.id.equals(finalDestinationId)) {
                 // --- MODIFIED: LAUNCH SUCCESS ACTIVITY INSTEAD OF DIALOG ---
                 // Destination reached! Launch the success screen.
+                NavigationService.stop(this);
                 Intent intent = new Intent(this, SuccessActivity.class);
                 startActivity(intent);
                 finish(); // Close this compass activity
@@ -196,7 +235,7 @@ public class CompassActivity extends AppCompatActivity implements SensorEventLis
                 // --- END MODIFICATION ---
 
             } else {
-                int remainingStops = pathLegs.size() - currentLegIndex;
+                int remainingStops = pathLegs.size() - navigation.getCurrentLegIndex();
                 String message = "You have arrived at " + expectedNextNodeId + ".\n" +
                         remainingStops + " more stop(s) to go.";
                 // --- MODIFIED: Call the simplified dialog method ---
@@ -211,12 +250,17 @@ public class CompassActivity extends AppCompatActivity implements SensorEventLis
     private void setupNavigationRunnable() {
         navigationRunnable = () -> {
             if (currentState == AlignmentState.WAITING_TO_NAVIGATE) {
-                PathFinder.PathLeg currentLeg = pathLegs.get(currentLegIndex);
+                PathFinder.PathLeg currentLeg = navigation.getCurrentLeg();
 
+                // Count from now on, so steps taken while the progress screen opens are not lost.
+                navigation.setMode(SensorHub.Mode.WALKING);
+                nextScreenMode = SensorHub.Mode.WALKING;
                 Intent intent = new Intent(CompassActivity.this, ProgressActivity.class);
                 intent.putExtra(ProgressActivity.EXTRA_TARGET_DEGREE, currentLeg.direction);
                 intent.putExtra(ProgressActivity.EXTRA_DISTANCE_METERS, currentLeg.distance);
-                intent.putExtra(ProgressActivity.EXTRA_INITIAL_STEPS, stepsTakenInLeg);
+                intent.putExtra(ProgressActivity.EXTRA_LEG_FROM_ID, currentLeg.fromId);
+                intent.putExtra(ProgressActivity.EXTRA_LEG_TO_ID, currentLeg.toId);
+                intent.putStringArrayListExtra(ProgressActivity.EXTRA_PATH_NODE_IDS, pathNodeIds);
                 startActivityForResult(intent, PROGRESS_REQUEST_CODE);
                 currentState = AlignmentState.ALIGNING;
             }
@@ -225,21 +269,23 @@ public class CompassActivity extends AppCompatActivity implements SensorEventLis
 
     private void launchQrScanner() {
         Intent scannerIntent = new Intent(this, QRScannerActivity.class);
-        String expectedNextNodeId = pathLegs.get(currentLegIndex).toId;
-        int remainingLegs = pathLegs.size() - 1 - currentLegIndex;
+        String expectedNextNodeId = navigation.getCurrentLeg().toId;
+        int remainingLegs = pathLegs.size() - 1 - navigation.getCurrentLegIndex();
         scannerIntent.putExtra("EXPECTED_NODE_ID", expectedNextNodeId);
         scannerIntent.putExtra("REMAINING_LEGS", remainingLegs);
+        nextScreenMode = SensorHub.Mode.SCANNING;
         startActivityForResult(scannerIntent, QR_SCANNER_REQUEST_CODE);
     }
 
     // --- MODIFIED: SIMPLIFIED DIALOG FOR INTERMEDIATE CHECKPOINTS ---
     private void showSuccessDialog(String message) {
+        setDialogShowing(true);
         new AlertDialog.Builder(this)
                 .setTitle("Checkpoint Reached!")
                 .setMessage(message)
                 .setCancelable(false)
                 .setPositiveButton("Proceed", (dialog, which) -> {
-                    stepsTakenInLeg = 0; // Reset for new leg
+                    setDialogShowing(false);
                     loadCurrentLegData(); // Load next leg's data
                 })
                 .show();
@@ -247,27 +293,49 @@ public class CompassActivity extends AppCompatActivity implements SensorEventLis
     // --- END MODIFICATION ---
 
     private void showErrorDialog(String expectedId, String scannedId) {
+        setDialogShowing(true);
         new AlertDialog.Builder(this)
                 .setTitle("QR Code Mismatch")
                 .setMessage("Expected: " + expectedId + "\nScanned: " + scannedId + "\n\nPlease find the correct QR code and try again.")
                 .setCancelable(false)
-                .setPositiveButton("Rescan", (dialog, which) -> launchQrScanner())
-                .setNegativeButton("Cancel", (dialog, which) -> dialog.dismiss())
+                .setPositiveButton("Rescan", (dialog, which) -> {
+                    launchQrScanner();
+                    setDialogShowing(false);
+                })
+                .setNegativeButton("Cancel", (dialog, which) -> {
+                    dialog.dismiss();
+                    setDialogShowing(false);
+                })
                 .show();
     }
 
+    private void setDialogShowing(boolean showing) {
+        dialogShowing = showing;
+        updateSensorMode();
+    }
+
+    /**
+     * Picks the sensor sampling mode for what this screen is doing: a live compass while
+     * aligning, a trickle while a dialog waits or once the screen is left for the background.
+     */
+    private void updateSensorMode() {
+        if (navigation == null || currentState == AlignmentState.FINISHED) return;
+        if (!resumed) {
+            navigation.setMode(nextScreenMode);
+        } else if (nextScreenMode == SensorHub.Mode.IDLE) { // Else a hand-over is under way; onPause sets it
+            navigation.setMode(dialogShowing ? SensorHub.Mode.IDLE : SensorHub.Mode.ALIGNING);
+        }
+    }
+
     @Override
     protected void onResume() {
         super.onResume();
+        resumed = true;
         if (currentState != AlignmentState.FINISHED) {
-            Sensor accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
-            if (accelerometer != null) {
-                sensorManager.registerListener(this, accelerometer, SensorManager.SENSOR_DELAY_UI);
-            }
-            Sensor magneticField = sensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD);
-            if (magneticField != null) {
-                sensorManager.registerListener(this, magneticField, SensorManager.SENSOR_DELAY_UI);
+            if (navigation != null) {
+                navigation.subscribe(this);
             }
+            updateSensorMode();
             currentState = AlignmentState.ALIGNING;
             instructionTextView.setText(R.string.align_for_checkpoint);
         }
@@ -276,41 +344,43 @@ public class CompassActivity extends AppCompatActivity implements SensorEventLis
     @Override
     protected void onPause() {
         super.onPause();
-        sensorManager.unregisterListener(this);
+        resumed = false;
+        // Only the frames stop; the service keeps the sensors running for the next screen.
+        if (navigation != null) {
+            navigation.unsubscribe(this);
+        }
+        updateSensorMode();
+        nextScreenMode = SensorHub.Mode.IDLE;
         navigationHandler.removeCallbacks(navigationRunnable);
     }
 
     @Override
-    public void onSensorChanged(SensorEvent event) {
-        if (currentState == AlignmentState.FINISHED) return;
-        if (event.sensor.getType() == Sensor.TYPE_ACCELEROMETER) {
-            System.arraycopy(event.values, 0, accelerometerReading, 0, accelerometerReading.length);
-        } else if (event.sensor.getType() == Sensor.TYPE_MAGNETIC_FIELD) {
-            System.arraycopy(event.values, 0, magnetometerReading, 0, magnetometerReading.length);
+    protected void onDestroy() {
+        super.onDestroy();
+        if (pathLegs == null || pathLegs.isEmpty()) return; // Finished in onCreate, never bound
+        unbindService(navigationConnection);
+        if (isFinishing()) {
+            NavigationService.stop(this); // Leaving the compass screen ends the trip
         }
-        updateOrientationAngles();
     }
 
-    public void updateOrientationAngles() {
-        if (currentState == AlignmentState.FINISHED || pathLegs.isEmpty() || currentLegIndex >= pathLegs.size()) return;
-        if (accelerometerReading[0] == 0 && magnetometerReading[0] == 0) return;
-
-        float targetDegree = pathLegs.get(currentLegIndex).direction;
+    /**
+     * Called once per frame with the latest heading from the sensor thread.
+     */
+    @Override
+    public void onSensorFrame(SensorHub.Snapshot snapshot) {
+        PathFinder.PathLeg currentLeg = navigation.getCurrentLeg();
+        if (currentState == AlignmentState.FINISHED || currentLeg == null) return;
 
-        float[] orientationAngles = new float[3];
-        SensorManager.getRotationMatrix(rotationMatrix, null, accelerometerReading, magnetometerReading);
-        SensorManager.getOrientation(rotationMatrix, orientationAngles);
-        float azimuthInRadians = orientationAngles[0];
-        float currentDegree = (float) Math.toDegrees(azimuthInRadians);
-        if (currentDegree < 0) currentDegree += 360;
+        float targetDegree = currentLeg.direction;
+        float currentDegree = snapshot.azimuthDegrees;
         float bearingToTarget = (targetDegree - currentDegree + 360) % 360;
         arrowImageView.setRotation(bearingToTarget);
         updateCurrentText(currentDegree);
-        checkAlignment(currentDegree, targetDegree);
+        checkAlignment(snapshot.aligned);
     }
 
-    private void checkAlignment(float currentDegree, float targetDegree) {
-        boolean isOnTarget = stepDetector.isAlignedWithTarget(currentDegree, targetDegree);
+    private void checkAlignment(boolean isOnTarget) {
         if (isOnTarget) {
             compassBackgroundCard.setCardBackgroundColor(ContextCompat.getColor(this, R.color.compass_bg_target_reached));
             if (currentState == AlignmentState.ALIGNING) {
@@ -330,7 +400,7 @@ public class CompassActivity extends AppCompatActivity implements SensorEventLis
 
     private void updateTimeline() {
         if (timelineView != null && timelineLocations != null) {
-            timelineView.updatePath(timelineLocations, currentLegIndex);
+            timelineView.updatePath(timelineLocations, navigation.getCurrentLegIndex());
         }
     }
 
@@ -357,7 +427,4 @@ public class CompassActivity extends AppCompatActivity implements SensorEventLis
         if (normalizedDegree < 293) return "W";
         return "NW";
     }
-
-    @Override
-    public void onAccuracyChanged(Sensor sensor, int accuracy) { /* Not used */ }
 }
\ No newline at end of file
@@ -0,0 +1,51 @@
+package com.example.qr_indoornav;
+
+import java.util.ArrayDeque;
+
+/**
+ * Bounded hand-off between two pipeline stages that never blocks the producer: when the queue
+ * is full, the oldest item makes room for the new one and is handed back, so the producer can
+ * recycle it. A stage that falls behind therefore always resumes on the freshest frame.
+ *
+ * Thread-safe. Holds at most {@code capacity} items and allocates nothing after construction.
+ */
+final class DropOldestQueue<T> {
+
+    private final ArrayDeque<T> items;
+    private final int capacity;
+    private long dropped;
+
+    DropOldestQueue(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be at least 1");
+        this.capacity = capacity;
+        this.items = new ArrayDeque<>(capacity);
+    }
+
+    /** Adds {@code item}; returns the item it displaced if the queue was full, otherwise null. */
+    synchronized T put(T item) {
+        T displaced = null;
+        if (items.size() == capacity) {
+            displaced = items.pollFirst();
+            dropped++;
+        }
+        items.addLast(item);
+        notifyAll();
+        return displaced;
+    }
+
+    /** Waits for the oldest item and removes it. */
+    synchronized T take() throws InterruptedException {
+        while (items.isEmpty()) wait();
+        return items.pollFirst();
+    }
+
+    /** Removes the oldest item, or returns null if there is none. */
+    synchronized T poll() {
+        return items.pollFirst();
+    }
+
+    /** How many items were displaced by newer ones so far. */
+    synchronized long droppedCount() {
+        return dropped;
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.qr_indoornav;
+
+import androidx.camera.core.ImageProxy;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * Turns CameraX YUV_420_888 frames into upright luma Mats without per-frame buffers.
+ *
+ * The scanner only needs luma, which is the Y plane as delivered. The plane is wrapped as a Mat
+ * over its own ByteBuffer, with the row stride as the Mat step, so padded rows are skipped
+ * rather than copied (the same way OpenCV's {@code JavaCamera2View} wraps it). Nothing is
+ * converted, and only a frame that needs rotating is copied, into a reused image.
+ *
+ * The returned Mat belongs to this object and is overwritten by the next frame. Not
+ * thread-safe: the camera analyzer thread drives it.
+ */
+public class FrameIngest {
+
+    private final Mat grayRotated = new Mat(); // Returned when the frame needs turning
+    private Mat yView;                         // Header over the last frame's Y plane, if returned
+
+    /**
+     * The luma of {@code image}, upright for the current display rotation.
+     * @return A Mat owned by this object, valid until the next call and, when the frame needs
+     * no rotation, only as long as {@code image} is open (it views the Y plane).
+     */
+    public Mat toGray(ImageProxy image) {
+        return toGray(image.getWidth(), image.getHeight(), image.getPlanes()[0],
+                image.getImageInfo().getRotationDegrees());
+    }
+
+    /**
+     * The luma of a YUV_420_888 frame given by its Y plane, rotated clockwise by
+     * {@code rotationDegrees} (0, 90, 180 or 270).
+     * @return A Mat owned by this object; see {@link #toGray(ImageProxy)}.
+     */
+    public Mat toGray(int width, int height, ImageProxy.PlaneProxy yPlane, int rotationDegrees) {
+        releaseYView();
+        Mat y = new Mat(height, width, CvType.CV_8UC1, yPlane.getBuffer(), yPlane.getRowStride());
+        int rotateCode = rotateCode(rotationDegrees);
+        if (rotateCode < 0) {
+            yView = y;
+            return y;
+        }
+        Core.rotate(y, grayRotated, rotateCode);
+        y.release();
+        return grayRotated;
+    }
+
+    private void releaseYView() {
+        if (yView != null) {
+            yView.release();
+            yView = null;
+        }
+    }
+
+    private static int rotateCode(int rotationDegrees) {
+        switch (rotationDegrees) {
+            case 90:
+                return Core.ROTATE_90_CLOCKWISE;
+            case 180:
+                return Core.ROTATE_180;
+            case 270:
+                return Core.ROTATE_90_COUNTERCLOCKWISE;
+            default:
+                return -1;
+        }
+    }
+
+    /** Frees the reused images; the object can still be used afterwards and reallocates them. */
+    public void release() {
+        releaseYView();
+        grayRotated.release();
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.qr_indoornav;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Heading offsets learned per edge and per junction of one map.
+ *
+ * Steel, wiring and machinery bend the magnetic field indoors, so in places the fused heading
+ * disagrees with an edge's surveyed direction by more than the alignment margin. The user walks
+ * down the right corridor and the leg is still aborted for deviating. Each leg that ends at the
+ * right checkpoint measures the disturbance, as the mean of heading minus target while walking
+ * (see {@link SensorPipeline#getLegHeadingOffset}). That sample is kept for the directed edge.
+ * The first two seconds of the walk are also kept for the junction the leg left from. Older
+ * samples fade as new ones arrive.
+ *
+ * While aligning at a junction, its own offset applies, else the edge's. While walking, the
+ * edge's offset applies, else the junction's. Offsets beyond {@link #MAX_OFFSET_DEGREES} are
+ * treated as map errors, not disturbance, and ignored.
+ *
+ * Thread-safe: offsets are looked up on the main thread and learned on the sensor thread.
+ */
+public class HeadingCalibration {
+
+    /** Largest offset that is learned; anything more is a wrong survey, not a disturbed compass. */
+    public static final float MAX_OFFSET_DEGREES = 60f;
+
+    private static final float DECAY = 0.7f; // Weight an older sample keeps when a new one arrives
+
+    // Per key: sum of sin and cos of the offsets, and their total weight.
+    private final Map<String, float[]> entries = new HashMap<>();
+
+    static String edgeKey(String fromId, String toId) {
+        return fromId + ">" + toId;
+    }
+
+    static String junctionKey(String locationId) {
+        return "@" + locationId;
+    }
+
+    /**
+     * The offset to correct for on the leg from {@code fromId} to {@code toId}, or 0 if none
+     * has been learned.
+     * @param departing True while the user aligns at {@code fromId}; false while walking the leg.
+     */
+    public synchronized float offsetFor(String fromId, String toId, boolean departing) {
+        String edge = edgeKey(fromId, toId);
+        String junction = junctionKey(fromId);
+        float first = offset(departing ? junction : edge);
+        if (!Float.isNaN(first)) return first;
+        float second = offset(departing ? edge : junction);
+        return Float.isNaN(second) ? 0f : second;
+    }
+
+    /**
+     * Learns from a leg that ended at the right checkpoint. Either offset may be NaN if it was
+     * not measured.
+     * @return whether anything was learned.
+     */
+    public synchronized boolean record(String fromId, String toId, float departureOffset, float legOffset) {
+        boolean learned = add(junctionKey(fromId), departureOffset);
+        learned |= add(edgeKey(fromId, toId), legOffset);
+        return learned;
+    }
+
+    private boolean add(String key, float offsetDegrees) {
+        if (Float.isNaN(offsetDegrees) || Math.abs(offsetDegrees) > MAX_OFFSET_DEGREES) return false;
+        float[] entry = entries.get(key);
+        if (entry == null) {
+            entry = new float[3];
+            entries.put(key, entry);
+        }
+        double radians = Math.toRadians(offsetDegrees);
+        entry[0] = DECAY * entry[0] + (float) Math.sin(radians);
+        entry[1] = DECAY * entry[1] + (float) Math.cos(radians);
+        entry[2] = DECAY * entry[2] + 1f;
+        return true;
+    }
+
+    /** Learned offset for {@code key} in degrees, or NaN if none. */
+    synchronized float offset(String key) {
+        float[] entry = entries.get(key);
+        if (entry == null || entry[2] <= 0f) return Float.NaN;
+        return (float) Math.toDegrees(Math.atan2(entry[0], entry[1]));
+    }
+
+    /** The table as strings, one per edge or junction, for saving; read back with {@link #load}. */
+    public synchronized Map<String, String> save() {
+        Map<String, String> out = new HashMap<>();
+        for (Map.Entry<String, float[]> entry : entries.entrySet()) {
+            float[] e = entry.getValue();
+            out.put(entry.getKey(), e[0] + "," + e[1] + "," + e[2]);
+        }
+        return out;
+    }
+
+    /** Adds the entries of a table written by {@link #save}; malformed ones are skipped. */
+    public synchronized void load(Map<String, ?> saved) {
+        for (Map.Entry<String, ?> entry : saved.entrySet()) {
+            String[] parts = String.valueOf(entry.getValue()).split(",");
+            if (parts.length != 3) continue;
+            try {
+                entries.put(entry.getKey(), new float[]{
+                        Float.parseFloat(parts[0]), Float.parseFloat(parts[1]), Float.parseFloat(parts[2])});
+            } catch (NumberFormatException e) {
+                // Skip it; the entry is relearned on the next walk
+            }
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.example.qr_indoornav;
+
+/**
+ * Device orientation and a smoothed compass heading from whichever motion sensors exist.
+ *
+ * Orientation is kept as a unit quaternion that maps device coordinates to world coordinates
+ * (x east, y north, z up), the same convention as {@code SensorManager.getRotationMatrix}.
+ * Two kinds of input drive it:
+ * <ul>
+ *     <li>Absolute: a platform rotation vector, which is already fused and simply replaces the
+ *     estimate.</li>
+ *     <li>Complementary: a gyroscope or game rotation vector propagates the estimate between
+ *     samples, and each accelerometer + magnetometer pair pulls it back towards the absolute
+ *     (but noisy) gravity/north orientation with a time constant of {@link #CORRECTION_TAU_SECONDS}.
+ *     Without either, the accelerometer + magnetometer orientation is used directly.</li>
+ * </ul>
+ * {@link #tick} is meant to be called at a fixed rate; it low-passes the heading on the unit
+ * circle, so the output has a steady rate and does not jump at 0/360.
+ *
+ * All state lives in fields and primitive arrays: no method allocates. The class has no
+ * Android dependencies and is not thread-safe; {@link SensorHub} drives it from its sensor thread.
+ */
+public class HeadingFusion {
+
+    private static final float CORRECTION_TAU_SECONDS = 1.0f;    // How slowly accel/mag corrects gyro drift
+    private static final float SMOOTHING_TAU_SECONDS = 0.15f;    // Output low-pass time constant
+    private static final float MAX_PROPAGATION_GAP_SECONDS = 0.5f; // Longer gaps are not integrated
+    private static final float MIN_HORIZONTAL_FIELD = 0.1f;       // Below this accel x mag is unreliable
+
+    // Fused orientation (w, x, y, z), device to world.
+    private float qw = 1f, qx = 0f, qy = 0f, qz = 0f;
+    private boolean hasOrientation = false;
+    private boolean hasPredictor = false;  // Set once gyro or game rotation vector data arrives
+
+    // Previous game rotation vector sample, to turn the next one into a relative rotation.
+    private float gw, gx, gy, gz;
+    private boolean hasGameSample = false;
+    private long lastGyroTimestamp = 0;
+    private long lastCorrectionTimestamp = 0;
+
+    // Latest accelerometer and magnetometer readings for the correction step.
+    private final float[] gravity = new float[3];
+    private final float[] geomagnetic = new float[3];
+    private boolean hasGravity = false;
+    private boolean hasGeomagnetic = false;
+
+    // Output: rotation matrix of the fused orientation and the smoothed heading.
+    private final float[] rotationMatrix = new float[9];
+    private float smoothedCos = 1f, smoothedSin = 0f;
+    private boolean hasSmoothed = false;
+    private long lastTickTimestamp = 0;
+    private float heading = 0f;
+
+    /** Clears all state, e.g. when the sensors are re-registered after a pause. */
+    public void reset() {
+        qw = 1f; qx = 0f; qy = 0f; qz = 0f;
+        hasOrientation = false;
+        hasPredictor = false;
+        hasGameSample = false;
+        lastGyroTimestamp = 0;
+        lastCorrectionTimestamp = 0;
+        hasGravity = false;
+        hasGeomagnetic = false;
+        hasSmoothed = false;
+        lastTickTimestamp = 0;
+    }
+
+    /**
+     * Platform rotation vector (TYPE_ROTATION_VECTOR): already an absolute fused orientation.
+     * @param values x, y, z and optionally w of the unit quaternion, as delivered by the sensor.
+     */
+    public void onRotationVector(float[] values) {
+        float x = values[0], y = values[1], z = values[2];
+        float w = values.length > 3 ? values[3] : (float) Math.sqrt(Math.max(0f, 1f - x * x - y * y - z * z));
+        setOrientation(w, x, y, z);
+        hasOrientation = true;
+    }
+
+    /**
+     * Game rotation vector (TYPE_GAME_ROTATION_VECTOR): smooth, but its yaw is not tied to north.
+     * Only the change since the previous sample is applied; north comes from the correction step.
+     */
+    public void onGameRotationVector(float[] values) {
+        float x = values[0], y = values[1], z = values[2];
+        float w = values.length > 3 ? values[3] : (float) Math.sqrt(Math.max(0f, 1f - x * x - y * y - z * z));
+        if (hasGameSample && hasOrientation) {
+            // delta = previous^-1 * current, expressed in the device frame.
+            float dw = gw * w + gx * x + gy * y + gz * z;
+            float dx = gw * x - gx * w - gy * z + gz * y;
+            float dy = gw * y + gx * z - gy * w - gz * x;
+            float dz = gw * z - gx * y + gy * x - gz * w;
+            rotateInDeviceFrame(dw, dx, dy, dz);
+        }
+        gw = w; gx = x; gy = y; gz = z;
+        hasGameSample = true;
+        hasPredictor = true;
+    }
+
+    /**
+     * Gyroscope (TYPE_GYROSCOPE) angular velocity in rad/s, integrated since the previous sample.
+     */
+    public void onGyroscope(float[] values, long timestampNanos) {
+        long previous = lastGyroTimestamp;
+        lastGyroTimestamp = timestampNanos;
+        hasPredictor = true;
+        if (previous == 0 || !hasOrientation) return;
+        float dt = (timestampNanos - previous) * 1e-9f;
+        if (dt <= 0f || dt > MAX_PROPAGATION_GAP_SECONDS) return;
+
+        float wx = values[0], wy = values[1], wz = values[2];
+        float rate = (float) Math.sqrt(wx * wx + wy * wy + wz * wz);
+        if (rate < 1e-6f) return;
+        float halfAngle = rate * dt * 0.5f;
+        float s = (float) Math.sin(halfAngle) / rate;
+        rotateInDeviceFrame((float) Math.cos(halfAngle), wx * s, wy * s, wz * s);
+    }
+
+    /** Accelerometer reading in m/s^2; pairs with the latest magnetometer reading for correction. */
+    public void onAccelerometer(float[] values, long timestampNanos) {
+        System.arraycopy(values, 0, gravity, 0, 3);
+        hasGravity = true;
+        correct(timestampNanos);
+    }
+
+    /** Magnetometer reading in uT; pairs with the latest accelerometer reading for correction. */
+    public void onMagnetometer(float[] values, long timestampNanos) {
+        System.arraycopy(values, 0, geomagnetic, 0, 3);
+        hasGeomagnetic = true;
+        correct(timestampNanos);
+    }
+
+    /**
+     * Advances the smoothed heading to {@code timestampNanos}. Call at a fixed rate.
+     * @return false while no orientation is known yet.
+     */
+    public boolean tick(long timestampNanos) {
+        if (!hasOrientation) return false;
+        // Heading of the device's y axis: atan2(R[1], R[4]), as SensorManager.getOrientation.
+        float r1 = 2f * (qx * qy - qz * qw);
+        float r4 = 1f - 2f * (qx * qx + qz * qz);
+        float norm = (float) Math.sqrt(r1 * r1 + r4 * r4);
+        if (norm < 1e-6f) return hasSmoothed; // Pointing straight up or down; keep the last heading
+        float sin = r1 / norm, cos = r4 / norm;
+
+        if (!hasSmoothed) {
+            smoothedSin = sin;
+            smoothedCos = cos;
+            hasSmoothed = true;
+        } else {
+            float dt = Math.max(0f, (timestampNanos - lastTickTimestamp) * 1e-9f);
+            float alpha = dt / (SMOOTHING_TAU_SECONDS + dt);
+            smoothedSin += alpha * (sin - smoothedSin);
+            smoothedCos += alpha * (cos - smoothedCos);
+        }
+        lastTickTimestamp = timestampNanos;
+        float degrees = (float) Math.toDegrees(Math.atan2(smoothedSin, smoothedCos));
+        heading = degrees < 0 ? degrees + 360 : degrees;
+        return true;
+    }
+
+    /** Smoothed heading (0-360, clockwise from north) as of the last {@link #tick}. */
+    public float getHeading() {
+        return heading;
+    }
+
+    public boolean hasOrientation() {
+        return hasOrientation;
+    }
+
+    /**
+     * Current fused orientation as a row-major 3x3 device-to-world matrix, the layout
+     * {@link StepDetector#processSensorData} expects. The array is reused; do not keep it.
+     */
+    public float[] getRotationMatrix() {
+        float xx = qx * qx, yy = qy * qy, zz = qz * qz;
+        float xy = qx * qy, xz = qx * qz, yz = qy * qz;
+        float wx = qw * qx, wy = qw * qy, wz = qw * qz;
+        float[] r = rotationMatrix;
+        r[0] = 1f - 2f * (yy + zz); r[1] = 2f * (xy - wz);      r[2] = 2f * (xz + wy);
+        r[3] = 2f * (xy + wz);      r[4] = 1f - 2f * (xx + zz); r[5] = 2f * (yz - wx);
+        r[6] = 2f * (xz - wy);      r[7] = 2f * (yz + wx);      r[8] = 1f - 2f * (xx + yy);
+        return r;
+    }
+
+    // --- Internals ---
+
+    /** Pulls the estimate towards the accelerometer + magnetometer orientation. */
+    private void correct(long timestampNanos) {
+        if (!hasGravity || !hasGeomagnetic) return;
+
+        // Same construction as SensorManager.getRotationMatrix: rows are east, north, up.
+        float ax = gravity[0], ay = gravity[1], az = gravity[2];
+        float ex = geomagnetic[0], ey = geomagnetic[1], ez = geomagnetic[2];
+        float hx = ey * az - ez * ay, hy = ez * ax - ex * az, hz = ex * ay - ey * ax;
+        float normH = (float) Math.sqrt(hx * hx + hy * hy + hz * hz);
+        float normA = (float) Math.sqrt(ax * ax + ay * ay + az * az);
+        if (normH < MIN_HORIZONTAL_FIELD || normA < 1e-3f) return; // Free fall or near a magnetic pole
+        hx /= normH; hy /= normH; hz /= normH;
+        ax /= normA; ay /= normA; az /= normA;
+        float mx = ay * hz - az * hy, my = az * hx - ax * hz, mz = ax * hy - ay * hx;
+
+        // Rotation matrix (rows h, m, a) to quaternion.
+        float m00 = hx, m01 = hy, m02 = hz, m10 = mx, m11 = my, m12 = mz, m20 = ax, m21 = ay, m22 = az;
+        float tw, tx, ty, tz;
+        float trace = m00 + m11 + m22;
+        if (trace > 0f) {
+            float s = (float) Math.sqrt(trace + 1f) * 2f;
+            tw = 0.25f * s; tx = (m21 - m12) / s; ty = (m02 - m20) / s; tz = (m10 - m01) / s;
+        } else if (m00 > m11 && m00 > m22) {
+            float s = (float) Math.sqrt(1f + m00 - m11 - m22) * 2f;
+            tw = (m21 - m12) / s; tx = 0.25f * s; ty = (m01 + m10) / s; tz = (m02 + m20) / s;
+        } else if (m11 > m22) {
+            float s = (float) Math.sqrt(1f + m11 - m00 - m22) * 2f;
+            tw = (m02 - m20) / s; tx = (m01 + m10) / s; ty = 0.25f * s; tz = (m12 + m21) / s;
+        } else {
+            float s = (float) Math.sqrt(1f + m22 - m00 - m11) * 2f;
+            tw = (m10 - m01) / s; tx = (m02 + m20) / s; ty = (m12 + m21) / s; tz = 0.25f * s;
+        }
+
+        long previous = lastCorrectionTimestamp;
+        lastCorrectionTimestamp = timestampNanos;
+        if (!hasOrientation || !hasPredictor) {
+            // Nothing to blend with: take the measurement as is (output smoothing still applies).
+            setOrientation(tw, tx, ty, tz);
+            hasOrientation = true;
+            return;
+        }
+        float dt = previous == 0 ? 0f : Math.min(MAX_PROPAGATION_GAP_SECONDS, (timestampNanos - previous) * 1e-9f);
+        if (dt <= 0f) return;
+        float gain = dt / (CORRECTION_TAU_SECONDS + dt);
+
+        // Normalised lerp along the shorter arc.
+        if (qw * tw + qx * tx + qy * ty + qz * tz < 0f) {
+            tw = -tw; tx = -tx; ty = -ty; tz = -tz;
+        }
+        setOrientation(qw + gain * (tw - qw), qx + gain * (tx - qx), qy + gain * (ty - qy), qz + gain * (tz - qz));
+    }
+
+    /** q = q * delta, where delta is a rotation expressed in device coordinates. */
+    private void rotateInDeviceFrame(float dw, float dx, float dy, float dz) {
+        setOrientation(
+                qw * dw - qx * dx - qy * dy - qz * dz,
+                qw * dx + qx * dw + qy * dz - qz * dy,
+                qw * dy - qx * dz + qy * dw + qz * dx,
+                qw * dz + qx * dy - qy * dx + qz * dw);
+    }
+
+    private void setOrientation(float w, float x, float y, float z) {
+        float norm = (float) Math.sqrt(w * w + x * x + y * y + z * z);
+        if (norm < 1e-6f) return;
+        qw = w / norm; qx = x / norm; qy = y / norm; qz = z / norm;
+    }
+}
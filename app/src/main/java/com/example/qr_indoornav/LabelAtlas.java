@@ -0,0 +1,116 @@
+package com.example.qr_indoornav;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pre-rendered text labels. Each distinct string is rasterised once into an ALPHA_8 page with
+ * shelf packing; afterwards drawing it is a single bitmap blit tinted by the paint colour,
+ * instead of a glyph lookup and layout on every frame.
+ *
+ * Labels are rendered lazily the first time they are drawn, so only labels that actually become
+ * visible cost memory. When all pages are full the atlas starts over; labels needed again are
+ * simply re-rendered. Pages are never recycled explicitly because display lists recorded for
+ * earlier frames may still reference them.
+ */
+public class LabelAtlas {
+
+    private static final int PAGE_SIZE = 1024;
+    private static final int MAX_PAGES = 4;
+    private static final int PADDING = 2;
+
+    static final class Entry {
+        final Bitmap page;
+        final Rect source;
+
+        Entry(Bitmap page, Rect source) {
+            this.page = page;
+            this.source = source;
+        }
+    }
+
+    private final Paint textPaint;
+    private final Paint blitPaint;
+    private final Paint.FontMetrics metrics;
+    private final int labelHeight;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final List<Bitmap> pages = new ArrayList<>();
+    private Canvas pageCanvas;
+    private int shelfX, shelfY;
+    private final RectF destination = new RectF();
+
+    /** @param paint Text size, typeface and colour of the labels. Alignment is ignored. */
+    public LabelAtlas(Paint paint) {
+        textPaint = new Paint(paint);
+        textPaint.setTextAlign(Paint.Align.LEFT);
+        textPaint.setColor(0xFFFFFFFF); // Coverage only; the colour comes from blitPaint
+        blitPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        blitPaint.setColor(paint.getColor());
+        metrics = textPaint.getFontMetrics();
+        labelHeight = (int) Math.ceil(metrics.descent - metrics.ascent);
+    }
+
+    /** Width in pixels the label will occupy, without rendering it. */
+    public float measureWidth(String text) {
+        return textPaint.measureText(text);
+    }
+
+    /** Height in pixels of every label in this atlas. */
+    public float getLabelHeight() {
+        return labelHeight;
+    }
+
+    /** Draws a label with its top-left corner at (left, top). */
+    public void draw(Canvas canvas, String text, float left, float top) {
+        Entry entry = entries.get(text);
+        if (entry == null) {
+            entry = render(text);
+        }
+        Rect source = entry.source;
+        destination.set(left, top, left + source.width(), top + source.height());
+        canvas.drawBitmap(entry.page, source, destination, blitPaint);
+    }
+
+    int getPageCount() {
+        return pages.size();
+    }
+
+    private Entry render(String text) {
+        int width = (int) Math.ceil(textPaint.measureText(text));
+        if (width + 2 * PADDING > PAGE_SIZE) {
+            width = PAGE_SIZE - 2 * PADDING; // Absurdly long ids are clipped rather than rejected
+        }
+        if (pageCanvas == null || shelfX + width + PADDING > PAGE_SIZE) {
+            shelfX = PADDING;
+            shelfY += labelHeight + PADDING;
+        }
+        if (pageCanvas == null || shelfY + labelHeight + PADDING > PAGE_SIZE) {
+            if (pages.size() == MAX_PAGES) {
+                pages.clear();
+                entries.clear();
+            }
+            Bitmap page = Bitmap.createBitmap(PAGE_SIZE, PAGE_SIZE, Bitmap.Config.ALPHA_8);
+            pages.add(page);
+            pageCanvas = new Canvas(page);
+            shelfX = PADDING;
+            shelfY = PADDING;
+        }
+        Rect source = new Rect(shelfX, shelfY, shelfX + width, shelfY + labelHeight);
+        pageCanvas.save();
+        pageCanvas.clipRect(source);
+        pageCanvas.drawText(text, shelfX, shelfY - metrics.ascent, textPaint);
+        pageCanvas.restore();
+        shelfX += width + PADDING;
+
+        Entry entry = new Entry(pages.get(pages.size() - 1), source);
+        entries.put(text, entry);
+        return entry;
+    }
+}
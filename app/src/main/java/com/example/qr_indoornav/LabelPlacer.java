@@ -0,0 +1,169 @@
+package com.example.qr_indoornav;
+
+import java.util.Arrays;
+
+/**
+ * Greedy, collision-free label placement. Labels are offered in priority order; each one tries
+ * a few positions around its anchor (above, below, right, left) and takes the first that does
+ * not overlap an already placed label. Labels with no free position are dropped, so the most
+ * important ones win on dense maps.
+ *
+ * Placed rectangles are kept in a spatial hash with cells about two labels high, so each test
+ * only looks at nearby labels. The hash is open-addressed over primitive arrays and reused
+ * between calls, so re-placing tens of thousands of labels does not box or allocate.
+ *
+ * Coordinates are pixels in zoomed map space (fit space times zoom). Panning does not change
+ * the result, so placement only needs redoing when the zoom changes.
+ */
+public class LabelPlacer {
+
+    private static final float GAP = 6f; // Between a marker and its label
+
+    // Open-addressed map from cell key to the first entry of that cell's linked list.
+    private long[] cellKeys = new long[256];
+    private int[] cellHeads = new int[256];
+    private int usedCells = 0;
+    private int[] cellNext = new int[64];
+    private int[] cellRect = new int[64];
+    private int cellEntries = 0;
+    private float[] rects = new float[64];  // left, top, right, bottom per placed label
+    private int placedCount = 0;
+    private float cellSize = 1f;
+
+    /**
+     * Places labels for one zoom level.
+     * @param anchors x, y per label in zoomed pixels, in priority order.
+     * @param radii Radius of the marker each label belongs to.
+     * @param widths Label widths in pixels.
+     * @param heights Label heights in pixels.
+     * @param forced Labels placed even when every position collides (e.g. start and destination).
+     * @param eligible Labels allowed at this zoom level; the others are skipped.
+     * @param outOffsets Receives the top-left corner of each placed label relative to its anchor.
+     * @param outPlaced Receives whether each label was placed.
+     * @return The number of placed labels.
+     */
+    public int place(float[] anchors, float[] radii, float[] widths, float[] heights,
+                     boolean[] forced, boolean[] eligible, float[] outOffsets, boolean[] outPlaced) {
+        int count = widths.length;
+        Arrays.fill(cellHeads, -1);
+        usedCells = 0;
+        cellEntries = 0;
+        placedCount = 0;
+        float maxHeight = 1f;
+        for (float h : heights) maxHeight = Math.max(maxHeight, h);
+        cellSize = 2f * maxHeight;
+        Arrays.fill(outPlaced, false);
+
+        for (int i = 0; i < count; i++) {
+            if (!eligible[i]) continue;
+            float x = anchors[2 * i], y = anchors[2 * i + 1];
+            float w = widths[i], h = heights[i], r = radii[i];
+            boolean placed = false;
+            for (int candidate = 0; candidate < 4 && !placed; candidate++) {
+                float left, top;
+                switch (candidate) {
+                    case 0: left = -w / 2; top = -r - GAP - h; break;  // Above
+                    case 1: left = -w / 2; top = r + GAP; break;       // Below
+                    case 2: left = r + GAP; top = -h / 2; break;       // Right
+                    default: left = -r - GAP - w; top = -h / 2; break; // Left
+                }
+                if (!collides(x + left, y + top, x + left + w, y + top + h)) {
+                    insert(x + left, y + top, x + left + w, y + top + h);
+                    outOffsets[2 * i] = left;
+                    outOffsets[2 * i + 1] = top;
+                    placed = true;
+                }
+            }
+            if (!placed && forced[i]) {
+                insert(x - w / 2, y - r - GAP - h, x + w / 2, y - r - GAP);
+                outOffsets[2 * i] = -w / 2;
+                outOffsets[2 * i + 1] = -r - GAP - h;
+                placed = true;
+            }
+            outPlaced[i] = placed;
+        }
+        return placedCount;
+    }
+
+    private boolean collides(float left, float top, float right, float bottom) {
+        int c0 = cell(left), c1 = cell(right), r0 = cell(top), r1 = cell(bottom);
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                for (int k = cellHeads[slot(key(c, r))]; k >= 0; k = cellNext[k]) {
+                    int base = cellRect[k] * 4;
+                    if (rects[base] < right && rects[base + 2] > left
+                            && rects[base + 1] < bottom && rects[base + 3] > top) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private void insert(float left, float top, float right, float bottom) {
+        if ((placedCount + 1) * 4 > rects.length) {
+            rects = Arrays.copyOf(rects, rects.length * 2);
+        }
+        int base = placedCount * 4;
+        rects[base] = left;
+        rects[base + 1] = top;
+        rects[base + 2] = right;
+        rects[base + 3] = bottom;
+        int c0 = cell(left), c1 = cell(right), r0 = cell(top), r1 = cell(bottom);
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                if (cellEntries == cellNext.length) {
+                    cellNext = Arrays.copyOf(cellNext, cellEntries * 2);
+                    cellRect = Arrays.copyOf(cellRect, cellEntries * 2);
+                }
+                long key = key(c, r);
+                int slot = slot(key);
+                if (cellHeads[slot] < 0) {
+                    if (++usedCells * 2 > cellKeys.length) {
+                        growCells();
+                        slot = slot(key);
+                    }
+                    cellKeys[slot] = key;
+                }
+                cellNext[cellEntries] = cellHeads[slot];
+                cellHeads[slot] = cellEntries;
+                cellRect[cellEntries] = placedCount;
+                cellEntries++;
+            }
+        }
+        placedCount++;
+    }
+
+    /** Slot holding the key, or the empty slot where it would go. */
+    private int slot(long key) {
+        int mask = cellKeys.length - 1;
+        int slot = (int) (key * 0x9E3779B97F4A7C15L >>> 32) & mask;
+        while (cellHeads[slot] >= 0 && cellKeys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void growCells() {
+        long[] oldKeys = cellKeys;
+        int[] oldHeads = cellHeads;
+        cellKeys = new long[oldKeys.length * 2];
+        cellHeads = new int[oldHeads.length * 2];
+        Arrays.fill(cellHeads, -1);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldHeads[i] < 0) continue;
+            int slot = slot(oldKeys[i]);
+            cellKeys[slot] = oldKeys[i];
+            cellHeads[slot] = oldHeads[i];
+        }
+    }
+
+    private int cell(float coordinate) {
+        return (int) Math.floor(coordinate / cellSize);
+    }
+
+    private static long key(int column, int row) {
+        return ((long) column << 32) | (row & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.qr_indoornav;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.util.AttributeSet;
+import android.view.View;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Transparent view stacked over a {@link MapView}, in the same parent, that draws only its
+ * "you are here" marker (see {@link MapView#setLiveMarkerView}).
+ *
+ * With hardware acceleration the framework re-records a view's whole display list whenever it is
+ * invalidated, dirty rectangles or not. Keeping the marker in a view of its own means a step
+ * update re-records two circles here, while the map's display list is replayed as it is.
+ */
+public class LiveMarkerView extends View {
+
+    private MapView map;
+
+    public LiveMarkerView(Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+    }
+
+    /** Called by {@link MapView#setLiveMarkerView}. */
+    void setMap(@Nullable MapView map) {
+        this.map = map;
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (map == null) return;
+        // Draw in the map's coordinates, and only over the map.
+        canvas.save();
+        canvas.translate(map.getLeft() - getLeft(), map.getTop() - getTop());
+        canvas.clipRect(0, 0, map.getWidth(), map.getHeight());
+        map.drawLivePosition(canvas);
+        canvas.restore();
+    }
+}
@@ -0,0 +1,331 @@
+package com.example.qr_indoornav;
+
+import com.example.qr_indoornav.model.Edge;
+import com.example.qr_indoornav.model.Graph;
+import com.example.qr_indoornav.model.Node;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * World-space layout of a map: where every junction and room sits, in meters, with y pointing
+ * down (north is up). Computed once per {@link Graph} instance and cached, so views only have
+ * to scale and offset it to their current size.
+ *
+ * Each edge states "B lies d meters from A at bearing b". A BFS that trusts the first edge to
+ * reach each junction distorts loops whose measurements do not close exactly. Instead, the
+ * junction positions are the least-squares solution over all edge constraints at once. It is
+ * solved with Jacobi-preconditioned conjugate gradients, seeded with the BFS placement and
+ * stopped early if the time budget runs out. The BFS seed is always a usable layout, so a
+ * budget cut only costs accuracy.
+ *
+ * This class has no Android dependencies; {@link #computeAsync} runs on a private background
+ * thread and the callback is invoked on that thread.
+ */
+public class MapLayout {
+
+    /** Default solver time budget, well under what a user notices while the map screen opens. */
+    public static final long DEFAULT_BUDGET_NANOS = 200_000_000L;
+
+    private static final double TOLERANCE = 1e-6;    // Stop once the residual is this small relative to the right-hand side
+    private static final float COMPONENT_GAP_METERS = 10f;
+
+    // Graph instances are replaced whenever a new map is loaded, so identity is the map version.
+    private static final Map<Graph, MapLayout> cache = Collections.synchronizedMap(new WeakHashMap<>());
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "MapLayout");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public interface Callback {
+        void onLayoutReady(Graph graph, MapLayout layout);
+    }
+
+    public final String[] junctionIds;
+    public final float[] junctionPoints;  // x, y per junction, in meters
+    public final String[] roomIds;
+    public final float[] roomPoints;      // x, y per room, interpolated along its edge
+    public final float minX, minY, maxX, maxY;
+    public final int iterations;          // Solver iterations actually run
+    public final double rmsResidual;      // Root-mean-square constraint error, in meters
+
+    private MapLayout(String[] junctionIds, float[] junctionPoints, String[] roomIds, float[] roomPoints,
+                      int iterations, double rmsResidual) {
+        this.junctionIds = junctionIds;
+        this.junctionPoints = junctionPoints;
+        this.roomIds = roomIds;
+        this.roomPoints = roomPoints;
+        this.iterations = iterations;
+        this.rmsResidual = rmsResidual;
+        float x0 = Float.MAX_VALUE, y0 = Float.MAX_VALUE, x1 = -Float.MAX_VALUE, y1 = -Float.MAX_VALUE;
+        for (int i = 0; i < junctionPoints.length; i += 2) {
+            x0 = Math.min(x0, junctionPoints[i]);
+            x1 = Math.max(x1, junctionPoints[i]);
+            y0 = Math.min(y0, junctionPoints[i + 1]);
+            y1 = Math.max(y1, junctionPoints[i + 1]);
+        }
+        boolean empty = junctionPoints.length == 0;
+        this.minX = empty ? 0 : x0;
+        this.minY = empty ? 0 : y0;
+        this.maxX = empty ? 0 : x1;
+        this.maxY = empty ? 0 : y1;
+    }
+
+    /** Returns the cached layout for this map, or null if it has not been computed yet. */
+    public static MapLayout getCached(Graph graph) {
+        return cache.get(graph);
+    }
+
+    /** Returns the cached layout, computing and caching it on the calling thread if needed. */
+    public static MapLayout getOrCompute(Graph graph) {
+        MapLayout layout = cache.get(graph);
+        if (layout == null) {
+            layout = compute(graph, DEFAULT_BUDGET_NANOS);
+            cache.put(graph, layout);
+        }
+        return layout;
+    }
+
+    /**
+     * Computes (or fetches from the cache) the layout on the background thread, then calls back
+     * on that thread.
+     */
+    public static void computeAsync(Graph graph, Callback callback) {
+        executor.execute(() -> callback.onLayoutReady(graph, getOrCompute(graph)));
+    }
+
+    /**
+     * Synchronously computes a layout without touching the cache.
+     * @param budgetNanos Time after which the solver stops refining and returns its current estimate.
+     */
+    public static MapLayout compute(Graph graph, long budgetNanos) {
+        long deadline = System.nanoTime() + budgetNanos;
+
+        // Sort ids so the result does not depend on HashMap iteration order.
+        List<Node> nodes = graph.getAllNodes();
+        String[] ids = new String[nodes.size()];
+        for (int i = 0; i < ids.length; i++) ids[i] = nodes.get(i).id;
+        Arrays.sort(ids);
+        int n = ids.length;
+        Map<String, Integer> index = new HashMap<>(n * 2);
+        for (int i = 0; i < n; i++) index.put(ids[i], i);
+
+        // --- Constraints: pos[to] - pos[from] = (dx, dy), weighted by 1 / distance ---
+        int edgeCount = 0;
+        for (String id : ids) edgeCount += graph.getNode(id).edges.size();
+        int[] from = new int[edgeCount], to = new int[edgeCount];
+        double[] dx = new double[edgeCount], dy = new double[edgeCount], weight = new double[edgeCount];
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            for (Edge edge : graph.getNode(ids[i]).edges.values()) {
+                Integer target = index.get(edge.toNodeId);
+                if (target == null) continue;
+                double angleRad = Math.toRadians(edge.directionDegrees - 90);
+                from[m] = i;
+                to[m] = target;
+                dx[m] = edge.distanceMeters * Math.cos(angleRad);
+                dy[m] = edge.distanceMeters * Math.sin(angleRad);
+                weight[m] = 1.0 / Math.max(1, edge.distanceMeters);
+                m++;
+            }
+        }
+
+        // Undirected adjacency in CSR form: neighbours of i are adjTo[adjStart[i] .. adjStart[i + 1]),
+        // adjEdge points back at the constraint and adjSign is +1 when i is its "from" end.
+        int[] adjStart = new int[n + 1];
+        for (int e = 0; e < m; e++) {
+            adjStart[from[e] + 1]++;
+            adjStart[to[e] + 1]++;
+        }
+        for (int i = 0; i < n; i++) adjStart[i + 1] += adjStart[i];
+        int[] adjTo = new int[adjStart[n]];
+        int[] adjEdge = new int[adjStart[n]];
+        int[] adjSign = new int[adjStart[n]];
+        double[] adjWeight = new double[adjStart[n]];
+        int[] fill = Arrays.copyOf(adjStart, n);
+        double[] diag = new double[n];
+        double[] bx = new double[n], by = new double[n];
+        for (int e = 0; e < m; e++) {
+            int k = fill[from[e]]++;
+            adjTo[k] = to[e];
+            adjEdge[k] = e;
+            adjSign[k] = 1;
+            adjWeight[k] = weight[e];
+            k = fill[to[e]]++;
+            adjTo[k] = from[e];
+            adjEdge[k] = e;
+            adjSign[k] = -1;
+            adjWeight[k] = weight[e];
+            diag[from[e]] += weight[e];
+            diag[to[e]] += weight[e];
+            bx[to[e]] += weight[e] * dx[e];
+            by[to[e]] += weight[e] * dy[e];
+            bx[from[e]] -= weight[e] * dx[e];
+            by[from[e]] -= weight[e] * dy[e];
+        }
+
+        // --- Seed: BFS placement per connected component; each component root is pinned ---
+        double[] x = new double[n], y = new double[n];
+        int[] component = new int[n];
+        Arrays.fill(component, -1);
+        boolean[] pinned = new boolean[n];
+        int components = 0;
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int root = 0; root < n; root++) {
+            if (component[root] >= 0) continue;
+            component[root] = components;
+            pinned[root] = true;
+            queue.add(root);
+            while (!queue.isEmpty()) {
+                int current = queue.poll();
+                for (int k = adjStart[current]; k < adjStart[current + 1]; k++) {
+                    int next = adjTo[k];
+                    if (component[next] >= 0) continue;
+                    component[next] = components;
+                    x[next] = x[current] + adjSign[k] * dx[adjEdge[k]];
+                    y[next] = y[current] + adjSign[k] * dy[adjEdge[k]];
+                    queue.add(next);
+                }
+            }
+            components++;
+        }
+
+        // --- Refine: preconditioned conjugate gradients on the free junctions, x and y together ---
+        double[] rx = new double[n], ry = new double[n];
+        double[] zx = new double[n], zy = new double[n];
+        double[] px = new double[n], py = new double[n];
+        double[] qx = new double[n], qy = new double[n];
+        multiply(x, y, qx, qy, adjStart, adjTo, adjWeight, diag, pinned);
+        double rz = 0, norm = 0, targetNorm = 0;
+        for (int i = 0; i < n; i++) {
+            if (pinned[i]) continue;
+            rx[i] = bx[i] - qx[i];
+            ry[i] = by[i] - qy[i];
+            zx[i] = rx[i] / diag[i];
+            zy[i] = ry[i] / diag[i];
+            px[i] = zx[i];
+            py[i] = zy[i];
+            rz += rx[i] * zx[i] + ry[i] * zy[i];
+            norm += rx[i] * rx[i] + ry[i] * ry[i];
+            targetNorm += bx[i] * bx[i] + by[i] * by[i];
+        }
+        targetNorm *= TOLERANCE * TOLERANCE;
+        int iterations = 0;
+        while (norm > targetNorm && iterations < 2 * n && System.nanoTime() - deadline < 0) {
+            multiply(px, py, qx, qy, adjStart, adjTo, adjWeight, diag, pinned);
+            double pq = 0;
+            for (int i = 0; i < n; i++) pq += px[i] * qx[i] + py[i] * qy[i];
+            if (pq <= 0) break;
+            double alpha = rz / pq;
+            double rzNext = 0;
+            norm = 0;
+            for (int i = 0; i < n; i++) {
+                if (pinned[i]) continue;
+                x[i] += alpha * px[i];
+                y[i] += alpha * py[i];
+                rx[i] -= alpha * qx[i];
+                ry[i] -= alpha * qy[i];
+                zx[i] = rx[i] / diag[i];
+                zy[i] = ry[i] / diag[i];
+                rzNext += rx[i] * zx[i] + ry[i] * zy[i];
+                norm += rx[i] * rx[i] + ry[i] * ry[i];
+            }
+            double beta = rzNext / rz;
+            rz = rzNext;
+            for (int i = 0; i < n; i++) {
+                if (pinned[i]) continue;
+                px[i] = zx[i] + beta * px[i];
+                py[i] = zy[i] + beta * py[i];
+            }
+            iterations++;
+        }
+
+        double squaredError = 0;
+        for (int e = 0; e < m; e++) {
+            double ex = x[to[e]] - x[from[e]] - dx[e], ey = y[to[e]] - y[from[e]] - dy[e];
+            squaredError += ex * ex + ey * ey;
+        }
+        double rmsResidual = m == 0 ? 0 : Math.sqrt(squaredError / m);
+
+        // --- Place disconnected components side by side, left to right ---
+        float[] points = new float[n * 2];
+        double[] compMinX = new double[components], compMaxX = new double[components], compMinY = new double[components];
+        Arrays.fill(compMinX, Double.MAX_VALUE);
+        Arrays.fill(compMaxX, -Double.MAX_VALUE);
+        Arrays.fill(compMinY, Double.MAX_VALUE);
+        for (int i = 0; i < n; i++) {
+            int c = component[i];
+            compMinX[c] = Math.min(compMinX[c], x[i]);
+            compMaxX[c] = Math.max(compMaxX[c], x[i]);
+            compMinY[c] = Math.min(compMinY[c], y[i]);
+        }
+        double[] shiftX = new double[components];
+        double cursor = 0;
+        for (int c = 0; c < components; c++) {
+            shiftX[c] = cursor - compMinX[c];
+            cursor += compMaxX[c] - compMinX[c] + COMPONENT_GAP_METERS;
+        }
+        for (int i = 0; i < n; i++) {
+            int c = component[i];
+            points[2 * i] = (float) (x[i] + shiftX[c]);
+            points[2 * i + 1] = (float) (y[i] - compMinY[c]);
+        }
+
+        // --- Rooms: evenly spaced along their edge, as before ---
+        List<String> roomIdList = new ArrayList<>();
+        List<Float> roomPointList = new ArrayList<>();
+        Set<String> seenEdges = new HashSet<>();
+        for (int start = 0; start < n; start++) {
+            String id = ids[start];
+            for (Edge edge : graph.getNode(id).getEdges().values()) {
+                Integer end = index.get(edge.toNodeId);
+                String edgeKey = id.compareTo(edge.toNodeId) < 0 ? id + "-" + edge.toNodeId : edge.toNodeId + "-" + id;
+                if (end == null || edge.roomIds.isEmpty() || !seenEdges.add(edgeKey)) continue;
+                float x0 = points[2 * start], y0 = points[2 * start + 1];
+                float x1 = points[2 * end], y1 = points[2 * end + 1];
+                int totalRooms = edge.roomIds.size();
+                for (int i = 0; i < totalRooms; i++) {
+                    float ratio = (float) (i + 1) / (totalRooms + 1);
+                    roomIdList.add(edge.roomIds.get(i));
+                    roomPointList.add(x0 + (x1 - x0) * ratio);
+                    roomPointList.add(y0 + (y1 - y0) * ratio);
+                }
+            }
+        }
+        float[] roomPoints = new float[roomPointList.size()];
+        for (int i = 0; i < roomPoints.length; i++) roomPoints[i] = roomPointList.get(i);
+
+        return new MapLayout(ids, points, roomIdList.toArray(new String[0]), roomPoints, iterations, rmsResidual);
+    }
+
+    /** q = A p, where A is the constraint Laplacian restricted to the free junctions. */
+    private static void multiply(double[] px, double[] py, double[] qx, double[] qy,
+                                 int[] adjStart, int[] adjTo, double[] adjWeight, double[] diag, boolean[] pinned) {
+        for (int i = 0; i < diag.length; i++) {
+            if (pinned[i]) {
+                qx[i] = 0;
+                qy[i] = 0;
+                continue;
+            }
+            double sx = diag[i] * px[i], sy = diag[i] * py[i];
+            for (int k = adjStart[i]; k < adjStart[i + 1]; k++) {
+                int j = adjTo[k];
+                if (pinned[j]) continue;
+                sx -= adjWeight[k] * px[j];
+                sy -= adjWeight[k] * py[j];
+            }
+            qx[i] = sx;
+            qy[i] = sy;
+        }
+    }
+}
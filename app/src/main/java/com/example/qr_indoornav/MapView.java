@@ -4,20 +4,25 @@ import android.content.Context;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
+import android.graphics.Picture;
 import android.graphics.PointF;
+import android.os.SystemClock;
 import android.util.AttributeSet;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
 import android.view.View;
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import com.example.qr_indoornav.model.Edge;
 import com.example.qr_indoornav.model.Graph;
 import com.example.qr_indoornav.model.Node;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
 
 public class MapView extends View {
@@ -26,13 +31,23 @@ public class MapView extends View {
     private Paint nodePaint, startNodePaint, endNodePaint, pathNodePaint;
     private Map<String, PointF> roomCoordinates = new HashMap<>();
 
-    private Paint edgePaint, pathPaint, textPaint;
+    private Paint edgePaint, pathPaint, textPaint, roomTextPaint;
     private final float nodeRadius = 30f;
     private final float roomMarkerRadius = 15f;
     private final float viewPadding = 80f;
 
+    // --- Level-of-detail thresholds, in on-screen pixels of a typical (median) edge ---
+    private static final float ROOM_LOD_EDGE_PX = 80f;    // Room markers appear above this
+    private static final float LABEL_LOD_EDGE_PX = 120f;  // Junction labels appear above this
+    private static final float ROOM_LABEL_LOD_EDGE_PX = 240f; // Room labels appear above this
+    private static final float MIN_EDGE_PX = 2f;          // Shorter edges are hidden under their junction dots
+    private static final float MIN_NODE_RADIUS_PX = 4f;
+    private static final float MAX_ZOOM_EDGE_PX = 400f;   // Zooming stops once a typical edge is this long
+    private static final int TARGET_ITEMS_PER_CELL = 8;
+
     // --- Dynamic Data ---
     private Graph graph;
+    private MapLayout layout;
     private Map<String, PointF> nodeCoordinates = new HashMap<>();
     private List<String> pathNodeIds = new ArrayList<>();
     private String startNodeId;
@@ -42,10 +57,72 @@ public class MapView extends View {
     private boolean startIsRoom = false;
     private boolean destinationIsRoom = false;
 
+    // --- Render cache, rebuilt once per layout (see rebuildRenderCache) ---
+    // All coordinates are in "fit" space: the whole map fitted into the view at zoom 1.
+    // The static base map is recorded once into a Picture for the zoom-1 overview; zoomed
+    // frames draw only what the spatial grids report as visible.
+    private Picture baseLayer;
+    private String[] junctionIds = new String[0];
+    private float[] junctionPoints = new float[0];
+    private String[] roomIds = new String[0];
+    private float[] roomPoints = new float[0];
+    private float[] edgePoints = new float[0];          // x1, y1, x2, y2 per undirected edge
+    private float[] edgeLengths = new float[0];
+    private SpatialGrid junctionGrid, roomGrid, edgeGrid;
+    private float typicalEdgeLength = 1f;
+    private float[] pathLinePoints = new float[0];     // drawLines() segments along the route
+    private float[] pathJunctionPoints = new float[0]; // Junctions on the route, redrawn above it
+    private float[] pathRoomPoints = new float[0];     // Room markers lying under the route line
+    private int baseLayerRecordCount = 0;
+
+    // --- Labels: drawn from pre-rendered atlases, placed without overlaps once per zoom level ---
+    // Arrays are parallel and in priority order: start and destination, route junctions,
+    // other junctions, rooms.
+    private static final byte LABEL_MARKER = 0, LABEL_JUNCTION = 1, LABEL_ROOM = 2;
+    private LabelAtlas junctionLabelAtlas, roomLabelAtlas;
+    private final LabelPlacer labelPlacer = new LabelPlacer();
+    private String[] labelTexts = new String[0];
+    private float[] labelPoints = new float[0];        // Anchor in fit space
+    private byte[] labelKinds = new byte[0];
+    private float[] labelRadii = new float[0];
+    private float[] labelWidths = new float[0];
+    private float[] labelHeights = new float[0];
+    private boolean[] labelForced = new boolean[0];
+    private boolean[] labelEligible = new boolean[0];
+    private float[] labelAnchorScratch = new float[0];
+    private float[] labelOffsets = new float[0];       // Top-left of each placed label, relative to its anchor
+    private boolean[] labelPlaced = new boolean[0];
+    private SpatialGrid labelGrid;
+    private float labelExtent = 0f;                    // Farthest a label reaches from its anchor, in pixels
+    private float placedZoom = -1f;                    // Zoom the current placement was computed for
+    private int labelPlacementCount = 0;
+
+    // --- Live position ("you are here"), moved by step updates; drawn by the LiveMarkerView if set ---
+    private static final long LIVE_MARKER_ANIMATION_MS = 250;
+    private final float liveMarkerRadius = 18f;
+    private Paint liveMarkerPaint, liveMarkerHaloPaint;
+    private boolean hasLivePosition = false;
+    private String liveLegFromId, liveLegToId;
+    private float liveLegFraction;
+    private float liveFromX, liveFromY;                // Fit-space position the current animation started at
+    private float liveToX, liveToY;                    // Fit-space position it is heading for
+    private long liveAnimationStart;
+    private LiveMarkerView liveMarkerView;
+    private int drawCount = 0;
+
+    // --- Viewport: screen = fit * zoom + pan ---
+    private float zoom = 1f;
+    private float panX = 0f, panY = 0f;
+    private float maxZoom = 1f;
+    private ScaleGestureDetector scaleDetector;
+    private GestureDetector gestureDetector;
+    private float[] lineScratch = new float[256];      // Reused for transformed drawLines() batches
+
 
     public MapView(Context context, @Nullable AttributeSet attrs) {
         super(context, attrs);
         initPaints();
+        initGestures(context);
     }
 
     public void setData(Graph graph, List<String> pathIds, String destinationId) {
@@ -62,9 +139,20 @@ public class MapView extends View {
             this.startIsRoom = false;
         }
 
-        if (getWidth() > 0) {
-            calculateNodeCoordinates();
+        // The layout only depends on the map, so it is computed once per Graph in the background
+        // and reused across route changes and screen sizes.
+        this.layout = MapLayout.getCached(graph);
+        if (layout == null) {
+            MapLayout.computeAsync(graph, (layoutGraph, result) -> post(() -> {
+                if (layoutGraph != this.graph) return; // A newer map replaced this one meanwhile
+                this.layout = result;
+                applyLayout();
+                rebuildRenderCache();
+                invalidate();
+            }));
         }
+        applyLayout();
+        rebuildRenderCache();
         invalidate();
     }
 
@@ -88,18 +176,100 @@ public class MapView extends View {
         textPaint.setColor(Color.BLACK);
         textPaint.setTextSize(40f);
         textPaint.setTextAlign(Paint.Align.CENTER);
+        roomTextPaint = new Paint(textPaint);
+        roomTextPaint.setColor(Color.DKGRAY);
+        roomTextPaint.setTextSize(28f);
+        junctionLabelAtlas = new LabelAtlas(textPaint);
+        roomLabelAtlas = new LabelAtlas(roomTextPaint);
+        liveMarkerPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        liveMarkerPaint.setColor(Color.parseColor("#1E88E5")); // Blue "you are here" dot
+        liveMarkerHaloPaint = new Paint(liveMarkerPaint);
+        liveMarkerHaloPaint.setAlpha(60);
     }
 
+    /**
+     * Pinch to zoom around the fingers, drag to pan, double-tap to return to the overview.
+     */
+    private void initGestures(Context context) {
+        scaleDetector = new ScaleGestureDetector(context, new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScale(@NonNull ScaleGestureDetector detector) {
+                float newZoom = Math.max(1f, Math.min(maxZoom, zoom * detector.getScaleFactor()));
+                float factor = newZoom / zoom;
+                panX = detector.getFocusX() - (detector.getFocusX() - panX) * factor;
+                panY = detector.getFocusY() - (detector.getFocusY() - panY) * factor;
+                zoom = newZoom;
+                clampPan();
+                invalidate();
+                return true;
+            }
+
+            @Override
+            public void onScaleEnd(@NonNull ScaleGestureDetector detector) {
+                invalidate(); // Labels keep their old placement mid-pinch; re-place them now
+            }
+        });
+        gestureDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDown(@NonNull MotionEvent e) {
+                return true;
+            }
+
+            @Override
+            public boolean onScroll(@Nullable MotionEvent e1, @NonNull MotionEvent e2, float distanceX, float distanceY) {
+                panX -= distanceX;
+                panY -= distanceY;
+                clampPan();
+                invalidate();
+                return true;
+            }
 
+            @Override
+            public boolean onDoubleTap(@NonNull MotionEvent e) {
+                resetViewport();
+                invalidate();
+                return true;
+            }
+        });
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (graph == null) return super.onTouchEvent(event);
+        boolean handled = scaleDetector.onTouchEvent(event);
+        handled = gestureDetector.onTouchEvent(event) || handled;
+        if (event.getPointerCount() > 1 && getParent() != null) {
+            getParent().requestDisallowInterceptTouchEvent(true);
+        }
+        return handled || super.onTouchEvent(event);
+    }
+
+    private void resetViewport() {
+        zoom = 1f;
+        panX = 0f;
+        panY = 0f;
+    }
+
+    /** Keeps the zoomed map covering the view, so it can't be dragged off-screen. */
+    private void clampPan() {
+        panX = Math.max(getWidth() * (1f - zoom), Math.min(0f, panX));
+        panY = Math.max(getHeight() * (1f - zoom), Math.min(0f, panY));
+    }
+
+    private boolean isOverview() {
+        return zoom == 1f && panX == 0f && panY == 0f;
+    }
 
     @Override
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
         super.onSizeChanged(w, h, oldw, oldh);
-        calculateNodeCoordinates();
+        resetViewport();
+        applyLayout();
+        rebuildRenderCache();
     }
 
     /**
-     * Helper method to get the screen coordinates for any ID, whether it's a junction or a room.
+     * Helper method to get the fit-space coordinates for any ID, whether it's a junction or a room.
      */
     private PointF getCoordinatesForId(String id) {
         if (nodeCoordinates.containsKey(id)) {
@@ -108,185 +278,557 @@ public class MapView extends View {
         return roomCoordinates.get(id); // Returns null if not found in either map
     }
 
+    private float toScreenX(float fitX) {
+        return fitX * zoom + panX;
+    }
+
+    private float toScreenY(float fitY) {
+        return fitY * zoom + panY;
+    }
+
+    // --- Level-of-detail rules for the current zoom ---
+    private boolean showRooms() {
+        return typicalEdgeLength * zoom >= ROOM_LOD_EDGE_PX;
+    }
+
+    private boolean showLabels() {
+        return typicalEdgeLength * zoom >= LABEL_LOD_EDGE_PX;
+    }
+
+    private boolean showRoomLabels() {
+        return typicalEdgeLength * zoom >= ROOM_LABEL_LOD_EDGE_PX;
+    }
+
+    /** Junction dots shrink on dense maps so neighbours don't merge into a blob. */
+    private float junctionRadius() {
+        return Math.max(MIN_NODE_RADIUS_PX, Math.min(nodeRadius, typicalEdgeLength * zoom / 4f));
+    }
+
     @Override
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
-        if (graph == null || nodeCoordinates.isEmpty()) return;
+        if (graph == null || nodeCoordinates.isEmpty() || baseLayer == null) return;
 
-        // --- 1. Draw base map: all junctions, rooms, and edges ---
-        // Draw all edges first so they are underneath the nodes.
-        for (Node node : graph.getAllNodes()) {
-            for (Edge edge : node.edges.values()) {
-                if (node.id.compareTo(edge.toNodeId) < 0) {
-                    drawEdge(canvas, node.id, edge.toNodeId, edgePaint);
-                }
-            }
+        drawCount++;
+
+        // --- 1. Base map: replayed from the cache in the overview, culled when zoomed in ---
+        if (isOverview()) {
+            canvas.drawPicture(baseLayer);
+        } else {
+            drawVisibleBaseMap(canvas);
         }
 
         // --- 2. Draw the navigation path line ON TOP of the base map ---
-        if (pathNodeIds.size() > 1) {
-            for (int i = 0; i < pathNodeIds.size() - 1; i++) {
-                PointF startPoint = getCoordinatesForId(pathNodeIds.get(i));
-                PointF endPoint = getCoordinatesForId(pathNodeIds.get(i + 1));
-                if (startPoint != null && endPoint != null) {
-                    canvas.drawLine(startPoint.x, startPoint.y, endPoint.x, endPoint.y, pathPaint);
-                }
+        if (pathLinePoints.length > 0) {
+            float[] line = ensureLineScratch(pathLinePoints.length);
+            for (int i = 0; i < pathLinePoints.length; i += 2) {
+                line[i] = toScreenX(pathLinePoints[i]);
+                line[i + 1] = toScreenY(pathLinePoints[i + 1]);
             }
+            canvas.drawLines(line, 0, pathLinePoints.length, pathPaint);
         }
 
-        // Draw all junctions, coloring path junctions blue.
-        for (String nodeId : nodeCoordinates.keySet()) {
-            Paint currentPaint = pathNodeIds.contains(nodeId) ? pathNodePaint : nodePaint;
-            drawNode(canvas, nodeId, currentPaint);
+        // Re-draw what sits above the route line: path junctions in blue, rooms in gray.
+        float radius = junctionRadius();
+        for (int i = 0; i < pathJunctionPoints.length; i += 2) {
+            canvas.drawCircle(toScreenX(pathJunctionPoints[i]), toScreenY(pathJunctionPoints[i + 1]), radius, pathNodePaint);
         }
-        // Draw all rooms with default gray paint.
-        for(Map.Entry<String, PointF> entry : roomCoordinates.entrySet()) {
-            canvas.drawCircle(entry.getValue().x, entry.getValue().y, roomMarkerRadius, nodePaint);
+        if (showRooms()) {
+            for (int i = 0; i < pathRoomPoints.length; i += 2) {
+                canvas.drawCircle(toScreenX(pathRoomPoints[i]), toScreenY(pathRoomPoints[i + 1]), roomMarkerRadius, nodePaint);
+            }
         }
 
         // --- 3. Draw start and end markers ON TOP of everything else ---
         // This ensures they are always visible and correctly colored.
-        if (startNodeId != null) {
-            PointF startPos = getCoordinatesForId(startNodeId);
-            if (startPos != null) {
-                if (startIsRoom) {
-                    canvas.drawCircle(startPos.x, startPos.y, roomMarkerRadius, startNodePaint);
-                    canvas.drawText(startNodeId, startPos.x, startPos.y - roomMarkerRadius - 15, textPaint);
-                } else { // It's a junction
-                    drawNode(canvas, startNodeId, startNodePaint);
-                }
-            }
-        }
+        drawMarker(canvas, startNodeId, startIsRoom, startNodePaint);
+        drawMarker(canvas, finalDestinationId, destinationIsRoom, endNodePaint);
 
-        if (finalDestinationId != null) {
-            PointF endPos = getCoordinatesForId(finalDestinationId);
-            if (endPos != null) {
-                if (destinationIsRoom) {
-                    canvas.drawCircle(endPos.x, endPos.y, roomMarkerRadius, endNodePaint);
-                    canvas.drawText(finalDestinationId, endPos.x, endPos.y - roomMarkerRadius - 15, textPaint);
-                } else { // It's a junction
-                    drawNode(canvas, finalDestinationId, endNodePaint);
-                }
-            }
+        // --- 4. Labels ---
+        drawLabels(canvas);
+
+        // --- 5. Live position above everything: its own view follows this frame's viewport ---
+        if (liveMarkerView != null) {
+            if (hasLivePosition) liveMarkerView.invalidate();
+        } else {
+            drawLivePosition(canvas);
         }
     }
 
-    private void calculateNodeCoordinates() {
-        if (graph == null || graph.getAllNodes().isEmpty() || getWidth() == 0) {
+    /**
+     * Hands the "you are here" marker to {@code view}, a {@link LiveMarkerView} stacked over this
+     * map. Position updates then only redraw that view: under hardware acceleration a view is
+     * re-recorded whole whenever it is invalidated, so a marker drawn here would redraw the map
+     * on every step. Without one the map draws the marker itself.
+     */
+    public void setLiveMarkerView(@Nullable LiveMarkerView view) {
+        if (liveMarkerView != null) liveMarkerView.setMap(null);
+        liveMarkerView = view;
+        if (view != null) view.setMap(this);
+        invalidate();
+    }
+
+    /**
+     * Moves the "you are here" marker to a point along a route leg. The marker glides to the
+     * new point; with a {@link #setLiveMarkerView LiveMarkerView} only that view is redrawn, so
+     * the map is not re-recorded on every step.
+     * @param fromId Junction or room the leg starts at.
+     * @param toId Junction or room the leg ends at.
+     * @param metersCovered Distance walked along the leg so far.
+     * @param legMeters Total length of the leg.
+     */
+    public void setLivePosition(String fromId, String toId, double metersCovered, int legMeters) {
+        float fraction = legMeters > 0 ? (float) Math.max(0, Math.min(1, metersCovered / legMeters)) : 1f;
+        liveLegFromId = fromId;
+        liveLegToId = toId;
+        liveLegFraction = fraction;
+        PointF from = getCoordinatesForId(fromId);
+        PointF to = getCoordinatesForId(toId);
+        if (from == null || to == null) {
+            // Not laid out yet; rebuildRenderCache() places the marker once it is.
+            hasLivePosition = true;
             return;
         }
+        float targetX = from.x + (to.x - from.x) * fraction;
+        float targetY = from.y + (to.y - from.y) * fraction;
+
+        if (hasLivePosition && baseLayer != null) {
+            // Continue from wherever the previous animation has got to.
+            float t = liveAnimationProgress();
+            liveFromX = liveFromX + (liveToX - liveFromX) * t;
+            liveFromY = liveFromY + (liveToY - liveFromY) * t;
+        } else {
+            liveFromX = targetX;
+            liveFromY = targetY;
+        }
+        liveToX = targetX;
+        liveToY = targetY;
+        liveAnimationStart = SystemClock.uptimeMillis();
+        hasLivePosition = true;
+        invalidateLiveMarker();
+    }
 
-        // --- Step 1: Calculate Relative Positions for JUNCTIONS using BFS ---
-        // The map layout must be consistent, regardless of the user's path.
-        // To achieve this, we always start the layout calculation from a fixed, deterministic node.
-        // Here, we choose the junction with the lexicographically smallest ID as the "root" of our map.
-        Map<String, PointF> relativeCoords = new HashMap<>();
-        Queue<String> queue = new ArrayDeque<>();
-        Set<String> visited = new HashSet<>();
+    /** Removes the live position marker. */
+    public void clearLivePosition() {
+        if (!hasLivePosition) return;
+        hasLivePosition = false;
+        invalidateLiveMarker();
+    }
 
-        String layoutRootNodeId = graph.getAllNodes().stream()
-                .map(node -> node.id)
-                .min(String::compareTo)
-                .orElse(null);
+    private float liveAnimationProgress() {
+        float t = (SystemClock.uptimeMillis() - liveAnimationStart) / (float) LIVE_MARKER_ANIMATION_MS;
+        return Math.max(0f, Math.min(1f, t));
+    }
 
-        // If for some reason no root node can be found, abort.
-        if (layoutRootNodeId == null) {
-            return;
+    private void invalidateLiveMarker() {
+        if (liveMarkerView != null) {
+            liveMarkerView.invalidate();
+        } else {
+            invalidate();
         }
+    }
 
-        queue.add(layoutRootNodeId);
-        visited.add(layoutRootNodeId);
-        relativeCoords.put(layoutRootNodeId, new PointF(0, 0));
-
-        while (!queue.isEmpty()) {
-            String currentId = queue.poll();
-            Node currentNode = graph.getNode(currentId);
-            PointF currentPos = relativeCoords.get(currentId);
+    /**
+     * Draws the marker in this view's coordinates, and asks for the next frame while it is still
+     * gliding. Called from {@link #onDraw}, or from the LiveMarkerView's onDraw.
+     */
+    void drawLivePosition(Canvas canvas) {
+        if (!hasLivePosition) return;
+        float t = liveAnimationProgress();
+        float x = toScreenX(liveFromX + (liveToX - liveFromX) * t);
+        float y = toScreenY(liveFromY + (liveToY - liveFromY) * t);
+        canvas.drawCircle(x, y, 2 * liveMarkerRadius, liveMarkerHaloPaint);
+        canvas.drawCircle(x, y, liveMarkerRadius, liveMarkerPaint);
+        if (t < 1f) {
+            (liveMarkerView != null ? liveMarkerView : this).postInvalidateOnAnimation();
+        }
+    }
 
-            if (currentNode == null || currentPos == null) continue;
+    private void drawMarker(Canvas canvas, String id, boolean isRoom, Paint paint) {
+        if (id == null) return;
+        PointF pos = getCoordinatesForId(id);
+        if (pos == null) return;
+        canvas.drawCircle(toScreenX(pos.x), toScreenY(pos.y), isRoom ? roomMarkerRadius : nodeRadius, paint);
+    }
 
-            for (Edge edge : currentNode.edges.values()) {
-                if (!visited.contains(edge.toNodeId)) {
-                    visited.add(edge.toNodeId);
-                    queue.add(edge.toNodeId);
+    /**
+     * Draws the placed labels inside the viewport. Placement is recomputed only when the zoom
+     * has changed since the last placement, and not while a pinch is still in progress.
+     */
+    private void drawLabels(Canvas canvas) {
+        if (labelGrid == null) return;
+        if (placedZoom != zoom && !scaleDetector.isInProgress()) {
+            placeLabels();
+        }
+        float margin = labelExtent / zoom;
+        int hits = labelGrid.query(-panX / zoom - margin, -panY / zoom - margin,
+                (getWidth() - panX) / zoom + margin, (getHeight() - panY) / zoom + margin);
+        for (int k = 0; k < hits; k++) {
+            int i = labelGrid.getResult(k);
+            if (!labelPlaced[i]) continue;
+            LabelAtlas atlas = labelKinds[i] == LABEL_ROOM ? roomLabelAtlas : junctionLabelAtlas;
+            atlas.draw(canvas, labelTexts[i],
+                    toScreenX(labelPoints[2 * i]) + labelOffsets[2 * i],
+                    toScreenY(labelPoints[2 * i + 1]) + labelOffsets[2 * i + 1]);
+        }
+    }
 
-                    double angleRad = Math.toRadians(edge.directionDegrees - 90);
-                    float dx = (float) (edge.distanceMeters * Math.cos(angleRad));
-                    float dy = (float) (edge.distanceMeters * Math.sin(angleRad));
-                    relativeCoords.put(edge.toNodeId, new PointF(currentPos.x + dx, currentPos.y + dy));
-                }
+    /** Runs the collision-aware placement for the current zoom, in zoomed (pan-free) pixels. */
+    private void placeLabels() {
+        boolean junctionLabels = showLabels();
+        boolean roomLabels = showRoomLabels();
+        float radius = junctionRadius();
+        for (int i = 0; i < labelTexts.length; i++) {
+            labelAnchorScratch[2 * i] = labelPoints[2 * i] * zoom;
+            labelAnchorScratch[2 * i + 1] = labelPoints[2 * i + 1] * zoom;
+            switch (labelKinds[i]) {
+                case LABEL_JUNCTION:
+                    labelEligible[i] = junctionLabels;
+                    labelRadii[i] = radius;
+                    break;
+                case LABEL_ROOM:
+                    labelEligible[i] = roomLabels;
+                    break;
+                default:
+                    labelEligible[i] = true;
+                    break;
             }
         }
+        labelPlacer.place(labelAnchorScratch, labelRadii, labelWidths, labelHeights,
+                labelForced, labelEligible, labelOffsets, labelPlaced);
+        placedZoom = zoom;
+        labelPlacementCount++;
+    }
 
-        // --- Step 2 & 3: Find Bounding Box and Scale Factor (Unchanged) ---
-        float minX = Float.MAX_VALUE, maxX = Float.MIN_VALUE, minY = Float.MAX_VALUE, maxY = Float.MIN_VALUE;
-        for (PointF pos : relativeCoords.values()) {
-            minX = Math.min(minX, pos.x);
-            maxX = Math.max(maxX, pos.x);
-            minY = Math.min(minY, pos.y);
-            maxY = Math.max(maxY, pos.y);
+    /**
+     * Draws only the base-map items inside the viewport, applying the level-of-detail rules.
+     * Uses the spatial grids and the reusable line buffer, so it does not allocate.
+     */
+    private void drawVisibleBaseMap(Canvas canvas) {
+        // Viewport in fit space, padded so markers straddling the border still show.
+        float margin = nodeRadius / zoom;
+        float left = -panX / zoom - margin;
+        float top = -panY / zoom - margin;
+        float right = (getWidth() - panX) / zoom + margin;
+        float bottom = (getHeight() - panY) / zoom + margin;
+
+        int edgeHits = edgeGrid.query(left, top, right, bottom);
+        float[] line = ensureLineScratch(edgeHits * 4);
+        int lineCount = 0;
+        for (int k = 0; k < edgeHits; k++) {
+            int e = edgeGrid.getResult(k);
+            if (edgeLengths[e] * zoom < MIN_EDGE_PX) continue; // Sub-pixel: covered by the junction dots
+            line[lineCount++] = toScreenX(edgePoints[4 * e]);
+            line[lineCount++] = toScreenY(edgePoints[4 * e + 1]);
+            line[lineCount++] = toScreenX(edgePoints[4 * e + 2]);
+            line[lineCount++] = toScreenY(edgePoints[4 * e + 3]);
+        }
+        if (lineCount > 0) {
+            canvas.drawLines(line, 0, lineCount, edgePaint);
         }
-        float graphWidth = maxX - minX;
-        float graphHeight = maxY - minY;
-        if (graphWidth < 1) graphWidth = 1;
-        if (graphHeight < 1) graphHeight = 1;
 
-        float availableWidth = getWidth() - (2 * viewPadding);
-        float availableHeight = getHeight() - (2 * viewPadding);
-        float scale = Math.min(availableWidth / graphWidth, availableHeight / graphHeight);
+        float radius = junctionRadius();
+        int junctionHits = junctionGrid.query(left, top, right, bottom);
+        for (int k = 0; k < junctionHits; k++) {
+            int j = junctionGrid.getResult(k);
+            canvas.drawCircle(toScreenX(junctionPoints[2 * j]), toScreenY(junctionPoints[2 * j + 1]), radius, nodePaint);
+        }
 
+        if (showRooms()) {
+            int roomHits = roomGrid.query(left, top, right, bottom);
+            for (int k = 0; k < roomHits; k++) {
+                int r = roomGrid.getResult(k);
+                canvas.drawCircle(toScreenX(roomPoints[2 * r]), toScreenY(roomPoints[2 * r + 1]), roomMarkerRadius, nodePaint);
+            }
+        }
+    }
 
-        // --- Step 4: Calculate Final On-Screen Coordinates for JUNCTIONS ---
-        nodeCoordinates.clear();
-        for (Map.Entry<String, PointF> entry : relativeCoords.entrySet()) {
-            PointF relPos = entry.getValue();
-            float screenX = viewPadding + (relPos.x - minX) * scale;
-            float screenY = viewPadding + (relPos.y - minY) * scale;
-            nodeCoordinates.put(entry.getKey(), new PointF(screenX, screenY));
+    private float[] ensureLineScratch(int size) {
+        if (lineScratch.length < size) {
+            lineScratch = new float[Math.max(size, lineScratch.length * 2)];
         }
+        return lineScratch;
+    }
 
-        // --- Step 5: Calculate Screen Coordinates for ALL Rooms via Interpolation ---
-        roomCoordinates.clear();
-        Set<String> drawnEdges = new HashSet<>();
-        for (Node junction : graph.getAllNodes()) {
-            for (Edge edge : junction.getEdges().values()) {
-                String edgeKey = junction.id.compareTo(edge.toNodeId) < 0 ? junction.id + "-" + edge.toNodeId : edge.toNodeId + "-" + junction.id;
-                if (drawnEdges.contains(edgeKey) || edge.roomIds.isEmpty()) {
-                    continue;
+    /**
+     * Rebuilds everything onDraw needs from the current coordinates and path: flattens the map
+     * into primitive arrays, indexes it in spatial grids, records the overview into
+     * {@link #baseLayer} and flattens the route. Called once per layout, never per frame.
+     */
+    private void rebuildRenderCache() {
+        if (graph == null || nodeCoordinates.isEmpty() || getWidth() == 0) {
+            baseLayer = null;
+            labelGrid = null;
+            return;
+        }
+        List<Node> nodes = graph.getAllNodes();
+
+        // --- Flatten junctions, rooms and edges ---
+        junctionIds = new String[nodeCoordinates.size()];
+        junctionPoints = new float[nodeCoordinates.size() * 2];
+        int j = 0;
+        for (Map.Entry<String, PointF> entry : nodeCoordinates.entrySet()) {
+            junctionIds[j] = entry.getKey();
+            junctionPoints[2 * j] = entry.getValue().x;
+            junctionPoints[2 * j + 1] = entry.getValue().y;
+            j++;
+        }
+        roomIds = new String[roomCoordinates.size()];
+        roomPoints = new float[roomCoordinates.size() * 2];
+        int r = 0;
+        for (Map.Entry<String, PointF> entry : roomCoordinates.entrySet()) {
+            roomIds[r] = entry.getKey();
+            roomPoints[2 * r] = entry.getValue().x;
+            roomPoints[2 * r + 1] = entry.getValue().y;
+            r++;
+        }
+        List<Float> edgeList = new ArrayList<>();
+        for (Node node : nodes) {
+            for (Edge edge : node.edges.values()) {
+                if (node.id.compareTo(edge.toNodeId) < 0) {
+                    PointF start = nodeCoordinates.get(node.id);
+                    PointF end = nodeCoordinates.get(edge.toNodeId);
+                    if (start != null && end != null) {
+                        edgeList.add(start.x);
+                        edgeList.add(start.y);
+                        edgeList.add(end.x);
+                        edgeList.add(end.y);
+                    }
                 }
-                drawnEdges.add(edgeKey);
-
-                PointF startPos = nodeCoordinates.get(junction.id);
-                PointF endPos = nodeCoordinates.get(edge.toNodeId);
-
-                if (startPos != null && endPos != null) {
-                    int totalRooms = edge.roomIds.size();
-                    for (int i = 0; i < totalRooms; i++) {
-                        String roomId = edge.roomIds.get(i);
-                        float ratio = (float) (i + 1) / (totalRooms + 1);
+            }
+        }
+        edgePoints = toFloatArray(edgeList);
+        edgeLengths = new float[edgePoints.length / 4];
+        for (int e = 0; e < edgeLengths.length; e++) {
+            edgeLengths[e] = (float) Math.hypot(edgePoints[4 * e + 2] - edgePoints[4 * e], edgePoints[4 * e + 3] - edgePoints[4 * e + 1]);
+        }
+        typicalEdgeLength = median(edgeLengths);
+        maxZoom = Math.max(4f, MAX_ZOOM_EDGE_PX / typicalEdgeLength);
 
-                        float roomX = startPos.x + (endPos.x - startPos.x) * ratio;
-                        float roomY = startPos.y + (endPos.y - startPos.y) * ratio;
-                        roomCoordinates.put(roomId, new PointF(roomX, roomY));
-                    }
+        // --- Spatial index over fit-space bounds ---
+        junctionGrid = new SpatialGrid(0, 0, getWidth(), getHeight(), Math.max(1, junctionIds.length / TARGET_ITEMS_PER_CELL));
+        for (int i = 0; i < junctionIds.length; i++) {
+            junctionGrid.add(junctionPoints[2 * i], junctionPoints[2 * i + 1], junctionPoints[2 * i], junctionPoints[2 * i + 1]);
+        }
+        junctionGrid.build();
+        roomGrid = new SpatialGrid(0, 0, getWidth(), getHeight(), Math.max(1, roomPoints.length / 2 / TARGET_ITEMS_PER_CELL));
+        for (int i = 0; i < roomPoints.length; i += 2) {
+            roomGrid.add(roomPoints[i], roomPoints[i + 1], roomPoints[i], roomPoints[i + 1]);
+        }
+        roomGrid.build();
+        edgeGrid = new SpatialGrid(0, 0, getWidth(), getHeight(), Math.max(1, edgeLengths.length / TARGET_ITEMS_PER_CELL));
+        for (int e = 0; e < edgeLengths.length; e++) {
+            edgeGrid.add(edgePoints[4 * e], edgePoints[4 * e + 1], edgePoints[4 * e + 2], edgePoints[4 * e + 3]);
+        }
+        edgeGrid.build();
+
+        // --- Overview layer (zoom 1, same level-of-detail rules as zoomed frames) ---
+        float savedZoom = zoom, savedPanX = panX, savedPanY = panY;
+        resetViewport();
+        Picture picture = new Picture();
+        Canvas canvas = picture.beginRecording(getWidth(), getHeight());
+        drawVisibleBaseMap(canvas);
+        picture.endRecording();
+        zoom = savedZoom;
+        panX = savedPanX;
+        panY = savedPanY;
+        baseLayer = picture;
+        baseLayerRecordCount++;
+
+        // --- Route overlay ---
+        Set<String> onPath = new HashSet<>(pathNodeIds);
+        List<Float> linePoints = new ArrayList<>();
+        for (int i = 0; i < pathNodeIds.size() - 1; i++) {
+            PointF startPoint = getCoordinatesForId(pathNodeIds.get(i));
+            PointF endPoint = getCoordinatesForId(pathNodeIds.get(i + 1));
+            if (startPoint != null && endPoint != null) {
+                linePoints.add(startPoint.x);
+                linePoints.add(startPoint.y);
+                linePoints.add(endPoint.x);
+                linePoints.add(endPoint.y);
+            }
+        }
+        pathLinePoints = toFloatArray(linePoints);
+
+        List<String> pathIds = new ArrayList<>();
+        List<Float> pathPoints = new ArrayList<>();
+        for (int i = 0; i < junctionIds.length; i++) {
+            if (onPath.contains(junctionIds[i])) {
+                pathIds.add(junctionIds[i]);
+                pathPoints.add(junctionPoints[2 * i]);
+                pathPoints.add(junctionPoints[2 * i + 1]);
+            }
+        }
+        pathJunctionPoints = toFloatArray(pathPoints);
+
+        // Rooms on an edge the route walks along are covered by the route line, so they are re-drawn.
+        List<Float> pathRooms = new ArrayList<>();
+        for (int i = 0; i < pathNodeIds.size() - 1; i++) {
+            Node from = graph.getNode(pathNodeIds.get(i));
+            Edge edge = from != null ? from.getEdgeTo(pathNodeIds.get(i + 1)) : null;
+            if (edge == null) continue;
+            for (String roomId : edge.roomIds) {
+                PointF room = roomCoordinates.get(roomId);
+                if (room != null) {
+                    pathRooms.add(room.x);
+                    pathRooms.add(room.y);
                 }
             }
         }
+        pathRoomPoints = toFloatArray(pathRooms);
+
+        rebuildLabels(pathIds);
+
+        // Fit space changed, so snap the live marker to its leg position without animating.
+        if (hasLivePosition) {
+            PointF from = getCoordinatesForId(liveLegFromId);
+            PointF to = getCoordinatesForId(liveLegToId);
+            if (from != null && to != null) {
+                liveToX = liveFromX = from.x + (to.x - from.x) * liveLegFraction;
+                liveToY = liveFromY = from.y + (to.y - from.y) * liveLegFraction;
+            } else {
+                hasLivePosition = false;
+            }
+        }
+    }
+
+    /** Collects every label in priority order and measures it; placement happens lazily in onDraw. */
+    private void rebuildLabels(List<String> pathJunctionIds) {
+        List<String> texts = new ArrayList<>();
+        List<Byte> kinds = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (String id : new String[]{startNodeId, finalDestinationId}) {
+            if (id != null && getCoordinatesForId(id) != null && seen.add(id)) {
+                texts.add(id);
+                kinds.add(LABEL_MARKER);
+            }
+        }
+        for (String id : pathJunctionIds) {
+            if (seen.add(id)) {
+                texts.add(id);
+                kinds.add(LABEL_JUNCTION);
+            }
+        }
+        for (String id : junctionIds) {
+            if (seen.add(id)) {
+                texts.add(id);
+                kinds.add(LABEL_JUNCTION);
+            }
+        }
+        for (String id : roomIds) {
+            if (seen.add(id)) {
+                texts.add(id);
+                kinds.add(LABEL_ROOM);
+            }
+        }
+
+        int count = texts.size();
+        labelTexts = texts.toArray(new String[0]);
+        labelKinds = new byte[count];
+        labelPoints = new float[count * 2];
+        labelRadii = new float[count];
+        labelWidths = new float[count];
+        labelHeights = new float[count];
+        labelForced = new boolean[count];
+        labelEligible = new boolean[count];
+        labelAnchorScratch = new float[count * 2];
+        labelOffsets = new float[count * 2];
+        labelPlaced = new boolean[count];
+        labelExtent = 0f;
+        labelGrid = new SpatialGrid(0, 0, getWidth(), getHeight(), Math.max(1, count / TARGET_ITEMS_PER_CELL));
+        for (int i = 0; i < count; i++) {
+            byte kind = kinds.get(i);
+            PointF point = getCoordinatesForId(labelTexts[i]);
+            boolean isRoom = kind == LABEL_ROOM || (kind == LABEL_MARKER && !nodeCoordinates.containsKey(labelTexts[i]));
+            LabelAtlas atlas = kind == LABEL_ROOM ? roomLabelAtlas : junctionLabelAtlas;
+            labelKinds[i] = kind;
+            labelPoints[2 * i] = point.x;
+            labelPoints[2 * i + 1] = point.y;
+            labelRadii[i] = kind == LABEL_MARKER ? (isRoom ? roomMarkerRadius : nodeRadius) : roomMarkerRadius;
+            labelWidths[i] = atlas.measureWidth(labelTexts[i]);
+            labelHeights[i] = atlas.getLabelHeight();
+            labelForced[i] = kind == LABEL_MARKER;
+            labelExtent = Math.max(labelExtent, nodeRadius + labelWidths[i] + labelHeights[i]);
+            labelGrid.add(point.x, point.y, point.x, point.y);
+        }
+        labelGrid.build();
+        placedZoom = -1f;
     }
 
-    // --- Drawing helper methods (Unchanged) ---
-    private void drawEdge(Canvas canvas, String fromId, String toId, Paint paint) {
-        PointF start = nodeCoordinates.get(fromId);
-        PointF end = nodeCoordinates.get(toId);
-        if (start != null && end != null) {
-            canvas.drawLine(start.x, start.y, end.x, end.y, paint);
+    private static float[] toFloatArray(List<Float> values) {
+        float[] result = new float[values.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = values.get(i);
         }
+        return result;
+    }
+
+    private static float median(float[] values) {
+        if (values.length == 0) return 1f;
+        float[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return Math.max(1f, sorted[sorted.length / 2]);
+    }
+
+    /**
+     * Number of times the static base map has been recorded. Stays constant across frames
+     * that only change the route overlay, markers or viewport; used by the frame-time tests.
+     */
+    int getBaseLayerRecordCount() {
+        return baseLayerRecordCount;
     }
-    private void drawNode(Canvas canvas, String nodeId, Paint paint) {
-        PointF pos = nodeCoordinates.get(nodeId);
-        if (pos != null) {
-            canvas.drawCircle(pos.x, pos.y, nodeRadius, paint);
-            canvas.drawText(nodeId, pos.x, pos.y - nodeRadius - 15, textPaint);
+
+    /**
+     * Number of times onDraw has drawn the map. Live-marker updates drawn by a LiveMarkerView
+     * leave this unchanged; used by the frame-time tests.
+     */
+    int getDrawCount() {
+        return drawCount;
+    }
+
+    /** Number of times labels have been re-placed; stays constant while only panning. */
+    int getLabelPlacementCount() {
+        return labelPlacementCount;
+    }
+
+    /**
+     * Moves the viewport programmatically (fit-space focus point), as a pinch gesture would.
+     * Used by the frame-time tests to exercise the culled drawing path.
+     */
+    void setViewport(float newZoom, float focusX, float focusY) {
+        zoom = Math.max(1f, Math.min(maxZoom, newZoom));
+        panX = getWidth() / 2f - focusX * zoom;
+        panY = getHeight() / 2f - focusY * zoom;
+        clampPan();
+        invalidate();
+    }
+
+    /**
+     * Maps the cached world-space layout into fit space for the current view size. This is only
+     * a scale and offset, so size changes never re-run the layout solver.
+     */
+    private void applyLayout() {
+        nodeCoordinates.clear();
+        roomCoordinates.clear();
+        if (layout == null || layout.junctionIds.length == 0 || getWidth() == 0) {
+            return;
+        }
+
+        float graphWidth = Math.max(1f, layout.maxX - layout.minX);
+        float graphHeight = Math.max(1f, layout.maxY - layout.minY);
+        float availableWidth = getWidth() - (2 * viewPadding);
+        float availableHeight = getHeight() - (2 * viewPadding);
+        float scale = Math.min(availableWidth / graphWidth, availableHeight / graphHeight);
+
+        for (int i = 0; i < layout.junctionIds.length; i++) {
+            float screenX = viewPadding + (layout.junctionPoints[2 * i] - layout.minX) * scale;
+            float screenY = viewPadding + (layout.junctionPoints[2 * i + 1] - layout.minY) * scale;
+            nodeCoordinates.put(layout.junctionIds[i], new PointF(screenX, screenY));
+        }
+        for (int i = 0; i < layout.roomIds.length; i++) {
+            float screenX = viewPadding + (layout.roomPoints[2 * i] - layout.minX) * scale;
+            float screenY = viewPadding + (layout.roomPoints[2 * i + 1] - layout.minY) * scale;
+            roomCoordinates.put(layout.roomIds[i], new PointF(screenX, screenY));
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,294 @@
+package com.example.qr_indoornav;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.pm.ServiceInfo;
+import android.os.Binder;
+import android.os.Build;
+import android.os.IBinder;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.core.app.NotificationCompat;
+import androidx.core.content.ContextCompat;
+
+import com.example.qr_indoornav.model.Graph;
+import com.example.qr_indoornav.model.Location;
+import com.example.qr_indoornav.model.MapData;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Foreground service that owns the sensors, the {@link StepDetector} and the journey state
+ * (the route and the current leg) for a whole trip.
+ *
+ * {@link CompassActivity} starts it with the route and stops it when the trip ends. Screens bind
+ * to it and subscribe for sensor frames while they are in front. The {@link SensorHub} keeps
+ * running across screen changes, so the heading filter stays warm and steps taken while one
+ * screen hands over to the next are still counted. The step count carries over within a leg
+ * (e.g. after a deviation) and is reset only when the next leg starts. Alongside the count, a
+ * {@link ParticleFilter} tracks the position along each leg on the map. Each confirmed checkpoint
+ * also refines the user's step length, which is kept across trips, and the heading offsets of
+ * the map's edges and junctions (see {@link HeadingCalibration}), which are kept per map.
+ *
+ * All methods must be called on the main thread.
+ */
+public class NavigationService extends Service {
+
+    private static final String TAG = "NavigationService";
+    private static final String CHANNEL_ID = "navigation";
+    private static final int NOTIFICATION_ID = 1;
+
+    // --- Saved step-length calibration (see StepLengthEstimator) ---
+    private static final String PREFS_STEP_LENGTH = "step_length";
+    private static final String[] STEP_LENGTH_KEYS = {"gain", "gain_variance", "mean_feature", "legs"};
+    private static final String PREFS_HEADING_OFFSETS = "heading_offsets_"; // + map id
+
+    /** Handed to bound clients of this (in-process) service. */
+    public class LocalBinder extends Binder {
+        public NavigationService getService() {
+            return NavigationService.this;
+        }
+    }
+
+    private final IBinder binder = new LocalBinder();
+    private StepDetector stepDetector;
+    private SensorHub sensorHub;
+    private SensorHub.FrameListener subscriber;
+    private final HeadingCalibration headingCalibration = new HeadingCalibration();
+    private String headingPrefsName; // Null until the map is known
+
+    // --- Journey state ---
+    private List<PathFinder.PathLeg> pathLegs; // Null until the first start command
+    private int currentLegIndex = 0;
+
+    /** Starts the service for a route, or keeps the running trip if there is one. */
+    public static void start(Context context, ArrayList<PathFinder.PathLeg> pathLegs) {
+        Intent intent = new Intent(context, NavigationService.class);
+        intent.putExtra(NavigationActivity.EXTRA_PATH_LEGS, pathLegs);
+        ContextCompat.startForegroundService(context, intent);
+    }
+
+    /** Ends the trip: sensors off, notification gone. */
+    public static void stop(Context context) {
+        context.stopService(new Intent(context, NavigationService.class));
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        // Steps are read from the SensorHub snapshot each frame, so the detector needs no listener.
+        stepDetector = new StepDetector(null);
+        loadStepLength();
+        sensorHub = new SensorHub(this, stepDetector);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        boolean newTrip = pathLegs == null;
+        if (newTrip && intent != null) {
+            pathLegs = (ArrayList<PathFinder.PathLeg>) intent.getSerializableExtra(NavigationActivity.EXTRA_PATH_LEGS);
+        }
+        if (pathLegs == null || pathLegs.isEmpty()) {
+            Log.e(TAG, "Started without a route.");
+            stopSelf();
+            return START_NOT_STICKY;
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE) {
+            startForeground(NOTIFICATION_ID, buildNotification(), ServiceInfo.FOREGROUND_SERVICE_TYPE_HEALTH);
+        } else {
+            startForeground(NOTIFICATION_ID, buildNotification());
+        }
+        PathFinder.PathLeg leg = getCurrentLeg();
+        if (leg != null) {
+            sensorHub.setTargetDegree(leg.direction);
+        }
+        if (newTrip) {
+            Graph graph = MapData.getGraph();
+            if (graph != null) {
+                sensorHub.setParticleFilter(new ParticleFilter(ParticleFilter.Network.build(graph),
+                        ParticleFilter.DEFAULT_PARTICLES, System.nanoTime()));
+                loadHeadingCalibration(MapData.getMapId());
+            }
+            sensorHub.startLeg(leg.fromId, leg.toId);
+            applyHeadingOffset(sensorHub.getMode());
+        }
+        sensorHub.start(subscriber);
+        // The route cannot be rebuilt after the process dies, so don't ask to be restarted.
+        return START_NOT_STICKY;
+    }
+
+    @Nullable
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+
+    @Override
+    public void onTaskRemoved(Intent rootIntent) {
+        stopSelf(); // The app was swiped away: the trip is over
+    }
+
+    @Override
+    public void onDestroy() {
+        sensorHub.stop();
+        super.onDestroy();
+    }
+
+    // --- Sensor frames ---
+
+    /** Makes {@code listener} the screen that receives sensor frames, replacing any other. */
+    public void subscribe(SensorHub.FrameListener listener) {
+        subscriber = listener;
+        sensorHub.setFrameListener(listener);
+    }
+
+    /** Stops frames to {@code listener} if it is the current subscriber. */
+    public void unsubscribe(SensorHub.FrameListener listener) {
+        if (subscriber != listener) return;
+        subscriber = null;
+        sensorHub.setFrameListener(null);
+    }
+
+    /** Re-registers the sensors, e.g. after a permission grant makes the step sensors usable. */
+    public void restartSensors() {
+        sensorHub.stop();
+        sensorHub.start(subscriber);
+    }
+
+    /**
+     * Sets the sampling schedule for what the user is doing. Aligned steps are counted only in
+     * {@link SensorHub.Mode#WALKING}; aligning, scanning and dialogs never add steps.
+     */
+    public void setMode(SensorHub.Mode mode) {
+        sensorHub.setStepCounting(mode == SensorHub.Mode.WALKING);
+        applyHeadingOffset(mode);
+        sensorHub.setMode(mode);
+    }
+
+    /** Corrects the heading for the current leg: the junction's offset while aligning, the edge's while walking. */
+    private void applyHeadingOffset(SensorHub.Mode mode) {
+        PathFinder.PathLeg leg = getCurrentLeg();
+        if (leg != null) {
+            sensorHub.setHeadingOffset(headingCalibration.offsetFor(leg.fromId, leg.toId, mode != SensorHub.Mode.WALKING));
+        }
+    }
+
+    /** Sensor events and wakeups spent in {@code mode} during this trip. */
+    public SensorHub.Stats getSensorStats(SensorHub.Mode mode) {
+        return sensorHub.getStats(mode);
+    }
+
+    /** The trip's detector. Read it only from a frame callback (see {@link SensorHub}). */
+    public StepDetector getStepDetector() {
+        return stepDetector;
+    }
+
+    // --- Journey state ---
+
+    public List<PathFinder.PathLeg> getPathLegs() {
+        return pathLegs;
+    }
+
+    /** Index of the leg being walked; equals the number of legs once the destination is reached. */
+    public int getCurrentLegIndex() {
+        return currentLegIndex;
+    }
+
+    /** The leg being walked, or null once the destination is reached. */
+    @Nullable
+    public PathFinder.PathLeg getCurrentLeg() {
+        return currentLegIndex < pathLegs.size() ? pathLegs.get(currentLegIndex) : null;
+    }
+
+    /** Called when the checkpoint at the end of the current leg has been scanned. */
+    public void advanceLeg() {
+        setMode(SensorHub.Mode.IDLE);
+        // The checkpoint confirms the leg's length: fit the user's step length to it.
+        PathFinder.PathLeg finished = getCurrentLeg();
+        sensorHub.calibrateStepLength(finished.distance, this::saveStepLength);
+        // ...and that the heading measured along it belongs to this edge.
+        sensorHub.calibrateHeading(headingCalibration, finished.fromId, finished.toId, this::saveHeadingCalibration);
+        currentLegIndex++;
+        sensorHub.resetSteps(0);
+        PathFinder.PathLeg leg = getCurrentLeg();
+        if (leg != null) {
+            sensorHub.setTargetDegree(leg.direction);
+            applyHeadingOffset(SensorHub.Mode.IDLE);
+            sensorHub.startLeg(leg.fromId, leg.toId);
+            NotificationManager manager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+            manager.notify(NOTIFICATION_ID, buildNotification());
+        }
+    }
+
+    /** Restores the step length learned in earlier trips, if any. */
+    private void loadStepLength() {
+        SharedPreferences prefs = getSharedPreferences(PREFS_STEP_LENGTH, MODE_PRIVATE);
+        if (!prefs.contains(STEP_LENGTH_KEYS[0])) return;
+        double[] state = new double[STEP_LENGTH_KEYS.length];
+        for (int i = 0; i < state.length; i++) {
+            state[i] = Double.longBitsToDouble(prefs.getLong(STEP_LENGTH_KEYS[i], 0));
+        }
+        stepDetector.getStepLengthEstimator().setState(state);
+    }
+
+    /** Saves the learned step length. Runs on the sensor thread, which owns the StepDetector. */
+    private void saveStepLength() {
+        double[] state = stepDetector.getStepLengthEstimator().getState();
+        SharedPreferences.Editor editor = getSharedPreferences(PREFS_STEP_LENGTH, MODE_PRIVATE).edit();
+        for (int i = 0; i < state.length; i++) {
+            editor.putLong(STEP_LENGTH_KEYS[i], Double.doubleToRawLongBits(state[i]));
+        }
+        editor.apply();
+        Log.i(TAG, "Step length now " + stepDetector.getStepLengthMeters() + " m");
+    }
+
+    /** Restores the heading offsets learned on this map in earlier trips. */
+    private void loadHeadingCalibration(String mapId) {
+        headingPrefsName = PREFS_HEADING_OFFSETS + mapId;
+        headingCalibration.load(getSharedPreferences(headingPrefsName, MODE_PRIVATE).getAll());
+    }
+
+    /** Saves the heading offsets. Runs on the sensor thread, after the table learned from a leg. */
+    private void saveHeadingCalibration() {
+        if (headingPrefsName == null) return;
+        SharedPreferences.Editor editor = getSharedPreferences(headingPrefsName, MODE_PRIVATE).edit().clear();
+        for (Map.Entry<String, String> entry : headingCalibration.save().entrySet()) {
+            editor.putString(entry.getKey(), entry.getValue());
+        }
+        editor.apply();
+    }
+
+    private Notification buildNotification() {
+        NotificationManager manager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        manager.createNotificationChannel(new NotificationChannel(CHANNEL_ID,
+                getString(R.string.navigation_channel_name), NotificationManager.IMPORTANCE_LOW));
+
+        String destinationId = pathLegs.get(pathLegs.size() - 1).toId;
+        Location destination = MapData.getLocationById(destinationId);
+        // Tapping the notification brings the app's task, with the compass screen, to the front.
+        Intent launch = getPackageManager().getLaunchIntentForPackage(getPackageName());
+        PendingIntent contentIntent = launch == null ? null
+                : PendingIntent.getActivity(this, 0, launch, PendingIntent.FLAG_IMMUTABLE);
+        return new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setSmallIcon(R.drawable.ic_navigation_arrow)
+                .setContentTitle(getString(R.string.navigation_notification_title,
+                        destination != null ? destination.displayName : destinationId))
+                .setContentText(getString(R.string.navigation_notification_text,
+                        Math.min(currentLegIndex + 1, pathLegs.size()), pathLegs.size()))
+                .setContentIntent(contentIntent)
+                .setOngoing(true)
+                .setOnlyAlertOnce(true)
+                .build();
+    }
+}
@@ -0,0 +1,496 @@
+package com.example.qr_indoornav;
+
+import com.example.qr_indoornav.model.Edge;
+import com.example.qr_indoornav.model.Graph;
+import com.example.qr_indoornav.model.Node;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Pedestrian dead reckoning on the map: a particle filter whose particles can only be on the
+ * graph's corridors (edges). Each counted step moves every particle by its own stride along the
+ * corridor it is on, in the direction of the heading, and weights it by how well the heading
+ * matches that corridor's axis. A particle that walks past a junction takes one of the other
+ * corridors there, picked at random with a preference for the heading; at a dead end it stops.
+ * The map therefore corrects what step counting alone cannot: walking into the end of a
+ * corridor pins the position, and a turn at a junction tells the branches apart.
+ *
+ * Progress is reported along the current leg (a stretch of one corridor, see
+ * {@link #startLeg}), with its spread and the probability that the walker is still on the leg
+ * or past its end, rather than somewhere the route does not go.
+ *
+ * Particle state lives in parallel primitive arrays (segment, offset, stride scale, weight), so
+ * a step is a few linear passes with no allocation. Systematic resampling splits the particles
+ * into contiguous ranges that are filled in parallel once there are enough of them to pay for
+ * the hand-off. No Android dependencies and not thread-safe: one thread drives it.
+ */
+public class ParticleFilter {
+
+    /** Particles used on device: enough to cover a few branches after a long uncorrected walk. */
+    public static final int DEFAULT_PARTICLES = 4096;
+
+    /** Resampling runs in parallel from this many particles; below it the fork costs more than it saves. */
+    static final int PARALLEL_MIN_PARTICLES = 2048;
+    private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    private static final float STRIDE_SIGMA = 0.15f;          // Per-particle stride bias, drawn at each leg start
+    private static final float STEP_SIGMA = 0.1f;             // Per-step stride jitter, as a fraction of the stride
+    private static final float HEADING_SIGMA_DEGREES = 10f;   // Heading noise per step
+    private static final float AXIS_SIGMA_DEGREES = 30f;      // How far the heading may stray from a corridor's axis
+    private static final float BRANCH_FLOOR = 0.05f;          // Chance weight of a branch that goes against the heading
+    private static final float LEG_TOLERANCE_METERS = 2f;     // Slack before the leg start that still counts as on the leg
+
+    /**
+     * The graph as undirected segments between junctions, with the rooms placed on them. Built
+     * once per map and shared by every filter on it.
+     */
+    public static final class Network {
+        final int[] segmentFrom;
+        final int[] segmentTo;
+        final float[] segmentLength;   // Meters
+        final float[] segmentBearing;  // Degrees clockwise from north, walking from segmentFrom to segmentTo
+        final int[] incidentStart;     // Segments at node v: incident[incidentStart[v] .. incidentStart[v + 1])
+        final int[] incident;
+        final int maxDegree;
+        private final Map<String, Integer> nodeIndex;
+        private final Map<String, Integer> roomSegment;
+        private final Map<String, Float> roomOffset;
+
+        private Network(int[] segmentFrom, int[] segmentTo, float[] segmentLength, float[] segmentBearing,
+                        int[] incidentStart, int[] incident, int maxDegree, Map<String, Integer> nodeIndex,
+                        Map<String, Integer> roomSegment, Map<String, Float> roomOffset) {
+            this.segmentFrom = segmentFrom;
+            this.segmentTo = segmentTo;
+            this.segmentLength = segmentLength;
+            this.segmentBearing = segmentBearing;
+            this.incidentStart = incidentStart;
+            this.incident = incident;
+            this.maxDegree = maxDegree;
+            this.nodeIndex = nodeIndex;
+            this.roomSegment = roomSegment;
+            this.roomOffset = roomOffset;
+        }
+
+        /**
+         * Builds the segments of {@code graph}. Each pair of connected junctions becomes one
+         * segment, oriented as the first of its edges found. Rooms are evenly spaced along their
+         * edge, as {@link PathFinder} and {@link MapLayout} place them.
+         */
+        public static Network build(Graph graph) {
+            List<Node> nodes = graph.getAllNodes();
+            nodes.sort(Comparator.comparing(node -> node.id));
+            Map<String, Integer> nodeIndex = new HashMap<>();
+            for (int i = 0; i < nodes.size(); i++) nodeIndex.put(nodes.get(i).id, i);
+
+            List<int[]> ends = new ArrayList<>();
+            List<Float> lengths = new ArrayList<>();
+            List<Float> bearings = new ArrayList<>();
+            Map<String, Integer> segmentByKey = new HashMap<>();
+            Map<String, Integer> roomSegment = new HashMap<>();
+            Map<String, Float> roomOffset = new HashMap<>();
+            for (int from = 0; from < nodes.size(); from++) {
+                Node node = nodes.get(from);
+                for (Edge edge : node.getEdges().values()) {
+                    Integer to = nodeIndex.get(edge.toNodeId);
+                    if (to == null || to == from) continue;
+                    String key = node.id.compareTo(edge.toNodeId) < 0 ? node.id + "-" + edge.toNodeId : edge.toNodeId + "-" + node.id;
+                    Integer segment = segmentByKey.get(key);
+                    if (segment == null) {
+                        segment = ends.size();
+                        segmentByKey.put(key, segment);
+                        ends.add(new int[]{from, to});
+                        lengths.add((float) Math.max(1, edge.distanceMeters));
+                        bearings.add(edge.directionDegrees);
+                    }
+                    float length = lengths.get(segment);
+                    boolean forward = ends.get(segment)[0] == from;
+                    int totalRooms = edge.roomIds.size();
+                    for (int i = 0; i < totalRooms; i++) {
+                        String roomId = edge.roomIds.get(i);
+                        if (roomSegment.containsKey(roomId)) continue;
+                        float ratio = (float) (i + 1) / (totalRooms + 1);
+                        roomSegment.put(roomId, segment);
+                        roomOffset.put(roomId, (forward ? ratio : 1f - ratio) * length);
+                    }
+                }
+            }
+
+            int m = ends.size();
+            int[] segmentFrom = new int[m];
+            int[] segmentTo = new int[m];
+            float[] segmentLength = new float[m];
+            float[] segmentBearing = new float[m];
+            int[] incidentStart = new int[nodes.size() + 1];
+            for (int s = 0; s < m; s++) {
+                segmentFrom[s] = ends.get(s)[0];
+                segmentTo[s] = ends.get(s)[1];
+                segmentLength[s] = lengths.get(s);
+                segmentBearing[s] = bearings.get(s);
+                incidentStart[segmentFrom[s] + 1]++;
+                incidentStart[segmentTo[s] + 1]++;
+            }
+            int maxDegree = 0;
+            for (int v = 0; v < nodes.size(); v++) {
+                maxDegree = Math.max(maxDegree, incidentStart[v + 1]);
+                incidentStart[v + 1] += incidentStart[v];
+            }
+            int[] incident = new int[2 * m];
+            int[] fill = new int[nodes.size()];
+            for (int s = 0; s < m; s++) {
+                incident[incidentStart[segmentFrom[s]] + fill[segmentFrom[s]]++] = s;
+                incident[incidentStart[segmentTo[s]] + fill[segmentTo[s]]++] = s;
+            }
+            return new Network(segmentFrom, segmentTo, segmentLength, segmentBearing,
+                    incidentStart, incident, maxDegree, nodeIndex, roomSegment, roomOffset);
+        }
+
+        public int segmentCount() {
+            return segmentFrom.length;
+        }
+
+        /**
+         * Where junction or room {@code locationId} lies on {@code segment}, in meters from the
+         * segment's start, or NaN if it is not on that segment.
+         */
+        float offsetOf(String locationId, int segment) {
+            Integer node = nodeIndex.get(locationId);
+            if (node != null) {
+                if (segmentFrom[segment] == node) return 0f;
+                if (segmentTo[segment] == node) return segmentLength[segment];
+                return Float.NaN;
+            }
+            Integer room = roomSegment.get(locationId);
+            return room != null && room == segment ? roomOffset.get(locationId) : Float.NaN;
+        }
+
+        /** A segment that both locations lie on, or -1 if they share none. */
+        int findSegment(String fromId, String toId) {
+            Integer node = nodeIndex.get(fromId);
+            if (node == null) {
+                Integer room = roomSegment.get(fromId);
+                return room != null && !Float.isNaN(offsetOf(toId, room)) ? room : -1;
+            }
+            for (int k = incidentStart[node]; k < incidentStart[node + 1]; k++) {
+                if (!Float.isNaN(offsetOf(toId, incident[k]))) return incident[k];
+            }
+            return -1;
+        }
+    }
+
+    private final Network network;
+    private final int count;
+    private final Random random;
+
+    // --- Particle state, one entry per particle; the *Next arrays are the resampling targets ---
+    private int[] segment;
+    private float[] offset;  // Meters from the segment's start
+    private float[] stride;  // This particle's stride, as a multiple of the reported step length
+    private int[] segmentNext;
+    private float[] offsetNext;
+    private float[] strideNext;
+    private final float[] weight;
+    private final double[] cumulative;
+    private final float[] branchScores;
+
+    // --- Current leg: offsets legStart to legEnd on legSegment ---
+    private int legSegment = -1;
+    private float legStart;
+    private float legLength;
+    private int legDirection;       // +1 if the leg runs towards segmentTo, else -1
+    private float lastStepLength = 1f;
+
+    // --- Estimate, refreshed after every update ---
+    private float progressMeters = Float.NaN;
+    private float spreadMeters = Float.NaN;
+    private float onLegProbability = 0f;
+
+    public ParticleFilter(Network network, int particles, long seed) {
+        this.network = network;
+        this.count = particles;
+        this.random = new Random(seed);
+        this.segment = new int[particles];
+        this.offset = new float[particles];
+        this.stride = new float[particles];
+        this.segmentNext = new int[particles];
+        this.offsetNext = new float[particles];
+        this.strideNext = new float[particles];
+        this.weight = new float[particles];
+        this.cumulative = new double[particles];
+        this.branchScores = new float[Math.max(1, network.maxDegree)];
+    }
+
+    /**
+     * Puts every particle at {@code fromId}, with fresh stride biases, and tracks progress towards
+     * {@code toId}. Both are junction or room ids and must lie on one corridor, as the ends of a
+     * {@link PathFinder.PathLeg} do.
+     * @return false if they do not; the filter then reports nothing until the next leg.
+     */
+    public boolean startLeg(String fromId, String toId) {
+        int s = network.findSegment(fromId, toId);
+        legSegment = s;
+        if (s < 0) {
+            progressMeters = Float.NaN;
+            spreadMeters = Float.NaN;
+            onLegProbability = 0f;
+            return false;
+        }
+        legStart = network.offsetOf(fromId, s);
+        float legEnd = network.offsetOf(toId, s);
+        legDirection = legEnd >= legStart ? 1 : -1;
+        legLength = Math.abs(legEnd - legStart);
+        for (int i = 0; i < count; i++) {
+            segment[i] = s;
+            offset[i] = legStart;
+            stride[i] = Math.max(0.5f, 1f + STRIDE_SIGMA * (float) random.nextGaussian());
+            weight[i] = 1f / count;
+        }
+        updateEstimate();
+        return true;
+    }
+
+    /**
+     * Advances the particles by one step.
+     * @param stepLengthMeters The nominal length of a step.
+     * @param headingDegrees The heading (0-360, clockwise from north) the step was taken in.
+     */
+    public void onStep(float stepLengthMeters, float headingDegrees) {
+        if (legSegment < 0) return;
+        lastStepLength = stepLengthMeters;
+        for (int i = 0; i < count; i++) {
+            float length = stepLengthMeters * stride[i] * (1f + STEP_SIGMA * (float) random.nextGaussian());
+            float heading = headingDegrees + HEADING_SIGMA_DEGREES * (float) random.nextGaussian();
+            move(i, Math.max(0f, length), heading);
+        }
+        if (normalize() < count / 2f) {
+            resample();
+        }
+        updateEstimate();
+    }
+
+    /** Moves particle {@code i} {@code distance} meters along the corridors and weights it. */
+    private void move(int i, float distance, float heading) {
+        int s = segment[i];
+        float off = offset[i];
+        float length = network.segmentLength[s];
+        if (off <= 0f || off >= length) {
+            // At a junction: any corridor there may be the one being walked into.
+            int node = off <= 0f ? network.segmentFrom[s] : network.segmentTo[s];
+            s = chooseSegment(node, -1, heading);
+            length = network.segmentLength[s];
+            off = network.segmentFrom[s] == node ? 0f : length;
+        }
+        off += distance * cosDegrees(heading - network.segmentBearing[s]);
+        while (off < 0f || off > length) {
+            int node = off > length ? network.segmentTo[s] : network.segmentFrom[s];
+            float excess = off > length ? off - length : -off;
+            int next = chooseSegment(node, s, heading);
+            if (next < 0) {
+                off = off > length ? length : 0f; // Dead end: stop at the wall
+                break;
+            }
+            s = next;
+            length = network.segmentLength[s];
+            off = network.segmentFrom[s] == node ? excess : length - excess;
+        }
+        segment[i] = s;
+        offset[i] = off;
+        weight[i] *= axisLikelihood(heading - network.segmentBearing[s]);
+    }
+
+    /**
+     * Picks a corridor at {@code node} other than {@code exclude}, favouring those that lead off
+     * in the direction of {@code heading}.
+     * @return the segment, or -1 if there is none (a dead end).
+     */
+    private int chooseSegment(int node, int exclude, float heading) {
+        int start = network.incidentStart[node];
+        int end = network.incidentStart[node + 1];
+        float total = 0f;
+        for (int k = start; k < end; k++) {
+            int s = network.incident[k];
+            float score = 0f;
+            if (s != exclude) {
+                float outward = network.segmentFrom[s] == node ? network.segmentBearing[s] : network.segmentBearing[s] + 180f;
+                float diff = angleBetween(heading, outward);
+                score = BRANCH_FLOOR + (float) Math.exp(-diff * diff / (2f * AXIS_SIGMA_DEGREES * AXIS_SIGMA_DEGREES));
+            }
+            branchScores[k - start] = score;
+            total += score;
+        }
+        if (total == 0f) return -1;
+        float pick = random.nextFloat() * total;
+        for (int k = start; k < end; k++) {
+            pick -= branchScores[k - start];
+            if (pick < 0f && branchScores[k - start] > 0f) return network.incident[k];
+        }
+        for (int k = end - 1; k >= start; k--) {
+            if (branchScores[k - start] > 0f) return network.incident[k];
+        }
+        return -1;
+    }
+
+    /**
+     * Scales the weights to sum to one.
+     * @return the effective sample size, 1 / sum(w^2).
+     */
+    private float normalize() {
+        double total = 0;
+        for (int i = 0; i < count; i++) total += weight[i];
+        if (!(total > 0)) {
+            // Every particle contradicts the heading: nothing to prefer, start over evenly.
+            Arrays.fill(weight, 1f / count);
+            return count;
+        }
+        double squares = 0;
+        float scale = (float) (1 / total);
+        for (int i = 0; i < count; i++) {
+            float w = weight[i] * scale;
+            weight[i] = w;
+            squares += (double) w * w;
+        }
+        return (float) (1 / squares);
+    }
+
+    /**
+     * Systematic resampling: one random offset, then particle j copies the particle whose
+     * cumulative weight range contains (offset + j) / count. Each output range can be filled
+     * independently, so large filters fill them in parallel.
+     */
+    private void resample() {
+        double total = 0;
+        for (int i = 0; i < count; i++) {
+            total += weight[i];
+            cumulative[i] = total;
+        }
+        double first = random.nextDouble();
+        int ranges = count >= PARALLEL_MIN_PARTICLES ? Math.min(PARALLELISM, count / (PARALLEL_MIN_PARTICLES / 4)) : 1;
+        if (ranges > 1) {
+            double sum = total;
+            IntStream.range(0, ranges).parallel()
+                    .forEach(r -> resampleRange(r * count / ranges, (r + 1) * count / ranges, first, sum));
+        } else {
+            resampleRange(0, count, first, total);
+        }
+
+        int[] segments = segment; segment = segmentNext; segmentNext = segments;
+        float[] offsets = offset; offset = offsetNext; offsetNext = offsets;
+        float[] strides = stride; stride = strideNext; strideNext = strides;
+        Arrays.fill(weight, 1f / count);
+    }
+
+    private void resampleRange(int from, int to, double first, double total) {
+        double spacing = total / count;
+        double target = (first + from) * spacing;
+        // First source particle whose cumulative weight exceeds the range's first target.
+        int lo = 0, hi = count - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (cumulative[mid] > target) hi = mid; else lo = mid + 1;
+        }
+        int source = lo;
+        for (int j = from; j < to; j++) {
+            target = (first + j) * spacing;
+            while (source < count - 1 && cumulative[source] <= target) source++;
+            segmentNext[j] = segment[source];
+            offsetNext[j] = offset[source];
+            strideNext[j] = stride[source];
+        }
+    }
+
+    private void updateEstimate() {
+        double mass = 0, sum = 0, squares = 0, onLeg = 0;
+        for (int i = 0; i < count; i++) {
+            float p = legProgress(segment[i], offset[i]);
+            if (Float.isNaN(p)) continue;
+            double w = weight[i];
+            mass += w;
+            sum += w * p;
+            squares += w * p * p;
+            if (p >= -LEG_TOLERANCE_METERS) onLeg += w;
+        }
+        if (mass > 0) {
+            double mean = sum / mass;
+            progressMeters = (float) mean;
+            spreadMeters = (float) Math.sqrt(Math.max(0, squares / mass - mean * mean));
+        } else {
+            progressMeters = Float.NaN;
+            spreadMeters = Float.NaN;
+        }
+        onLegProbability = (float) onLeg;
+    }
+
+    /**
+     * Distance walked along the leg by a particle at {@code off} on segment {@code s}: negative
+     * before the leg start, beyond the leg length past its end. NaN for particles that are
+     * neither on the leg's corridor nor on one adjoining it.
+     */
+    private float legProgress(int s, float off) {
+        int ahead = legDirection > 0 ? network.segmentTo[legSegment] : network.segmentFrom[legSegment];
+        int behind = legDirection > 0 ? network.segmentFrom[legSegment] : network.segmentTo[legSegment];
+        float toAhead = legDirection > 0 ? network.segmentLength[legSegment] - legStart : legStart;
+        float toBehind = legDirection > 0 ? legStart : network.segmentLength[legSegment] - legStart;
+        if (s == legSegment) return (off - legStart) * legDirection;
+        if (network.segmentFrom[s] == ahead) return toAhead + off;
+        if (network.segmentTo[s] == ahead) return toAhead + network.segmentLength[s] - off;
+        if (network.segmentFrom[s] == behind) return -toBehind - off;
+        if (network.segmentTo[s] == behind) return -toBehind - (network.segmentLength[s] - off);
+        return Float.NaN;
+    }
+
+    /** Weighted mean distance walked along the leg, in meters; NaN before a leg starts. */
+    public float getProgressMeters() {
+        return progressMeters;
+    }
+
+    /** Weighted standard deviation of {@link #getProgressMeters()}. */
+    public float getSpreadMeters() {
+        return spreadMeters;
+    }
+
+    /** Probability that the walker is on the leg or past its end, not off the route. */
+    public float getOnLegProbability() {
+        return onLegProbability;
+    }
+
+    /**
+     * How far the estimate can be trusted, 0-1: the on-leg probability, halved once the spread
+     * reaches one step.
+     */
+    public float getConfidence() {
+        if (legSegment < 0 || Float.isNaN(spreadMeters)) return 0f;
+        return onLegProbability * lastStepLength / (lastStepLength + spreadMeters);
+    }
+
+    /** Length of the current leg in meters, or 0 if none. */
+    public float getLegLength() {
+        return legSegment < 0 ? 0f : legLength;
+    }
+
+    public int getParticleCount() {
+        return count;
+    }
+
+    private static float cosDegrees(float degrees) {
+        return (float) Math.cos(Math.toRadians(degrees));
+    }
+
+    /** Unsigned angle between two bearings, 0-180. */
+    private static float angleBetween(float a, float b) {
+        float diff = Math.abs(a - b) % 360f;
+        return diff > 180f ? 360f - diff : diff;
+    }
+
+    /** Likelihood of walking at {@code delta} degrees to a corridor, either way along it. */
+    private static float axisLikelihood(float delta) {
+        float diff = Math.abs(delta) % 180f;
+        if (diff > 90f) diff = 180f - diff;
+        return (float) Math.exp(-diff * diff / (2f * AXIS_SIGMA_DEGREES * AXIS_SIGMA_DEGREES));
+    }
+}
@@ -2,14 +2,13 @@ package com.example.qr_indoornav;
 
 import androidx.appcompat.app.AppCompatActivity;
 
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
-import android.hardware.SensorManager;
+import android.content.ServiceConnection;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.IBinder;
 import android.util.Log; // Import Log for debugging
 import android.view.View;
 import android.widget.ImageView;
@@ -17,42 +16,70 @@ import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.example.qr_indoornav.model.Graph;
+import com.example.qr_indoornav.model.MapData;
+
+import java.util.ArrayList;
 import java.util.Locale;
 
 /**
  * ProgressActivity displays the user's walking progress towards the next checkpoint.
- * It uses {@link StepDetector} to count steps and monitors orientation for deviations.
- * It returns the final step count and outcome (completed/cancelled) to {@link CompassActivity}.
+ * Steps and orientation come from the {@link NavigationService}, which keeps counting into the
+ * trip's {@link StepDetector} across screens; this screen only subscribes to its frames.
+ * Progress is the service's {@link ParticleFilter} estimate when it is confident, else the step
+ * count times the step length.
+ * It returns the outcome (completed/cancelled) to {@link CompassActivity}.
  */
-public class ProgressActivity extends AppCompatActivity implements SensorEventListener, StepDetector.OnStepListener {
+public class ProgressActivity extends AppCompatActivity implements SensorHub.FrameListener {
 
     private static final String TAG = "ProgressActivity";
 
+    // --- Particle filter thresholds ---
+    private static final float MIN_LEG_CONFIDENCE = 0.3f; // Below this, progress falls back to steps x step length
+    private static final float MIN_ON_LEG = 0.2f;         // A confident estimate below this means the user left the route
+
     // --- Keys for receiving data from Intent ---
     public static final String EXTRA_TARGET_DEGREE = "EXTRA_TARGET_DEGREE";
     public static final String EXTRA_DISTANCE_METERS = "EXTRA_DISTANCE_METERS";
-    public static final String EXTRA_INITIAL_STEPS = "EXTRA_INITIAL_STEPS"; // Key to receive initial steps
+    public static final String EXTRA_LEG_FROM_ID = "EXTRA_LEG_FROM_ID";
+    public static final String EXTRA_LEG_TO_ID = "EXTRA_LEG_TO_ID";
+    public static final String EXTRA_PATH_NODE_IDS = "EXTRA_PATH_NODE_IDS"; // Whole route, for the live map
 
     // --- UI Components ---
     private ProgressBar progressBar;
     private TextView progressPercentageText, progressStepsText;
     private ImageView deviationIndicator;
     private View dot1, dot2, dot3;
+    private MapView mapView;
 
     // --- Sensor variables ---
-    private SensorManager sensorManager;
-    private final float[] accelerometerReading = new float[3];
-    private final float[] magnetometerReading = new float[3];
-    private final float[] rotationMatrix = new float[9];
-    private boolean hasAccelerometerData = false;
-    private boolean hasMagnetometerData = false;
+    private NavigationService navigation; // Null until bound
+    private boolean resumed = false;
+    private int lastStepsShown = -1;
+    private boolean finishing = false;
+    private final ServiceConnection navigationConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            navigation = ((NavigationService.LocalBinder) service).getService();
+            stepDetector = navigation.getStepDetector();
+            if (resumed && !finishing) {
+                navigation.setMode(SensorHub.Mode.WALKING);
+                navigation.subscribe(ProgressActivity.this);
+            }
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            navigation = null;
+        }
+    };
 
     // --- Navigation variables ---
     private float targetDegree;
     private int totalDistanceMeters;
-    private static final int ALIGNMENT_MARGIN_OF_ERROR = 15; // Wider margin during active walking
+    private String legFromId, legToId;
 
-    // --- Unified Step Detection Module ---
+    // --- Unified Step Detection Module (owned by the service; read only in frame callbacks) ---
     private StepDetector stepDetector;
 
     // --- Animation Handler for blinking dots ---
@@ -64,15 +91,11 @@ public class ProgressActivity extends AppCompatActivity implements SensorEventLi
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_progress);
 
-        // Instantiate our unified StepDetector and pass this activity as the listener.
-        stepDetector = new StepDetector(this);
-
         initializeUI();
-        loadIntentData(); // Load data from the Intent and set initial state for StepDetector
+        loadIntentData(); // Load the leg's data from the Intent
 
-        sensorManager = (SensorManager) getSystemService(Context.SENSOR_SERVICE);
-
-        updateProgressUI(); // Show initial state (progress based on initial steps)
+        // The first frame after binding shows the progress so far in this leg.
+        bindService(new Intent(this, NavigationService.class), navigationConnection, Context.BIND_AUTO_CREATE);
         startDotsAnimation();
     }
 
@@ -84,10 +107,12 @@ public class ProgressActivity extends AppCompatActivity implements SensorEventLi
         dot1 = findViewById(R.id.dot1);
         dot2 = findViewById(R.id.dot2);
         dot3 = findViewById(R.id.dot3);
+        mapView = findViewById(R.id.mapView);
+        mapView.setLiveMarkerView(findViewById(R.id.liveMarkerView));
     }
 
     /**
-     * Loads navigation parameters (target degree, total distance, initial steps)
+     * Loads navigation parameters (target degree, total distance, route)
      * from the {@link Intent} that started this activity.
      */
     private void loadIntentData() {
@@ -95,10 +120,18 @@ public class ProgressActivity extends AppCompatActivity implements SensorEventLi
         targetDegree = intent.getFloatExtra(EXTRA_TARGET_DEGREE, 0f);
         totalDistanceMeters = intent.getIntExtra(EXTRA_DISTANCE_METERS, 30);
 
-        // Retrieve the initial steps taken for this leg from the calling activity
-        int initialSteps = intent.getIntExtra(EXTRA_INITIAL_STEPS, 0);
-        stepDetector.reset(initialSteps); // Set the StepDetector to start counting from this value
-        Log.d(TAG, "ProgressActivity loaded: Target=" + targetDegree + ", Distance=" + totalDistanceMeters + ", Initial Steps=" + initialSteps);
+        // Show the route with the live position, if the caller passed it along.
+        legFromId = intent.getStringExtra(EXTRA_LEG_FROM_ID);
+        legToId = intent.getStringExtra(EXTRA_LEG_TO_ID);
+        ArrayList<String> pathNodeIds = intent.getStringArrayListExtra(EXTRA_PATH_NODE_IDS);
+        Graph graph = MapData.getGraph();
+        if (graph != null && pathNodeIds != null && !pathNodeIds.isEmpty() && legFromId != null && legToId != null) {
+            mapView.setData(graph, pathNodeIds, pathNodeIds.get(pathNodeIds.size() - 1));
+        } else {
+            mapView.setVisibility(View.GONE);
+            legFromId = null;
+        }
+        Log.d(TAG, "ProgressActivity loaded: Target=" + targetDegree + ", Distance=" + totalDistanceMeters);
     }
 
     /**
@@ -127,96 +160,76 @@ public class ProgressActivity extends AppCompatActivity implements SensorEventLi
     @Override
     protected void onResume() {
         super.onResume();
-        // Register sensor listeners when the activity becomes active
-        Sensor accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
-        if (accelerometer != null) {
-            sensorManager.registerListener(this, accelerometer, SensorManager.SENSOR_DELAY_UI);
-        }
-        Sensor magneticField = sensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD);
-        if (magneticField != null) {
-            sensorManager.registerListener(this, magneticField, SensorManager.SENSOR_DELAY_UI);
+        resumed = true;
+        // Receive sensor frames while the activity is active
+        if (!finishing && navigation != null) {
+            navigation.setMode(SensorHub.Mode.WALKING);
+            navigation.subscribe(this);
         }
     }
 
     @Override
     protected void onPause() {
         super.onPause();
-        // Unregister sensor listeners and stop animations to save battery and resources
-        sensorManager.unregisterListener(this);
+        resumed = false;
+        // Stop frames and animations; the service keeps counting steps, batched, in WALKING mode
+        if (navigation != null) {
+            navigation.unsubscribe(this);
+        }
         dotsHandler.removeCallbacksAndMessages(null);
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        unbindService(navigationConnection);
+    }
+
     /**
-     * Callback method for {@link SensorEventListener} when sensor values change.
-     * It feeds the raw sensor data to the {@link StepDetector}.
+     * Called once per frame by the {@link SensorHub} with the latest processed sensor state.
+     * Deviation ends the leg; new steps update the progress UI.
      */
     @Override
-    public void onSensorChanged(SensorEvent event) {
-        if (event.sensor.getType() == Sensor.TYPE_ACCELEROMETER) {
-            System.arraycopy(event.values, 0, accelerometerReading, 0, accelerometerReading.length);
-            hasAccelerometerData = true;
-        } else if (event.sensor.getType() == Sensor.TYPE_MAGNETIC_FIELD) {
-            System.arraycopy(event.values, 0, magnetometerReading, 0, magnetometerReading.length);
-            hasMagnetometerData = true;
+    public void onSensorFrame(SensorHub.Snapshot snapshot) {
+        if (!snapshot.aligned) {
+            handleDeviation(); // User has deviated too much
+            return;
         }
-
-        // Only proceed if we have valid data from both accelerometer and magnetometer
-        if (hasAccelerometerData && hasMagnetometerData) {
-            boolean isStillAligned = updateOrientationAndCheckAlignment(); // Check if user is still facing the right way
-            if (isStillAligned) {
-                // Delegate step detection to our unified StepDetector module
-                // Pass current accelerometer data, device rotation, and target direction
-                stepDetector.processSensorData(accelerometerReading, rotationMatrix, targetDegree);
-            }
+        boolean confident = snapshot.legConfidence >= MIN_LEG_CONFIDENCE && !Float.isNaN(snapshot.legMeters);
+        if (confident && snapshot.onLegProbability < MIN_ON_LEG) {
+            handleDeviation(); // The map says the user walked off the route
+            return;
+        }
+        if (snapshot.stepsTaken != lastStepsShown) {
+            onStep(snapshot.stepsTaken, confident ? snapshot.legMeters : stepDetector.getMetersCovered());
         }
     }
 
     /**
-     * This is the required callback method from our {@link StepDetector.OnStepListener} interface.
-     * It is automatically called by the {@link StepDetector} whenever a valid step is detected.
+     * Handles a new step count reported by the {@link StepDetector}.
      * @param totalSteps The new total number of steps taken for this leg.
+     * @param metersCovered Distance walked along the leg: the particle filter's estimate when it is
+     *                      confident, else steps times the step length.
      */
-    @Override
-    public void onStep(int totalSteps) {
-        updateProgressUI(); // Update the UI to reflect the new step count
+    private void onStep(int totalSteps, double metersCovered) {
+        lastStepsShown = totalSteps;
+        updateProgressUI(metersCovered); // Update the UI to reflect the new position
 
         // Check if the destination for this leg has been reached
-        if (stepDetector.getMetersCovered() >= totalDistanceMeters) {
+        if (metersCovered >= totalDistanceMeters) {
             finishWithResult(RESULT_OK); // Finish and signal success
         }
     }
 
-    /**
-     * Determines the device's current orientation and checks if it aligns with the target direction.
-     * If deviation is too high, it triggers {@link #handleDeviation()}.
-     * @return true if the user is currently aligned with the target, false otherwise.
-     */
-    private boolean updateOrientationAndCheckAlignment() {
-        // Calculate the device's rotation matrix
-        float[] orientationAngles = new float[3]; // Used only for calculating currentDegree
-        SensorManager.getRotationMatrix(rotationMatrix, null, accelerometerReading, magnetometerReading);
-        SensorManager.getOrientation(rotationMatrix, orientationAngles); // Calculate orientation angles from the rotation matrix
-
-        float currentDegree = (float) Math.toDegrees(orientationAngles[0]);
-        if (currentDegree < 0) currentDegree += 360; // Normalize to 0-360 degrees
-
-        float difference = Math.abs(currentDegree - targetDegree);
-        if (difference > 180) difference = 360 - difference; // Find the shortest angular difference
-
-        if (difference > ALIGNMENT_MARGIN_OF_ERROR) {
-            handleDeviation(); // User has deviated too much
-            return false;
-        }
-        return true;
-    }
-
     /**
      * Called when the user deviates too far from the target direction.
      * It signals {@link CompassActivity} that the progress was interrupted.
      */
     private void handleDeviation() {
-        // Stop sensor processing and animations
-        sensorManager.unregisterListener(this);
+        // Stop sensor frames and animations
+        if (navigation != null) {
+            navigation.unsubscribe(this);
+        }
         dotsHandler.removeCallbacksAndMessages(null);
 
         deviationIndicator.setVisibility(View.VISIBLE); // Show the red 'X' indicator
@@ -225,13 +238,18 @@ public class ProgressActivity extends AppCompatActivity implements SensorEventLi
     }
 
     /**
-     * NEW: A unified method to finish the activity and send back the current step count.
+     * NEW: A unified method to finish the activity and send back the outcome.
+     * Step counting stops here; the leg's steps stay in the service for when the user resumes.
      * This is called on arrival (RESULT_OK), deviation (RESULT_CANCELED), or when the back button is pressed.
      * @param resultCode Either {@link android.app.Activity#RESULT_OK} (completed) or {@link android.app.Activity#RESULT_CANCELED} (interrupted).
      */
     private void finishWithResult(int resultCode) {
-        // Make sure sensors and animations are stopped if not already
-        sensorManager.unregisterListener(this);
+        // Make sure step counting, frames and animations are stopped if not already
+        finishing = true;
+        if (navigation != null) {
+            navigation.setMode(SensorHub.Mode.IDLE);
+            navigation.unsubscribe(this);
+        }
         dotsHandler.removeCallbacksAndMessages(null);
 
         // Show appropriate Toast message
@@ -242,10 +260,7 @@ public class ProgressActivity extends AppCompatActivity implements SensorEventLi
             Toast.makeText(this, "Direction deviated!", Toast.LENGTH_SHORT).show();
         }
 
-        // Prepare the result Intent to send back the accumulated step count
-        Intent resultIntent = new Intent();
-        resultIntent.putExtra("EXTRA_STEPS_TAKEN", stepDetector.getStepsTaken());
-        setResult(resultCode, resultIntent);
+        setResult(resultCode);
 
         // Delay finishing to allow the user to see any final messages/indicators
         new Handler().postDelayed(this::finish, 1500);
@@ -253,20 +268,22 @@ public class ProgressActivity extends AppCompatActivity implements SensorEventLi
 
     /**
      * Updates the UI elements (progress bar, percentage, steps remaining) based on
-     * the current step count from the {@link StepDetector}.
+     * the distance covered in this leg.
      */
-    private void updateProgressUI() {
-        // Get remaining steps directly from the detector
-        int stepsRemaining = stepDetector.getRemainingSteps(totalDistanceMeters);
+    private void updateProgressUI(double metersCovered) {
+        int stepsRemaining = (int) Math.ceil(Math.max(0, totalDistanceMeters - metersCovered) / stepDetector.getStepLengthMeters());
 
         // Calculate progress percentage based on meters covered
-        double metersCovered = stepDetector.getMetersCovered();
         int progress = (totalDistanceMeters > 0) ? (int) ((metersCovered / totalDistanceMeters) * 100) : 0;
         progress = Math.min(100, progress); // Cap progress at 100%
 
         progressBar.setProgress(progress);
         progressPercentageText.setText(String.format(Locale.getDefault(), "%d%%", progress));
         progressStepsText.setText(String.format(Locale.getDefault(), "%d steps left", stepsRemaining));
+
+        if (legFromId != null) {
+            mapView.setLivePosition(legFromId, legToId, metersCovered, totalDistanceMeters);
+        }
     }
 
     /**
@@ -278,7 +295,4 @@ public class ProgressActivity extends AppCompatActivity implements SensorEventLi
         super.onBackPressed();
         finishWithResult(RESULT_CANCELED);
     }
-
-    @Override
-    public void onAccuracyChanged(Sensor sensor, int accuracy) { /* Not used */ }
 }
\ No newline at end of file
@@ -4,7 +4,6 @@ import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.camera.core.CameraSelector;
 import androidx.camera.core.ImageAnalysis;
-import androidx.camera.core.ImageProxy;
 import androidx.camera.core.Preview;
 import androidx.camera.lifecycle.ProcessCameraProvider;
 import androidx.camera.view.PreviewView;
@@ -13,44 +12,86 @@ import androidx.core.content.ContextCompat;
 
 import android.Manifest;
 import android.content.Intent; // Import Intent
+import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
-import android.graphics.Bitmap;
 import android.os.Bundle;
 import android.util.Log;
-import android.widget.ImageView;
 import android.widget.Toast;
 
 import com.google.common.util.concurrent.ListenableFuture;
 
 import org.opencv.android.OpenCVLoader;
-import org.opencv.android.Utils;
-import org.opencv.core.Core;
-import org.opencv.core.CvType;
 import org.opencv.core.Mat;
-import org.opencv.imgproc.Imgproc;
+import org.opencv.imgcodecs.Imgcodecs;
 
-import java.nio.ByteBuffer;
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 public class QRScannerActivity extends AppCompatActivity {
     private static final String TAG = "QRScannerActivity";
 
-    // This flag is still useful to prevent sending multiple results for a single scan session
-    private boolean isProcessing = false;
+    // This flag is still useful to prevent sending multiple results for a single scan session.
+    // Set on the decode thread, read on the analyzer thread.
+    private volatile boolean isProcessing = false;
 
     private static final int CAMERA_PERMISSION_REQUEST_CODE = 101;
+    private static final int MAX_RECORDED_FRAMES = 300; // About 10-20 s of analyzer frames
+    private static final int RECORDING_POOL_SIZE = 4;   // Frames waiting to be written; more are skipped
+    // Developer switch: in debuggable builds, sessions are recorded while this file exists in
+    // scanner-frames/, e.g.
+    //   adb shell touch /sdcard/Android/data/com.example.qr_indoornav/files/scanner-frames/record
+    private static final String RECORD_FRAMES_SWITCH = "record";
+    private static final long DECODED_HOLD_MS = 300; // How long "DECODED!" shows before returning
 
     private PreviewView previewView;
-    private ImageView overlayImageView;
+    private ScanOverlayView scanOverlay;
     private ExecutorService cameraExecutor;
-    private Bitmap bitmapForOverlay;
 
-    static {
-        System.loadLibrary("qr_indoornav");
-    }
+    // Reused across frames on the analyzer thread, the pipeline's ingest stage
+    private final FrameIngest frameIngest = new FrameIngest();
+    // Detection and decoding for this scanning session, on their own threads; null once closed.
+    private ScannerPipeline scannerPipeline;
+    // Where the recorded frames go (scanner-frames/ in the app's external files directory), or
+    // null when not recording. Frames are copied into a small pool on the analyzer thread and
+    // encoded on the writer thread, so recording never holds up the scanner.
+    private File frameRecordingDirectory;
+    private int recordedFrames;
+    private ExecutorService frameWriter;
+    private final ArrayBlockingQueue<Mat> freeRecordingFrames = new ArrayBlockingQueue<>(RECORDING_POOL_SIZE);
+
+    private final ScannerPipeline.Listener scanListener = new ScannerPipeline.Listener() {
+        @Override
+        public void onGuidance(ScanResult result, long submittedNanos) {
+            // The preview already shows the frame: only the guidance is drawn over it.
+            scanOverlay.show(result);
+        }
 
-    public native String processFrame(long matAddr);
+        @Override
+        public void onDecoded(ScanResult result, long submittedNanos) {
+            if (isProcessing) return;
+            isProcessing = true; // Stop the analyzer from sending more frames
+
+            // If the C++ module decoded something, send it back to CompassActivity and finish.
+            // Create an Intent to hold the result
+            Intent resultIntent = new Intent();
+            // Put the decoded text into the Intent. The key MUST match what CompassActivity expects.
+            resultIntent.putExtra("DECODED_TEXT", result.payloadText());
+            // The payload as it was encoded, for codes that do not hold UTF-8 text
+            resultIntent.putExtra("DECODED_BYTES", result.payloadBytes());
+            scanOverlay.showDecoded();
+            runOnUiThread(() -> {
+                // Set the result to OK and attach the Intent with the data
+                setResult(RESULT_OK, resultIntent);
+                // Close this activity and return to CompassActivity, once the confirmation was seen
+                scanOverlay.postDelayed(QRScannerActivity.this::finish, DECODED_HOLD_MS);
+            });
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -58,8 +99,13 @@ public class QRScannerActivity extends AppCompatActivity {
         setContentView(R.layout.activity_qrscanner);
 
         previewView = findViewById(R.id.cameraPreview);
-        overlayImageView = findViewById(R.id.overlayImageView);
+        scanOverlay = findViewById(R.id.scanOverlay);
         cameraExecutor = Executors.newSingleThreadExecutor();
+        scannerPipeline = new ScannerPipeline(scanListener, true);
+        boolean debuggable = (getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+        if (debuggable) {
+            startFrameRecording();
+        }
 
         // We don't need these extras anymore, as CompassActivity will handle all verification
         // expectedNodeId = getIntent().getStringExtra("EXPECTED_NODE_ID");
@@ -103,38 +149,18 @@ public class QRScannerActivity extends AppCompatActivity {
                         .build();
 
                 imageAnalysis.setAnalyzer(cameraExecutor, image -> {
-                    if (isProcessing) {
+                    if (isProcessing || scannerPipeline == null) {
                         image.close();
                         return;
                     }
 
-                    Mat bgrMat = getRotatedBgrMatFromImage(image);
-                    if (bgrMat != null) {
-                        String decodedResult = processFrame(bgrMat.getNativeObjAddr());
-
-                        if (bitmapForOverlay == null || bitmapForOverlay.getWidth() != bgrMat.cols() || bitmapForOverlay.getHeight() != bgrMat.rows()) {
-                            bitmapForOverlay = Bitmap.createBitmap(bgrMat.cols(), bgrMat.rows(), Bitmap.Config.ARGB_8888);
-                        }
-                        Utils.matToBitmap(bgrMat, bitmapForOverlay);
-                        runOnUiThread(() -> overlayImageView.setImageBitmap(bitmapForOverlay));
-
-                        bgrMat.release();
-
-                        // *** START OF THE FIX ***
-                        // If the C++ module decoded something, send it back to CompassActivity and finish.
-                        if (decodedResult != null && !decodedResult.isEmpty()) {
-                            isProcessing = true; // Stop the analyzer from sending more results
-
-                            // Create an Intent to hold the result
-                            Intent resultIntent = new Intent();
-                            // Put the decoded text into the Intent. The key MUST match what CompassActivity expects.
-                            resultIntent.putExtra("DECODED_TEXT", decodedResult);
-                            // Set the result to OK and attach the Intent with the data
-                            setResult(RESULT_OK, resultIntent);
-                            // Close this activity and return to CompassActivity
-                            finish();
-                        }
-                        // *** END OF THE FIX ***
+                    // Owned by frameIngest and overwritten by the next frame: nothing to release here.
+                    Mat grayMat = frameIngest.toGray(image);
+                    if (!grayMat.empty()) {
+                        recordFrame(grayMat);
+                        // Copied into the pipeline: detection and decoding go on while the
+                        // camera delivers the next frame.
+                        scannerPipeline.submit(grayMat);
                     }
                     image.close();
                 });
@@ -148,47 +174,35 @@ public class QRScannerActivity extends AppCompatActivity {
         }, ContextCompat.getMainExecutor(this));
     }
 
+    /** Starts recording this session's frames for benchmark/native, if the developer switch is on. */
+    private void startFrameRecording() {
+        File frameRoot = getExternalFilesDir("scanner-frames");
+        if (frameRoot == null || !new File(frameRoot, RECORD_FRAMES_SWITCH).exists()) return;
+        String name = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+        File directory = new File(frameRoot, name);
+        if (!directory.mkdirs()) {
+            Log.w(TAG, "Cannot create " + directory + ", not recording frames");
+            return;
+        }
+        for (int i = 0; i < RECORDING_POOL_SIZE; i++) freeRecordingFrames.add(new Mat());
+        frameWriter = Executors.newSingleThreadExecutor();
+        frameRecordingDirectory = directory;
+    }
+
     /**
-     * Converts an ImageProxy to a BGR Mat and applies the correct rotation.
-     * @param image The ImageProxy from CameraX.
-     * @return A correctly rotated Mat in BGR color space.
+     * Queues a copy of the frame to be saved as a numbered PNG, up to {@link #MAX_RECORDED_FRAMES}.
+     * A frame is skipped if the writer still has a full pool to encode.
      */
-    private Mat getRotatedBgrMatFromImage(ImageProxy image) {
-        ByteBuffer yBuffer = image.getPlanes()[0].getBuffer();
-        ByteBuffer uBuffer = image.getPlanes()[1].getBuffer();
-        ByteBuffer vBuffer = image.getPlanes()[2].getBuffer();
-        int ySize = yBuffer.remaining();
-        int uSize = uBuffer.remaining();
-        int vSize = vBuffer.remaining();
-        byte[] nv21 = new byte[ySize + uSize + vSize];
-        yBuffer.get(nv21, 0, ySize);
-        vBuffer.get(nv21, ySize, vSize);
-        uBuffer.get(nv21, ySize + vSize, uSize);
-        Mat yuv = new Mat(image.getHeight() + image.getHeight() / 2, image.getWidth(), CvType.CV_8UC1);
-        yuv.put(0, 0, nv21);
-        Mat bgrMat = new Mat();
-        Imgproc.cvtColor(yuv, bgrMat, Imgproc.COLOR_YUV2BGR_NV21);
-        yuv.release();
-
-        int rotationDegrees = image.getImageInfo().getRotationDegrees();
-        if (rotationDegrees != 0) {
-            int rotateCode;
-            switch (rotationDegrees) {
-                case 90:
-                    rotateCode = Core.ROTATE_90_CLOCKWISE;
-                    break;
-                case 180:
-                    rotateCode = Core.ROTATE_180;
-                    break;
-                case 270:
-                    rotateCode = Core.ROTATE_90_COUNTERCLOCKWISE;
-                    break;
-                default:
-                    return bgrMat;
-            }
-            Core.rotate(bgrMat, bgrMat, rotateCode);
-        }
-        return bgrMat;
+    private void recordFrame(Mat grayMat) {
+        if (frameRecordingDirectory == null || recordedFrames >= MAX_RECORDED_FRAMES) return;
+        Mat copy = freeRecordingFrames.poll();
+        if (copy == null) return;
+        grayMat.copyTo(copy);
+        File file = new File(frameRecordingDirectory, String.format(Locale.US, "frame-%04d.png", recordedFrames++));
+        frameWriter.execute(() -> {
+            Imgcodecs.imwrite(file.getPath(), copy);
+            freeRecordingFrames.offer(copy);
+        });
     }
 
     private boolean allPermissionsGranted() {
@@ -211,6 +225,21 @@ public class QRScannerActivity extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        // Queued behind any frame still being ingested, which may be using the buffers.
+        cameraExecutor.execute(() -> {
+            frameIngest.release();
+            scannerPipeline.close();
+            scannerPipeline = null;
+            if (frameWriter != null) {
+                // Runs after the frames already queued have been written.
+                frameWriter.execute(() -> {
+                    for (Mat frame = freeRecordingFrames.poll(); frame != null; frame = freeRecordingFrames.poll()) {
+                        frame.release();
+                    }
+                });
+                frameWriter.shutdown();
+            }
+        });
         cameraExecutor.shutdown();
     }
 }
\ No newline at end of file
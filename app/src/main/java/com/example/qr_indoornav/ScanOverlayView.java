@@ -0,0 +1,177 @@
+package com.example.qr_indoornav;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.util.AttributeSet;
+import android.util.DisplayMetrics;
+import android.util.TypedValue;
+import android.view.View;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Transparent view over the camera preview that draws the scanner's guidance: finder pattern
+ * outlines, the code's centre, the angle lines and the guidance texts.
+ *
+ * The camera image itself is the PreviewView's; only the geometry of each analysis frame comes
+ * here ({@link #show}), so no frame is converted or copied to be displayed. The analysis frame
+ * is mapped onto the view the way PreviewView's default FILL_CENTER scale type maps the preview:
+ * scaled to cover the view and centred, which lines up as long as both use cases have the same
+ * aspect ratio (CameraX gives both 4:3 by default).
+ *
+ * Sizes are in dp, text in sp, so the guidance reads the same on any screen density and follows
+ * the user's font scale; the texts come from the string resources.
+ */
+public class ScanOverlayView extends View {
+
+    private static final int ORANGE = Color.rgb(255, 165, 0);
+    private static final float TEXT_MARGIN_DP = 8f;
+    private static final float LINE_SPACING_DP = 24f;
+    private static final float CENTER_RADIUS_DP = 6f;
+    private static final float OUTLINE_WIDTH_DP = 2f;
+    private static final float ANGLE_WIDTH_DP = 3f;
+    private static final float TEXT_SIZE_SP = 18f;
+    private static final float DECODED_SIZE_SP = 34f;
+
+    // Indexed by ScanResult's POSITION_ and ANGLE_ codes; no text for ANGLE_NONE
+    private final String[] positionTexts;
+    private final String[] angleTexts;
+    private final String decodedText;
+    private final float textMargin, lineSpacing, centerRadius;
+
+    private Paint outlinePaint, centerPaint, anglePaint, textPaint, decodedPaint;
+    private final Path outline = new Path();
+
+    // Written by the analyzer thread in show(), copied out on the UI thread in onDraw()
+    private final ScanResult pending = new ScanResult();
+    private final ScanResult drawn = new ScanResult();
+    private boolean hasResult = false;
+    private volatile boolean decoded = false;
+
+    public ScanOverlayView(Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+        positionTexts = new String[]{
+                context.getString(R.string.scan_no_code), context.getString(R.string.scan_move_closer),
+                context.getString(R.string.scan_position_ok), context.getString(R.string.scan_move_up),
+                context.getString(R.string.scan_move_down), context.getString(R.string.scan_move_left),
+                context.getString(R.string.scan_move_right)};
+        angleTexts = new String[]{
+                null, context.getString(R.string.scan_angle_need_corners), context.getString(R.string.scan_angle_ok),
+                context.getString(R.string.scan_rotate_right), context.getString(R.string.scan_rotate_left)};
+        decodedText = context.getString(R.string.scan_decoded);
+
+        DisplayMetrics metrics = getResources().getDisplayMetrics();
+        textMargin = dp(TEXT_MARGIN_DP, metrics);
+        lineSpacing = dp(LINE_SPACING_DP, metrics);
+        centerRadius = dp(CENTER_RADIUS_DP, metrics);
+        initPaints(metrics);
+    }
+
+    private static float dp(float value, DisplayMetrics metrics) {
+        return TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, value, metrics);
+    }
+
+    private static float sp(float value, DisplayMetrics metrics) {
+        return TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, value, metrics);
+    }
+
+    private void initPaints(DisplayMetrics metrics) {
+        outlinePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        outlinePaint.setColor(Color.BLUE);
+        outlinePaint.setStyle(Paint.Style.STROKE);
+        outlinePaint.setStrokeWidth(dp(OUTLINE_WIDTH_DP, metrics));
+
+        centerPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        centerPaint.setColor(Color.MAGENTA);
+
+        anglePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        anglePaint.setColor(Color.CYAN);
+        anglePaint.setStrokeWidth(dp(ANGLE_WIDTH_DP, metrics));
+
+        textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        textPaint.setTextSize(sp(TEXT_SIZE_SP, metrics));
+        textPaint.setFakeBoldText(true);
+
+        decodedPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        decodedPaint.setColor(Color.GREEN);
+        decodedPaint.setTextSize(sp(DECODED_SIZE_SP, metrics));
+        decodedPaint.setFakeBoldText(true);
+        decodedPaint.setTextAlign(Paint.Align.CENTER);
+    }
+
+    /**
+     * Shows the result of the latest analysis frame. Safe to call from any thread: the result is
+     * copied, so the caller may reuse it for the next frame right away.
+     */
+    public void show(ScanResult result) {
+        synchronized (pending) {
+            pending.set(result);
+            hasResult = true;
+        }
+        postInvalidateOnAnimation();
+    }
+
+    /**
+     * Confirms that the code was decoded: "DECODED!" is drawn over the guidance from now on.
+     * Safe to call from any thread; the decode thread's result carries no geometry to show.
+     */
+    public void showDecoded() {
+        decoded = true;
+        postInvalidateOnAnimation();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        synchronized (pending) {
+            if (!hasResult) return;
+            drawn.set(pending);
+        }
+        if (drawn.frameWidth <= 0 || drawn.frameHeight <= 0) return;
+
+        // Frame to view: FILL_CENTER, as the preview
+        float scale = Math.max(getWidth() / (float) drawn.frameWidth, getHeight() / (float) drawn.frameHeight);
+        float dx = (getWidth() - drawn.frameWidth * scale) / 2f;
+        float dy = (getHeight() - drawn.frameHeight * scale) / 2f;
+
+        for (int i = 0; i < drawn.patternCount; i++) {
+            float[] c = drawn.patternCorners;
+            int o = 8 * i;
+            outline.rewind();
+            outline.moveTo(dx + c[o] * scale, dy + c[o + 1] * scale);
+            for (int k = 2; k < 8; k += 2) {
+                outline.lineTo(dx + c[o + k] * scale, dy + c[o + k + 1] * scale);
+            }
+            outline.close();
+            canvas.drawPath(outline, outlinePaint);
+        }
+
+        if (drawn.hasQrCenter()) {
+            canvas.drawCircle(dx + drawn.qrCenterX * scale, dy + drawn.qrCenterY * scale, centerRadius, centerPaint);
+        }
+        if (drawn.hasAngleLines()) {
+            float[] l = drawn.angleLines;
+            float tlX = dx + l[0] * scale, tlY = dy + l[1] * scale;
+            canvas.drawLine(tlX, tlY, dx + l[2] * scale, dy + l[3] * scale, anglePaint);
+            canvas.drawLine(tlX, tlY, dx + l[4] * scale, dy + l[5] * scale, anglePaint);
+        }
+
+        // Guidance texts, top left, in the colours the scanner has always used
+        float baseline = textMargin + textPaint.getTextSize();
+        textPaint.setColor(drawn.position == ScanResult.POSITION_NO_CODE ? Color.RED
+                : drawn.position == ScanResult.POSITION_MOVE_CLOSER ? ORANGE : Color.GREEN);
+        canvas.drawText(positionTexts[drawn.position], textMargin, baseline, textPaint);
+        String angleText = angleTexts[drawn.angle];
+        if (angleText != null) {
+            textPaint.setColor(drawn.angle == ScanResult.ANGLE_NEED_CORNERS ? ORANGE : Color.GREEN);
+            canvas.drawText(angleText, textMargin, baseline + lineSpacing, textPaint);
+        }
+
+        if (decoded || drawn.decode == ScanResult.DECODE_DECODED) {
+            canvas.drawText(decodedText, getWidth() / 2f, getHeight() / 2f, decodedPaint);
+        }
+    }
+}
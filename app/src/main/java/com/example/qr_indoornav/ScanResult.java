@@ -0,0 +1,162 @@
+package com.example.qr_indoornav;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * What the native scanner found in one analysis frame: decode status, guidance, the finder
+ * patterns and the code's centre (in the coordinates of the upright luma frame), the decoded
+ * payload as raw bytes, and how long each stage of the scan took.
+ *
+ * The native side writes all of it in place into a direct buffer this object owns
+ * ({@link #buffer}), so a frame's result crosses JNI without a single Java allocation;
+ * {@link #unpack} then reads it into the fields. The codes are shared with ScannerContext.h and
+ * the layout with ScanResultBuffer.h.
+ */
+public final class ScanResult {
+
+    // Position guidance (PositionGuidance in ScannerContext.h)
+    public static final int POSITION_NO_CODE = 0;
+    public static final int POSITION_MOVE_CLOSER = 1;
+    public static final int POSITION_OK = 2;
+    public static final int POSITION_MOVE_UP = 3;
+    public static final int POSITION_MOVE_DOWN = 4;
+    public static final int POSITION_MOVE_LEFT = 5;
+    public static final int POSITION_MOVE_RIGHT = 6;
+
+    // Angle guidance (AngleGuidance)
+    public static final int ANGLE_NONE = 0;
+    public static final int ANGLE_NEED_CORNERS = 1;
+    public static final int ANGLE_OK = 2;
+    public static final int ANGLE_ROTATE_RIGHT = 3;
+    public static final int ANGLE_ROTATE_LEFT = 4;
+
+    // Decode status (DecodeStatus)
+    public static final int DECODE_NOT_ATTEMPTED = 0;
+    public static final int DECODE_FAILED = 1;
+    public static final int DECODE_DECODED = 2;
+    public static final int DECODE_PENDING = 3;    // Handed to the decode stage (ScannerPipeline)
+
+    // Timed stages (ScanStage), indices into stageMillis
+    public static final int STAGE_TRACK = 0;
+    public static final int STAGE_SEARCH = 1;
+    public static final int STAGE_GUIDANCE = 2;
+    public static final int STAGE_DECODE = 3;
+    public static final int STAGE_TOTAL = 4;
+    public static final int STAGE_COUNT = 5;
+
+    // Flag bits
+    public static final int FLAG_TRACKED = 1;           // Found in the region tracked from the last frame
+    public static final int FLAG_PAYLOAD_TRUNCATED = 2;
+
+    public static final int MAX_PATTERNS = 16;
+    public static final int MAX_PAYLOAD_BYTES = 4096;
+
+    // --- Buffer layout (struct ScanResultBuffer), byte offsets ---
+    private static final int STATUS = 0;
+    private static final int POSITION = 4;
+    private static final int ANGLE = 8;
+    private static final int FLAGS = 12;
+    private static final int FRAME_WIDTH = 16;
+    private static final int FRAME_HEIGHT = 20;
+    private static final int PATTERN_COUNT = 24;
+    private static final int PAYLOAD_LENGTH = 28;
+    private static final int QR_CENTER = 32;
+    private static final int ANGLE_LINES = 40;
+    private static final int STAGE_MILLIS = 64;
+    private static final int PATTERNS = 84;
+    private static final int PATTERN_BYTES = 40;
+    private static final int PAYLOAD = PATTERNS + MAX_PATTERNS * PATTERN_BYTES;
+    private static final int DECODE_REGION = PAYLOAD + MAX_PAYLOAD_BYTES;
+    public static final int BYTES = DECODE_REGION + 16;
+
+    /** Filled in by the native scanner, in native byte order, then read by {@link #unpack}. */
+    public final ByteBuffer buffer = ByteBuffer.allocateDirect(BYTES).order(ByteOrder.nativeOrder());
+
+    public int decode = DECODE_NOT_ATTEMPTED;
+    public int position = POSITION_NO_CODE;
+    public int angle = ANGLE_NONE;
+    public int flags;
+    public int frameWidth, frameHeight;
+    public float qrCenterX, qrCenterY;   // Valid from POSITION_OK on
+    public final float[] angleLines = new float[6]; // Top left, top right, bottom left (x, y); from ANGLE_OK on
+    public int patternCount;
+    public final float[] patternCenters = new float[MAX_PATTERNS * 2];  // x, y per pattern
+    public final float[] patternCorners = new float[MAX_PATTERNS * 8];  // 4 corners (x, y) per pattern
+    public final float[] stageMillis = new float[STAGE_COUNT];
+    public int payloadLength;
+    public final byte[] payload = new byte[MAX_PAYLOAD_BYTES];         // Raw decoded bytes, first payloadLength
+    public final int[] decodeRegion = new int[4];                      // x, y, width, height; with DECODE_PENDING
+
+    /**
+     * Reads {@link #buffer}, as the native scanner last filled it in, into the fields. Uses
+     * absolute reads only, so the buffer's position never matters and nothing is allocated.
+     */
+    public void unpack() {
+        decode = buffer.getInt(STATUS);
+        position = buffer.getInt(POSITION);
+        angle = buffer.getInt(ANGLE);
+        flags = buffer.getInt(FLAGS);
+        frameWidth = buffer.getInt(FRAME_WIDTH);
+        frameHeight = buffer.getInt(FRAME_HEIGHT);
+        qrCenterX = buffer.getFloat(QR_CENTER);
+        qrCenterY = buffer.getFloat(QR_CENTER + 4);
+        for (int i = 0; i < angleLines.length; i++) angleLines[i] = buffer.getFloat(ANGLE_LINES + 4 * i);
+        for (int i = 0; i < STAGE_COUNT; i++) stageMillis[i] = buffer.getFloat(STAGE_MILLIS + 4 * i);
+        patternCount = Math.min(buffer.getInt(PATTERN_COUNT), MAX_PATTERNS);
+        for (int i = 0; i < patternCount; i++) {
+            int offset = PATTERNS + i * PATTERN_BYTES;
+            patternCenters[2 * i] = buffer.getFloat(offset);
+            patternCenters[2 * i + 1] = buffer.getFloat(offset + 4);
+            for (int k = 0; k < 8; k++) patternCorners[8 * i + k] = buffer.getFloat(offset + 8 + 4 * k);
+        }
+        payloadLength = Math.min(buffer.getInt(PAYLOAD_LENGTH), MAX_PAYLOAD_BYTES);
+        for (int i = 0; i < payloadLength; i++) payload[i] = buffer.get(PAYLOAD + i);
+        for (int i = 0; i < 4; i++) decodeRegion[i] = buffer.getInt(DECODE_REGION + 4 * i);
+    }
+
+    /** Copies another result's fields (not its buffer) into this one. */
+    public void set(ScanResult other) {
+        decode = other.decode;
+        position = other.position;
+        angle = other.angle;
+        flags = other.flags;
+        frameWidth = other.frameWidth;
+        frameHeight = other.frameHeight;
+        qrCenterX = other.qrCenterX;
+        qrCenterY = other.qrCenterY;
+        System.arraycopy(other.angleLines, 0, angleLines, 0, angleLines.length);
+        patternCount = other.patternCount;
+        System.arraycopy(other.patternCenters, 0, patternCenters, 0, 2 * patternCount);
+        System.arraycopy(other.patternCorners, 0, patternCorners, 0, 8 * patternCount);
+        System.arraycopy(other.stageMillis, 0, stageMillis, 0, STAGE_COUNT);
+        payloadLength = other.payloadLength;
+        System.arraycopy(other.payload, 0, payload, 0, payloadLength);
+        System.arraycopy(other.decodeRegion, 0, decodeRegion, 0, 4);
+    }
+
+    public boolean isDecoded() {
+        return decode == DECODE_DECODED;
+    }
+
+    /** A copy of the decoded bytes. */
+    public byte[] payloadBytes() {
+        byte[] bytes = new byte[payloadLength];
+        System.arraycopy(payload, 0, bytes, 0, payloadLength);
+        return bytes;
+    }
+
+    /** The decoded bytes as UTF-8 text (malformed sequences are replaced, never rejected). */
+    public String payloadText() {
+        return new String(payload, 0, payloadLength, StandardCharsets.UTF_8);
+    }
+
+    public boolean hasQrCenter() {
+        return position >= POSITION_OK;
+    }
+
+    public boolean hasAngleLines() {
+        return angle >= ANGLE_OK;
+    }
+}
@@ -0,0 +1,247 @@
+package com.example.qr_indoornav;
+
+import android.util.Log;
+
+import org.opencv.core.Mat;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * The QR scanner as a pipeline of four stages, each on its own thread:
+ *
+ * <ol>
+ *   <li>ingest: the camera's analyzer thread converts a frame to luma (see {@link FrameIngest})
+ *       and hands a copy to {@link #submit};</li>
+ *   <li>detect: finds the finder patterns and works out the guidance, which goes straight to
+ *       the listener; frames worth decoding are passed on;</li>
+ *   <li>decode: runs the QR decoder, with its own native state, and reports what it decodes;</li>
+ *   <li>present: the listener hands the result to the UI thread (ScanOverlayView keeps only the
+ *       newest one).</li>
+ * </ol>
+ *
+ * Stages are joined by single-slot {@link DropOldestQueue}s, so a slow stage never holds up the
+ * one before it: it picks up the newest frame when it is done, and the frames in between are
+ * dropped. In particular a slow decode no longer stalls detection, so the guidance keeps up with
+ * the camera while a decode is running. Frame buffers circulate through fixed pools: once
+ * running, the pipeline allocates nothing per frame.
+ *
+ * Constructed with {@code pipelined = false}, detection and decoding run one after the other on
+ * the detect thread, as the scanner did on its single analyzer thread; kept for comparison (see
+ * ScannerPipelineTest).
+ */
+public final class ScannerPipeline {
+
+    private static final String TAG = "ScannerPipeline";
+
+    static {
+        System.loadLibrary("qr_indoornav");
+    }
+
+    /** Receives the pipeline's results, on its worker threads. */
+    public interface Listener {
+        /**
+         * Guidance for a frame, on the detect thread. {@code result} is overwritten by the next
+         * frame: copy what must be kept. {@code submittedNanos} is when the frame was submitted
+         * ({@link System#nanoTime}).
+         */
+        void onGuidance(ScanResult result, long submittedNanos);
+
+        /** A decoded code, on the decode thread (the detect thread when not pipelined). */
+        void onDecoded(ScanResult result, long submittedNanos);
+    }
+
+    /** A luma frame travelling through the pipeline; pooled, so its Mat keeps its buffer. */
+    private static final class Frame {
+        final Mat gray = new Mat();
+        long submittedNanos;
+        final int[] decodeRegion = new int[4];
+    }
+
+    // Frames in use at once: one being filled, one queued and one being worked on
+    private static final int POOL_SIZE = 3;
+
+    private final Listener listener;
+    private final boolean pipelined;
+    private final long scannerHandle;
+    private final long decoderHandle;
+
+    private final ArrayBlockingQueue<Frame> freeFrames = new ArrayBlockingQueue<>(POOL_SIZE);
+    private final ArrayBlockingQueue<Frame> freeDecodes = new ArrayBlockingQueue<>(POOL_SIZE);
+    private final DropOldestQueue<Frame> detectQueue = new DropOldestQueue<>(1);
+    private final DropOldestQueue<Frame> decodeQueue = new DropOldestQueue<>(1);
+    private final ScanResult guidance = new ScanResult();   // Detect thread only
+    private final ScanResult decoded = new ScanResult();    // Decode thread only
+
+    private final Thread detectThread;
+    private final Thread decodeThread;
+    private volatile boolean closed;
+
+    /** Creates the pipeline's native state and starts its threads. */
+    public ScannerPipeline(Listener listener, boolean pipelined) {
+        this.listener = listener;
+        this.pipelined = pipelined;
+        scannerHandle = createScanner();
+        decoderHandle = pipelined ? createDecoder() : 0;
+        for (int i = 0; i < POOL_SIZE; i++) {
+            freeFrames.add(new Frame());
+            freeDecodes.add(new Frame());
+        }
+        detectThread = new Thread(this::detectLoop, "ScannerDetect");
+        detectThread.start();
+        if (pipelined) {
+            decodeThread = new Thread(this::decodeLoop, "ScannerDecode");
+            decodeThread.start();
+        } else {
+            decodeThread = null;
+        }
+    }
+
+    /**
+     * Ingest: copies {@code gray} into the pipeline and queues it for detection, replacing a
+     * frame still waiting there. Call from one thread at a time (the camera analyzer); the
+     * caller keeps ownership of {@code gray}.
+     */
+    public void submit(Mat gray) {
+        if (closed) return;
+        long now = System.nanoTime();
+        Frame frame = freeFrames.poll();
+        if (frame == null) return; // Cannot happen with one submitting thread; dropped if it does
+        gray.copyTo(frame.gray);
+        frame.submittedNanos = now;
+        recycle(detectQueue.put(frame), freeFrames);
+    }
+
+    /** Frames replaced in the detect queue before detection got to them. */
+    public long getDroppedFrames() {
+        return detectQueue.droppedCount();
+    }
+
+    /** Decodable frames replaced in the decode queue while a decode was running. */
+    public long getDroppedDecodes() {
+        return decodeQueue.droppedCount();
+    }
+
+    /**
+     * Stops the threads, waiting for a frame in progress to finish, and frees the native state.
+     * No listener calls follow; further submissions are ignored.
+     */
+    public void close() {
+        if (closed) return;
+        closed = true;
+        detectThread.interrupt();
+        if (decodeThread != null) decodeThread.interrupt();
+        try {
+            detectThread.join();
+            if (decodeThread != null) decodeThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        destroyScanner(scannerHandle);
+        if (decoderHandle != 0) destroyDecoder(decoderHandle);
+        releaseAll(freeFrames, detectQueue);
+        releaseAll(freeDecodes, decodeQueue);
+    }
+
+    private void detectLoop() {
+        try {
+            while (!closed) {
+                Frame frame = detectQueue.take();
+                if (pipelined) {
+                    detect(frame);
+                } else {
+                    processFrame(scannerHandle, frame.gray.getNativeObjAddr(), guidance.buffer);
+                    guidance.unpack();
+                    if (!closed) listener.onGuidance(guidance, frame.submittedNanos);
+                    if (!closed && guidance.isDecoded()) listener.onDecoded(guidance, frame.submittedNanos);
+                }
+                recycle(frame, freeFrames);
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        }
+    }
+
+    private void detect(Frame frame) {
+        // Always succeeds: at most one decode frame is queued and one being decoded.
+        Frame decodeFrame = freeDecodes.poll();
+        if (decodeFrame == null) {
+            Log.w(TAG, "No free decode frame");
+            return;
+        }
+        int status = detectFrame(scannerHandle, frame.gray.getNativeObjAddr(),
+                decodeFrame.gray.getNativeObjAddr(), guidance.buffer);
+        guidance.unpack();
+        if (!closed) listener.onGuidance(guidance, frame.submittedNanos);
+
+        if (status == ScanResult.DECODE_PENDING) {
+            // detectFrame copied the frame into decodeFrame.gray
+            decodeFrame.submittedNanos = frame.submittedNanos;
+            System.arraycopy(guidance.decodeRegion, 0, decodeFrame.decodeRegion, 0, 4);
+            recycle(decodeQueue.put(decodeFrame), freeDecodes);
+        } else {
+            recycle(decodeFrame, freeDecodes);
+        }
+    }
+
+    private void decodeLoop() {
+        try {
+            while (!closed) {
+                Frame frame = decodeQueue.take();
+                int[] r = frame.decodeRegion;
+                int status = decodeFrame(decoderHandle, frame.gray.getNativeObjAddr(), r[0], r[1], r[2], r[3], decoded.buffer);
+                if (status == ScanResult.DECODE_DECODED) {
+                    decoded.unpack();
+                    if (!closed) listener.onDecoded(decoded, frame.submittedNanos);
+                }
+                recycle(frame, freeDecodes);
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        }
+    }
+
+    private static void recycle(Frame frame, ArrayBlockingQueue<Frame> pool) {
+        if (frame != null) pool.offer(frame);
+    }
+
+    private static void releaseAll(ArrayBlockingQueue<Frame> pool, DropOldestQueue<Frame> queue) {
+        for (Frame frame = queue.poll(); frame != null; frame = queue.poll()) frame.gray.release();
+        for (Frame frame = pool.poll(); frame != null; frame = pool.poll()) frame.gray.release();
+    }
+
+    // --- Native scanner (native-lib.cpp) ---
+
+    /** Creates the native scanner state, reused by every frame until {@link #destroyScanner}. */
+    private static native long createScanner();
+
+    private static native void destroyScanner(long handle);
+
+    /** Creates a decoder with its own QR detector, for the decode thread. */
+    private static native long createDecoder();
+
+    private static native void destroyDecoder(long handle);
+
+    /**
+     * Finds, guides towards and decodes a QR code in a grayscale (luma) frame, using the
+     * scanner state behind {@code handle}. Everything found, the decoded bytes included, is
+     * written in place into {@code result}, a direct buffer of {@link ScanResult#BYTES} (see
+     * {@link ScanResult#buffer}); nothing is drawn and no Java object is created. Returns the
+     * decode status, one of the {@code ScanResult.DECODE_} codes.
+     */
+    private static native int processFrame(long handle, long grayAddr, ByteBuffer result);
+
+    /**
+     * {@link #processFrame} without the decoding. If the code is worth decoding, the frame is
+     * copied to {@code decodeFrameAddr}, the region to decode goes into the result, and
+     * {@link ScanResult#DECODE_PENDING} is returned.
+     */
+    private static native int detectFrame(long handle, long grayAddr, long decodeFrameAddr, ByteBuffer result);
+
+    /**
+     * Decodes the given region of a frame with the decoder behind {@code handle}. Writes only
+     * the status, flags, payload and decode time into {@code result}; returns the status.
+     */
+    private static native int decodeFrame(long handle, long grayAddr, int x, int y, int width, int height,
+                                          ByteBuffer result);
+}
@@ -0,0 +1,77 @@
+package com.example.qr_indoornav;
+
+/**
+ * Sensor events collected on delivery and handed to {@link SensorPipeline#processBatch} in one
+ * go. When the sensor hardware batches (a non-zero max report latency), a whole FIFO of samples
+ * arrives in one wakeup and is processed together instead of one callback at a time.
+ *
+ * Events are stored in flat primitive arrays, so adding and reading never allocates. Each event
+ * keeps its value count, because some consumers read the length (e.g. a rotation vector with
+ * or without the scalar component). Not thread-safe.
+ */
+public class SensorBatch {
+
+    /** Values kept per event; as many as a {@link SensorTrace} records. */
+    public static final int MAX_VALUES = 16;
+
+    private final int capacity;
+    private final int[] types;
+    private final int[] counts;
+    private final long[] timestamps;
+    private final float[] values;
+    private final float[][] valuesByCount = new float[MAX_VALUES + 1][];
+    private int size = 0;
+
+    public SensorBatch(int capacity) {
+        this.capacity = capacity;
+        this.types = new int[capacity];
+        this.counts = new int[capacity];
+        this.timestamps = new long[capacity];
+        this.values = new float[capacity * MAX_VALUES];
+    }
+
+    /**
+     * Appends one event.
+     * @return false if the batch is full; process and {@link #clear} it, then add again.
+     */
+    public boolean add(int type, float[] eventValues, long timestampNanos) {
+        if (size == capacity) return false;
+        int count = Math.min(eventValues.length, MAX_VALUES);
+        types[size] = type;
+        counts[size] = count;
+        timestamps[size] = timestampNanos;
+        System.arraycopy(eventValues, 0, values, size * MAX_VALUES, count);
+        size++;
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int typeAt(int index) {
+        return types[index];
+    }
+
+    public long timestampAt(int index) {
+        return timestamps[index];
+    }
+
+    /**
+     * The values of event {@code index}, in an array of exactly their count. The array is
+     * shared scratch space: it is overwritten by the next call for an event of the same count.
+     */
+    public float[] valuesAt(int index) {
+        int count = counts[index];
+        float[] out = valuesByCount[count];
+        if (out == null) {
+            out = valuesByCount[count] = new float[count];
+        }
+        System.arraycopy(values, index * MAX_VALUES, out, 0, count);
+        return out;
+    }
+}
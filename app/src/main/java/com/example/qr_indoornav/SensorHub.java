@@ -0,0 +1,724 @@
+package com.example.qr_indoornav;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener2;
+import android.hardware.SensorManager;
+import android.os.Build;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Choreographer;
+
+import androidx.core.content.ContextCompat;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Runs sensor ingestion and processing off the main thread.
+ *
+ * Sensor events are delivered to a dedicated {@link HandlerThread} and fed to a
+ * {@link SensorPipeline}: orientation fusion, alignment and step detection, all on event time.
+ * The best available source is chosen once per start: the platform rotation vector, else the
+ * game rotation vector or gyroscope corrected by accelerometer and magnetometer, else
+ * accelerometer and magnetometer alone. Steps come from the hardware step detector or step
+ * counter when the device has one and activity recognition is permitted, else from the
+ * accelerometer through the StepDetector (see {@link StepSource}). Either way a step only counts
+ * while the heading is aligned with the target. If a {@link ParticleFilter} is set, each counted
+ * step also advances the position on the map, which is published with every snapshot.
+ *
+ * Sampling follows the navigation {@link Mode}: at the UI rate and unbatched while the user aligns
+ * with the compass, fast but batched in the sensor FIFO while walking, slow and heavily batched while
+ * idle or scanning. Events that arrive together are collected into a {@link SensorBatch} and
+ * processed in one pass, which ticks the smoothed heading every
+ * {@link SensorPipeline#TICK_PERIOD_MS} of event time, checks alignment and then publishes a
+ * single-writer sequence-lock snapshot. Each pass counts as one wakeup; {@link #getStats} reports
+ * events and wakeups per minute in each mode, to compare their battery cost.
+ *
+ * The UI never blocks on the snapshot: once per {@link Choreographer} frame it copies the
+ * latest one and is called back only if something new arrived.
+ *
+ * In debuggable builds every session is also recorded as a {@link SensorTrace} under the app's
+ * external files directory ({@code sensor-traces/}), for offline replay on the JVM with
+ * SensorTraceReplay (in the unit tests, or {@code ./gradlew :benchmark:replayTraces}).
+ *
+ * The StepDetector is driven by the sensor thread between {@link #start} and {@link #stop}.
+ * Callers must not reset or recalibrate it directly while the hub runs; {@link #resetSteps}
+ * does it on the sensor thread. Reading its getters from the frame callback is safe, because the
+ * snapshot read orders them after the sensor thread's writes. The frame listener can be swapped
+ * with {@link #setFrameListener} without touching the sensors, so one hub can serve several
+ * screens in turn.
+ */
+public class SensorHub implements SensorEventListener2 {
+
+    /** Latest processed sensor state, as seen by the UI. */
+    public static final class Snapshot {
+        public float azimuthDegrees;   // Smoothed device heading, 0-360, clockwise from north, corrected by the heading offset
+        public boolean aligned;        // Within the alignment margin of the target direction
+        public int stepsTaken;         // StepDetector count; only advances while step counting is on
+        public long timestampNanos;    // Event time of the newest event processed (SensorEvent.timestamp clock)
+        public float legMeters;        // ParticleFilter progress along the leg; NaN without a filter or leg
+        public float legConfidence;    // ParticleFilter confidence in legMeters, 0-1
+        public float onLegProbability; // ParticleFilter probability of being on the leg or past its end
+        long sequence;
+    }
+
+    /** Which orientation source the current session uses. */
+    public enum Source { ROTATION_VECTOR, GAME_ROTATION_VECTOR, GYROSCOPE, ACCELEROMETER_MAGNETOMETER }
+
+    /** Which step source the current session uses. */
+    public enum StepBackend { HARDWARE_DETECTOR, HARDWARE_COUNTER, SOFTWARE }
+
+    /**
+     * Navigation state, which sets the sampling period and how long the sensor hardware may
+     * hold events before delivering them (max report latency). Devices without a sensor FIFO
+     * ignore the latency and deliver each event as it comes.
+     */
+    public enum Mode {
+        /** Compass on screen: the arrow follows the heading live, at the UI rate (SENSOR_DELAY_UI). */
+        ALIGNING(66_667, 0),
+        /** Walking a leg: steps need 50 Hz samples, but a fifth of a second of delay is fine. */
+        WALKING(20_000, 200_000),
+        /** Dialogs or waiting: keep the heading filter warm at a trickle. */
+        IDLE(100_000, 1_000_000),
+        /** Camera in front: the heading is not shown at all. */
+        SCANNING(200_000, 2_000_000);
+
+        public final int samplingPeriodUs;
+        public final int maxReportLatencyUs;
+
+        Mode(int samplingPeriodUs, int maxReportLatencyUs) {
+            this.samplingPeriodUs = samplingPeriodUs;
+            this.maxReportLatencyUs = maxReportLatencyUs;
+        }
+    }
+
+    /** Events processed and sensor-thread wakeups in one mode, over the time spent in it. */
+    public static final class Stats {
+        public final long events;
+        public final long wakeups;
+        public final long nanos;
+
+        public Stats(long events, long wakeups, long nanos) {
+            this.events = events;
+            this.wakeups = wakeups;
+            this.nanos = nanos;
+        }
+
+        public double eventsPerMinute() {
+            return nanos > 0 ? events * 60e9 / nanos : 0;
+        }
+
+        public double wakeupsPerMinute() {
+            return nanos > 0 ? wakeups * 60e9 / nanos : 0;
+        }
+    }
+
+    /** Called on the main thread, at most once per frame, when a new snapshot is available. */
+    public interface FrameListener {
+        void onSensorFrame(Snapshot snapshot);
+    }
+
+    private static final String TAG = "SensorHub";
+    private static final int BATCH_CAPACITY = 256; // A full WALKING FIFO delivery, with room to spare
+    private static final long FLUSH_TIMEOUT_MS = 500; // Re-register anyway if a sensor never reports its flush
+
+    private final Context context;
+    private final SensorManager sensorManager;
+    private final StepDetector stepDetector;
+    private final File traceDirectory; // Null unless this is a debuggable build
+    private Source source;
+    private StepBackend stepBackend;
+    private int stepSensorType;
+    private volatile Mode mode = Mode.ALIGNING;
+    private long modeSinceNanos;
+    private final AtomicLongArray modeEvents = new AtomicLongArray(Mode.values().length);
+    private final AtomicLongArray modeWakeups = new AtomicLongArray(Mode.values().length);
+    private final AtomicLongArray modeNanos = new AtomicLongArray(Mode.values().length);
+    private volatile double cpuNanosPerMeter = Double.NaN;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private int registeredSensors;    // Main thread
+    private boolean modeChangePending; // Main thread: waiting for the FIFOs to flush
+    private final AtomicInteger pendingFlushes = new AtomicInteger();
+    private final Runnable applyMode = this::applyMode;
+
+    // --- Sensor-thread state (only touched on the sensor thread) ---
+    private HandlerThread sensorThread;
+    private Handler sensorHandler;
+    private final SensorPipeline pipeline;
+    private SensorTrace.Writer traceWriter;
+    private long sessionCpuStartNanos;
+    private int sessionSteps;           // Counted in earlier legs of this session
+    private double sessionMeters;
+    private int legStartSteps;          // StepDetector state when the current leg began
+    private double legStartMeters;
+    private final SensorBatch batch = new SensorBatch(BATCH_CAPACITY);
+    private boolean drainPosted = false;
+    // Posted by the first event of a delivery, so it runs once the whole delivery is queued.
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            drainPosted = false;
+            modeWakeups.incrementAndGet(mode.ordinal());
+            processBatch();
+        }
+    };
+
+    // --- Settings written by the UI, read by the sensor thread ---
+    private volatile float targetDegree;
+    private volatile float headingOffset;
+    private volatile boolean countSteps;
+
+    // --- Sequence lock: odd while the sensor thread is writing. Fields are volatile so the
+    //     reader's loads cannot be reordered around the sequence reads. ---
+    private volatile int sequence = 0;
+    private volatile float publishedAzimuth;
+    private volatile boolean publishedAligned;
+    private volatile int publishedSteps;
+    private volatile long publishedTimestamp;
+    private volatile float publishedLegMeters = Float.NaN;
+    private volatile float publishedLegConfidence;
+    private volatile float publishedOnLeg;
+
+    // --- Main-thread state ---
+    private final Snapshot uiSnapshot = new Snapshot();
+    private FrameListener frameListener;
+    private long lastDeliveredSequence = -1;
+    private boolean framePosted = false;
+    private final Choreographer.FrameCallback frameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            framePosted = false;
+            if (frameListener == null) return;
+            if (readSnapshot(uiSnapshot) && uiSnapshot.sequence != lastDeliveredSequence) {
+                lastDeliveredSequence = uiSnapshot.sequence;
+                frameListener.onSensorFrame(uiSnapshot);
+            }
+            postFrame(); // Unless the listener unsubscribed or stopped the hub
+        }
+    };
+
+    public SensorHub(Context context, StepDetector stepDetector) {
+        this.context = context.getApplicationContext();
+        this.sensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+        this.stepDetector = stepDetector;
+        this.pipeline = new SensorPipeline(stepDetector);
+        boolean debuggable = (context.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+        this.traceDirectory = debuggable ? context.getExternalFilesDir("sensor-traces") : null;
+    }
+
+    /** Direction (0-360) that alignment and step direction are checked against. */
+    public void setTargetDegree(float targetDegree) {
+        this.targetDegree = targetDegree;
+    }
+
+    /**
+     * Local heading error to correct for (see {@link HeadingCalibration}); the published azimuth
+     * and the alignment check use the corrected heading.
+     */
+    public void setHeadingOffset(float headingOffset) {
+        this.headingOffset = headingOffset;
+    }
+
+    /** Orientation source chosen by the last {@link #start}, or null before the first start. */
+    public Source getSource() {
+        return source;
+    }
+
+    /**
+     * Switches the sampling schedule. If the hub is running, the sensor FIFOs are flushed first
+     * and the sensors re-registered once the events they held have been delivered, so switching
+     * from a batched mode loses none; otherwise the mode applies from the next {@link #start}.
+     * Must be called on the main thread.
+     */
+    public void setMode(Mode mode) {
+        if (mode == this.mode) return;
+        long now = SystemClock.elapsedRealtimeNanos();
+        if (sensorThread != null) {
+            modeNanos.addAndGet(this.mode.ordinal(), now - modeSinceNanos);
+        }
+        modeSinceNanos = now;
+        this.mode = mode;
+        if (sensorThread == null || modeChangePending) return; // A pending change picks up the new mode
+        modeChangePending = true;
+        pendingFlushes.set(registeredSensors);
+        if (registeredSensors == 0 || !sensorManager.flush(this)) {
+            applyMode();
+        } else {
+            mainHandler.postDelayed(applyMode, FLUSH_TIMEOUT_MS);
+        }
+    }
+
+    /** Re-registers the sensors at the current mode's rate and latency. Main thread. */
+    private void applyMode() {
+        if (!modeChangePending) return;
+        modeChangePending = false;
+        mainHandler.removeCallbacks(applyMode);
+        if (sensorThread == null) return;
+        sensorManager.unregisterListener(this);
+        registerSensors(mode);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /** Events and wakeups in {@code mode} so far, over all sessions of this hub. Any thread. */
+    public Stats getStats(Mode mode) {
+        long nanos = modeNanos.get(mode.ordinal());
+        if (mode == this.mode && sensorThread != null) {
+            nanos += SystemClock.elapsedRealtimeNanos() - modeSinceNanos;
+        }
+        return new Stats(modeEvents.get(mode.ordinal()), modeWakeups.get(mode.ordinal()), nanos);
+    }
+
+    /** Step source chosen by the last {@link #start}, or null before the first start. */
+    public StepBackend getStepBackend() {
+        return stepBackend;
+    }
+
+    /**
+     * Sensor-thread CPU time per meter walked in the last completed session, or NaN if no steps
+     * were counted. Time the step sensors spend on a coprocessor or in the system server is not
+     * included: that is the point of the hardware backends.
+     */
+    public double getCpuNanosPerMeter() {
+        return cpuNanosPerMeter;
+    }
+
+    /** Whether aligned steps are counted into the StepDetector. */
+    public void setStepCounting(boolean countSteps) {
+        this.countSteps = countSteps;
+    }
+
+    /**
+     * Sets the StepDetector's count, on the sensor thread if the hub is running, and records it
+     * in the trace. Must be called on the main thread.
+     */
+    public void resetSteps(int initialSteps) {
+        if (sensorThread == null) {
+            stepDetector.reset(initialSteps);
+            return;
+        }
+        sensorHandler.post(() -> {
+            addLegToSession();
+            stepDetector.reset(initialSteps);
+            markLegStart();
+            if (traceWriter != null) {
+                try {
+                    traceWriter.reset(initialSteps, SystemClock.elapsedRealtimeNanos());
+                } catch (IOException e) {
+                    traceFailed(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Fits the StepDetector's step length to the leg just walked, {@code distanceMeters} long,
+     * on the sensor thread if the hub is running. {@code onCalibrated} then runs on that thread
+     * if the estimate changed, e.g. to save it. Call before {@link #resetSteps} for the next leg.
+     * Must be called on the main thread.
+     */
+    public void calibrateStepLength(int distanceMeters, Runnable onCalibrated) {
+        Runnable calibrate = () -> {
+            if (stepDetector.calibrateStepLength(distanceMeters)) {
+                onCalibrated.run();
+            }
+        };
+        if (sensorThread == null) {
+            calibrate.run();
+        } else {
+            sensorHandler.post(calibrate);
+        }
+    }
+
+    /**
+     * Teaches {@code calibration} the heading offsets measured on the leg just walked, from
+     * {@code fromId} to {@code toId}, on the sensor thread if the hub is running.
+     * {@code onCalibrated} then runs on that thread if anything was learned. Call when the leg's
+     * checkpoint is confirmed, before {@link #startLeg} for the next one. Must be called on the
+     * main thread.
+     */
+    public void calibrateHeading(HeadingCalibration calibration, String fromId, String toId, Runnable onCalibrated) {
+        Runnable calibrate = () -> {
+            if (calibration.record(fromId, toId, pipeline.getDepartureHeadingOffset(), pipeline.getLegHeadingOffset())) {
+                onCalibrated.run();
+            }
+        };
+        if (sensorThread == null) {
+            calibrate.run();
+        } else {
+            sensorHandler.post(calibrate);
+        }
+    }
+
+    /**
+     * Tracks the position on the map with {@code particleFilter}, fed with every counted step.
+     * Must be called on the main thread before {@link #start}.
+     */
+    public void setParticleFilter(ParticleFilter particleFilter) {
+        pipeline.setParticleFilter(particleFilter);
+    }
+
+    /**
+     * Starts a leg in the pipeline, on the sensor thread if the hub is running: clears the leg's
+     * heading statistics and restarts position tracking. Must be called on the main thread.
+     */
+    public void startLeg(String fromId, String toId) {
+        if (sensorThread == null) {
+            pipeline.startLeg(fromId, toId);
+            return;
+        }
+        sensorHandler.post(() -> pipeline.startLeg(fromId, toId));
+    }
+
+    /**
+     * Replaces the listener that receives snapshots, or removes it with null. The sensors keep
+     * running either way. The new listener gets the latest snapshot on the next frame. Must be
+     * called on the main thread.
+     */
+    public void setFrameListener(FrameListener listener) {
+        frameListener = listener;
+        lastDeliveredSequence = -1;
+        if (listener == null) {
+            Choreographer.getInstance().removeFrameCallback(frameCallback);
+            framePosted = false;
+        } else {
+            postFrame();
+        }
+    }
+
+    private void postFrame() {
+        if (framePosted || frameListener == null || sensorThread == null) return;
+        framePosted = true;
+        Choreographer.getInstance().postFrameCallback(frameCallback);
+    }
+
+    /**
+     * Starts the sensor thread and the per-frame handoff. Must be called on the main thread.
+     * @param listener Receives snapshots once per frame; may be null and set later.
+     */
+    public void start(FrameListener listener) {
+        if (sensorThread != null) return;
+        sequence = 0; // Drop the previous session's snapshot; no writer is running yet
+        pipeline.reset();
+
+        sensorThread = new HandlerThread("SensorHub", Process.THREAD_PRIORITY_MORE_FAVORABLE);
+        sensorThread.start();
+        sensorHandler = new Handler(sensorThread.getLooper());
+        if (traceDirectory != null) {
+            // Runs before any sensor event, which are queued behind it on the same looper.
+            String name = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+            File file = new File(traceDirectory, "trace-" + name + SensorTrace.FILE_EXTENSION);
+            sensorHandler.post(() -> openTrace(file));
+        }
+        sensorHandler.post(this::beginCpuSession);
+
+        // Chosen whether or not counting is on yet, so steps can be switched on without a restart.
+        stepBackend = StepBackend.SOFTWARE;
+        stepSensorType = 0;
+        if (canUseHardwareSteps()) {
+            if (hasSensor(Sensor.TYPE_STEP_DETECTOR)) {
+                stepBackend = StepBackend.HARDWARE_DETECTOR;
+                stepSensorType = Sensor.TYPE_STEP_DETECTOR;
+                pipeline.setStepSource(new StepSource.HardwareDetector(stepDetector));
+            } else if (hasSensor(Sensor.TYPE_STEP_COUNTER)) {
+                stepBackend = StepBackend.HARDWARE_COUNTER;
+                stepSensorType = Sensor.TYPE_STEP_COUNTER;
+                pipeline.setStepSource(new StepSource.HardwareCounter(stepDetector));
+            }
+        }
+        if (stepBackend == StepBackend.SOFTWARE) {
+            pipeline.setStepSource(new StepSource.Software(stepDetector));
+        }
+
+        if (hasSensor(Sensor.TYPE_ROTATION_VECTOR)) {
+            source = Source.ROTATION_VECTOR;
+        } else if (hasSensor(Sensor.TYPE_GAME_ROTATION_VECTOR)) {
+            source = Source.GAME_ROTATION_VECTOR;
+        } else if (hasSensor(Sensor.TYPE_GYROSCOPE)) {
+            source = Source.GYROSCOPE;
+        } else {
+            source = Source.ACCELEROMETER_MAGNETOMETER;
+        }
+
+        modeSinceNanos = SystemClock.elapsedRealtimeNanos();
+        registerSensors(mode);
+        setFrameListener(listener);
+    }
+
+    /**
+     * Unregisters the sensors, stops the per-frame handoff and ends the sensor thread.
+     * Must be called on the main thread. Safe to call more than once.
+     */
+    public void stop() {
+        setFrameListener(null);
+        if (sensorThread == null) return;
+        sensorManager.unregisterListener(this);
+        mainHandler.removeCallbacks(applyMode);
+        modeChangePending = false;
+        long now = SystemClock.elapsedRealtimeNanos();
+        modeNanos.addAndGet(mode.ordinal(), now - modeSinceNanos);
+        modeSinceNanos = now;
+        sensorHandler.post(this::endCpuSession);
+        sensorHandler.post(this::closeTrace);
+        sensorThread.quitSafely();
+        try {
+            sensorThread.join(); // After this the StepDetector belongs to the caller again
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sensorThread = null;
+        sensorHandler = null;
+    }
+
+    /** Hardware step sensors need the activity recognition runtime permission from Android 10. */
+    private boolean canUseHardwareSteps() {
+        return Build.VERSION.SDK_INT < Build.VERSION_CODES.Q
+                || ContextCompat.checkSelfPermission(context, Manifest.permission.ACTIVITY_RECOGNITION)
+                        == PackageManager.PERMISSION_GRANTED;
+    }
+
+    private boolean hasSensor(int type) {
+        return sensorManager.getDefaultSensor(type) != null;
+    }
+
+    /** Registers the sensors the chosen sources need in {@code mode}, at its rate and latency. */
+    private void registerSensors(Mode mode) {
+        registeredSensors = 0;
+        if (stepBackend != StepBackend.SOFTWARE) {
+            register(stepSensorType, mode);
+        }
+        switch (source) {
+            case ROTATION_VECTOR:
+                register(Sensor.TYPE_ROTATION_VECTOR, mode);
+                break;
+            case GAME_ROTATION_VECTOR:
+                register(Sensor.TYPE_GAME_ROTATION_VECTOR, mode);
+                register(Sensor.TYPE_MAGNETIC_FIELD, mode);
+                break;
+            case GYROSCOPE:
+                register(Sensor.TYPE_GYROSCOPE, mode);
+                register(Sensor.TYPE_MAGNETIC_FIELD, mode);
+                break;
+            case ACCELEROMETER_MAGNETOMETER:
+                register(Sensor.TYPE_MAGNETIC_FIELD, mode);
+                break;
+        }
+        // The accelerometer drives software step detection, which only runs while walking, and,
+        // without a platform rotation vector, the tilt half of the correction.
+        if (source != Source.ROTATION_VECTOR || (stepBackend == StepBackend.SOFTWARE && mode == Mode.WALKING)) {
+            register(Sensor.TYPE_ACCELEROMETER, mode);
+        }
+    }
+
+    private boolean register(int type, Mode mode) {
+        Sensor sensor = sensorManager.getDefaultSensor(type);
+        boolean registered = sensor != null && sensorManager.registerListener(
+                this, sensor, mode.samplingPeriodUs, mode.maxReportLatencyUs, sensorHandler);
+        if (registered) registeredSensors++;
+        return registered;
+    }
+
+    // --- Sensor thread ---
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        if (!batch.add(event.sensor.getType(), event.values, event.timestamp)) {
+            processBatch(); // Full: process what is there and keep collecting
+            batch.add(event.sensor.getType(), event.values, event.timestamp);
+        }
+        if (!drainPosted) {
+            drainPosted = true;
+            sensorHandler.post(drain);
+        }
+    }
+
+    /** Records, processes and publishes everything collected since the last pass. */
+    private void processBatch() {
+        int size = batch.size();
+        if (size == 0) return;
+        syncSettings(batch.timestampAt(0));
+        if (traceWriter != null) {
+            try {
+                for (int i = 0; i < size; i++) {
+                    traceWriter.sensor(batch.typeAt(i), batch.valuesAt(i), batch.timestampAt(i));
+                }
+            } catch (IOException e) {
+                traceFailed(e);
+            }
+        }
+        modeEvents.addAndGet(mode.ordinal(), size);
+        long last = batch.timestampAt(size - 1);
+        if (pipeline.processBatch(batch)) {
+            publish(pipeline.getHeading(), pipeline.isAligned(), stepDetector.getStepsTaken(), last);
+        }
+        batch.clear();
+    }
+
+    /** Hands UI setting changes to the pipeline, before the batch they apply to, and records them. */
+    private void syncSettings(long timestampNanos) {
+        float target = targetDegree;
+        float offset = headingOffset;
+        if (target != pipeline.getTargetDegree() || offset != pipeline.getHeadingOffset()) {
+            pipeline.setTargetDegree(target);
+            pipeline.setHeadingOffset(offset);
+            if (traceWriter != null) {
+                try {
+                    // Traces stay in the raw heading's frame: the offset is folded into the target.
+                    traceWriter.target(pipeline.getRawTargetDegree(), timestampNanos);
+                } catch (IOException e) {
+                    traceFailed(e);
+                }
+            }
+        }
+        boolean counting = countSteps;
+        if (counting != pipeline.isStepCounting()) {
+            pipeline.setStepCounting(counting);
+            if (traceWriter != null) {
+                try {
+                    traceWriter.stepCounting(counting, timestampNanos);
+                } catch (IOException e) {
+                    traceFailed(e);
+                }
+            }
+        }
+    }
+
+    private void beginCpuSession() {
+        sessionCpuStartNanos = Debug.threadCpuTimeNanos();
+        sessionSteps = 0;
+        sessionMeters = 0;
+        markLegStart();
+    }
+
+    private void markLegStart() {
+        legStartSteps = stepDetector.getStepsTaken();
+        legStartMeters = stepDetector.getMetersCovered();
+    }
+
+    /** Adds what the StepDetector counted since {@link #markLegStart}, before it is reset. */
+    private void addLegToSession() {
+        sessionSteps += stepDetector.getStepsTaken() - legStartSteps;
+        sessionMeters += stepDetector.getMetersCovered() - legStartMeters;
+    }
+
+    /** Logs the sensor thread's CPU time per meter walked, to compare the step backends. */
+    private void endCpuSession() {
+        long cpuNanos = Debug.threadCpuTimeNanos() - sessionCpuStartNanos;
+        addLegToSession();
+        markLegStart();
+        int steps = sessionSteps;
+        double meters = sessionMeters; // Each step at its own learned length
+        cpuNanosPerMeter = meters > 0 ? cpuNanos / meters : Double.NaN;
+        Log.i(TAG, String.format(Locale.US, "%s/%s: %.2f ms CPU over %d steps (%.1f m), %.3f ms per meter",
+                stepBackend, source, cpuNanos / 1e6, steps, meters, cpuNanosPerMeter / 1e6));
+        for (Mode m : Mode.values()) {
+            Stats stats = getStats(m);
+            if (stats.nanos == 0) continue;
+            Log.i(TAG, String.format(Locale.US, "%s: %.0f s, %.0f events/min, %.1f wakeups/min",
+                    m, stats.nanos / 1e9, stats.eventsPerMinute(), stats.wakeupsPerMinute()));
+        }
+    }
+
+    private void openTrace(File file) {
+        try {
+            traceWriter = new SensorTrace.Writer(file);
+            long now = SystemClock.elapsedRealtimeNanos();
+            traceWriter.reset(stepDetector.getStepsTaken(), now);
+            traceWriter.target(pipeline.getRawTargetDegree(), now);
+            traceWriter.stepCounting(pipeline.isStepCounting(), now);
+        } catch (IOException e) {
+            traceFailed(e);
+        }
+    }
+
+    private void closeTrace() {
+        if (traceWriter == null) return;
+        try {
+            traceWriter.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Could not finish sensor trace", e);
+        }
+        traceWriter = null;
+    }
+
+    private void traceFailed(IOException e) {
+        Log.w(TAG, "Sensor trace recording stopped", e);
+        closeTrace();
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) { /* Not used */ }
+
+    /**
+     * One sensor's FIFO has been delivered, after the events it held. Once all of them have,
+     * the mode change that asked for the flush goes ahead.
+     */
+    @Override
+    public void onFlushCompleted(Sensor sensor) {
+        if (pendingFlushes.decrementAndGet() == 0) {
+            mainHandler.removeCallbacks(applyMode);
+            mainHandler.post(applyMode);
+        }
+    }
+
+    private void publish(float azimuth, boolean aligned, int steps, long timestampNanos) {
+        int s = sequence;
+        sequence = s + 1; // Odd: write in progress
+        publishedAzimuth = azimuth;
+        publishedAligned = aligned;
+        publishedSteps = steps;
+        publishedTimestamp = timestampNanos;
+        ParticleFilter filter = pipeline.getParticleFilter();
+        if (filter != null) {
+            publishedLegMeters = filter.getProgressMeters();
+            publishedLegConfidence = filter.getConfidence();
+            publishedOnLeg = filter.getOnLegProbability();
+        }
+        sequence = s + 2;
+    }
+
+    // --- Any thread ---
+
+    /**
+     * Copies the latest published state into {@code out} without locking.
+     * @return false if nothing has been published yet.
+     */
+    public boolean readSnapshot(Snapshot out) {
+        while (true) {
+            int before = sequence;
+            if (before == 0) return false;
+            if ((before & 1) != 0) {
+                Thread.yield(); // Writer is mid-update; it never blocks, so this is brief
+                continue;
+            }
+            out.azimuthDegrees = publishedAzimuth;
+            out.aligned = publishedAligned;
+            out.stepsTaken = publishedSteps;
+            out.timestampNanos = publishedTimestamp;
+            out.legMeters = publishedLegMeters;
+            out.legConfidence = publishedLegConfidence;
+            out.onLegProbability = publishedOnLeg;
+            if (sequence == before) {
+                out.sequence = before;
+                return true;
+            }
+        }
+    }
+}
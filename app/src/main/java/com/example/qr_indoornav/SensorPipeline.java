@@ -0,0 +1,296 @@
+package com.example.qr_indoornav;
+
+/**
+ * The sensor processing that runs for every event: orientation fusion, the alignment check,
+ * step detection and, if a {@link ParticleFilter} is set, position tracking on the map.
+ * Everything is driven by event time, never the wall clock, so the same sequence of events always
+ * produces the same heading and step count. {@link SensorHub} runs it on device;
+ * SensorTraceReplay (unit tests and benchmark) runs it on recorded traces on the JVM. Both tick
+ * it on event time through {@link #advanceTo}, however the events were batched on delivery.
+ *
+ * No Android dependencies and not thread-safe: one thread drives it.
+ */
+public class SensorPipeline {
+
+    // Same values as the android.hardware.Sensor constants, so event types pass straight through.
+    public static final int TYPE_ACCELEROMETER = 1;
+    public static final int TYPE_MAGNETIC_FIELD = 2;
+    public static final int TYPE_GYROSCOPE = 4;
+    public static final int TYPE_ROTATION_VECTOR = 11;
+    public static final int TYPE_GAME_ROTATION_VECTOR = 15;
+    public static final int TYPE_STEP_DETECTOR = 18;
+    public static final int TYPE_STEP_COUNTER = 19;
+
+    /** Period of the fixed-rate {@link #tick}: the heading is published at 50 Hz. */
+    public static final long TICK_PERIOD_MS = 20;
+
+    // --- Heading offset measured over a leg (see getLegHeadingOffset) ---
+    private static final int DEPARTURE_TICKS = 100;       // The first 2 s of walking, still near the junction
+    private static final int MIN_OFFSET_TICKS = 50;       // At least 1 s of walking
+    private static final double MIN_STEADINESS = 0.9;     // Mean resultant length of the offsets; lower is a wandering heading
+
+    private final HeadingFusion fusion = new HeadingFusion();
+    private final StepDetector stepDetector;
+    private StepSource stepSource;
+    private ParticleFilter particleFilter; // Null unless positions are tracked on the map
+    private int filteredSteps = 0;         // Steps already fed to the particle filter
+
+    private float targetDegree = 0f;
+    private float headingOffset = 0f; // Local magnetic disturbance: fused heading minus true heading
+    private boolean countSteps = false;
+    private boolean hasRotationVector = false; // The platform's fused orientation makes accel/mag redundant
+    private boolean aligned = false;
+    private long nextTickNanos = Long.MIN_VALUE; // Event time of the next fixed-rate tick
+
+    // --- Walking statistics, over the ticks with step counting on ---
+    private int alignmentLosses = 0;          // Aligned-to-unaligned transitions, each one an aborted leg on device
+    private boolean countingAligned = true;   // Alignment at the previous counting tick
+    private double legSin, legCos;            // Sums of the raw heading's offset from the target, as unit vectors
+    private int legTicks;
+    private double departureSin, departureCos;
+    private int departureTicks;
+
+    public SensorPipeline(StepDetector stepDetector) {
+        this.stepDetector = stepDetector;
+        this.stepSource = new StepSource.Software(stepDetector);
+    }
+
+    /** Clears the orientation state and the step source's session state; the StepDetector is left alone. */
+    public void reset() {
+        fusion.reset();
+        stepSource.reset();
+        hasRotationVector = false;
+        aligned = false;
+        nextTickNanos = Long.MIN_VALUE;
+    }
+
+    public void setTargetDegree(float targetDegree) {
+        this.targetDegree = targetDegree;
+    }
+
+    public float getTargetDegree() {
+        return targetDegree;
+    }
+
+    /**
+     * Sets the local heading error to correct for: the fused heading minus the true one, e.g.
+     * from a {@link HeadingCalibration}. The alignment check, the published heading and the
+     * particle filter all see the corrected heading.
+     */
+    public void setHeadingOffset(float headingOffset) {
+        this.headingOffset = headingOffset;
+    }
+
+    public float getHeadingOffset() {
+        return headingOffset;
+    }
+
+    /**
+     * The target in the frame of the fused orientation, i.e. with the heading offset put back.
+     * For consumers that work on the raw rotation, such as the {@link StepEngine}.
+     */
+    public float getRawTargetDegree() {
+        return targetDegree + headingOffset;
+    }
+
+    public void setStepCounting(boolean countSteps) {
+        if (countSteps && !this.countSteps) {
+            countingAligned = true; // A fresh start: the first unaligned tick is a loss
+        }
+        this.countSteps = countSteps;
+    }
+
+    public boolean isStepCounting() {
+        return countSteps;
+    }
+
+    /** Selects where steps come from; {@link StepSource.Software} unless a hardware sensor is used. */
+    public void setStepSource(StepSource stepSource) {
+        this.stepSource = stepSource;
+    }
+
+    public StepSource getStepSource() {
+        return stepSource;
+    }
+
+    /** Feeds every counted step, with the heading, to {@code particleFilter}; null stops it. */
+    public void setParticleFilter(ParticleFilter particleFilter) {
+        this.particleFilter = particleFilter;
+        this.filteredSteps = stepDetector.getStepsTaken();
+    }
+
+    public ParticleFilter getParticleFilter() {
+        return particleFilter;
+    }
+
+    /**
+     * Starts a leg: clears the leg's heading statistics and restarts position tracking. Steps
+     * counted so far are taken to be before the leg.
+     * @return false if there is no particle filter or it cannot place the leg.
+     */
+    public boolean startLeg(String fromId, String toId) {
+        legSin = legCos = 0;
+        legTicks = 0;
+        departureSin = departureCos = 0;
+        departureTicks = 0;
+        if (particleFilter == null) return false;
+        filteredSteps = stepDetector.getStepsTaken();
+        return particleFilter.startLeg(fromId, toId);
+    }
+
+    /**
+     * Feeds one raw sensor event.
+     * @param type One of the TYPE_ constants; other types are ignored.
+     * @param values The event values, as delivered by the sensor.
+     * @param timestampNanos The event's own timestamp ({@code SensorEvent.timestamp}).
+     */
+    public void onSensorEvent(int type, float[] values, long timestampNanos) {
+        switch (type) {
+            case TYPE_ROTATION_VECTOR:
+                hasRotationVector = true;
+                fusion.onRotationVector(values);
+                break;
+            case TYPE_GAME_ROTATION_VECTOR:
+                fusion.onGameRotationVector(values);
+                break;
+            case TYPE_GYROSCOPE:
+                fusion.onGyroscope(values, timestampNanos);
+                break;
+            case TYPE_MAGNETIC_FIELD:
+                if (!hasRotationVector) {
+                    fusion.onMagnetometer(values, timestampNanos);
+                }
+                break;
+            case TYPE_ACCELEROMETER:
+                if (!hasRotationVector) {
+                    fusion.onAccelerometer(values, timestampNanos);
+                }
+                break;
+        }
+        if (type == stepSource.sensorType()) {
+            stepSource.onEvent(this, values, timestampNanos, aligned && countSteps && fusion.hasOrientation());
+            if (particleFilter != null) {
+                feedSteps();
+            }
+        }
+    }
+
+    /** Hands steps counted since the last call to the particle filter, one at a time. */
+    private void feedSteps() {
+        int steps = stepDetector.getStepsTaken();
+        if (steps < filteredSteps) {
+            filteredSteps = steps; // The count was reset
+        }
+        for (; filteredSteps < steps; filteredSteps++) {
+            particleFilter.onStep((float) stepDetector.getLastStepLengthMeters(), getHeading());
+        }
+    }
+
+    /**
+     * Processes a batch of events in order, ticking on event time before each one.
+     * @return whether the heading was ticked, i.e. there is new state to publish.
+     */
+    public boolean processBatch(SensorBatch batch) {
+        boolean ticked = false;
+        for (int i = 0, n = batch.size(); i < n; i++) {
+            long timestampNanos = batch.timestampAt(i);
+            ticked |= advanceTo(timestampNanos);
+            onSensorEvent(batch.typeAt(i), batch.valuesAt(i), timestampNanos);
+        }
+        return ticked;
+    }
+
+    /**
+     * Runs every {@link #TICK_PERIOD_MS} tick due up to {@code timestampNanos}. Call with each
+     * event's time before feeding the event; the first call only sets the tick phase.
+     * @return whether any tick produced a heading.
+     */
+    public boolean advanceTo(long timestampNanos) {
+        long period = TICK_PERIOD_MS * 1_000_000L;
+        if (nextTickNanos == Long.MIN_VALUE) {
+            nextTickNanos = timestampNanos + period;
+            return false;
+        }
+        boolean ticked = false;
+        while (nextTickNanos <= timestampNanos) {
+            ticked |= tick(nextTickNanos);
+            nextTickNanos += period;
+        }
+        return ticked;
+    }
+
+    /**
+     * Advances the smoothed heading and re-evaluates alignment. Call at a fixed rate of event
+     * time, normally through {@link #advanceTo}.
+     * @return false while no orientation is known yet.
+     */
+    public boolean tick(long timestampNanos) {
+        if (!fusion.tick(timestampNanos)) return false;
+        aligned = stepDetector.isAlignedWithTarget(getHeading(), targetDegree);
+        if (countSteps) {
+            if (!aligned && countingAligned) {
+                alignmentLosses++;
+            }
+            countingAligned = aligned;
+            double offset = Math.toRadians(fusion.getHeading() - targetDegree);
+            double sin = Math.sin(offset), cos = Math.cos(offset);
+            legSin += sin;
+            legCos += cos;
+            legTicks++;
+            if (departureTicks < DEPARTURE_TICKS) {
+                departureSin += sin;
+                departureCos += cos;
+                departureTicks++;
+            }
+        }
+        return true;
+    }
+
+    /** Smoothed heading (0-360) as of the last {@link #tick}, corrected by the heading offset. */
+    public float getHeading() {
+        float heading = (fusion.getHeading() - headingOffset) % 360f;
+        return heading < 0f ? heading + 360f : heading;
+    }
+
+    /**
+     * How far the uncorrected heading sat from the target while walking this leg (see
+     * {@link #startLeg}), in degrees (-180 to 180). When the leg ends at the right checkpoint,
+     * this is the local magnetic disturbance along it.
+     * @return NaN after less than a second of walking, or if the heading wandered too much.
+     */
+    public float getLegHeadingOffset() {
+        return meanOffset(legSin, legCos, legTicks);
+    }
+
+    /** As {@link #getLegHeadingOffset()}, over the first two seconds of walking only: the junction the leg left from. */
+    public float getDepartureHeadingOffset() {
+        return meanOffset(departureSin, departureCos, departureTicks);
+    }
+
+    private static float meanOffset(double sin, double cos, int ticks) {
+        if (ticks < MIN_OFFSET_TICKS || Math.hypot(sin, cos) / ticks < MIN_STEADINESS) return Float.NaN;
+        return (float) Math.toDegrees(Math.atan2(sin, cos));
+    }
+
+    /**
+     * Times the heading left the alignment margin while steps were being counted. On device,
+     * each one ends the leg with a deviation and sends the user back to realign.
+     */
+    public int getAlignmentLosses() {
+        return alignmentLosses;
+    }
+
+    /** Fused device-to-world rotation (row-major 3x3) as of the latest orientation event. */
+    public float[] getRotationMatrix() {
+        return fusion.getRotationMatrix();
+    }
+
+    /** Whether the heading was within the alignment margin of the target at the last {@link #tick}. */
+    public boolean isAligned() {
+        return aligned;
+    }
+
+    public StepDetector getStepDetector() {
+        return stepDetector;
+    }
+}
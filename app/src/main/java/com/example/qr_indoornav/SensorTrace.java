@@ -0,0 +1,158 @@
+package com.example.qr_indoornav;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+/**
+ * Compact binary recording of the input to a {@link SensorPipeline}: raw sensor events with
+ * their own timestamps, plus the control changes (target direction, step counting, step
+ * count resets) in the order the pipeline saw them. Replaying a trace through a fresh pipeline
+ * reproduces the recorded session without a device.
+ *
+ * Format, big-endian: the int {@link #MAGIC} and a short version, then records. Each record is a
+ * kind byte and a long timestamp in nanoseconds, followed by
+ * <ul>
+ *     <li>{@link #KIND_SENSOR}: sensor type byte, value count byte, that many floats;</li>
+ *     <li>{@link #KIND_TARGET}: target direction float;</li>
+ *     <li>{@link #KIND_STEP_COUNTING}: boolean byte;</li>
+ *     <li>{@link #KIND_RESET}: initial step count int.</li>
+ * </ul>
+ * A three-axis event takes 23 bytes, so a ten-minute walk at 50 Hz per sensor is a few MB.
+ */
+public final class SensorTrace {
+
+    public static final int MAGIC = 0x51525452; // "QRTR"
+    public static final short VERSION = 1;
+    public static final String FILE_EXTENSION = ".qrtrace";
+
+    public static final byte KIND_SENSOR = 1;
+    public static final byte KIND_TARGET = 2;
+    public static final byte KIND_STEP_COUNTING = 3;
+    public static final byte KIND_RESET = 4;
+
+    private static final int MAX_VALUES = 16;
+
+    private SensorTrace() {}
+
+    /** Appends records to a file. Not thread-safe; write from the thread that drives the pipeline. */
+    public static final class Writer implements AutoCloseable {
+        private final DataOutputStream out;
+
+        public Writer(File file) throws IOException {
+            this(new FileOutputStream(file));
+        }
+
+        public Writer(OutputStream stream) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+        }
+
+        public void sensor(int type, float[] values, long timestampNanos) throws IOException {
+            int count = Math.min(values.length, MAX_VALUES);
+            out.writeByte(KIND_SENSOR);
+            out.writeLong(timestampNanos);
+            out.writeByte(type);
+            out.writeByte(count);
+            for (int i = 0; i < count; i++) {
+                out.writeFloat(values[i]);
+            }
+        }
+
+        public void target(float degrees, long timestampNanos) throws IOException {
+            out.writeByte(KIND_TARGET);
+            out.writeLong(timestampNanos);
+            out.writeFloat(degrees);
+        }
+
+        public void stepCounting(boolean enabled, long timestampNanos) throws IOException {
+            out.writeByte(KIND_STEP_COUNTING);
+            out.writeLong(timestampNanos);
+            out.writeBoolean(enabled);
+        }
+
+        public void reset(int initialSteps, long timestampNanos) throws IOException {
+            out.writeByte(KIND_RESET);
+            out.writeLong(timestampNanos);
+            out.writeInt(initialSteps);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads a whole trace from memory. {@link #next} advances to the next record and fills the
+     * public fields; {@link #values} is reused between records.
+     */
+    public static final class Reader {
+        private final ByteBuffer buffer;
+
+        public byte kind;
+        public long timestampNanos;
+        public int sensorType;
+        public final float[] values = new float[MAX_VALUES];
+        public int valueCount;
+        public float targetDegree;
+        public boolean stepCounting;
+        public int initialSteps;
+
+        public Reader(byte[] data) throws IOException {
+            buffer = ByteBuffer.wrap(data); // Big-endian by default, matching DataOutputStream
+            if (buffer.remaining() < 6 || buffer.getInt() != MAGIC) {
+                throw new IOException("Not a sensor trace");
+            }
+            short version = buffer.getShort();
+            if (version != VERSION) {
+                throw new IOException("Unsupported sensor trace version " + version);
+            }
+        }
+
+        public static Reader open(File file) throws IOException {
+            return new Reader(Files.readAllBytes(file.toPath()));
+        }
+
+        /**
+         * @return false at the end of the trace. A record cut off by an unclean stop is treated as the end.
+         */
+        public boolean next() {
+            if (buffer.remaining() < 9) return false;
+            int start = buffer.position();
+            kind = buffer.get();
+            timestampNanos = buffer.getLong();
+            try {
+                switch (kind) {
+                    case KIND_SENSOR:
+                        sensorType = buffer.get() & 0xFF;
+                        valueCount = buffer.get() & 0xFF;
+                        for (int i = 0; i < valueCount; i++) {
+                            values[i] = buffer.getFloat();
+                        }
+                        return true;
+                    case KIND_TARGET:
+                        targetDegree = buffer.getFloat();
+                        return true;
+                    case KIND_STEP_COUNTING:
+                        stepCounting = buffer.get() != 0;
+                        return true;
+                    case KIND_RESET:
+                        initialSteps = buffer.getInt();
+                        return true;
+                    default:
+                        return false; // Unknown record: the rest cannot be framed
+                }
+            } catch (java.nio.BufferUnderflowException e) {
+                buffer.position(start);
+                return false;
+            }
+        }
+    }
+}
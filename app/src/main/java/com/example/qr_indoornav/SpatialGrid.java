@@ -0,0 +1,152 @@
+package com.example.qr_indoornav;
+
+import java.util.Arrays;
+
+/**
+ * A uniform grid over axis-aligned item bounds, used by {@link MapView} to find the
+ * junctions, rooms and edges inside the visible viewport without touching the rest.
+ *
+ * Items are added once with {@link #add}, then {@link #build()} packs the cells into flat
+ * arrays. Queries never allocate: results go into an internal buffer that is reused
+ * across calls, and items spanning several cells are de-duplicated with a query stamp.
+ * Not thread-safe; intended for the UI thread.
+ */
+public class SpatialGrid {
+
+    private final float originX, originY;
+    private final float cellSize;
+    private final int columns, rows;
+
+    // Item bounds, appended by add().
+    private float[] bounds = new float[64];
+    private int itemCount = 0;
+
+    // Packed cells after build(): items of cell c are cellItems[cellStart[c] .. cellStart[c + 1]).
+    private int[] cellStart;
+    private int[] cellItems;
+
+    // Query state.
+    private int[] lastSeenStamp;
+    private int stamp = 0;
+    private int[] results = new int[64];
+    private int resultCount = 0;
+
+    /**
+     * @param minX Left edge of the indexed area.
+     * @param minY Top edge of the indexed area.
+     * @param maxX Right edge of the indexed area.
+     * @param maxY Bottom edge of the indexed area.
+     * @param targetCells Approximate number of cells to split the area into.
+     */
+    public SpatialGrid(float minX, float minY, float maxX, float maxY, int targetCells) {
+        float width = Math.max(1f, maxX - minX);
+        float height = Math.max(1f, maxY - minY);
+        this.originX = minX;
+        this.originY = minY;
+        this.cellSize = (float) Math.max(1.0, Math.sqrt(width * height / Math.max(1, targetCells)));
+        this.columns = Math.max(1, (int) Math.ceil(width / cellSize));
+        this.rows = Math.max(1, (int) Math.ceil(height / cellSize));
+    }
+
+    /**
+     * Adds an item. Ids are assigned in insertion order starting at 0.
+     * @return The id of the new item.
+     */
+    public int add(float minX, float minY, float maxX, float maxY) {
+        if (cellStart != null) {
+            throw new IllegalStateException("SpatialGrid is already built.");
+        }
+        if ((itemCount + 1) * 4 > bounds.length) {
+            bounds = Arrays.copyOf(bounds, bounds.length * 2);
+        }
+        int base = itemCount * 4;
+        bounds[base] = Math.min(minX, maxX);
+        bounds[base + 1] = Math.min(minY, maxY);
+        bounds[base + 2] = Math.max(minX, maxX);
+        bounds[base + 3] = Math.max(minY, maxY);
+        return itemCount++;
+    }
+
+    /** Packs all added items into their cells. Must be called once, before querying. */
+    public void build() {
+        int cellCount = columns * rows;
+        int[] counts = new int[cellCount + 1];
+        for (int i = 0; i < itemCount; i++) {
+            int c0 = column(bounds[i * 4]), c1 = column(bounds[i * 4 + 2]);
+            int r0 = row(bounds[i * 4 + 1]), r1 = row(bounds[i * 4 + 3]);
+            for (int r = r0; r <= r1; r++) {
+                for (int c = c0; c <= c1; c++) {
+                    counts[r * columns + c + 1]++;
+                }
+            }
+        }
+        for (int c = 0; c < cellCount; c++) {
+            counts[c + 1] += counts[c];
+        }
+        cellStart = counts;
+        cellItems = new int[counts[cellCount]];
+        int[] fill = Arrays.copyOf(counts, cellCount);
+        for (int i = 0; i < itemCount; i++) {
+            int c0 = column(bounds[i * 4]), c1 = column(bounds[i * 4 + 2]);
+            int r0 = row(bounds[i * 4 + 1]), r1 = row(bounds[i * 4 + 3]);
+            for (int r = r0; r <= r1; r++) {
+                for (int c = c0; c <= c1; c++) {
+                    cellItems[fill[r * columns + c]++] = i;
+                }
+            }
+        }
+        lastSeenStamp = new int[itemCount];
+    }
+
+    /**
+     * Collects every item whose bounds intersect the given rectangle.
+     * Read the hits with {@link #getResult(int)}; they stay valid until the next query.
+     * @return The number of hits.
+     */
+    public int query(float left, float top, float right, float bottom) {
+        resultCount = 0;
+        if (cellStart == null || itemCount == 0) return 0;
+        if (++stamp == 0) { // Stamp wrapped around; forget all previous marks.
+            Arrays.fill(lastSeenStamp, 0);
+            stamp = 1;
+        }
+        int c0 = column(left), c1 = column(right);
+        int r0 = row(top), r1 = row(bottom);
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                int cell = r * columns + c;
+                for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                    int item = cellItems[k];
+                    if (lastSeenStamp[item] == stamp) continue;
+                    lastSeenStamp[item] = stamp;
+                    int base = item * 4;
+                    if (bounds[base] > right || bounds[base + 2] < left
+                            || bounds[base + 1] > bottom || bounds[base + 3] < top) continue;
+                    if (resultCount == results.length) {
+                        results = Arrays.copyOf(results, results.length * 2);
+                    }
+                    results[resultCount++] = item;
+                }
+            }
+        }
+        return resultCount;
+    }
+
+    public int getResult(int index) {
+        return results[index];
+    }
+
+    public int size() {
+        return itemCount;
+    }
+
+    private int column(float x) {
+        int c = (int) ((x - originX) / cellSize);
+        return Math.max(0, Math.min(columns - 1, c));
+    }
+
+    private int row(float y) {
+        int r = (int) ((y - originY) / cellSize);
+        return Math.max(0, Math.min(rows - 1, r));
+    }
+}
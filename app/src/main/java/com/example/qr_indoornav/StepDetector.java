@@ -1,7 +1,5 @@
 package com.example.qr_indoornav;
 
-import android.hardware.SensorManager;
-
 /**
  * A unified module for handling step detection, alignment checks, and related calibration.
  *
@@ -37,25 +35,27 @@ public class StepDetector {
 
     // --- REFINED STEP DETECTION CONSTANTS ---
     private static final long STEP_TIME_GATE_MS = 800; // Increased minimum time between steps to better filter out shakes.
-    private static final float STEP_DETECTION_LOWER_THRESHOLD_FACTOR = 0.9f; // A step is confirmed when magnitude drops below this factor of the dynamic threshold.
+    private static final float GRAVITY = 9.81f;
 
     // --- DIRECTIONAL DEVIATION CONSTANTS ---
     private static final int ALIGNMENT_DEGREE_MARGIN = 15; // Tolerance (degrees) for static alignment before starting to walk.
-    private static final int MOVEMENT_DIRECTION_MARGIN_DEGREES = 45; // Max allowed deviation (degrees) for a step to be considered "forward"
     private static final int OFF_DIRECTION_TOLERANCE = 3; // Number of consecutive off-direction steps before flagging for realignment.
     private static final long OFF_DIRECTION_RESET_TIME_MS = 2000; // If 2 seconds pass without an off-direction step, the counter resets.
 
     // --- State Variables ---
-    public static double step_length_meter = 5; // The estimated distance of one step in meters
+    public static double step_length_meter = 5; // Length of one step in meters before any calibration
 
-    private float dynamicThreshold; // Accelerometer magnitude threshold, adjusted by height
-    private long lastStepTime = 0; // Timestamp of the last detected valid step
+    private final StepEngine engine = new StepEngine(); // Peak/valley and direction over a window of samples
+    private final StepLengthEstimator stepLength = new StepLengthEstimator(step_length_meter); // Learned per user
     private int stepsTaken = 0; // Total steps counted since the last reset
+    private double metersCovered = 0; // Sum of the counted steps' lengths since the last reset
+    private double featureSum = 0; // Sum of the counted steps' amplitude terms, for calibration
+    private double lastStepMeters = step_length_meter; // Length of the most recent counted step
 
     // --- NEW State Variables for Refined Detection ---
-    private boolean isPeakDetected = false; // Tracks if the 'peak' of a step's acceleration has been detected.
     private int consecutiveOffDirectionSteps = 0; // Counter for steps taken in the wrong direction.
     private long lastOffDirectionStepTime = 0; // Timestamp of the last off-direction step.
+    private long lastCountedStepNanos = Long.MIN_VALUE / 2; // Event time of the last step passed to countSteps.
 
     /**
      * Constructor for the StepDetector.
@@ -63,6 +63,7 @@ public class StepDetector {
      */
     public StepDetector(OnStepListener listener) {
         this.listener = listener;
+        engine.setMinStepIntervalNanos(STEP_TIME_GATE_MS * 1_000_000L);
         // Calibrate with a default user height when the detector is created.
         calibrate(DEFAULT_USER_HEIGHT_CM);
     }
@@ -79,7 +80,9 @@ public class StepDetector {
         float baseThreshold = 11.0f; // A typical acceleration magnitude for a step (m/s^2)
         float sensitivity = 0.05f;   // How much the threshold changes per cm of height difference
 
-        this.dynamicThreshold = baseThreshold + (userHeightCm - 170.0f) * sensitivity;
+        float dynamicThreshold = baseThreshold + (userHeightCm - 170.0f) * sensitivity;
+        // The engine's thresholds adapt to the walker; this sets how far above resting gravity a peak must reach.
+        engine.setMinimumSwing(dynamicThreshold - GRAVITY);
     }
 
     /**
@@ -99,22 +102,26 @@ public class StepDetector {
     }
 
     /**
-     * Processes raw accelerometer data to detect steps using a peak-and-valley algorithm.
-     * A step is counted if:
-     * 1. The acceleration magnitude surpasses a dynamic threshold (the "peak").
-     * 2. The magnitude then drops below a lower threshold (the "valley").
+     * Processes one accelerometer sample. Detection is done by a {@link StepEngine}: an adaptive
+     * peak-and-valley over a window of recent samples, with the step's direction judged over the
+     * whole window. A step is counted if:
+     * 1. The smoothed acceleration magnitude rises clearly above its running mean (the "peak").
+     * 2. It then falls below the mean (the "valley").
      * 3. The time since the last step is sufficient (time gate).
-     * 4. The step's orientation is in the general forward direction of travel.
+     * 4. The step's motion runs along the target direction.
      *
      * It also tracks consecutive off-direction steps to determine if realignment is needed.
      *
      * @param acceleration The 3-axis (X, Y, Z) accelerometer data (m/s^2).
-     * @param rotationMatrix The current 9-element rotation matrix of the device,
-     *                       used to transform accelerometer data to world coordinates.
+     * @param rotationMatrix The current 9-element rotation matrix of the device, normally the fused
+     *                       orientation from {@link HeadingFusion}, used to transform accelerometer
+     *                       data to world coordinates.
      * @param targetDirection The compass direction (0-360 degrees) the user is intended to walk towards.
+     * @param timestampNanos The sample's event time ({@code SensorEvent.timestamp}). All timing uses
+     *                       this rather than the wall clock, so recorded traces replay identically.
      */
-    public void processSensorData(float[] acceleration, float[] rotationMatrix, float targetDirection) {
-        long now = System.currentTimeMillis();
+    public void processSensorData(float[] acceleration, float[] rotationMatrix, float targetDirection, long timestampNanos) {
+        long now = timestampNanos / 1_000_000L;
 
         // Automatically reset the off-direction counter if the user has been walking correctly
         // or has stopped for a couple of seconds.
@@ -122,84 +129,84 @@ public class StepDetector {
             consecutiveOffDirectionSteps = 0;
         }
 
-        // 1. Time Gate: Prevents counting a single step multiple times.
-        if (now - lastStepTime < STEP_TIME_GATE_MS) {
-            return;
-        }
-
-        // 2. Magnitude Calculation: Calculate the overall force (magnitude) of acceleration.
-        float magnitude = (float) Math.sqrt(
-                acceleration[0] * acceleration[0] +
-                        acceleration[1] * acceleration[1] +
-                        acceleration[2] * acceleration[2]
-        );
-
-        // 3. Peak and Valley Detection Logic
-        // Check for the peak of the step
-        if (!isPeakDetected && magnitude > dynamicThreshold) {
-            isPeakDetected = true;
-        }
-        // Check for the valley (end of the step) after a peak has been detected
-        else if (isPeakDetected && magnitude < (dynamicThreshold * STEP_DETECTION_LOWER_THRESHOLD_FACTOR)) {
-            // A potential step motion is complete. Now, check its direction.
-            if (isStepInForwardDirection(acceleration, rotationMatrix, targetDirection)) {
-                // --- VALID STEP IN CORRECT DIRECTION ---
-                lastStepTime = now;
-                stepsTaken++;
+        int result = engine.process(acceleration, rotationMatrix, targetDirection, timestampNanos);
+        if (result == StepEngine.STEP_FORWARD) {
+            // --- VALID STEP IN CORRECT DIRECTION ---
+            stepsTaken++;
+            addSteps(1, stepLength.feature(engine.getLastStepAmplitude()));
 
-                // A correct step resets the off-direction counter.
-                consecutiveOffDirectionSteps = 0;
+            // A correct step resets the off-direction counter.
+            consecutiveOffDirectionSteps = 0;
 
-                // Notify the listener that a valid step has occurred.
-                if (listener != null) {
-                    listener.onStep(stepsTaken);
-                }
-            } else {
-                // --- STEP-LIKE MOTION IN WRONG DIRECTION ---
-                // This was a step, but not towards the target. Increment the off-direction counter.
-                consecutiveOffDirectionSteps++;
-                lastOffDirectionStepTime = now;
+            // Notify the listener that a valid step has occurred.
+            if (listener != null) {
+                listener.onStep(stepsTaken);
             }
-
-            // Reset the peak detector to be ready for the next step.
-            isPeakDetected = false;
+        } else if (result == StepEngine.STEP_OFF_DIRECTION) {
+            // --- STEP-LIKE MOTION IN WRONG DIRECTION ---
+            // This was a step, but not towards the target. Increment the off-direction counter.
+            consecutiveOffDirectionSteps++;
+            lastOffDirectionStepTime = now;
         }
     }
 
     /**
-     * Determines if the detected acceleration jolt (step) was primarily in the forward direction.
-     * This uses the device's rotation matrix to transform the acceleration vector from
-     * the phone's local coordinate system to the Earth's (world) coordinate system.
-     * @param acceleration The 3-axis accelerometer data in the device's coordinate system.
-     * @param currentRotationMatrix The 9-element rotation matrix representing the device's orientation.
-     * @param targetDirection The intended direction of movement (compass degrees).
-     * @return true if the horizontal component of the acceleration aligns with the target direction.
+     * Counts steps found by a hardware step sensor (see {@link StepSource}). The caller has
+     * already checked the heading, so these steps are in the target direction. The same time gate
+     * as {@link #processSensorData} applies, so a step means the same distance whichever backend
+     * found it: a batch of n steps counts at most one step per gate interval since the last one,
+     * and the first batch after a reset counts at most one step.
+     *
+     * @param steps Number of steps the sensor reported.
+     * @param timestampNanos The event time of the sensor event.
      */
-    private boolean isStepInForwardDirection(float[] acceleration, float[] currentRotationMatrix, float targetDirection) {
-        float[] accelerationInWorldCoords = new float[3];
+    public void countSteps(int steps, long timestampNanos) {
+        long gateNanos = STEP_TIME_GATE_MS * 1_000_000L;
+        long allowed = lastCountedStepNanos == Long.MIN_VALUE / 2
+                ? 1 : (timestampNanos - lastCountedStepNanos) / gateNanos;
+        int counted = (int) Math.min(steps, allowed);
+        if (counted <= 0) {
+            return;
+        }
+        lastCountedStepNanos = timestampNanos;
+        stepsTaken += counted;
+        addSteps(counted, stepLength.feature(0f)); // No amplitude: average steps
+        consecutiveOffDirectionSteps = 0;
+        if (listener != null) {
+            listener.onStep(stepsTaken);
+        }
+    }
 
-        // Transform acceleration from device coordinates to world coordinates.
-        // We only care about the X and Y components (horizontal movement).
-        // R[0], R[1], R[2] are for World X (East)
-        // R[3], R[4], R[5] are for World Y (North)
-        accelerationInWorldCoords[0] = currentRotationMatrix[0] * acceleration[0] + currentRotationMatrix[1] * acceleration[1] + currentRotationMatrix[2] * acceleration[2]; // World X
-        accelerationInWorldCoords[1] = currentRotationMatrix[3] * acceleration[0] + currentRotationMatrix[4] * acceleration[1] + currentRotationMatrix[5] * acceleration[2]; // World Y
+    /** Adds {@code steps} steps of amplitude term {@code feature} to the leg's distance. */
+    private void addSteps(int steps, double feature) {
+        lastStepMeters = stepLength.stepLength(feature);
+        metersCovered += steps * lastStepMeters;
+        featureSum += steps * feature;
+    }
 
-        // Calculate the azimuth (direction) of this horizontal movement.
-        // atan2(x, y) gives the angle from the +Y axis (North).
-        float movementAzimuth = (float) Math.toDegrees(Math.atan2(accelerationInWorldCoords[0], accelerationInWorldCoords[1]));
-        if (movementAzimuth < 0) {
-            movementAzimuth += 360; // Normalize to 0-360 degrees
-        }
+    /**
+     * Fits the step length to the leg just walked: {@code distanceMeters} is its known length
+     * and the steps counted since the last reset were taken on it. Call before resetting for the
+     * next leg.
+     * @return whether the estimate changed (legs with too few steps are ignored).
+     */
+    public boolean calibrateStepLength(double distanceMeters) {
+        return stepLength.update(distanceMeters, featureSum, stepsTaken);
+    }
 
-        // Compare the movement direction with the target direction.
-        float difference = Math.abs(movementAzimuth - targetDirection);
-        if (difference > 180) {
-            difference = 360 - difference; // Find the shortest angular difference
-        }
+    /** The learned step-length model, e.g. to save or restore its state. */
+    public StepLengthEstimator getStepLengthEstimator() {
+        return stepLength;
+    }
+
+    /** Length of an average step for this user, in meters. */
+    public double getStepLengthMeters() {
+        return stepLength.getMeanStepLength();
+    }
 
-        // If the movement direction is within the allowed margin of error from the target direction.
-        return difference <= MOVEMENT_DIRECTION_MARGIN_DEGREES;
+    /** Length of the most recent counted step, in meters. */
+    public double getLastStepLengthMeters() {
+        return lastStepMeters;
     }
 
     /**
@@ -222,10 +229,12 @@ public class StepDetector {
      */
     public void reset(int initialSteps) {
         this.stepsTaken = initialSteps;
-        this.lastStepTime = 0;
-        this.isPeakDetected = false;
+        this.metersCovered = initialSteps * stepLength.getMeanStepLength();
+        this.featureSum = initialSteps * stepLength.feature(0f);
+        this.engine.reset();
         this.consecutiveOffDirectionSteps = 0;
         this.lastOffDirectionStepTime = 0;
+        this.lastCountedStepNanos = Long.MIN_VALUE / 2;
     }
 
     /**
@@ -237,11 +246,12 @@ public class StepDetector {
     }
 
     /**
-     * Calculates the total distance covered in meters based on the steps taken.
+     * Calculates the total distance covered in meters: the sum of the steps' lengths, each from
+     * its own amplitude (see {@link StepLengthEstimator}).
      * @return The total distance in meters.
      */
     public double getMetersCovered() {
-        return stepsTaken * step_length_meter;
+        return metersCovered;
     }
 
     /**
@@ -251,6 +261,6 @@ public class StepDetector {
      */
     public int getRemainingSteps(int totalDistanceMeters) {
         double metersRemaining = Math.max(0, totalDistanceMeters - getMetersCovered());
-        return (int) Math.ceil(metersRemaining / step_length_meter);
+        return (int) Math.ceil(metersRemaining / getStepLengthMeters());
     }
 }
\ No newline at end of file
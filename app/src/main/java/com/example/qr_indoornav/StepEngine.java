@@ -0,0 +1,206 @@
+package com.example.qr_indoornav;
+
+/**
+ * Step detection over a window of recent samples.
+ *
+ * Every accelerometer sample is rotated to world coordinates and kept in a fixed-size ring
+ * buffer of primitive arrays. A step is a peak followed by a valley in the lightly smoothed
+ * acceleration magnitude. The peak and valley thresholds adapt to a running mean and variance,
+ * so they follow the walker and the phone instead of a fixed m/s^2 value. A minimum swing above
+ * the mean keeps a phone held still from triggering.
+ *
+ * Direction is judged over whole steps, not one sample. Walking surges and brakes along the
+ * direction of travel in step with the vertical bounce, while the body's side-to-side sway
+ * swaps sides every step. So over a window of the last two steps, the horizontal acceleration
+ * that covaries with the vertical acceleration gives the walking axis with the sway cancelled
+ * out. A step is off-direction only if that axis is clearly defined and
+ * more than {@link #DIRECTION_MARGIN_DEGREES} from the target. The axis is used without a sign,
+ * so a step backwards along the target line still counts; sideways motion and turns do not.
+ *
+ * No method allocates. Not thread-safe; one thread feeds it, as with {@link StepDetector}.
+ */
+public class StepEngine {
+
+    public static final int NO_STEP = 0;
+    public static final int STEP_FORWARD = 1;
+    public static final int STEP_OFF_DIRECTION = 2;
+
+    private static final int WINDOW = 256;              // Power of two; 5 s at SENSOR_DELAY_GAME
+    private static final int MASK = WINDOW - 1;
+    private static final float GRAVITY = 9.81f;
+    private static final float SMOOTHING = 0.35f;       // Per-sample low-pass on the magnitude
+    private static final float STATS_TAU_SECONDS = 2f;  // Running mean/variance time constant
+    private static final float PEAK_STD_FACTOR = 0.5f;
+    private static final float VALLEY_STD_FACTOR = 0.25f;
+    private static final float MIN_VALLEY_DEPTH = 0.3f; // m/s^2 below the mean
+    private static final long MAX_PEAK_NANOS = 1_500_000_000L; // A "peak" longer than this is not a step
+    private static final float DIRECTION_MARGIN_DEGREES = 45f;
+    private static final float MIN_AXIS_CORRELATION = 0.3f; // Below this the window has no clear walking axis
+
+    // --- Ring buffer of recent samples, indexed by sample number & MASK ---
+    private final float[] east = new float[WINDOW];
+    private final float[] north = new float[WINDOW];
+    private final float[] up = new float[WINDOW];       // Vertical, gravity included (it cancels in the covariance)
+    private long sampleCount = 0;
+
+    // --- Adaptive threshold state ---
+    private float smoothed = GRAVITY;
+    private float mean = GRAVITY;
+    private float variance = 0f;
+    private long lastTimestamp = 0;
+    private float minimumSwing = 1.2f;  // m/s^2 above the mean that a peak must reach
+    private long minStepIntervalNanos = 300_000_000L;
+
+    // --- Step state machine ---
+    private boolean inPeak = false;
+    private long peakStartNanos = 0;
+    private long windowStart = 0;       // Sample number where the current step begins
+    private long previousStart = 0;     // Where the step before it began
+    private long lastStepNanos = Long.MIN_VALUE / 2;
+
+    // --- Step amplitude: swing of the smoothed magnitude from the lowest point since the last step to the peak ---
+    private float stepMin = GRAVITY;
+    private float peakMax = GRAVITY;
+    private float lastStepAmplitude = 0f;
+
+    /** Minimum height of a peak above the running mean; larger for taller walkers. */
+    public void setMinimumSwing(float minimumSwing) {
+        this.minimumSwing = minimumSwing;
+    }
+
+    /** Steps closer together than this are treated as one. */
+    public void setMinStepIntervalNanos(long minStepIntervalNanos) {
+        this.minStepIntervalNanos = minStepIntervalNanos;
+    }
+
+    /** Forgets all samples and adaptive state. */
+    public void reset() {
+        sampleCount = 0;
+        smoothed = GRAVITY;
+        mean = GRAVITY;
+        variance = 0f;
+        lastTimestamp = 0;
+        inPeak = false;
+        windowStart = 0;
+        previousStart = 0;
+        lastStepNanos = Long.MIN_VALUE / 2;
+        stepMin = GRAVITY;
+        peakMax = GRAVITY;
+        lastStepAmplitude = 0f;
+    }
+
+    /**
+     * Peak-to-trough swing (m/s^2) of the smoothed acceleration magnitude over the step last
+     * returned by {@link #process}, for step-length models; 0 before the first step.
+     */
+    public float getLastStepAmplitude() {
+        return lastStepAmplitude;
+    }
+
+    /**
+     * Adds one accelerometer sample.
+     * @param acceleration Device-frame acceleration including gravity, m/s^2.
+     * @param rotationMatrix Row-major device-to-world rotation for this sample.
+     * @param targetDirection Compass direction (0-360) the user should be walking.
+     * @param timestampNanos Event time of the sample.
+     * @return {@link #NO_STEP}, {@link #STEP_FORWARD} or {@link #STEP_OFF_DIRECTION}.
+     */
+    public int process(float[] acceleration, float[] rotationMatrix, float targetDirection, long timestampNanos) {
+        float ax = acceleration[0], ay = acceleration[1], az = acceleration[2];
+        float[] r = rotationMatrix;
+        int slot = (int) (sampleCount & MASK);
+        east[slot] = r[0] * ax + r[1] * ay + r[2] * az;
+        north[slot] = r[3] * ax + r[4] * ay + r[5] * az;
+        up[slot] = r[6] * ax + r[7] * ay + r[8] * az;
+        long sample = sampleCount++;
+
+        float magnitude = (float) Math.sqrt(ax * ax + ay * ay + az * az);
+        smoothed += SMOOTHING * (magnitude - smoothed);
+
+        // Thresholds come from the statistics before this sample, so a peak cannot raise its own bar.
+        float std = (float) Math.sqrt(variance);
+        float peakThreshold = mean + Math.max(minimumSwing, PEAK_STD_FACTOR * std);
+        float valleyThreshold = mean - Math.max(MIN_VALLEY_DEPTH, VALLEY_STD_FACTOR * std);
+
+        float dt = lastTimestamp == 0 ? 0f : Math.min(0.5f, (timestampNanos - lastTimestamp) * 1e-9f);
+        lastTimestamp = timestampNanos;
+        float alpha = dt / (STATS_TAU_SECONDS + dt);
+        float deviation = smoothed - mean;
+        mean += alpha * deviation;
+        variance += alpha * (deviation * deviation - variance);
+        stepMin = Math.min(stepMin, smoothed);
+
+        if (!inPeak) {
+            if (smoothed > peakThreshold) {
+                inPeak = true;
+                peakStartNanos = timestampNanos;
+                peakMax = smoothed;
+            } else if (smoothed < mean && sample - windowStart >= WINDOW) {
+                windowStart = sample - WINDOW + 1; // Idle: keep the window start inside the buffer
+                previousStart = windowStart;
+            }
+            return NO_STEP;
+        }
+        if (timestampNanos - peakStartNanos > MAX_PEAK_NANOS) {
+            inPeak = false; // Sustained push, e.g. the phone being lifted
+            windowStart = sample;
+            previousStart = sample;
+            return NO_STEP;
+        }
+        peakMax = Math.max(peakMax, smoothed);
+        if (smoothed >= valleyThreshold) {
+            return NO_STEP;
+        }
+
+        // Valley reached: one step-like motion. Judge it together with the step before.
+        inPeak = false;
+        float amplitude = peakMax - stepMin;
+        stepMin = smoothed;
+        long first = Math.max(previousStart, sample - WINDOW + 1);
+        previousStart = windowStart;
+        windowStart = sample;
+        if (timestampNanos - lastStepNanos < minStepIntervalNanos) {
+            return NO_STEP;
+        }
+        lastStepNanos = timestampNanos;
+        lastStepAmplitude = amplitude;
+        return isWindowAlongTarget(first, sample, targetDirection) ? STEP_FORWARD : STEP_OFF_DIRECTION;
+    }
+
+    /** Walking-axis test over samples [first, last]: horizontal covariance with the vertical. */
+    private boolean isWindowAlongTarget(long first, long last, float targetDirection) {
+        int n = (int) (last - first + 1);
+        float meanEast = 0f, meanNorth = 0f, meanUp = 0f;
+        for (long s = first; s <= last; s++) {
+            int i = (int) (s & MASK);
+            meanEast += east[i];
+            meanNorth += north[i];
+            meanUp += up[i];
+        }
+        meanEast /= n;
+        meanNorth /= n;
+        meanUp /= n;
+
+        float covEast = 0f, covNorth = 0f, horizontal = 0f, vertical = 0f;
+        for (long s = first; s <= last; s++) {
+            int i = (int) (s & MASK);
+            float e = east[i] - meanEast, no = north[i] - meanNorth, u = up[i] - meanUp;
+            covEast += e * u;
+            covNorth += no * u;
+            horizontal += e * e + no * no;
+            vertical += u * u;
+        }
+
+        // Correlation between the vertical and the horizontal motion along the covariance axis.
+        float covariance = (float) Math.sqrt(covEast * covEast + covNorth * covNorth);
+        float scale = (float) Math.sqrt(horizontal * vertical);
+        if (scale <= 1e-6f || covariance < MIN_AXIS_CORRELATION * scale) {
+            return true; // No clear axis: give the step the benefit of the doubt
+        }
+
+        float bearing = (float) Math.toDegrees(Math.atan2(covEast, covNorth));
+        float difference = Math.abs(bearing - targetDirection) % 180f; // The axis is unsigned
+        if (difference > 90f) difference = 180f - difference;
+        return difference <= DIRECTION_MARGIN_DEGREES;
+    }
+}
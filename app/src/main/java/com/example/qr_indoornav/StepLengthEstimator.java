@@ -0,0 +1,100 @@
+package com.example.qr_indoornav;
+
+/**
+ * Per-user step length, learned from the checkpoints.
+ *
+ * Each step's length follows the Weinberg model, {@code length = gain * amplitude^(1/4)}, where
+ * the amplitude is the step's peak-to-trough acceleration swing ({@link StepEngine}). Longer
+ * strides bounce harder, so one gain fits a walker across paces. Hardware step sensors report
+ * no amplitude; their steps are taken to be average ones.
+ *
+ * Every confirmed checkpoint gives one measurement: the leg's known length against the sum of
+ * its steps' amplitude terms. The gain is fitted to these by recursive least squares, a scalar
+ * Kalman update, with a forgetting factor so it follows a walker whose pace changes. Legs with
+ * too few steps or an implausible implied step length are ignored. The state is four numbers,
+ * saved and restored through {@link #getState} and {@link #setState}.
+ *
+ * No Android dependencies and not thread-safe: one thread drives it.
+ */
+public class StepLengthEstimator {
+
+    /** Amplitude term of a typical walking step (a 4 m/s^2 swing), used until real steps are seen. */
+    static final double DEFAULT_FEATURE = Math.sqrt(2);
+
+    private static final double FORGETTING = 0.95;          // Per leg; about the last 20 legs count
+    private static final double LEG_SIGMA_METERS = 1.5;     // Error of a leg's length as walked (checkpoint placement)
+    private static final double FEATURE_SMOOTHING = 0.3;    // Per leg, for the mean amplitude term
+    private static final int MIN_LEG_STEPS = 3;
+    private static final double MIN_STEP_METERS = 0.2;
+    private static final double MAX_STEP_METERS = 10;
+
+    private double gain;          // Meters per unit of amplitude^(1/4)
+    private double gainVariance;  // RLS covariance of the gain
+    private double meanFeature;   // Mean amplitude term of this walker's steps
+    private int legs;             // Legs fitted so far
+
+    /** An uncalibrated estimator whose average step is {@code defaultStepMeters} long. */
+    public StepLengthEstimator(double defaultStepMeters) {
+        meanFeature = DEFAULT_FEATURE;
+        gain = defaultStepMeters / DEFAULT_FEATURE;
+        gainVariance = gain * gain; // A standard deviation as large as the guess itself
+        legs = 0;
+    }
+
+    /**
+     * Amplitude term of one step.
+     * @param amplitude The step's acceleration swing in m/s^2, or 0 if unknown (hardware steps).
+     */
+    public double feature(float amplitude) {
+        return amplitude > 0f ? Math.sqrt(Math.sqrt(amplitude)) : meanFeature;
+    }
+
+    /** Length in meters of a step with amplitude term {@code feature}. */
+    public double stepLength(double feature) {
+        return gain * feature;
+    }
+
+    /** Length of an average step, in meters. */
+    public double getMeanStepLength() {
+        return gain * meanFeature;
+    }
+
+    public int getLegCount() {
+        return legs;
+    }
+
+    /**
+     * Fits the gain to one walked leg.
+     * @param distanceMeters The leg's known length.
+     * @param featureSum Sum of {@link #feature} over the leg's steps.
+     * @param steps Number of steps counted on the leg.
+     * @return false if the leg was rejected and nothing changed.
+     */
+    public boolean update(double distanceMeters, double featureSum, int steps) {
+        if (steps < MIN_LEG_STEPS || distanceMeters <= 0 || featureSum <= 0) return false;
+        double implied = distanceMeters / steps;
+        if (implied < MIN_STEP_METERS || implied > MAX_STEP_METERS) return false;
+
+        double noise = LEG_SIGMA_METERS * LEG_SIGMA_METERS;
+        double k = gainVariance * featureSum / (featureSum * featureSum * gainVariance + noise);
+        gain += k * (distanceMeters - gain * featureSum);
+        gainVariance = (1 - k * featureSum) * gainVariance / FORGETTING;
+        meanFeature += FEATURE_SMOOTHING * (featureSum / steps - meanFeature);
+        legs++;
+        return true;
+    }
+
+    /** {gain, gain variance, mean feature, legs}, for {@link #setState}. */
+    public double[] getState() {
+        return new double[]{gain, gainVariance, meanFeature, legs};
+    }
+
+    /** Restores a state from {@link #getState}; ignored if it is malformed. */
+    public void setState(double[] state) {
+        if (state == null || state.length != 4 || !(state[0] > 0) || !(state[1] > 0) || !(state[2] > 0)) return;
+        gain = state[0];
+        gainVariance = state[1];
+        meanFeature = state[2];
+        legs = (int) state[3];
+    }
+}
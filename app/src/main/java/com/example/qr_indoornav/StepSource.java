@@ -0,0 +1,107 @@
+package com.example.qr_indoornav;
+
+/**
+ * Where the step count comes from. {@link SensorPipeline} registers the source's sensor type,
+ * hands it those events, and tells it whether a step may count right now: step counting is on
+ * and the heading check passed. Every source counts into the same {@link StepDetector}, so
+ * callers read steps and meters the same way whichever backend is active.
+ *
+ * The hardware sources use the step sensors that most phones run on a low-power coprocessor.
+ * The application processor then wakes once per step (or per batch) instead of for every
+ * accelerometer sample. {@link Software} is the fallback for devices without them.
+ */
+public interface StepSource {
+
+    /** Sensor type whose events drive this source (one of the SensorPipeline TYPE_ constants). */
+    int sensorType();
+
+    /**
+     * Handles one event of {@link #sensorType()}.
+     * @param pipeline The pipeline delivering the event, for the fused orientation and the target.
+     * @param accept Whether steps may be counted now (counting enabled and aligned with the target).
+     */
+    void onEvent(SensorPipeline pipeline, float[] values, long timestampNanos, boolean accept);
+
+    /** Forgets per-session state, e.g. when the sensors are re-registered after a pause. */
+    void reset();
+
+    /** Accelerometer samples through the {@link StepEngine}-backed {@link StepDetector}. */
+    final class Software implements StepSource {
+        private final StepDetector stepDetector;
+
+        public Software(StepDetector stepDetector) {
+            this.stepDetector = stepDetector;
+        }
+
+        @Override
+        public int sensorType() {
+            return SensorPipeline.TYPE_ACCELEROMETER;
+        }
+
+        @Override
+        public void onEvent(SensorPipeline pipeline, float[] values, long timestampNanos, boolean accept) {
+            if (accept) {
+                stepDetector.processSensorData(values, pipeline.getRotationMatrix(), pipeline.getRawTargetDegree(), timestampNanos);
+            }
+        }
+
+        @Override
+        public void reset() { /* The detector's engine keeps its own state */ }
+    }
+
+    /** TYPE_STEP_DETECTOR: one event per step, delivered shortly after the foot lands. */
+    final class HardwareDetector implements StepSource {
+        private final StepDetector stepDetector;
+
+        public HardwareDetector(StepDetector stepDetector) {
+            this.stepDetector = stepDetector;
+        }
+
+        @Override
+        public int sensorType() {
+            return SensorPipeline.TYPE_STEP_DETECTOR;
+        }
+
+        @Override
+        public void onEvent(SensorPipeline pipeline, float[] values, long timestampNanos, boolean accept) {
+            if (accept) {
+                stepDetector.countSteps(1, timestampNanos);
+            }
+        }
+
+        @Override
+        public void reset() { /* Stateless */ }
+    }
+
+    /**
+     * TYPE_STEP_COUNTER: a running total since boot, possibly delivered in batches. Only the
+     * increase since the previous event counts, and only if that event was accepted.
+     */
+    final class HardwareCounter implements StepSource {
+        private final StepDetector stepDetector;
+        private float lastTotal = -1f;
+
+        public HardwareCounter(StepDetector stepDetector) {
+            this.stepDetector = stepDetector;
+        }
+
+        @Override
+        public int sensorType() {
+            return SensorPipeline.TYPE_STEP_COUNTER;
+        }
+
+        @Override
+        public void onEvent(SensorPipeline pipeline, float[] values, long timestampNanos, boolean accept) {
+            float total = values[0];
+            if (accept && lastTotal >= 0f && total > lastTotal) {
+                stepDetector.countSteps((int) (total - lastTotal), timestampNanos);
+            }
+            lastTotal = total; // The first event of a session only sets the baseline
+        }
+
+        @Override
+        public void reset() {
+            lastTotal = -1f;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.example.qr_indoornav;
 
+import android.animation.ValueAnimator;
 import android.content.Context;
 import android.graphics.Canvas;
 import android.graphics.Color;
@@ -7,23 +8,49 @@ import android.graphics.DashPathEffect;
 import android.graphics.Paint;
 import android.util.AttributeSet;
 import android.view.View;
+import android.view.animation.DecelerateInterpolator;
 
 import androidx.annotation.Nullable;
 import androidx.core.content.ContextCompat;
 
 import com.example.qr_indoornav.model.Location;
 
-import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Horizontal timeline of the route's stops.
+ *
+ * Short routes are spread across the full width as before. When the stops no longer fit at a
+ * readable spacing, the timeline becomes a window that follows the current leg: only the stops
+ * inside the window are drawn, and the window slides when the leg advances. Label widths are
+ * measured once per route, and advancing a leg only animates the segment that was just walked.
+ */
 public class TimelineView extends View {
 
+    private static final float MIN_STOP_SPACING = 110f; // Narrowest spacing before the timeline starts scrolling
+    private static final float LABEL_GAP = 24f;         // Minimum space between neighbouring labels
+    private static final long ADVANCE_ANIMATION_MS = 350;
+
     private Paint redPaint, greenPaint, grayPaint, textPaint;
     private Paint completedLinePaint, futureLinePaint;
 
-    private List<Location> pathLocations = new ArrayList<>();
+    // --- Route, precomputed once per route in updatePath ---
+    private String[] labels = new String[0];
+    private float stopSpacingForLabels = MIN_STOP_SPACING; // Spacing the widest label needs
+    private float labelBaselineOffset;                     // From the node centre down to the label baseline
+
     private int currentNodeIndex = 0;
 
+    // --- Layout, recomputed on size or route changes ---
+    private float spacing = 0f;
+    private float scrollOffset = 0f;   // How far the window has slid right, in pixels
+
+    // --- Leg-advance animation ---
+    private ValueAnimator advanceAnimator;
+    private int animatedSegment = -1;  // Segment (i - 1 -> i) being filled in, or -1
+    private float segmentProgress = 1f;
+    private float scrollFrom, scrollTo;
+
     private final float nodeRadius = 20f;
     private final float padding = 60f; // Padding on left and right
 
@@ -57,40 +84,147 @@ public class TimelineView extends View {
 
     /**
      * Public method to update the timeline's data and trigger a redraw.
+     * Passing the same route again with a later leg index animates the advance instead of
+     * rebuilding the timeline.
      * @param path The full list of locations (junctions and final room) in the path.
      * @param currentLegIndex The index of the current starting node for this leg of the journey.
      */
     public void updatePath(List<Location> path, int currentLegIndex) {
-        this.pathLocations = new ArrayList<>(path);
-        this.currentNodeIndex = currentLegIndex;
-        invalidate(); // Request a redraw
+        if (isSameRoute(path)) {
+            setCurrentIndex(currentLegIndex);
+            return;
+        }
+
+        // New route: measure every label once.
+        labels = new String[path.size()];
+        float widestLabel = 0f;
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = path.get(i).id; // Use the short ID for the label
+            widestLabel = Math.max(widestLabel, textPaint.measureText(labels[i]));
+        }
+        stopSpacingForLabels = Math.max(MIN_STOP_SPACING, widestLabel + LABEL_GAP);
+        labelBaselineOffset = nodeRadius + 40;
+
+        cancelAdvanceAnimation();
+        currentNodeIndex = currentLegIndex;
+        updateLayout();
+        scrollOffset = targetScrollOffset();
+        invalidate();
+    }
+
+    private boolean isSameRoute(List<Location> path) {
+        if (path.size() != labels.length) return false;
+        for (int i = 0; i < labels.length; i++) {
+            if (!labels[i].equals(path.get(i).id)) return false;
+        }
+        return true;
+    }
+
+    private void setCurrentIndex(int newIndex) {
+        if (newIndex == currentNodeIndex) return;
+        cancelAdvanceAnimation();
+        int oldIndex = currentNodeIndex;
+        currentNodeIndex = newIndex;
+        if (spacing <= 0f || newIndex != oldIndex + 1) {
+            // Not laid out yet, or a jump rather than a single advance: just show the new state.
+            scrollOffset = targetScrollOffset();
+            invalidate();
+            return;
+        }
+
+        animatedSegment = newIndex;
+        segmentProgress = 0f;
+        scrollFrom = scrollOffset;
+        scrollTo = targetScrollOffset();
+        advanceAnimator = ValueAnimator.ofFloat(0f, 1f);
+        advanceAnimator.setDuration(ADVANCE_ANIMATION_MS);
+        advanceAnimator.setInterpolator(new DecelerateInterpolator());
+        advanceAnimator.addUpdateListener(animation -> {
+            segmentProgress = (float) animation.getAnimatedValue();
+            if (animation.getAnimatedFraction() >= 1f) animatedSegment = -1;
+            scrollOffset = scrollFrom + (scrollTo - scrollFrom) * segmentProgress;
+            invalidate(); // Already on the animation frame; onDraw only visits the stops in the window
+        });
+        advanceAnimator.start();
+    }
+
+    private void cancelAdvanceAnimation() {
+        if (advanceAnimator != null) {
+            advanceAnimator.cancel();
+            advanceAnimator = null;
+        }
+        animatedSegment = -1;
+        segmentProgress = 1f;
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        cancelAdvanceAnimation();
+        updateLayout();
+        scrollOffset = targetScrollOffset();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        cancelAdvanceAnimation();
+    }
+
+    /** Spreads the stops over the width if they fit at a readable spacing, else uses that spacing and scrolls. */
+    private void updateLayout() {
+        if (labels.length < 2 || getWidth() == 0) {
+            spacing = 0f;
+            return;
+        }
+        float availableWidth = getWidth() - (2 * padding);
+        spacing = Math.max(availableWidth / (labels.length - 1), stopSpacingForLabels);
+    }
+
+    /** Keeps the current stop about a third of the way in, so upcoming stops stay visible. */
+    private float targetScrollOffset() {
+        if (spacing <= 0f) return 0f;
+        float availableWidth = getWidth() - (2 * padding);
+        float maxOffset = Math.max(0f, (labels.length - 1) * spacing - availableWidth);
+        float offset = currentNodeIndex * spacing - availableWidth / 3f;
+        return Math.max(0f, Math.min(maxOffset, offset));
+    }
+
+    private float stopX(int index) {
+        return padding + index * spacing - scrollOffset;
     }
 
     @Override
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
 
-        if (pathLocations == null || pathLocations.size() < 2) {
+        if (labels.length < 2 || spacing <= 0f) {
             return; // Nothing to draw
         }
 
-        int totalNodes = pathLocations.size();
-        float availableWidth = getWidth() - (2 * padding);
-        float spacing = availableWidth / (totalNodes - 1);
+        // Only the stops inside the window, plus one on each side for the lines leading off-screen.
+        int first = Math.max(0, (int) Math.floor((scrollOffset - padding) / spacing) - 1);
+        int last = Math.min(labels.length - 1, (int) Math.ceil((scrollOffset + getWidth() - padding) / spacing) + 1);
         float yPos = getHeight() / 2f;
 
         // Draw lines first, so nodes are drawn on top
-        for (int i = 1; i < totalNodes; i++) {
-            float startX = padding + (i - 1) * spacing;
-            float stopX = padding + i * spacing;
+        for (int i = Math.max(1, first); i <= last; i++) {
+            float startX = stopX(i - 1);
+            float stopX = stopX(i);
+            if (i == animatedSegment) {
+                // The leg just walked: solid line growing over the dashed one.
+                canvas.drawLine(startX, yPos, stopX, yPos, futureLinePaint);
+                canvas.drawLine(startX, yPos, startX + (stopX - startX) * segmentProgress, yPos, completedLinePaint);
+                continue;
+            }
             // If the line leads to the current node or a past one, it's "completed"
             Paint linePaint = (i <= currentNodeIndex) ? completedLinePaint : futureLinePaint;
             canvas.drawLine(startX, yPos, stopX, yPos, linePaint);
         }
 
         // Draw nodes and text
-        for (int i = 0; i < totalNodes; i++) {
-            float xPos = padding + i * spacing;
+        for (int i = first; i <= last; i++) {
+            float xPos = stopX(i);
             Paint nodePaint;
 
             if (i == currentNodeIndex) {
@@ -104,8 +238,7 @@ public class TimelineView extends View {
             canvas.drawCircle(xPos, yPos, nodeRadius, nodePaint);
 
             // Draw text labels below the nodes
-            String label = pathLocations.get(i).id; // Use the short ID for the label
-            canvas.drawText(label, xPos, yPos + nodeRadius + 40, textPaint);
+            canvas.drawText(labels[i], xPos, yPos + labelBaselineOffset, textPaint);
         }
     }
-}
\ No newline at end of file
+}
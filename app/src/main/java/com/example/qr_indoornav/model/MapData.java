@@ -22,6 +22,7 @@ public class MapData {
     private static String idPrefix;
     private static int idNumDigits;
     private static String scannedLocationId; // Stores the ID from the QR header
+    private static String mapId; // Identifies the map across its QR codes: a hash of the edge list
 
     /**
      * Resets all static map data. Should be called if a new map needs to be loaded.
@@ -33,6 +34,7 @@ public class MapData {
         idPrefix = null;
         idNumDigits = 0;
         scannedLocationId = null;
+        mapId = null;
     }
 
     /**
@@ -126,6 +128,8 @@ public class MapData {
             // --- Final Step: Compile the final list for the dropdown ---
             allLocations = new ArrayList<>(locationMap.values());
             allLocations.sort((l1, l2) -> l1.displayName.compareTo(l2.displayName));
+            // Every QR code of a map carries the same edges; only the header names the scanned spot.
+            mapId = Integer.toHexString(qrString.substring(qrString.indexOf('|') + 1).hashCode());
             Log.i(TAG, "Map data successfully loaded from QR String. Total locations: " + allLocations.size());
 
         } catch (Exception e) {
@@ -220,6 +224,12 @@ public class MapData {
         return scannedLocationId;
     }
 
+    /** Stable id of the loaded map, the same whichever of its QR codes was scanned. */
+    public static String getMapId() {
+        checkLoaded();
+        return mapId;
+    }
+
     public static Graph getGraph() {
         checkLoaded();
         return graphInstance;
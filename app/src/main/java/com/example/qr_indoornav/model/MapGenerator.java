@@ -0,0 +1,381 @@
+package com.example.qr_indoornav.model;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Seeded generator for synthetic building maps in the QR payload grammar
+ * ("JN3A|AB,54,290,H-J|..."), used for scale and stress testing.
+ *
+ * Junctions are first placed on a floor plan in meters, so every generated map is
+ * geometrically consistent; measurement noise is then added to the surveyed distance
+ * and direction of each edge, like a real hand-measured map. The same {@link Options}
+ * (including the seed) always produce the same payload.
+ *
+ * Pure Java, so it can be called from unit tests, the JMH benchmarks and the command line:
+ * <pre>
+ *   ./gradlew :benchmark:generateMap -PmapArgs="--topology GRID --junctions 400 --seed 7"
+ * </pre>
+ */
+public class MapGenerator {
+
+    /** Overall floor plan shape. */
+    public enum Topology {
+        SPINE,  // One long corridor
+        GRID,   // Rectangular corridor grid
+        WINGS,  // A central spine with perpendicular wings branching off it
+        LOOP    // A ring corridor with optional cross-links
+    }
+
+    /** How edge lengths are sampled between {@code minEdgeMeters} and {@code maxEdgeMeters}. */
+    public enum Distribution { UNIFORM, GAUSSIAN }
+
+    /** Generation settings. Defaults produce a small, clean grid. */
+    public static class Options {
+        public Topology topology = Topology.GRID;
+        public int junctions = 16;
+        public long seed = 1L;
+
+        public Distribution distanceDistribution = Distribution.UNIFORM;
+        public int minEdgeMeters = 10;
+        public int maxEdgeMeters = 40;
+
+        public float directionNoiseDegrees = 0f; // Std-dev of the surveyed direction error
+        public float distanceNoiseMeters = 0f;   // Std-dev of the surveyed distance error
+
+        public float roomsPerTenMeters = 1f;     // Average room density along a corridor
+        public int maxRoomsPerEdge = 8;
+
+        public int wings = 4;                    // WINGS only: number of wings off the spine
+        public float crossLinkFraction = 0.1f;   // LOOP only: chords per ring junction
+
+        public char idPrefix = 'N';
+        public boolean roomHeader = false;       // Header names a room instead of a junction
+    }
+
+    // One id character encodes one junction or room, so the id space is the char range
+    // minus the grammar separators and the UTF-16 surrogate block.
+    public static final int MAX_JUNCTIONS = 60000;
+    private static final int MAX_ID_INDEX = Character.MAX_VALUE - 'A' - 1
+            - (Character.MAX_SURROGATE - Character.MIN_SURROGATE + 1);
+
+    private static final char FIRST_ID_CHAR = 'A';
+
+    private final Options options;
+    private final Random random;
+
+    // Floor plan in meters, x = east, y = north.
+    private final List<float[]> positions = new ArrayList<>();
+    private final List<int[]> edges = new ArrayList<>();
+    private final Set<Long> edgeKeys = new HashSet<>();
+    private int totalRooms;
+
+    private MapGenerator(Options options) {
+        this.options = options;
+        this.random = new Random(options.seed);
+    }
+
+    /**
+     * Generates a complete map payload.
+     * @param options Generation settings; the seed makes the output reproducible.
+     * @return A payload that {@link MapData#loadMapFromQRString(String)} accepts.
+     */
+    public static String generate(Options options) {
+        if (options.junctions < 2 || options.junctions > MAX_JUNCTIONS) {
+            throw new IllegalArgumentException("Junction count must be between 2 and " + MAX_JUNCTIONS);
+        }
+        if (options.minEdgeMeters < 1 || options.maxEdgeMeters < options.minEdgeMeters) {
+            throw new IllegalArgumentException("Invalid edge length range.");
+        }
+        if (options.topology == Topology.LOOP && options.junctions < 4) {
+            throw new IllegalArgumentException("A loop needs at least 4 junctions.");
+        }
+        MapGenerator generator = new MapGenerator(options);
+        generator.buildFloorPlan();
+        return generator.emit();
+    }
+
+    /** The number of rooms {@link #generate} places for {@code options}; generates the map again. */
+    static int roomCount(Options options) {
+        MapGenerator generator = new MapGenerator(options);
+        generator.buildFloorPlan();
+        generator.emit();
+        return generator.totalRooms;
+    }
+
+    // --- Floor plan ---
+
+    private void buildFloorPlan() {
+        switch (options.topology) {
+            case SPINE:
+                buildSpine();
+                break;
+            case GRID:
+                buildGrid();
+                break;
+            case WINGS:
+                buildWings();
+                break;
+            case LOOP:
+                buildLoop();
+                break;
+        }
+    }
+
+    private void buildSpine() {
+        float x = 0;
+        addJunction(x, 0);
+        for (int i = 1; i < options.junctions; i++) {
+            x += sampleLength();
+            addJunction(x, 0);
+            connect(i - 1, i);
+        }
+    }
+
+    private void buildGrid() {
+        int cols = (int) Math.ceil(Math.sqrt(options.junctions));
+        int rows = (int) Math.ceil(options.junctions / (double) cols);
+        // Sample column widths and row heights once so the grid stays rectangular.
+        float[] xs = cumulativeLengths(cols);
+        float[] ys = cumulativeLengths(rows);
+
+        for (int i = 0; i < options.junctions; i++) {
+            addJunction(xs[i % cols], -ys[i / cols]);
+        }
+        for (int i = 0; i < options.junctions; i++) {
+            if (i % cols + 1 < cols && i + 1 < options.junctions) connect(i, i + 1);
+            if (i + cols < options.junctions) connect(i, i + cols);
+        }
+    }
+
+    private void buildWings() {
+        int wingCount = Math.max(1, Math.min(options.wings, options.junctions / 2));
+        int spineLength = wingCount;
+        float[] xs = cumulativeLengths(spineLength);
+        for (int i = 0; i < spineLength; i++) {
+            addJunction(xs[i], 0);
+            if (i > 0) connect(i - 1, i);
+        }
+
+        // Spread the remaining junctions over the wings, alternating north and south.
+        int remaining = options.junctions - spineLength;
+        for (int w = 0; w < wingCount; w++) {
+            int wingSize = remaining / wingCount + (w < remaining % wingCount ? 1 : 0);
+            float sign = (w % 2 == 0) ? 1f : -1f;
+            int previous = w;
+            float y = 0;
+            for (int k = 0; k < wingSize; k++) {
+                y += sampleLength();
+                int id = addJunction(xs[w], sign * y);
+                connect(previous, id);
+                previous = id;
+            }
+        }
+    }
+
+    private void buildLoop() {
+        // Lay the ring out as a rectangle so it stays closed regardless of sampled lengths.
+        int n = options.junctions;
+        int perSide = Math.max(1, n / 4);
+        int[] sideCounts = {perSide, perSide, perSide, n - 3 * perSide};
+        float[] widths = cumulativeLengths(Math.max(sideCounts[0], sideCounts[2]) + 1);
+        float[] heights = cumulativeLengths(Math.max(sideCounts[1], sideCounts[3]) + 1);
+        float width = widths[widths.length - 1];
+        float height = heights[heights.length - 1];
+
+        for (int side = 0; side < 4; side++) {
+            int count = sideCounts[side];
+            for (int k = 0; k < count; k++) {
+                float t = (float) k / count;
+                switch (side) {
+                    case 0: addJunction(t * width, 0); break;
+                    case 1: addJunction(width, -t * height); break;
+                    case 2: addJunction(width - t * width, -height); break;
+                    default: addJunction(0, -height + t * height); break;
+                }
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            connect(i, (i + 1) % n);
+        }
+
+        int crossLinks = Math.round(options.crossLinkFraction * n / 2f);
+        for (int c = 0; c < crossLinks; c++) {
+            int a = random.nextInt(n);
+            int b = (a + n / 2) % n;
+            if (a != b) connect(a, b);
+        }
+    }
+
+    private int addJunction(float x, float y) {
+        positions.add(new float[]{x, y});
+        return positions.size() - 1;
+    }
+
+    private void connect(int a, int b) {
+        long key = ((long) Math.min(a, b) << 32) | Math.max(a, b);
+        if (edgeKeys.add(key)) {
+            edges.add(new int[]{a, b});
+        }
+    }
+
+    private float[] cumulativeLengths(int count) {
+        float[] result = new float[count];
+        for (int i = 1; i < count; i++) {
+            result[i] = result[i - 1] + sampleLength();
+        }
+        return result;
+    }
+
+    private float sampleLength() {
+        int min = options.minEdgeMeters;
+        int max = options.maxEdgeMeters;
+        if (options.distanceDistribution == Distribution.GAUSSIAN) {
+            float mean = (min + max) / 2f;
+            float sd = (max - min) / 4f;
+            return clamp((float) (mean + random.nextGaussian() * sd), min, max);
+        }
+        return min + random.nextFloat() * (max - min);
+    }
+
+    // --- Payload emission ---
+
+    private String emit() {
+        int[] roomCounts = new int[edges.size()];
+        totalRooms = 0;
+        for (int i = 0; i < edges.size(); i++) {
+            float length = length(edges.get(i));
+            int count = (int) Math.floor(length / 10f * options.roomsPerTenMeters + random.nextFloat());
+            roomCounts[i] = Math.min(options.maxRoomsPerEdge, Math.max(0, count));
+            totalRooms += roomCounts[i];
+        }
+
+        // A range is read back character by character, so it must not run across a skipped
+        // character: such a range starts after it instead, leaving a few ids unused.
+        int[] firstRooms = new int[edges.size()];
+        int nextRoom = 0;
+        for (int i = 0; i < edges.size(); i++) {
+            int count = roomCounts[i];
+            if (count == 0) continue;
+            while (nextRoom + count - 1 <= MAX_ID_INDEX && idChar(nextRoom + count - 1) - idChar(nextRoom) != count - 1) {
+                nextRoom++;
+            }
+            if (nextRoom + count - 1 > MAX_ID_INDEX) {
+                throw new IllegalArgumentException("Too many rooms for the id grammar (" + totalRooms + "); lower roomsPerTenMeters.");
+            }
+            firstRooms[i] = nextRoom;
+            nextRoom += count;
+        }
+        // Room numbers come from the character value, so the skipped characters count too.
+        int maxRoomNumber = nextRoom > 0 ? idChar(nextRoom - 1) - FIRST_ID_CHAR + 1 : 1;
+        // A leading zero keeps every room id distinct from every junction id ("N012" vs "N12").
+        int digits = String.valueOf(maxRoomNumber).length() + 1;
+
+        StringBuilder body = new StringBuilder();
+        String firstRoomChar = null;
+        for (int i = 0; i < edges.size(); i++) {
+            int[] e = edges.get(i);
+            body.append('|').append(idChar(e[0])).append(idChar(e[1]))
+                    .append(',').append(surveyedDistance(e))
+                    .append(',').append(surveyedDirection(e));
+            if (roomCounts[i] > 0) {
+                char first = idChar(firstRooms[i]);
+                char last = idChar(firstRooms[i] + roomCounts[i] - 1);
+                body.append(',').append(first).append('-').append(last);
+                if (firstRoomChar == null) firstRoomChar = String.valueOf(first);
+            }
+        }
+
+        StringBuilder header = new StringBuilder();
+        if (options.roomHeader && firstRoomChar != null) {
+            header.append('R').append(options.idPrefix).append(digits).append(firstRoomChar);
+        } else {
+            header.append('J').append(options.idPrefix).append(digits).append(idChar(0));
+        }
+        return header.append(body).toString();
+    }
+
+    private int surveyedDistance(int[] edge) {
+        float measured = length(edge) + (float) random.nextGaussian() * options.distanceNoiseMeters;
+        return Math.max(1, Math.round(measured));
+    }
+
+    private int surveyedDirection(int[] edge) {
+        float[] from = positions.get(edge[0]);
+        float[] to = positions.get(edge[1]);
+        // Compass bearing: 0 = north, 90 = east.
+        double bearing = Math.toDegrees(Math.atan2(to[0] - from[0], to[1] - from[1]));
+        bearing += random.nextGaussian() * options.directionNoiseDegrees;
+        int rounded = (int) Math.round(bearing) % 360;
+        return rounded < 0 ? rounded + 360 : rounded;
+    }
+
+    private float length(int[] edge) {
+        float[] from = positions.get(edge[0]);
+        float[] to = positions.get(edge[1]);
+        return (float) Math.hypot(to[0] - from[0], to[1] - from[1]);
+    }
+
+    /**
+     * Maps a zero-based id index to its grammar character, stepping over '|' and the
+     * surrogate block. The character's numeric id is still {@code c - 'A' + 1}, so single ids
+     * just skip those numbers; a room range must not span a skipped character (see
+     * {@link #emit}), or the parser would read a room for each character in between.
+     */
+    static char idChar(int index) {
+        int c = FIRST_ID_CHAR + index;
+        if (c >= '|') c++;
+        if (c >= Character.MIN_SURROGATE) c += Character.MAX_SURROGATE - Character.MIN_SURROGATE + 1;
+        if (c > Character.MAX_VALUE) {
+            throw new IllegalArgumentException("Id index out of range for the grammar: " + index);
+        }
+        return (char) c;
+    }
+
+    private static float clamp(float v, float min, float max) {
+        return Math.max(min, Math.min(max, v));
+    }
+
+    // --- Command-line entry point ---
+
+    /**
+     * Prints one generated payload to stdout.
+     * Flags: --topology SPINE|GRID|WINGS|LOOP, --junctions N, --seed N, --min-edge M, --max-edge M,
+     * --distribution UNIFORM|GAUSSIAN, --direction-noise DEG, --distance-noise M, --rooms PER_10M,
+     * --max-rooms N, --wings N, --cross-links FRACTION, --room-header.
+     */
+    public static void main(String[] args) {
+        Options options = new Options();
+        for (int i = 0; i < args.length; i++) {
+            String flag = args[i];
+            if (flag.equals("--room-header")) {
+                options.roomHeader = true;
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + flag);
+            }
+            String value = args[++i];
+            switch (flag) {
+                case "--topology": options.topology = Topology.valueOf(value.toUpperCase(Locale.ROOT)); break;
+                case "--junctions": options.junctions = Integer.parseInt(value); break;
+                case "--seed": options.seed = Long.parseLong(value); break;
+                case "--min-edge": options.minEdgeMeters = Integer.parseInt(value); break;
+                case "--max-edge": options.maxEdgeMeters = Integer.parseInt(value); break;
+                case "--distribution": options.distanceDistribution = Distribution.valueOf(value.toUpperCase(Locale.ROOT)); break;
+                case "--direction-noise": options.directionNoiseDegrees = Float.parseFloat(value); break;
+                case "--distance-noise": options.distanceNoiseMeters = Float.parseFloat(value); break;
+                case "--rooms": options.roomsPerTenMeters = Float.parseFloat(value); break;
+                case "--max-rooms": options.maxRoomsPerEdge = Integer.parseInt(value); break;
+                case "--wings": options.wings = Integer.parseInt(value); break;
+                case "--cross-links": options.crossLinkFraction = Float.parseFloat(value); break;
+                default: throw new IllegalArgumentException("Unknown flag: " + flag);
+            }
+        }
+        System.out.println(generate(options));
+    }
+}
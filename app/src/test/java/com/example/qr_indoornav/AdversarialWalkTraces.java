@@ -0,0 +1,167 @@
+package com.example.qr_indoornav;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Writes the seeded walks in src/test/resources/traces/adversarial, built on purpose from a
+ * different motion model than {@link SyntheticWalkTraces} (and so than the one
+ * {@link StepEngine} was tuned on). Steps are heel-strike impulses with a damped ringing, not
+ * sines; the braking and push-off come at their own times in the step instead of locked to the
+ * bounce; the phone is tilted towards the walker, as when reading it, and its tilt and the
+ * walker's heading drift at random. Some walks stop half way, and one is a phone handled
+ * without walking. The file name carries the number of heel strikes generated; the walks are
+ * not recordings, and their labels are not hand counts.
+ *
+ * Regenerate with {@code main(<output directory>)}; the output is deterministic.
+ */
+public class AdversarialWalkTraces {
+
+    private static final long SAMPLE_NANOS = 20_000_000L;
+    private static final float GRAVITY = 9.81f;
+
+    /** Parameters of one walk. */
+    static final class Walk {
+        final String name;
+        final int steps;
+        final float cadenceHz, strike, pitchDegrees, pauseSeconds;
+        final int taps;
+        final long seed;
+
+        Walk(String name, int steps, float cadenceHz, float strike, float pitchDegrees, float pauseSeconds,
+             int taps, long seed) {
+            this.name = name;
+            this.steps = steps;
+            this.cadenceHz = cadenceHz;
+            this.strike = strike;
+            this.pitchDegrees = pitchDegrees;
+            this.pauseSeconds = pauseSeconds;
+            this.taps = taps;
+            this.seed = seed;
+        }
+
+        String fileName() {
+            return "adversarial-" + name + "_" + steps + "steps" + SensorTrace.FILE_EXTENSION;
+        }
+    }
+
+    static final Walk[] WALKS = {
+            //        name           steps cadence strike pitch pause taps seed
+            new Walk("reading",      24,   1.8f,   4.0f,  40f,  0f,   0,   11),
+            new Walk("stop-and-go",  20,   1.7f,   4.0f,  30f,  4f,   0,   12),
+            new Walk("shuffle",      20,   1.4f,   2.2f,  35f,  0f,   0,   13),
+            new Walk("fast",         30,   2.2f,   5.5f,  45f,  0f,   0,   14),
+            new Walk("handled",      0,    0f,     0f,    30f,  0f,   6,   15),
+    };
+
+    public static void main(String[] args) throws IOException {
+        File directory = new File(args.length > 0 ? args[0] : "app/src/test/resources/traces/adversarial");
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        for (Walk walk : WALKS) {
+            write(walk, new File(directory, walk.fileName()));
+        }
+    }
+
+    static void write(Walk walk, File file) throws IOException {
+        Random random = new Random(walk.seed);
+        float[] device = new float[3];
+        try (SensorTrace.Writer writer = new SensorTrace.Writer(file)) {
+            long t = 1_000_000_000_000L; // Boot-relative, like SensorEvent.timestamp
+            writer.reset(0, t);
+            writer.target(SyntheticWalkTraces.HEADING_DEGREES, t);
+            writer.stepCounting(true, t);
+
+            // Timeline: 3 s standing, the steps (with the pause half way), 2 s standing.
+            float[] strikes = new float[walk.steps];
+            float time = 3f;
+            for (int i = 0; i < walk.steps; i++) {
+                if (i == walk.steps / 2) time += walk.pauseSeconds;
+                strikes[i] = time;
+                time += (1f / walk.cadenceHz) * (1f + 0.06f * (float) random.nextGaussian());
+            }
+            float end = walk.steps > 0 ? time + 2f : 3f + 4f * walk.taps / 3f + 3f;
+            float period = walk.steps > 0 ? 1f / walk.cadenceHz : 1f;
+            float[] lateral = new float[walk.steps];
+            for (int i = 0; i < walk.steps; i++) lateral[i] = (i % 2 == 0 ? 1f : -1f) * (0.3f + 0.4f * random.nextFloat());
+
+            float heading = SyntheticWalkTraces.HEADING_DEGREES, previousHeading = heading;
+            float pitchDrift = 0f;
+            float previousPitch = walk.pitchDegrees;
+            int sample = 0;
+            for (float s = 0f; s < end; s = ++sample * SAMPLE_NANOS * 1e-9f) {
+                long timestamp = t + sample * SAMPLE_NANOS;
+                float dt = SAMPLE_NANOS * 1e-9f;
+
+                // Heading and tilt drift as random walks pulled back to where they belong.
+                heading += (SyntheticWalkTraces.HEADING_DEGREES - heading) * 0.5f * dt
+                        + 6f * (float) Math.sqrt(dt) * (float) random.nextGaussian();
+                pitchDrift += -pitchDrift * 0.5f * dt + 4f * (float) Math.sqrt(dt) * (float) random.nextGaussian();
+                float pitch = walk.pitchDegrees + pitchDrift;
+                // The handled phone is tilted back and forth instead of walked with.
+                if (walk.taps > 0 && s > 3f) pitch += 25f * (float) Math.sin(2 * Math.PI * 0.4 * (s - 3f));
+
+                float forward = 0f, side = 0f, up = 0f;
+                for (int i = 0; i < walk.steps; i++) {
+                    float since = s - strikes[i];
+                    if (since < -0.2f || since > period + 0.3f) continue;
+                    // Heel strike: a sharp jolt, a damped ringing, then the slower rise of the push-off
+                    up += walk.strike * (pulse(since, 0.035f) - 0.3f * pulse(since - 0.12f, 0.07f));
+                    if (since > 0f) up += 0.35f * walk.strike * (float) (Math.exp(-since / 0.06f) * Math.sin(2 * Math.PI * 9 * since));
+                    up += 0.25f * walk.strike * pulse(since - 0.6f * period, 0.09f);
+                    forward += 0.5f * walk.strike * (-pulse(since - 0.03f, 0.05f) + 0.7f * pulse(since - 0.55f * period, 0.1f));
+                    side += lateral[i] * pulse(since - 0.3f * period, 0.12f);
+                }
+                for (int k = 0; k < walk.taps; k++) {
+                    float since = s - (3.5f + 4f * k / 3f);
+                    if (since > -0.1f && since < 0.2f) up += 3f * pulse(since, 0.02f); // A thumb on the screen
+                }
+
+                double psi = Math.toRadians(heading);
+                double walkRad = Math.toRadians(SyntheticWalkTraces.HEADING_DEGREES);
+                float east = forward * (float) Math.sin(walkRad) + side * (float) Math.cos(walkRad);
+                float north = forward * (float) Math.cos(walkRad) - side * (float) Math.sin(walkRad);
+                toDevice(east, north, GRAVITY + up, psi, pitch, device);
+                for (int k = 0; k < 3; k++) device[k] += 0.4f * (float) random.nextGaussian();
+                writer.sensor(SensorPipeline.TYPE_ACCELEROMETER, device, timestamp);
+
+                // Turning clockwise lowers the rotation about world up; tilting turns about device x.
+                float yawRate = (float) Math.toRadians(heading - previousHeading) / dt;
+                float pitchRate = (float) Math.toRadians(pitch - previousPitch) / dt;
+                previousHeading = heading;
+                previousPitch = pitch;
+                toDevice(0f, 0f, -yawRate, 0, pitch, device);
+                device[0] += pitchRate;
+                for (int k = 0; k < 3; k++) device[k] += 0.01f * (float) random.nextGaussian();
+                writer.sensor(SensorPipeline.TYPE_GYROSCOPE, device, timestamp + 1000);
+
+                if (sample % 5 == 0) {
+                    toDevice(0f, 22f, -40f, psi, pitch, device);
+                    for (int k = 0; k < 3; k++) device[k] += 0.5f * (float) random.nextGaussian();
+                    writer.sensor(SensorPipeline.TYPE_MAGNETIC_FIELD, device, timestamp + 2000);
+                }
+            }
+        }
+    }
+
+    /**
+     * A world vector (east, north, up) in the frame of a phone whose top points at compass
+     * heading {@code psi} (radians) and is raised by {@code pitchDegrees} towards the walker.
+     */
+    private static void toDevice(float east, float north, float up, double psi, float pitchDegrees, float[] out) {
+        float cos = (float) Math.cos(psi), sin = (float) Math.sin(psi);
+        float x = cos * east - sin * north;
+        float y = sin * east + cos * north;
+        double theta = Math.toRadians(pitchDegrees);
+        float cosT = (float) Math.cos(theta), sinT = (float) Math.sin(theta);
+        out[0] = x;
+        out[1] = cosT * y + sinT * up;
+        out[2] = -sinT * y + cosT * up;
+    }
+
+    private static float pulse(float seconds, float width) {
+        return (float) Math.exp(-0.5 * (seconds / width) * (seconds / width));
+    }
+}
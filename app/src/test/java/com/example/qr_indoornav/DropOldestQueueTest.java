@@ -0,0 +1,37 @@
+package com.example.qr_indoornav;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class DropOldestQueueTest {
+
+    @Test
+    public void fullQueueHandsBackTheOldest() {
+        DropOldestQueue<String> queue = new DropOldestQueue<>(2);
+        assertNull(queue.put("a"));
+        assertNull(queue.put("b"));
+        assertEquals("a", queue.put("c"));
+        assertEquals("b", queue.put("d"));
+        assertEquals(2, queue.droppedCount());
+
+        assertEquals("c", queue.poll());
+        assertEquals("d", queue.poll());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void takeWaitsForTheProducer() throws Exception {
+        DropOldestQueue<Integer> queue = new DropOldestQueue<>(1);
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < 1000; i++) queue.put(i);
+        });
+        producer.start();
+        producer.join();
+
+        // The consumer only ever sees the newest frame once it catches up.
+        assertEquals(Integer.valueOf(999), queue.take());
+        assertEquals(999, queue.droppedCount());
+    }
+}
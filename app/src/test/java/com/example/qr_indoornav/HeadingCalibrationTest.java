@@ -0,0 +1,94 @@
+package com.example.qr_indoornav;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The table prefers the offset for where the user is, ignores map errors and survives a save;
+ * offsets learned on earlier walks keep a later walk through the same disturbed field from
+ * being aborted.
+ */
+public class HeadingCalibrationTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void junctionOffsetWhileDepartingEdgeOffsetWhileWalking() {
+        HeadingCalibration calibration = new HeadingCalibration();
+        assertEquals(0f, calibration.offsetFor("A", "B", true), 0f);
+
+        assertTrue(calibration.record("A", "B", 20f, 10f));
+        assertEquals(20f, calibration.offsetFor("A", "B", true), 1e-3f);
+        assertEquals(10f, calibration.offsetFor("A", "B", false), 1e-3f);
+        // Another leg from A has no edge entry yet: the junction's offset stands in
+        assertEquals(20f, calibration.offsetFor("A", "C", false), 1e-3f);
+        // Nor does the reverse direction, which leaves from B
+        assertEquals(0f, calibration.offsetFor("B", "A", false), 0f);
+    }
+
+    @Test
+    public void newerWalksCountMoreAndLargeOffsetsAreIgnored() {
+        HeadingCalibration calibration = new HeadingCalibration();
+        calibration.record("A", "B", Float.NaN, 10f);
+        calibration.record("A", "B", Float.NaN, 20f);
+        float offset = calibration.offsetFor("A", "B", false);
+        assertTrue("Offset " + offset, offset > 15f && offset < 20f);
+
+        assertFalse(calibration.record("A", "C", Float.NaN, 90f));
+        assertEquals(0f, calibration.offsetFor("A", "C", false), 0f);
+    }
+
+    @Test
+    public void tableRoundTrips() {
+        HeadingCalibration calibration = new HeadingCalibration();
+        calibration.record("A", "B", 12f, -8f);
+        HeadingCalibration restored = new HeadingCalibration();
+        Map<String, Object> saved = new HashMap<>(calibration.save());
+        saved.put("@X", "not,a,number");
+        restored.load(saved);
+        assertEquals(12f, restored.offsetFor("A", "B", true), 1e-3f);
+        assertEquals(-8f, restored.offsetFor("A", "B", false), 1e-3f);
+        assertEquals(0f, restored.offsetFor("X", "Y", true), 0f);
+    }
+
+    @Test
+    public void calibrationReducesAbortedLegsOnDisturbedWalks() throws Exception {
+        float[] disturbances = {12f, 20f, 28f};
+        int aborts = 0, calibratedAborts = 0;
+        for (float disturbance : disturbances) {
+            List<File> traces = new ArrayList<>();
+            List<SensorTraceReplay.Result> walks = new ArrayList<>();
+            for (SyntheticWalkTraces.Walk walk : SyntheticWalkTraces.WALKS) {
+                File trace = folder.newFile(String.format(Locale.US, "%.0fdeg-%s", disturbance, walk.fileName()));
+                SyntheticWalkTraces.write(walk, trace, disturbance);
+                traces.add(trace);
+                walks.add(SensorTraceReplay.replayFile(trace));
+            }
+
+            // Each walk is calibrated only by the other walks of the leg, which ended at its checkpoint
+            for (int i = 0; i < traces.size(); i++) {
+                List<SensorTraceReplay.Result> others = new ArrayList<>(walks);
+                others.remove(i);
+                SensorTraceReplay.Result calibrated =
+                        SensorTraceReplay.replayFile(traces.get(i), SensorTraceReplay.learnedOffset(others));
+                aborts += walks.get(i).alignmentLosses;
+                calibratedAborts += calibrated.alignmentLosses;
+            }
+        }
+        assertTrue("Disturbed walks should be aborted without calibration", aborts > 0);
+        assertTrue(aborts + " -> " + calibratedAborts, calibratedAborts < aborts);
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.qr_indoornav;
+
+/**
+ * StepDetector's detection as it was before {@link StepEngine}: a fixed-threshold peak and
+ * valley on the raw magnitude, with direction judged from the single sample at the valley.
+ * Kept unchanged, apart from counting into fields instead of a listener, as the baseline for
+ * {@link StepEngineAccuracyTest}.
+ */
+class LegacyStepDetector {
+
+    private static final long STEP_TIME_GATE_MS = 800;
+    private static final float STEP_DETECTION_LOWER_THRESHOLD_FACTOR = 0.9f;
+    private static final int MOVEMENT_DIRECTION_MARGIN_DEGREES = 45;
+    private static final long OFF_DIRECTION_RESET_TIME_MS = 2000;
+
+    private final float dynamicThreshold = 11.0f + (175.0f - 170.0f) * 0.05f; // Default 175 cm calibration
+    private long lastStepTime = 0;
+    private boolean isPeakDetected = false;
+    private long lastOffDirectionStepTime = 0;
+
+    int stepsTaken = 0;
+    int consecutiveOffDirectionSteps = 0;
+
+    /**
+     * Processes raw accelerometer data to detect steps using a peak-and-valley algorithm.
+     * A step is counted if:
+     * 1. The acceleration magnitude surpasses a dynamic threshold (the "peak").
+     * 2. The magnitude then drops below a lower threshold (the "valley").
+     * 3. The time since the last step is sufficient (time gate).
+     * 4. The step's orientation is in the general forward direction of travel.
+     *
+     * It also tracks consecutive off-direction steps to determine if realignment is needed.
+     *
+     * @param acceleration The 3-axis (X, Y, Z) accelerometer data (m/s^2).
+     * @param rotationMatrix The current 9-element rotation matrix of the device, normally the fused
+     *                       orientation from {@link HeadingFusion}, used to transform accelerometer
+     *                       data to world coordinates.
+     * @param targetDirection The compass direction (0-360 degrees) the user is intended to walk towards.
+     * @param timestampNanos The sample's event time ({@code SensorEvent.timestamp}). All timing uses
+     *                       this rather than the wall clock, so recorded traces replay identically.
+     */
+    public void processSensorData(float[] acceleration, float[] rotationMatrix, float targetDirection, long timestampNanos) {
+        long now = timestampNanos / 1_000_000L;
+
+        // Automatically reset the off-direction counter if the user has been walking correctly
+        // or has stopped for a couple of seconds.
+        if (now - lastOffDirectionStepTime > OFF_DIRECTION_RESET_TIME_MS) {
+            consecutiveOffDirectionSteps = 0;
+        }
+
+        // 1. Time Gate: Prevents counting a single step multiple times.
+        if (now - lastStepTime < STEP_TIME_GATE_MS) {
+            return;
+        }
+
+        // 2. Magnitude Calculation: Calculate the overall force (magnitude) of acceleration.
+        float magnitude = (float) Math.sqrt(
+                acceleration[0] * acceleration[0] +
+                        acceleration[1] * acceleration[1] +
+                        acceleration[2] * acceleration[2]
+        );
+
+        // 3. Peak and Valley Detection Logic
+        // Check for the peak of the step
+        if (!isPeakDetected && magnitude > dynamicThreshold) {
+            isPeakDetected = true;
+        }
+        // Check for the valley (end of the step) after a peak has been detected
+        else if (isPeakDetected && magnitude < (dynamicThreshold * STEP_DETECTION_LOWER_THRESHOLD_FACTOR)) {
+            // A potential step motion is complete. Now, check its direction.
+            if (isStepInForwardDirection(acceleration, rotationMatrix, targetDirection)) {
+                // --- VALID STEP IN CORRECT DIRECTION ---
+                lastStepTime = now;
+                stepsTaken++;
+
+                // A correct step resets the off-direction counter.
+                consecutiveOffDirectionSteps = 0;
+            } else {
+                // --- STEP-LIKE MOTION IN WRONG DIRECTION ---
+                // This was a step, but not towards the target. Increment the off-direction counter.
+                consecutiveOffDirectionSteps++;
+                lastOffDirectionStepTime = now;
+            }
+
+            // Reset the peak detector to be ready for the next step.
+            isPeakDetected = false;
+        }
+    }
+
+    /**
+     * Determines if the detected acceleration jolt (step) was primarily in the forward direction.
+     * This uses the device's rotation matrix to transform the acceleration vector from
+     * the phone's local coordinate system to the Earth's (world) coordinate system.
+     * @param acceleration The 3-axis accelerometer data in the device's coordinate system.
+     * @param currentRotationMatrix The 9-element rotation matrix representing the device's orientation.
+     * @param targetDirection The intended direction of movement (compass degrees).
+     * @return true if the horizontal component of the acceleration aligns with the target direction.
+     */
+    private boolean isStepInForwardDirection(float[] acceleration, float[] currentRotationMatrix, float targetDirection) {
+        // Transform acceleration from device coordinates to world coordinates.
+        // We only care about the X and Y components (horizontal movement).
+        // R[0], R[1], R[2] are for World X (East)
+        // R[3], R[4], R[5] are for World Y (North)
+        float worldX = currentRotationMatrix[0] * acceleration[0] + currentRotationMatrix[1] * acceleration[1] + currentRotationMatrix[2] * acceleration[2]; // World X
+        float worldY = currentRotationMatrix[3] * acceleration[0] + currentRotationMatrix[4] * acceleration[1] + currentRotationMatrix[5] * acceleration[2]; // World Y
+
+        // Calculate the azimuth (direction) of this horizontal movement.
+        // atan2(x, y) gives the angle from the +Y axis (North).
+        float movementAzimuth = (float) Math.toDegrees(Math.atan2(worldX, worldY));
+        if (movementAzimuth < 0) {
+            movementAzimuth += 360; // Normalize to 0-360 degrees
+        }
+
+        // Compare the movement direction with the target direction.
+        float difference = Math.abs(movementAzimuth - targetDirection);
+        if (difference > 180) {
+            difference = 360 - difference; // Find the shortest angular difference
+        }
+
+        // If the movement direction is within the allowed margin of error from the target direction.
+        return difference <= MOVEMENT_DIRECTION_MARGIN_DEGREES;
+    }
+}
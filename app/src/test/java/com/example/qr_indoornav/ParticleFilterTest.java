@@ -0,0 +1,83 @@
+package com.example.qr_indoornav;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.example.qr_indoornav.model.Graph;
+import com.example.qr_indoornav.model.Node;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * The map constrains dead reckoning: straight walking tracks the step count, a corridor's end
+ * pins the position, and walking down another corridor shows up as leaving the leg.
+ */
+public class ParticleFilterTest {
+
+    private static final float STEP = 5f;
+
+    /**
+     * A at the south end, B 20 m north of it, C 20 m further north (a dead end), and D 15 m
+     * east of B. Room R1 is halfway between A and B.
+     */
+    private static Graph corridor() {
+        Node a = new Node("A"), b = new Node("B"), c = new Node("C"), d = new Node("D");
+        a.addEdge("B", 20, 0f, Collections.singletonList("R1"));
+        b.addEdge("A", 20, 180f, Collections.singletonList("R1"));
+        b.addEdge("C", 20, 0f, Collections.emptyList());
+        c.addEdge("B", 20, 180f, Collections.emptyList());
+        b.addEdge("D", 15, 90f, Collections.emptyList());
+        d.addEdge("B", 15, 270f, Collections.emptyList());
+        Graph graph = new Graph();
+        for (Node node : Arrays.asList(a, b, c, d)) graph.addNode(node);
+        return graph;
+    }
+
+    private static ParticleFilter filter() {
+        return new ParticleFilter(ParticleFilter.Network.build(corridor()), ParticleFilter.DEFAULT_PARTICLES, 11);
+    }
+
+    @Test
+    public void walkingAlongTheLegTracksTheSteps() {
+        ParticleFilter filter = filter();
+        assertTrue(filter.startLeg("A", "B"));
+        assertEquals(20f, filter.getLegLength(), 1e-3f);
+        for (int i = 0; i < 3; i++) filter.onStep(STEP, 0f);
+
+        assertEquals(15f, filter.getProgressMeters(), 1.5f);
+        assertTrue(filter.getOnLegProbability() > 0.95f);
+        assertTrue(filter.getConfidence() > 0.5f);
+    }
+
+    @Test
+    public void deadEndPinsThePosition() {
+        ParticleFilter filter = filter();
+        assertTrue(filter.startLeg("B", "C"));
+        for (int i = 0; i < 8; i++) filter.onStep(STEP, 0f); // 40 m of steps in a 20 m corridor
+
+        assertEquals(20f, filter.getProgressMeters(), 0.5f);
+        assertTrue("Spread " + filter.getSpreadMeters(), filter.getSpreadMeters() < 1f);
+    }
+
+    @Test
+    public void roomLegStartsPartWayAlongTheCorridor() {
+        ParticleFilter filter = filter();
+        assertTrue(filter.startLeg("R1", "B"));
+        assertEquals(10f, filter.getLegLength(), 1e-3f);
+        assertTrue(filter.startLeg("B", "R1"));
+        assertEquals(10f, filter.getLegLength(), 1e-3f);
+        assertTrue(!filter.startLeg("C", "D"));
+    }
+
+    @Test
+    public void turningIntoAnotherCorridorLeavesTheLeg() {
+        ParticleFilter filter = filter();
+        assertTrue(filter.startLeg("B", "C"));
+        for (int i = 0; i < 2; i++) filter.onStep(STEP, 90f); // East, towards D
+
+        assertTrue("On leg " + filter.getOnLegProbability(), filter.getOnLegProbability() < 0.2f);
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.qr_indoornav;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads a result buffer written field by field at the offsets of struct ScanResultBuffer
+ * (app/src/main/cpp/ScanResultBuffer.h), as the native scanner fills it in.
+ */
+public class ScanResultTest {
+
+    @Test
+    public void unpacksTheNativeLayout() {
+        ScanResult result = new ScanResult();
+        assertEquals(4836, ScanResult.BYTES); // sizeof(ScanResultBuffer)
+        ByteBuffer b = result.buffer;
+        b.putInt(0, ScanResult.DECODE_DECODED);
+        b.putInt(4, ScanResult.POSITION_MOVE_LEFT);
+        b.putInt(8, ScanResult.ANGLE_ROTATE_RIGHT);
+        b.putInt(12, ScanResult.FLAG_TRACKED);
+        b.putInt(16, 480);
+        b.putInt(20, 640);
+        b.putInt(24, 2);
+        b.putInt(28, 4);
+        b.putFloat(32, 120.5f);
+        b.putFloat(36, 300.25f);
+        for (int i = 0; i < 6; i++) b.putFloat(40 + 4 * i, 10 * i);
+        for (int i = 0; i < ScanResult.STAGE_COUNT; i++) b.putFloat(64 + 4 * i, 0.5f * (i + 1));
+        for (int p = 0; p < 2; p++) {
+            for (int k = 0; k < 10; k++) b.putFloat(84 + 40 * p + 4 * k, 100 * p + k);
+        }
+        byte[] binary = {(byte) 0xff, 0x00, (byte) 0xc3, 0x41}; // Not valid UTF-8
+        for (int i = 0; i < binary.length; i++) b.put(724 + i, binary[i]);
+        for (int i = 0; i < 4; i++) b.putInt(4820 + 4 * i, 16 * (i + 1));
+
+        result.unpack();
+
+        assertEquals(ScanResult.DECODE_DECODED, result.decode);
+        assertEquals(ScanResult.POSITION_MOVE_LEFT, result.position);
+        assertEquals(ScanResult.ANGLE_ROTATE_RIGHT, result.angle);
+        assertEquals(ScanResult.FLAG_TRACKED, result.flags);
+        assertEquals(480, result.frameWidth);
+        assertEquals(640, result.frameHeight);
+        assertEquals(120.5f, result.qrCenterX, 0f);
+        assertEquals(300.25f, result.qrCenterY, 0f);
+        assertEquals(50f, result.angleLines[5], 0f);
+        assertEquals(2.5f, result.stageMillis[ScanResult.STAGE_TOTAL], 0f);
+        assertEquals(2, result.patternCount);
+        assertEquals(100f, result.patternCenters[2], 0f);
+        assertEquals(101f, result.patternCenters[3], 0f);
+        assertEquals(109f, result.patternCorners[15], 0f);
+        assertArrayEquals(new int[]{16, 32, 48, 64}, result.decodeRegion);
+        assertTrue(result.isDecoded());
+        assertArrayEquals(binary, result.payloadBytes());
+        assertEquals(4, result.payloadText().length()); // Malformed bytes become replacement characters
+    }
+
+    @Test
+    public void copyKeepsOnlyTheUsedPart() {
+        ScanResult source = new ScanResult();
+        source.buffer.putInt(24, 1);
+        source.buffer.putInt(28, 2);
+        source.buffer.put(724, (byte) 'A');
+        source.buffer.put(725, (byte) '1');
+        source.unpack();
+
+        ScanResult copy = new ScanResult();
+        copy.set(source);
+        assertEquals(1, copy.patternCount);
+        assertEquals("A1", copy.payloadText());
+    }
+}
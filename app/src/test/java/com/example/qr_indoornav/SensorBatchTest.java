@@ -0,0 +1,55 @@
+package com.example.qr_indoornav;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * Batched delivery (as in the WALKING sensor mode) must not change the outcome: processing
+ * the same events in bulk gives the same steps and heading as feeding them one at a time.
+ */
+public class SensorBatchTest {
+
+    @Test
+    public void batchedProcessingMatchesEventByEvent() throws Exception {
+        File directory = new File(SensorBatchTest.class.getClassLoader().getResource("traces").toURI());
+        File[] traces = directory.listFiles((dir, name) -> name.endsWith(SensorTrace.FILE_EXTENSION));
+        Arrays.sort(traces);
+        for (File trace : traces) {
+            SensorTraceReplay.Result single = SensorTraceReplay.replayFile(trace);
+
+            SensorPipeline pipeline = new SensorPipeline(new StepDetector(null));
+            SensorBatch batch = new SensorBatch(32); // Smaller than a 200 ms delivery, to exercise overflow
+            SensorTrace.Reader reader = SensorTrace.Reader.open(trace);
+            long batchEnd = Long.MIN_VALUE;
+            while (reader.next()) {
+                if (reader.kind != SensorTrace.KIND_SENSOR) {
+                    pipeline.processBatch(batch); // Settings apply between deliveries, as in SensorHub
+                    batch.clear();
+                    pipeline.advanceTo(reader.timestampNanos);
+                    if (reader.kind == SensorTrace.KIND_TARGET) pipeline.setTargetDegree(reader.targetDegree);
+                    if (reader.kind == SensorTrace.KIND_STEP_COUNTING) pipeline.setStepCounting(reader.stepCounting);
+                    if (reader.kind == SensorTrace.KIND_RESET) pipeline.getStepDetector().reset(reader.initialSteps);
+                    continue;
+                }
+                if (reader.timestampNanos > batchEnd || !addTo(batch, reader)) {
+                    pipeline.processBatch(batch);
+                    batch.clear();
+                    batchEnd = reader.timestampNanos + 200_000_000L;
+                    addTo(batch, reader);
+                }
+            }
+            pipeline.processBatch(batch);
+
+            assertEquals(trace.getName(), single.stepsDetected, pipeline.getStepDetector().getStepsTaken());
+            assertEquals(trace.getName(), single.finalHeading, pipeline.getHeading(), 1e-3f);
+        }
+    }
+
+    private static boolean addTo(SensorBatch batch, SensorTrace.Reader reader) {
+        return batch.add(reader.sensorType, Arrays.copyOf(reader.values, reader.valueCount), reader.timestampNanos);
+    }
+}
@@ -0,0 +1,254 @@
+package com.example.qr_indoornav;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Replays recorded {@link SensorTrace} files through a fresh {@link SensorPipeline} on the JVM.
+ *
+ * Time comes only from the trace: the pipeline's fixed-rate tick is synthesised every
+ * {@link SensorPipeline#TICK_PERIOD_MS} of event time, so a replay is deterministic and runs as
+ * fast as the CPU allows. Traces whose file name ends in {@code _<N>steps.qrtrace} carry the
+ * true step count for the walk, and the summary reports the detection error against it.
+ * Traces recorded with a hardware step sensor replay through the matching {@link StepSource}, and
+ * each line reports the replay's CPU time per meter walked so the backends can be compared.
+ * Traces in the same directory are taken to be walks of the same edge. Each of them is replayed
+ * a second time, corrected by the offset a {@link HeadingCalibration} learned from the other
+ * walks in its directory (leave one out), to count the legs calibration would have saved from
+ * aborting on a walk it did not learn from.
+ *
+ * Host-side only (it times the replay with java.lang.management), so it is kept with the unit
+ * tests; the benchmark module compiles it for the command line.
+ *
+ * Usage: {@code ./gradlew :benchmark:replayTraces -PtraceArgs="<trace file or directory>..."}
+ */
+public class SensorTraceReplay {
+
+    private static final Pattern EXPECTED_STEPS = Pattern.compile("_(\\d+)steps\\" + SensorTrace.FILE_EXTENSION + "$");
+
+    /** Outcome of one replayed trace. */
+    public static class Result {
+        public final String name;
+        public final int stepsDetected;     // Steps counted during the trace, excluding the initial count
+        public final double metersWalked;   // Length of those steps, as the StepDetector measured them
+        public final int expectedSteps;     // From the file name, or -1 if unknown
+        public final int sensorEvents;
+        public final long traceNanos;       // Event time covered by the trace
+        public final long replayNanos;      // Wall-clock time the replay took
+        public final long cpuNanos;         // Thread CPU time the replay took
+        public final float finalHeading;
+        public final String stepSource;     // Simple name of the StepSource used
+        public final int alignmentLosses;   // Legs that would have been aborted for deviating
+        public final float headingOffset;   // Heading minus target while walking, or NaN (see SensorPipeline)
+
+        public Result(String name, int stepsDetected, double metersWalked, int expectedSteps, int sensorEvents,
+                      long traceNanos, long replayNanos, long cpuNanos, float finalHeading, String stepSource,
+                      int alignmentLosses, float headingOffset) {
+            this.name = name;
+            this.stepsDetected = stepsDetected;
+            this.metersWalked = metersWalked;
+            this.expectedSteps = expectedSteps;
+            this.sensorEvents = sensorEvents;
+            this.traceNanos = traceNanos;
+            this.replayNanos = replayNanos;
+            this.cpuNanos = cpuNanos;
+            this.finalHeading = finalHeading;
+            this.stepSource = stepSource;
+            this.alignmentLosses = alignmentLosses;
+            this.headingOffset = headingOffset;
+        }
+
+        /** CPU time per meter walked, or NaN if no steps were counted. */
+        public double cpuNanosPerMeter() {
+            return metersWalked > 0 ? cpuNanos / metersWalked : Double.NaN;
+        }
+    }
+
+    /**
+     * Feeds every record of the trace to the pipeline, ticking it on event time.
+     * @return the number of sensor events replayed.
+     */
+    public static int replay(SensorTrace.Reader reader, SensorPipeline pipeline) {
+        float[][] valuesByCount = new float[17][]; // Events keep their recorded length, as on device
+        int events = 0;
+        while (reader.next()) {
+            long time = reader.timestampNanos;
+            pipeline.advanceTo(time);
+            switch (reader.kind) {
+                case SensorTrace.KIND_SENSOR:
+                    int count = reader.valueCount;
+                    float[] values = valuesByCount[count];
+                    if (values == null) {
+                        values = valuesByCount[count] = new float[count];
+                    }
+                    System.arraycopy(reader.values, 0, values, 0, count);
+                    pipeline.onSensorEvent(reader.sensorType, values, time);
+                    events++;
+                    break;
+                case SensorTrace.KIND_TARGET:
+                    pipeline.setTargetDegree(reader.targetDegree);
+                    break;
+                case SensorTrace.KIND_STEP_COUNTING:
+                    pipeline.setStepCounting(reader.stepCounting);
+                    break;
+                case SensorTrace.KIND_RESET:
+                    pipeline.getStepDetector().reset(reader.initialSteps);
+                    break;
+            }
+        }
+        return events;
+    }
+
+    /**
+     * The step source a trace was recorded with: the hub registers at most one hardware step
+     * sensor, so any step detector or step counter event identifies it.
+     */
+    public static StepSource stepSourceFor(byte[] data, StepDetector stepDetector) throws IOException {
+        SensorTrace.Reader reader = new SensorTrace.Reader(data);
+        while (reader.next()) {
+            if (reader.kind != SensorTrace.KIND_SENSOR) continue;
+            if (reader.sensorType == SensorPipeline.TYPE_STEP_DETECTOR) {
+                return new StepSource.HardwareDetector(stepDetector);
+            } else if (reader.sensorType == SensorPipeline.TYPE_STEP_COUNTER) {
+                return new StepSource.HardwareCounter(stepDetector);
+            }
+        }
+        return new StepSource.Software(stepDetector);
+    }
+
+    /** Replays one trace file with a default-calibrated StepDetector. */
+    public static Result replayFile(File file) throws IOException {
+        return replayFile(file, 0f);
+    }
+
+    /**
+     * Replays one trace file, correcting the heading by {@code headingOffset} as a
+     * {@link HeadingCalibration} would on device.
+     */
+    public static Result replayFile(File file, float headingOffset) throws IOException {
+        byte[] data = Files.readAllBytes(file.toPath());
+        StepDetector stepDetector = new StepDetector(null);
+        SensorPipeline pipeline = new SensorPipeline(stepDetector);
+        pipeline.setStepSource(stepSourceFor(data, stepDetector));
+        pipeline.setHeadingOffset(headingOffset);
+
+        // The first record gives the start time and, as SensorHub always starts with a reset, the initial count.
+        SensorTrace.Reader first = new SensorTrace.Reader(data);
+        long firstTimestamp = first.next() ? first.timestampNanos : Long.MIN_VALUE;
+        int initialSteps = first.kind == SensorTrace.KIND_RESET ? first.initialSteps : 0;
+        double initialMeters = initialSteps * stepDetector.getStepLengthMeters(); // As StepDetector.reset sets it
+
+        SensorTrace.Reader reader = new SensorTrace.Reader(data);
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long startedCpu = threads.getCurrentThreadCpuTime();
+        long started = System.nanoTime();
+        int events = replay(reader, pipeline);
+        long replayNanos = System.nanoTime() - started;
+        long cpuNanos = threads.getCurrentThreadCpuTime() - startedCpu;
+
+        long traceNanos = firstTimestamp == Long.MIN_VALUE ? 0 : reader.timestampNanos - firstTimestamp;
+        Matcher matcher = EXPECTED_STEPS.matcher(file.getName());
+        int expected = matcher.find() ? Integer.parseInt(matcher.group(1)) : -1;
+        int detected = stepDetector.getStepsTaken() - initialSteps;
+        double meters = stepDetector.getMetersCovered() - initialMeters;
+        return new Result(file.getName(), detected, meters, expected, events, traceNanos, replayNanos, cpuNanos,
+                pipeline.getHeading(), pipeline.getStepSource().getClass().getSimpleName(),
+                pipeline.getAlignmentLosses(), pipeline.getLegHeadingOffset());
+    }
+
+    /**
+     * The offset a {@link HeadingCalibration} applies on the next walk of a leg once it has
+     * learned from {@code walks} of it, in order; 0 if none of them taught it anything.
+     */
+    public static float learnedOffset(List<Result> walks) {
+        HeadingCalibration calibration = new HeadingCalibration();
+        for (Result walk : walks) {
+            calibration.record("A", "B", Float.NaN, walk.headingOffset);
+        }
+        return calibration.offsetFor("A", "B", false);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: SensorTraceReplay <trace file or directory>...");
+            System.exit(2);
+        }
+        List<File> files = new ArrayList<>();
+        for (String arg : args) {
+            collect(new File(arg), files);
+        }
+
+        Map<File, Result> results = new LinkedHashMap<>();
+        for (File file : files) {
+            results.put(file, replayFile(file));
+        }
+
+        long totalEvents = 0, totalTraceNanos = 0, totalReplayNanos = 0;
+        int labelled = 0, absoluteError = 0, heldOut = 0, aborts = 0, calibratedAborts = 0;
+        System.out.println("trace,step_source,steps,expected,events,trace_s,replay_ms,cpu_us_per_m,final_heading,"
+                + "heading_offset,aborts,aborts_calibrated");
+        for (File file : files) {
+            Result r = results.get(file);
+            // Calibrated by the other walks of this edge only, as the table would be before this walk;
+            // -1 when there are none.
+            List<Result> others = new ArrayList<>();
+            for (Map.Entry<File, Result> other : results.entrySet()) {
+                if (other.getKey() != file && other.getKey().getAbsoluteFile().getParentFile()
+                        .equals(file.getAbsoluteFile().getParentFile())) {
+                    others.add(other.getValue());
+                }
+            }
+            int calibrated = -1;
+            if (!others.isEmpty()) {
+                calibrated = replayFile(file, learnedOffset(others)).alignmentLosses;
+                heldOut++;
+                aborts += r.alignmentLosses;
+                calibratedAborts += calibrated;
+            }
+            System.out.println(String.format(Locale.US, "%s,%s,%d,%d,%d,%.1f,%.2f,%.1f,%.1f,%.1f,%d,%d", r.name, r.stepSource,
+                    r.stepsDetected, r.expectedSteps, r.sensorEvents, r.traceNanos / 1e9, r.replayNanos / 1e6,
+                    r.cpuNanosPerMeter() / 1e3, r.finalHeading, r.headingOffset, r.alignmentLosses, calibrated));
+            totalEvents += r.sensorEvents;
+            totalTraceNanos += r.traceNanos;
+            totalReplayNanos += r.replayNanos;
+            if (r.expectedSteps >= 0) {
+                labelled++;
+                absoluteError += Math.abs(r.stepsDetected - r.expectedSteps);
+            }
+        }
+
+        System.out.println(String.format(Locale.US, "# %d traces, %d events, %.1f s of walking replayed in %.1f ms (%.0fx real time, %.2f M events/s)",
+                files.size(), totalEvents, totalTraceNanos / 1e9, totalReplayNanos / 1e6,
+                totalReplayNanos > 0 ? (double) totalTraceNanos / totalReplayNanos : 0,
+                totalReplayNanos > 0 ? totalEvents * 1e3 / totalReplayNanos : 0));
+        System.out.println(String.format(Locale.US,
+                "# aborted legs over %d traces with other walks of their edge: %d as recorded, %d calibrated by those walks",
+                heldOut, aborts, calibratedAborts));
+        if (labelled > 0) {
+            System.out.println(String.format(Locale.US, "# step error over %d labelled traces: %d steps total, %.2f mean absolute",
+                    labelled, absoluteError, (double) absoluteError / labelled));
+        }
+    }
+
+    private static void collect(File file, List<File> out) {
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children == null) return;
+            Arrays.sort(children);
+            for (File child : children) collect(child, out);
+        } else if (file.getName().endsWith(SensorTrace.FILE_EXTENSION)) {
+            out.add(file);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.qr_indoornav;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Step counts of {@link StepDetector} (now backed by {@link StepEngine}) against the previous
+ * single-sample detector, on the labelled traces in src/test/resources/traces. Both detectors
+ * see the same samples with the same fused orientation, so only the detection differs.
+ *
+ * Those traces are not recordings: {@link SyntheticWalkTraces} generates them, and it models
+ * exactly the surge and sway relationship the engine relies on. The test guards against
+ * regressions; that the engine beats the legacy detector here is not independent evidence that
+ * it does so on real walks.
+ *
+ * The traces in traces/adversarial come from {@link AdversarialWalkTraces}, a motion model the
+ * engine was not tuned on: heel strikes, a tilted phone, faster cadences. They are synthetic too,
+ * and show where both detectors fall short. The 800 ms time gate StepDetector keeps from the
+ * legacy detector caps the count at 1.25 steps/s, so walks at 1.7 to 2.2 steps/s count about
+ * half their steps. The shuffle mostly stays under the minimum swing, and taps on a handled
+ * phone count as steps. Only the engine's total error is compared with the legacy detector's.
+ */
+public class StepEngineAccuracyTest {
+
+    private static final Pattern EXPECTED_STEPS = Pattern.compile("_(\\d+)steps\\.qrtrace$");
+
+    @Test
+    public void engineCountsAtLeastAsAccuratelyAsLegacyDetector() throws Exception {
+        File[] traces = traceFiles();
+        assertTrue("No traces found", traces.length > 0);
+
+        int engineError = 0, legacyError = 0;
+        for (File trace : traces) {
+            int expected = expectedSteps(trace);
+            int[] counts = count(trace);
+            int error = Math.abs(counts[0] - expected);
+            assertTrue(trace.getName() + ": engine counted " + counts[0] + ", expected " + expected,
+                    error <= Math.max(1, expected / 10));
+            engineError += error;
+            legacyError += Math.abs(counts[1] - expected);
+        }
+        assertTrue("engine " + engineError + " vs legacy " + legacyError, engineError <= legacyError);
+    }
+
+    @Test
+    public void engineErrsLessThanLegacyDetectorOnAdversarialTraces() throws Exception {
+        File[] traces = traceFiles("traces/adversarial");
+        assertTrue("No adversarial traces found", traces.length > 0);
+
+        int engineError = 0, legacyError = 0;
+        for (File trace : traces) {
+            int expected = expectedSteps(trace);
+            int[] counts = count(trace);
+            engineError += Math.abs(counts[0] - expected);
+            legacyError += Math.abs(counts[1] - expected);
+        }
+        assertTrue("engine " + engineError + " vs legacy " + legacyError, engineError <= legacyError);
+    }
+
+    @Test
+    public void replayMatchesDirectFeed() throws Exception {
+        // The replay harness drives the full pipeline (with its alignment gate) and must agree
+        // with feeding the detector directly while the walker stays aligned.
+        for (File trace : traceFiles()) {
+            SensorTraceReplay.Result result = SensorTraceReplay.replayFile(trace);
+            assertEquals(trace.getName(), count(trace)[0], result.stepsDetected);
+        }
+    }
+
+    private static int expectedSteps(File trace) {
+        Matcher matcher = EXPECTED_STEPS.matcher(trace.getName());
+        assertTrue(trace.getName(), matcher.find());
+        return Integer.parseInt(matcher.group(1));
+    }
+
+    /** Counts steps with the current and legacy detectors: {engine, legacy}. */
+    private static int[] count(File trace) throws IOException {
+        SensorTrace.Reader reader = SensorTrace.Reader.open(trace);
+        HeadingFusion fusion = new HeadingFusion();
+        StepDetector detector = new StepDetector(null);
+        LegacyStepDetector legacy = new LegacyStepDetector();
+        float[] three = new float[3];
+        float target = 0f;
+        boolean counting = false;
+        while (reader.next()) {
+            switch (reader.kind) {
+                case SensorTrace.KIND_TARGET:
+                    target = reader.targetDegree;
+                    break;
+                case SensorTrace.KIND_STEP_COUNTING:
+                    counting = reader.stepCounting;
+                    break;
+                case SensorTrace.KIND_SENSOR:
+                    System.arraycopy(reader.values, 0, three, 0, 3);
+                    long time = reader.timestampNanos;
+                    if (reader.sensorType == SensorPipeline.TYPE_GYROSCOPE) {
+                        fusion.onGyroscope(three, time);
+                    } else if (reader.sensorType == SensorPipeline.TYPE_MAGNETIC_FIELD) {
+                        fusion.onMagnetometer(three, time);
+                    } else if (reader.sensorType == SensorPipeline.TYPE_ACCELEROMETER) {
+                        fusion.onAccelerometer(three, time);
+                        if (counting && fusion.hasOrientation()) {
+                            float[] rotation = fusion.getRotationMatrix();
+                            detector.processSensorData(three, rotation, target, time);
+                            legacy.processSensorData(three, rotation, target, time);
+                        }
+                    }
+                    break;
+            }
+        }
+        return new int[]{detector.getStepsTaken(), legacy.stepsTaken};
+    }
+
+    private static File[] traceFiles() throws URISyntaxException {
+        return traceFiles("traces");
+    }
+
+    private static File[] traceFiles(String resource) throws URISyntaxException {
+        URL url = StepEngineAccuracyTest.class.getClassLoader().getResource(resource);
+        assertTrue(resource + " resource directory missing", url != null);
+        File[] files = new File(url.toURI()).listFiles((dir, name) -> name.endsWith(SensorTrace.FILE_EXTENSION));
+        Arrays.sort(files);
+        return files;
+    }
+}
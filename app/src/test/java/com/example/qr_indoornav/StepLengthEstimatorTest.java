@@ -0,0 +1,67 @@
+package com.example.qr_indoornav;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+
+/**
+ * The step length converges on the walker's from checkpoint legs, follows their pace through
+ * the step amplitude, and survives a save and restore.
+ */
+public class StepLengthEstimatorTest {
+
+    /** Weinberg gain of the simulated walker: 0.5 m per unit of amplitude^(1/4). */
+    private static final double TRUE_GAIN = 0.5;
+
+    @Test
+    public void convergesFromTheDefaultInAFewLegs() {
+        StepLengthEstimator estimator = new StepLengthEstimator(5);
+        for (int leg = 0; leg < 4; leg++) {
+            walk(estimator, 30, 4f);
+        }
+        double expected = TRUE_GAIN * Math.sqrt(2); // A 4 m/s^2 swing
+        assertEquals(expected, estimator.getMeanStepLength(), 0.05);
+    }
+
+    @Test
+    public void brisherStepsAreLonger() {
+        StepLengthEstimator estimator = new StepLengthEstimator(5);
+        for (int leg = 0; leg < 4; leg++) {
+            walk(estimator, 30, 4f);
+        }
+        double gentle = estimator.stepLength(estimator.feature(2f));
+        double brisk = estimator.stepLength(estimator.feature(8f));
+        assertEquals(TRUE_GAIN * Math.pow(8, 0.25), brisk, 0.05);
+        assertEquals(Math.pow(4, 0.25), brisk / gentle, 1e-6);
+    }
+
+    @Test
+    public void rejectsImplausibleLegs() {
+        StepLengthEstimator estimator = new StepLengthEstimator(5);
+        assertFalse("Too few steps", estimator.update(10, 2 * Math.sqrt(2), 2));
+        assertFalse("50 m per step", estimator.update(500, 10 * Math.sqrt(2), 10));
+        assertEquals(0, estimator.getLegCount());
+        assertEquals(5, estimator.getMeanStepLength(), 1e-9);
+    }
+
+    @Test
+    public void stateRoundTrips() {
+        StepLengthEstimator estimator = new StepLengthEstimator(5);
+        walk(estimator, 20, 3f);
+        StepLengthEstimator restored = new StepLengthEstimator(5);
+        restored.setState(estimator.getState());
+        assertEquals(estimator.getMeanStepLength(), restored.getMeanStepLength(), 1e-12);
+        assertEquals(1, restored.getLegCount());
+
+        restored.setState(new double[]{-1, 1, 1, 0}); // Corrupt: ignored
+        assertEquals(estimator.getMeanStepLength(), restored.getMeanStepLength(), 1e-12);
+    }
+
+    /** Walks a leg of {@code meters} in steps of {@code amplitude} and fits the estimator to it. */
+    private static void walk(StepLengthEstimator estimator, double meters, float amplitude) {
+        double feature = estimator.feature(amplitude);
+        int steps = (int) Math.round(meters / (TRUE_GAIN * feature));
+        estimator.update(steps * TRUE_GAIN * feature, steps * feature, steps);
+    }
+}
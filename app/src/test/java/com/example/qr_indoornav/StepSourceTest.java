@@ -0,0 +1,73 @@
+package com.example.qr_indoornav;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * The hardware step sources count through the same heading check and time gate as the
+ * accelerometer detector.
+ */
+public class StepSourceTest {
+
+    private static final long SECOND = 1_000_000_000L;
+    private static final float[] FACING_NORTH = {0f, 0f, 0f, 1f}; // Identity rotation vector
+
+    @Test
+    public void stepDetectorCountsOnlyWhileAligned() {
+        StepDetector detector = new StepDetector(null);
+        SensorPipeline pipeline = pipeline(detector, new StepSource.HardwareDetector(detector), 0f);
+
+        step(pipeline, SensorPipeline.TYPE_STEP_DETECTOR, 1f, 2 * SECOND);
+        step(pipeline, SensorPipeline.TYPE_STEP_DETECTOR, 1f, 3 * SECOND);
+        assertEquals(2, detector.getStepsTaken());
+
+        pipeline.setTargetDegree(90f); // Now facing well off the target
+        pipeline.tick(4 * SECOND);
+        step(pipeline, SensorPipeline.TYPE_STEP_DETECTOR, 1f, 4 * SECOND);
+        assertEquals(2, detector.getStepsTaken());
+    }
+
+    @Test
+    public void stepCounterCountsDeltasFromFirstEvent() {
+        StepDetector detector = new StepDetector(null);
+        SensorPipeline pipeline = pipeline(detector, new StepSource.HardwareCounter(detector), 0f);
+
+        step(pipeline, SensorPipeline.TYPE_STEP_COUNTER, 5000f, 2 * SECOND); // Total since boot: baseline only
+        assertEquals(0, detector.getStepsTaken());
+        step(pipeline, SensorPipeline.TYPE_STEP_COUNTER, 5001f, 3 * SECOND);
+        step(pipeline, SensorPipeline.TYPE_STEP_COUNTER, 5003f, 5 * SECOND); // A batch of two
+        assertEquals(3, detector.getStepsTaken());
+
+        pipeline.setStepCounting(false);
+        step(pipeline, SensorPipeline.TYPE_STEP_COUNTER, 5010f, 9 * SECOND);
+        pipeline.setStepCounting(true);
+        step(pipeline, SensorPipeline.TYPE_STEP_COUNTER, 5011f, 10 * SECOND);
+        assertEquals("Steps while not counting must not be credited later", 4, detector.getStepsTaken());
+    }
+
+    @Test
+    public void hardwareStepsObserveTheTimeGate() {
+        StepDetector detector = new StepDetector(null);
+        SensorPipeline pipeline = pipeline(detector, new StepSource.HardwareCounter(detector), 0f);
+
+        step(pipeline, SensorPipeline.TYPE_STEP_COUNTER, 0f, 2 * SECOND);
+        step(pipeline, SensorPipeline.TYPE_STEP_COUNTER, 1f, 3 * SECOND);
+        step(pipeline, SensorPipeline.TYPE_STEP_COUNTER, 11f, 5 * SECOND); // 10 steps in 2 s
+        assertEquals(3, detector.getStepsTaken()); // At most one per 800 ms gate
+    }
+
+    private static SensorPipeline pipeline(StepDetector detector, StepSource source, float target) {
+        SensorPipeline pipeline = new SensorPipeline(detector);
+        pipeline.setStepSource(source);
+        pipeline.setTargetDegree(target);
+        pipeline.setStepCounting(true);
+        pipeline.onSensorEvent(SensorPipeline.TYPE_ROTATION_VECTOR, FACING_NORTH, SECOND);
+        pipeline.tick(SECOND);
+        return pipeline;
+    }
+
+    private static void step(SensorPipeline pipeline, int type, float value, long timestampNanos) {
+        pipeline.onSensorEvent(type, new float[]{value}, timestampNanos);
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.qr_indoornav;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Writes the seeded synthetic walks in src/test/resources/traces. Each walk is a phone held flat
+ * in front of a walker heading north-east: accelerometer and gyroscope at 50 Hz, magnetometer at
+ * 10 Hz, with standing time before and after. Per-step vertical bounce, forward surge and a
+ * lateral sway at half the cadence are shaped from sines, with Gaussian sensor noise and a slow
+ * heading wobble. The file name carries the true step count.
+ *
+ * Regenerate with {@code main(<output directory>)}; the output is deterministic.
+ */
+public class SyntheticWalkTraces {
+
+    static final float HEADING_DEGREES = 45f;
+    private static final long SAMPLE_NANOS = 20_000_000L;
+    private static final float GRAVITY = 9.81f;
+
+    /** Parameters of one walk. */
+    static final class Walk {
+        final String name;
+        final int steps;
+        final float cadenceHz, cadenceJitter, bounce, surge, sway, noise, wobbleDegrees;
+        final int shakes;
+        final long seed;
+
+        Walk(String name, int steps, float cadenceHz, float cadenceJitter, float bounce, float surge,
+             float sway, float noise, float wobbleDegrees, int shakes, long seed) {
+            this.name = name;
+            this.steps = steps;
+            this.cadenceHz = cadenceHz;
+            this.cadenceJitter = cadenceJitter;
+            this.bounce = bounce;
+            this.surge = surge;
+            this.sway = sway;
+            this.noise = noise;
+            this.wobbleDegrees = wobbleDegrees;
+            this.shakes = shakes;
+            this.seed = seed;
+        }
+
+        String fileName() {
+            return "walk-" + name + "_" + steps + "steps" + SensorTrace.FILE_EXTENSION;
+        }
+    }
+
+    static final Walk[] WALKS = {
+            //        name        steps cadence jitter bounce surge sway noise wobble shakes seed
+            new Walk("steady",    24,   1.00f,  0.03f, 3.0f,  1.5f, 0.6f, 0.3f, 3f,    0,     1),
+            new Walk("noisy",     24,   1.00f,  0.05f, 3.0f,  1.5f, 0.6f, 0.8f, 4f,    0,     2),
+            new Walk("swaying",   20,   0.95f,  0.05f, 2.8f,  1.2f, 1.6f, 0.4f, 5f,    0,     3),
+            new Walk("gentle",    20,   0.90f,  0.05f, 1.9f,  1.0f, 0.5f, 0.3f, 3f,    0,     4),
+            new Walk("shakes",    20,   1.00f,  0.05f, 3.0f,  1.5f, 0.6f, 0.3f, 3f,    3,     5),
+            new Walk("brisk",     26,   1.15f,  0.08f, 3.4f,  1.8f, 0.8f, 0.5f, 8f,    0,     6),
+    };
+
+    public static void main(String[] args) throws IOException {
+        File directory = new File(args.length > 0 ? args[0] : "app/src/test/resources/traces");
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        for (Walk walk : WALKS) {
+            write(walk, new File(directory, walk.fileName()));
+        }
+    }
+
+    static void write(Walk walk, File file) throws IOException {
+        write(walk, file, 0f);
+    }
+
+    /**
+     * Writes {@code walk} with the magnetic field turned by {@code disturbanceDegrees}, as near
+     * steel: the compass reads that much more than the true heading, while the walker still
+     * follows the corridor.
+     */
+    static void write(Walk walk, File file, float disturbanceDegrees) throws IOException {
+        Random random = new Random(walk.seed);
+        float[] accel = new float[3], gyro = new float[3], mag = new float[3];
+        try (SensorTrace.Writer writer = new SensorTrace.Writer(file)) {
+            long t = 1_000_000_000_000L; // Boot-relative, like SensorEvent.timestamp
+            writer.reset(0, t);
+            writer.target(HEADING_DEGREES, t);
+            writer.stepCounting(true, t);
+
+            // Timeline: 3 s standing (with the shakes), the steps, 2 s standing.
+            float[] stepStarts = new float[walk.steps + 1];
+            float time = 3f;
+            for (int i = 0; i <= walk.steps; i++) {
+                stepStarts[i] = time;
+                time += 1f / (walk.cadenceHz * (1f + walk.cadenceJitter * (float) random.nextGaussian()));
+            }
+            float end = stepStarts[walk.steps] + 2f;
+            float[] shakeTimes = new float[walk.shakes];
+            for (int i = 0; i < walk.shakes; i++) shakeTimes[i] = 0.4f + i * 0.9f;
+
+            int sample = 0;
+            float previousHeading = heading(walk, 0f);
+            for (float s = 0f; s < end; s = ++sample * SAMPLE_NANOS * 1e-9f) {
+                long timestamp = t + sample * SAMPLE_NANOS;
+                float east = 0f, north = 0f, up = 0f;
+
+                int step = stepIndex(stepStarts, s);
+                if (step >= 0) {
+                    float phase = (s - stepStarts[step]) / (stepStarts[step + 1] - stepStarts[step]);
+                    // Braking at heel strike (top of the bounce), push-off in the dip.
+                    float forward = -walk.surge * (float) Math.sin(2 * Math.PI * phase);
+                    float lateral = walk.sway * (float) Math.sin(Math.PI * (step + phase));
+                    up = walk.bounce * (float) Math.sin(2 * Math.PI * phase);
+                    double walkRad = Math.toRadians(HEADING_DEGREES);
+                    east = forward * (float) Math.sin(walkRad) + lateral * (float) Math.cos(walkRad);
+                    north = forward * (float) Math.cos(walkRad) - lateral * (float) Math.sin(walkRad);
+                }
+                for (float shake : shakeTimes) {
+                    if (s >= shake && s < shake + 0.2f) {
+                        float phase = (s - shake) / 0.2f;
+                        float jolt = 6f * (float) Math.sin(2 * Math.PI * phase);
+                        east += jolt * 0.8f;
+                        up += jolt * 0.6f;
+                    }
+                }
+
+                // Flat phone, device y axis pointing at the current heading.
+                float headingDegrees = heading(walk, s);
+                double psi = Math.toRadians(headingDegrees);
+                float cos = (float) Math.cos(psi), sin = (float) Math.sin(psi);
+                float worldUp = GRAVITY + up;
+                accel[0] = cos * east - sin * north + noise(random, walk.noise);
+                accel[1] = sin * east + cos * north + noise(random, walk.noise);
+                accel[2] = worldUp + noise(random, walk.noise);
+                writer.sensor(SensorPipeline.TYPE_ACCELEROMETER, accel, timestamp);
+
+                float rate = (float) Math.toRadians(headingDegrees - previousHeading) / (SAMPLE_NANOS * 1e-9f);
+                previousHeading = headingDegrees;
+                gyro[0] = noise(random, 0.01f);
+                gyro[1] = noise(random, 0.01f);
+                gyro[2] = -rate + noise(random, 0.01f); // Counter-clockwise about up lowers the azimuth
+                writer.sensor(SensorPipeline.TYPE_GYROSCOPE, gyro, timestamp + 1000);
+
+                if (sample % 5 == 0) {
+                    float magNorth = 22f, magUp = -40f;
+                    double magPsi = psi + Math.toRadians(disturbanceDegrees);
+                    float magCos = (float) Math.cos(magPsi), magSin = (float) Math.sin(magPsi);
+                    mag[0] = -magSin * magNorth + noise(random, 0.5f);
+                    mag[1] = magCos * magNorth + noise(random, 0.5f);
+                    mag[2] = magUp + noise(random, 0.5f);
+                    writer.sensor(SensorPipeline.TYPE_MAGNETIC_FIELD, mag, timestamp + 2000);
+                }
+            }
+        }
+    }
+
+    private static float heading(Walk walk, float seconds) {
+        return HEADING_DEGREES + walk.wobbleDegrees * (float) Math.sin(2 * Math.PI * 0.3 * seconds);
+    }
+
+    private static int stepIndex(float[] stepStarts, float seconds) {
+        for (int i = 0; i + 1 < stepStarts.length; i++) {
+            if (seconds >= stepStarts[i] && seconds < stepStarts[i + 1]) return i;
+        }
+        return -1;
+    }
+
+    private static float noise(Random random, float sigma) {
+        return sigma * (float) random.nextGaussian();
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.qr_indoornav.model;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Generated payloads read back as the map that was generated: every junction and every room,
+ * and nothing else, whatever the topology and seed.
+ */
+public class MapGeneratorTest {
+
+    private static final int SEEDS = 200;
+
+    @Test
+    public void everyTopologyRoundTrips() {
+        for (MapGenerator.Topology topology : MapGenerator.Topology.values()) {
+            for (long seed = 0; seed < SEEDS; seed++) {
+                MapGenerator.Options options = new MapGenerator.Options();
+                options.topology = topology;
+                options.junctions = 64;
+                options.seed = seed;
+                assertRoundTrips(topology + " seed " + seed, options);
+            }
+        }
+    }
+
+    @Test
+    public void roomRangesStepOverTheSurrogateBlock() {
+        // About 56,000 rooms: the ids run on past the UTF-16 surrogates.
+        MapGenerator.Options options = new MapGenerator.Options();
+        options.topology = MapGenerator.Topology.SPINE;
+        options.junctions = 7000;
+        options.minEdgeMeters = 20;
+        options.roomsPerTenMeters = 4f;
+        assertRoundTrips("large spine", options);
+    }
+
+    private static void assertRoundTrips(String label, MapGenerator.Options options) {
+        MapData.loadMapFromQRString(MapGenerator.generate(options));
+        int rooms = 0;
+        for (Location location : MapData.getAllLocations()) {
+            if (location.displayName.startsWith("Room ")) rooms++;
+        }
+        assertEquals(label + ": junctions", options.junctions, MapData.getGraph().getAllNodes().size());
+        assertEquals(label + ": rooms", MapGenerator.roomCount(options), rooms);
+    }
+}
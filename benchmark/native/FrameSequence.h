@@ -0,0 +1,83 @@
+#ifndef QR_INDOORNAV_FRAMESEQUENCE_H
+#define QR_INDOORNAV_FRAMESEQUENCE_H
+
+#include <opencv2/opencv.hpp>
+#include <algorithm>
+#include <cmath>
+#include <string>
+#include <vector>
+
+// Luma frames for the scanner benchmarks: either recorded ones read from a directory (any image
+// format OpenCV reads, in file name order) or a seeded synthetic sequence of a QR code drifting
+// across a cluttered, noisy background the way a hand-held phone sees it.
+namespace frames {
+
+// Reads every image in 'directory' as grayscale, sorted by file name.
+inline std::vector<cv::Mat> load(const std::string& directory) {
+    std::vector<cv::String> paths;
+    cv::glob(directory, paths, false);
+    std::sort(paths.begin(), paths.end());
+    std::vector<cv::Mat> sequence;
+    for (const auto& path : paths) {
+        cv::Mat frame = cv::imread(path, cv::IMREAD_GRAYSCALE);
+        if (!frame.empty()) sequence.push_back(frame);
+    }
+    return sequence;
+}
+
+// 'count' portrait frames (480x640, as the analyzer delivers them after rotation). The code starts
+// out of frame for 'leadIn' frames, then enters from the side and wanders slowly around the centre
+// while its size breathes, as when walking up to a checkpoint and holding the phone still.
+inline std::vector<cv::Mat> synthetic(int count, int leadIn = 0, const std::string& payload = "A1|benchmark",
+                                      uint64_t seed = 7) {
+    const cv::Size size(480, 640);
+    cv::RNG rng(seed);
+
+    cv::Mat background(size, CV_8UC1);
+    for (int y = 0; y < size.height; ++y) {
+        for (int x = 0; x < size.width; ++x) {
+            background.at<uchar>(y, x) = cv::saturate_cast<uchar>(110 + 50 * std::sin(x * 0.01) + 30 * std::cos(y * 0.013));
+        }
+    }
+    for (int i = 0; i < 40; ++i) { // Clutter: door frames, posters, signs
+        cv::Point corner(rng.uniform(0, size.width), rng.uniform(0, size.height));
+        cv::Size box(rng.uniform(10, 120), rng.uniform(10, 120));
+        cv::rectangle(background, cv::Rect(corner, box), cv::Scalar(rng.uniform(20, 235)), rng.uniform(-1, 4));
+    }
+
+    cv::Mat code;
+    cv::QRCodeEncoder::create()->encode(payload, code);
+    cv::copyMakeBorder(code, code, 4, 4, 4, 4, cv::BORDER_CONSTANT, cv::Scalar(255)); // Quiet zone
+
+    std::vector<cv::Mat> sequence;
+    sequence.reserve(count);
+    cv::Mat noise(size, CV_16SC1);
+    for (int i = 0; i < count; ++i) {
+        cv::Mat frame = background.clone();
+        int t = i - leadIn;
+        if (t >= 0) {
+            double module = 5.0 + 0.8 * std::sin(t * 0.05);      // Pixels per module
+            double enter = std::max(0.0, 1.0 - t / 20.0);         // Slides in over 20 frames
+            cv::Point2d center(size.width / 2.0 + 40 * std::sin(t * 0.07) + enter * size.width,
+                               size.height / 2.0 + 30 * std::cos(t * 0.05));
+            double angle = 4 * std::sin(t * 0.03) * CV_PI / 180;
+            double scale = module;
+            cv::Mat warp = (cv::Mat_<double>(2, 3) <<
+                    scale * std::cos(angle), -scale * std::sin(angle), 0,
+                    scale * std::sin(angle), scale * std::cos(angle), 0);
+            cv::Point2d codeCenter(code.cols / 2.0, code.rows / 2.0);
+            warp.at<double>(0, 2) = center.x - (warp.at<double>(0, 0) * codeCenter.x + warp.at<double>(0, 1) * codeCenter.y);
+            warp.at<double>(1, 2) = center.y - (warp.at<double>(1, 0) * codeCenter.x + warp.at<double>(1, 1) * codeCenter.y);
+            cv::warpAffine(code, frame, warp, size, cv::INTER_LINEAR, cv::BORDER_TRANSPARENT);
+        }
+        rng.fill(noise, cv::RNG::NORMAL, 0, 6);
+        cv::Mat noisy;
+        cv::add(frame, noise, noisy, cv::noArray(), CV_8U);
+        sequence.push_back(noisy);
+    }
+    return sequence;
+}
+
+}  // namespace frames
+
+#endif //QR_INDOORNAV_FRAMESEQUENCE_H
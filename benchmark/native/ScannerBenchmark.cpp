@@ -0,0 +1,136 @@
+// Frames per second and heap allocations per frame of the native QR scanner on the host.
+//
+// Runs processFrameForGuidance (app/src/main/cpp) over a frame sequence twice: once creating a
+// new ScannerContext for every frame, which is what the scanner did before the context existed
+// (a new CLAHE, new images, contour vectors and QR detector per frame), and once with one
+// context for the whole session, as the app now does. Region tracking is off so that every frame
+// is searched in full (TrackingBenchmark.cpp measures that).
+//
+// Usage: scanner_benchmark [--frames <dir>] [--count N] [--threads N]
+// Without --frames a synthetic sequence is used (see FrameSequence.h).
+
+#include <opencv2/opencv.hpp>
+
+#include "Guidance.h"
+#include "ScannerContext.h"
+#include "FrameSequence.h"
+
+#include <atomic>
+#include <cerrno>
+#include <chrono>
+#include <cstdio>
+#include <cstdlib>
+#include <cstring>
+#include <memory>
+#include <string>
+
+// --- Heap allocation counting ---
+// The executable's malloc family takes precedence over glibc's for every library in the process,
+// OpenCV included, so these count all heap allocations made while 'counting' is set.
+static std::atomic<bool> counting(false);
+static std::atomic<long> allocations(0);
+static std::atomic<long> allocatedBytes(0);
+
+#if defined(__GLIBC__)
+extern "C" {
+void* __libc_malloc(size_t size);
+void* __libc_calloc(size_t count, size_t size);
+void* __libc_realloc(void* ptr, size_t size);
+void* __libc_memalign(size_t alignment, size_t size);
+void __libc_free(void* ptr);
+
+static inline void countAllocation(size_t size) {
+    if (counting.load(std::memory_order_relaxed)) {
+        allocations.fetch_add(1, std::memory_order_relaxed);
+        allocatedBytes.fetch_add((long) size, std::memory_order_relaxed);
+    }
+}
+
+void* malloc(size_t size) { countAllocation(size); return __libc_malloc(size); }
+void* calloc(size_t count, size_t size) { countAllocation(count * size); return __libc_calloc(count, size); }
+void* realloc(void* ptr, size_t size) { countAllocation(size); return __libc_realloc(ptr, size); }
+void* memalign(size_t alignment, size_t size) { countAllocation(size); return __libc_memalign(alignment, size); }
+void* aligned_alloc(size_t alignment, size_t size) { countAllocation(size); return __libc_memalign(alignment, size); }
+int posix_memalign(void** out, size_t alignment, size_t size) {
+    countAllocation(size);
+    *out = __libc_memalign(alignment, size);
+    return *out != nullptr ? 0 : ENOMEM;
+}
+void free(void* ptr) { __libc_free(ptr); }
+}
+#define COUNTS_ALLOCATIONS 1
+#else
+#define COUNTS_ALLOCATIONS 0
+#endif
+
+struct RunStats {
+    double fps;
+    double meanMs;
+    double allocationsPerFrame;
+    double kilobytesPerFrame;
+    int decodedFrames;
+};
+
+static RunStats run(const std::vector<cv::Mat>& sequence, bool persistent) {
+    const int warmup = std::min<int>(10, sequence.size());
+    std::unique_ptr<ScannerContext> session(new ScannerContext());
+    session->trackingEnabled = false;
+    for (int i = 0; i < warmup; ++i) {
+        processFrameForGuidance(*session, sequence[i]);
+    }
+
+    int decoded = 0;
+    allocations = 0;
+    allocatedBytes = 0;
+    auto start = std::chrono::steady_clock::now();
+    counting = true;
+    for (const cv::Mat& frame : sequence) {
+        if (persistent) {
+            if (!processFrameForGuidance(*session, frame).empty()) decoded++;
+        } else {
+            ScannerContext perFrame;
+            perFrame.trackingEnabled = false;
+            if (!processFrameForGuidance(perFrame, frame).empty()) decoded++;
+        }
+    }
+    counting = false;
+    double seconds = std::chrono::duration<double>(std::chrono::steady_clock::now() - start).count();
+
+    RunStats stats;
+    stats.fps = sequence.size() / seconds;
+    stats.meanMs = seconds * 1e3 / sequence.size();
+    stats.allocationsPerFrame = allocations.load() / (double) sequence.size();
+    stats.kilobytesPerFrame = allocatedBytes.load() / 1024.0 / sequence.size();
+    stats.decodedFrames = decoded;
+    return stats;
+}
+
+static void print(const char* label, const RunStats& stats) {
+    std::printf("%-22s %7.1f fps  %7.2f ms/frame", label, stats.fps, stats.meanMs);
+    if (COUNTS_ALLOCATIONS) {
+        std::printf("  %8.1f allocs/frame  %9.1f KiB/frame", stats.allocationsPerFrame, stats.kilobytesPerFrame);
+    }
+    std::printf("  decoded %d\n", stats.decodedFrames);
+}
+
+int main(int argc, char** argv) {
+    std::string directory;
+    int count = 300;
+    for (int i = 1; i + 1 < argc; i += 2) {
+        if (!std::strcmp(argv[i], "--frames")) directory = argv[i + 1];
+        else if (!std::strcmp(argv[i], "--count")) count = std::atoi(argv[i + 1]);
+        else if (!std::strcmp(argv[i], "--threads")) cv::setNumThreads(std::atoi(argv[i + 1]));
+    }
+
+    std::vector<cv::Mat> sequence = directory.empty() ? frames::synthetic(count) : frames::load(directory);
+    if (sequence.empty()) {
+        std::fprintf(stderr, "No frames in %s\n", directory.c_str());
+        return 2;
+    }
+    std::printf("# %zu frames of %dx%d, %d OpenCV threads\n",
+                sequence.size(), sequence[0].cols, sequence[0].rows, cv::getNumThreads());
+
+    print("context per frame", run(sequence, false));
+    print("persistent context", run(sequence, true));
+    return 0;
+}
@@ -0,0 +1,94 @@
+// Frames per second and time to first decode of the native QR scanner with and without region
+// tracking between frames (see processFrameForGuidance in app/src/main/cpp/Guidance.cpp).
+//
+// Each mode runs the whole sequence with one ScannerContext, as a scanning session does, and
+// keeps going after the first decode so the frame rate covers both searching and tracking.
+// Time to first decode is the processing time summed up to and including the frame that first
+// decoded, which is how long a camera delivering frames faster than they are processed waits.
+//
+// Usage: tracking_benchmark [--frames <dir>] [--count N] [--lead-in N] [--threads N]
+// Without --frames a synthetic sequence is used (see FrameSequence.h): the code enters after
+// --lead-in frames (default 30) and then stays in view.
+
+#include <opencv2/opencv.hpp>
+
+#include "Guidance.h"
+#include "ScannerContext.h"
+#include "FrameSequence.h"
+
+#include <chrono>
+#include <cstdio>
+#include <cstdlib>
+#include <cstring>
+#include <string>
+
+struct RunStats {
+    double fps;
+    double meanMs;
+    int firstDecodeFrame;      // -1 if nothing decoded
+    double firstDecodeMs;
+    int decodedFrames;
+    int fullSearches;
+};
+
+static RunStats run(const std::vector<cv::Mat>& sequence, bool tracking) {
+    // Warm up caches and OpenCV's thread pool on a throwaway context.
+    {
+        ScannerContext warmup;
+        for (size_t i = 0; i < std::min<size_t>(5, sequence.size()); ++i) {
+            processFrameForGuidance(warmup, sequence[i]);
+        }
+    }
+
+    ScannerContext ctx;
+    ctx.trackingEnabled = tracking;
+    RunStats stats = {0, 0, -1, 0, 0, 0};
+    double totalSeconds = 0;
+    for (size_t i = 0; i < sequence.size(); ++i) {
+        auto start = std::chrono::steady_clock::now();
+        bool decoded = !processFrameForGuidance(ctx, sequence[i]).empty();
+        totalSeconds += std::chrono::duration<double>(std::chrono::steady_clock::now() - start).count();
+        if (decoded) {
+            stats.decodedFrames++;
+            if (stats.firstDecodeFrame < 0) {
+                stats.firstDecodeFrame = (int) i;
+                stats.firstDecodeMs = totalSeconds * 1e3;
+            }
+        }
+    }
+    stats.fps = sequence.size() / totalSeconds;
+    stats.meanMs = totalSeconds * 1e3 / sequence.size();
+    stats.fullSearches = ctx.fullSearches;
+    return stats;
+}
+
+static void print(const char* label, const RunStats& stats, size_t frames) {
+    std::printf("%-20s %7.1f fps  %7.2f ms/frame  first decode at frame %d after %.1f ms  "
+                "decoded %d  full searches %d/%zu\n",
+                label, stats.fps, stats.meanMs, stats.firstDecodeFrame, stats.firstDecodeMs,
+                stats.decodedFrames, stats.fullSearches, frames);
+}
+
+int main(int argc, char** argv) {
+    std::string directory;
+    int count = 300;
+    int leadIn = 30;
+    for (int i = 1; i + 1 < argc; i += 2) {
+        if (!std::strcmp(argv[i], "--frames")) directory = argv[i + 1];
+        else if (!std::strcmp(argv[i], "--count")) count = std::atoi(argv[i + 1]);
+        else if (!std::strcmp(argv[i], "--lead-in")) leadIn = std::atoi(argv[i + 1]);
+        else if (!std::strcmp(argv[i], "--threads")) cv::setNumThreads(std::atoi(argv[i + 1]));
+    }
+
+    std::vector<cv::Mat> sequence = directory.empty() ? frames::synthetic(count, leadIn) : frames::load(directory);
+    if (sequence.empty()) {
+        std::fprintf(stderr, "No frames in %s\n", directory.c_str());
+        return 2;
+    }
+    std::printf("# %zu frames of %dx%d, %d OpenCV threads\n",
+                sequence.size(), sequence[0].cols, sequence[0].rows, cv::getNumThreads());
+
+    print("full frame search", run(sequence, false), sequence.size());
+    print("region tracking", run(sequence, true), sequence.size());
+    return 0;
+}
@@ -0,0 +1,68 @@
+package com.example.qr_indoornav.benchmark;
+
+import com.example.qr_indoornav.model.Edge;
+import com.example.qr_indoornav.model.Graph;
+import com.example.qr_indoornav.model.MapGenerator;
+import com.example.qr_indoornav.model.Node;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Generates seeded map payloads for the benchmarks and picks representative route
+ * endpoints out of a loaded graph.
+ */
+public final class MapFixtures {
+
+    private MapFixtures() {
+    }
+
+    /** A reproducible, mildly noisy map of the given shape and size. */
+    static String payload(MapGenerator.Topology topology, int junctions) {
+        MapGenerator.Options options = new MapGenerator.Options();
+        options.topology = topology;
+        options.junctions = junctions;
+        options.seed = 42L;
+        options.directionNoiseDegrees = 2f;
+        options.distanceNoiseMeters = 1f;
+        return MapGenerator.generate(options);
+    }
+
+    /** Returns the lexicographically first and last junction ids, which are far apart on both shapes. */
+    static String[] farJunctions(Graph graph) {
+        List<String> ids = new ArrayList<>();
+        for (Node node : graph.getAllNodes()) ids.add(node.id);
+        ids.sort(MapFixtures::compareIds);
+        return new String[]{ids.get(0), ids.get(ids.size() - 1)};
+    }
+
+    /** Returns all room ids in id order. */
+    static List<String> sortedRooms(Graph graph) {
+        List<String> rooms = new ArrayList<>();
+        for (Node node : graph.getAllNodes()) {
+            for (Edge edge : node.getEdges().values()) {
+                if (node.id.compareTo(edge.toNodeId) < 0) rooms.addAll(edge.roomIds);
+            }
+        }
+        Collections.sort(rooms);
+        return rooms;
+    }
+
+    /** Returns two rooms that share an edge. */
+    static String[] sameEdgeRooms(Graph graph) {
+        for (Node node : graph.getAllNodes()) {
+            for (Edge edge : node.getEdges().values()) {
+                if (edge.roomIds.size() >= 2) {
+                    return new String[]{edge.roomIds.get(0), edge.roomIds.get(edge.roomIds.size() - 1)};
+                }
+            }
+        }
+        throw new IllegalStateException("Map has no edge with two rooms.");
+    }
+
+    private static int compareIds(String a, String b) {
+        int byLength = Integer.compare(a.length(), b.length());
+        return byLength != 0 ? byLength : a.compareTo(b);
+    }
+}
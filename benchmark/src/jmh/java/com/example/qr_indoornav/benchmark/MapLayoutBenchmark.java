@@ -0,0 +1,46 @@
+package com.example.qr_indoornav.benchmark;
+
+import com.example.qr_indoornav.MapLayout;
+import com.example.qr_indoornav.model.Graph;
+import com.example.qr_indoornav.model.MapData;
+import com.example.qr_indoornav.model.MapGenerator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the least-squares map layout (runs once per loaded map, off the UI thread).
+ * The budget is unlimited here so the numbers show the full solve, not the cut-off.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MapLayoutBenchmark {
+
+    @Param({"SPINE", "GRID", "WINGS", "LOOP"})
+    public MapGenerator.Topology topology;
+
+    @Param({"16", "128", "1024"})
+    public int junctions;
+
+    private Graph graph;
+
+    @Setup
+    public void setUp() {
+        MapData.loadMapFromQRString(MapFixtures.payload(topology, junctions));
+        graph = MapData.getGraph();
+    }
+
+    @Benchmark
+    public MapLayout computeLayout() {
+        return MapLayout.compute(graph, Long.MAX_VALUE / 2);
+    }
+}
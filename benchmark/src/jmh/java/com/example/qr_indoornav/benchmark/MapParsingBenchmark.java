@@ -0,0 +1,51 @@
+package com.example.qr_indoornav.benchmark;
+
+import com.example.qr_indoornav.QRParser;
+import com.example.qr_indoornav.model.Graph;
+import com.example.qr_indoornav.model.MapData;
+import com.example.qr_indoornav.model.MapGenerator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning a scanned payload into the in-memory map (runs on every start-up scan)
+ * and of classifying a payload header (runs on every checkpoint scan).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MapParsingBenchmark {
+
+    @Param({"SPINE", "GRID", "WINGS", "LOOP"})
+    public MapGenerator.Topology topology;
+
+    @Param({"16", "128", "1024"})
+    public int junctions;
+
+    private String payload;
+
+    @Setup
+    public void setUp() {
+        payload = MapFixtures.payload(topology, junctions);
+    }
+
+    @Benchmark
+    public Graph loadMapFromQRString() {
+        MapData.loadMapFromQRString(payload);
+        return MapData.getGraph();
+    }
+
+    @Benchmark
+    public QRParser.ScannedQRData parseHeader() {
+        return QRParser.parse(payload);
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.qr_indoornav.benchmark;
+
+import com.example.qr_indoornav.ParticleFilter;
+import com.example.qr_indoornav.model.Edge;
+import com.example.qr_indoornav.model.Graph;
+import com.example.qr_indoornav.model.MapData;
+import com.example.qr_indoornav.model.MapGenerator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-step cost of the map-constrained particle filter (runs on every counted step). Each
+ * invocation walks one leg of a grid map and on through the junctions beyond it, so the
+ * particles spread over several corridors and get resampled; gc.alloc.rate.norm shows what the
+ * parallel resampling allocates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ParticleFilterBenchmark {
+
+    private static final int STEPS = 20;
+    private static final float STEP_METERS = 5f;
+
+    @Param({"1024", "4096", "16384"})
+    public int particles;
+
+    private ParticleFilter filter;
+    private String fromId, toId;
+    private float heading;
+
+    @Setup
+    public void setUp() {
+        MapData.loadMapFromQRString(MapFixtures.payload(MapGenerator.Topology.GRID, 128));
+        Graph graph = MapData.getGraph();
+        fromId = MapFixtures.farJunctions(graph)[0];
+        Edge edge = graph.getNode(fromId).getEdges().values().iterator().next();
+        toId = edge.toNodeId;
+        heading = edge.directionDegrees;
+        filter = new ParticleFilter(ParticleFilter.Network.build(graph), particles, 5);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STEPS)
+    public float walkLeg() {
+        filter.startLeg(fromId, toId);
+        for (int i = 0; i < STEPS; i++) {
+            filter.onStep(STEP_METERS, heading);
+        }
+        return filter.getProgressMeters();
+    }
+}
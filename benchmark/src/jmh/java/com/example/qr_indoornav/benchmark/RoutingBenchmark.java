@@ -0,0 +1,82 @@
+package com.example.qr_indoornav.benchmark;
+
+import com.example.qr_indoornav.PathFinder;
+import com.example.qr_indoornav.model.Graph;
+import com.example.qr_indoornav.model.MapData;
+import com.example.qr_indoornav.model.MapGenerator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a route request and of the room lookups used to anchor it.
+ * Endpoints are picked far apart so the searches cover most of the map.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RoutingBenchmark {
+
+    @Param({"SPINE", "GRID", "WINGS", "LOOP"})
+    public MapGenerator.Topology topology;
+
+    @Param({"16", "128", "1024"})
+    public int junctions;
+
+    private Graph graph;
+    private String fromJunction, toJunction;
+    private String fromRoom, toRoom;
+    private String sameEdgeRoomA, sameEdgeRoomB;
+
+    @Setup
+    public void setUp() {
+        MapData.loadMapFromQRString(MapFixtures.payload(topology, junctions));
+        graph = MapData.getGraph();
+
+        String[] far = MapFixtures.farJunctions(graph);
+        fromJunction = far[0];
+        toJunction = far[1];
+
+        List<String> rooms = MapFixtures.sortedRooms(graph);
+        fromRoom = rooms.get(0);
+        toRoom = rooms.get(rooms.size() - 1);
+
+        String[] sameEdge = MapFixtures.sameEdgeRooms(graph);
+        sameEdgeRoomA = sameEdge[0];
+        sameEdgeRoomB = sameEdge[1];
+    }
+
+    @Benchmark
+    public List<String> graphShortestPath() {
+        return graph.findShortestPath(fromJunction, toJunction);
+    }
+
+    @Benchmark
+    public PathFinder.PathResult findPathJunctionToJunction() {
+        return PathFinder.findPath(graph, fromJunction, toJunction);
+    }
+
+    @Benchmark
+    public PathFinder.PathResult findPathRoomToRoom() {
+        return PathFinder.findPath(graph, fromRoom, toRoom);
+    }
+
+    @Benchmark
+    public PathFinder.PathResult findPathSameEdgeRooms() {
+        return PathFinder.findPath(graph, sameEdgeRoomA, sameEdgeRoomB);
+    }
+
+    @Benchmark
+    public String findJunctionForRoom() {
+        return MapData.findJunctionForRoom(toRoom);
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.qr_indoornav.benchmark;
+
+import com.example.qr_indoornav.StepDetector;
+import com.example.qr_indoornav.StepEngine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-sample cost of step detection (runs on every accelerometer event, 50 times a second).
+ * The input is a minute of synthetic walking at 50 Hz; gc.alloc.rate.norm should read 0.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StepEngineBenchmark {
+
+    private static final int SAMPLES = 3000;
+    private static final long SAMPLE_NANOS = 20_000_000L;
+
+    private final float[][] acceleration = new float[SAMPLES][3];
+    private final float[] rotation = {1, 0, 0, 0, 1, 0, 0, 0, 1}; // Phone flat, pointing north
+    private StepEngine engine;
+    private StepDetector detector;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(7);
+        for (int i = 0; i < SAMPLES; i++) {
+            double phase = 2 * Math.PI * i * SAMPLE_NANOS * 1e-9; // 1 Hz cadence
+            acceleration[i][0] = 0.6f * (float) Math.sin(phase / 2) + 0.3f * (float) random.nextGaussian();
+            acceleration[i][1] = -1.5f * (float) Math.sin(phase) + 0.3f * (float) random.nextGaussian();
+            acceleration[i][2] = 9.81f + 3f * (float) Math.sin(phase) + 0.3f * (float) random.nextGaussian();
+        }
+        engine = new StepEngine();
+        detector = new StepDetector(null);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public int engineProcess() {
+        engine.reset();
+        int steps = 0;
+        for (int i = 0; i < SAMPLES; i++) {
+            if (engine.process(acceleration[i], rotation, 0f, (i + 1) * SAMPLE_NANOS) == StepEngine.STEP_FORWARD) {
+                steps++;
+            }
+        }
+        return steps;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public int stepDetectorProcess() {
+        detector.reset(0);
+        for (int i = 0; i < SAMPLES; i++) {
+            detector.processSensorData(acceleration[i], rotation, 0f, (i + 1) * SAMPLE_NANOS);
+        }
+        return detector.getStepsTaken();
+    }
+}